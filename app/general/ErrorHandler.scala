@@ -11,6 +11,8 @@ import play.api.mvc._
 import play.mvc.Http
 import utils.common.HttpUtils
 
+import java.util.concurrent.CompletionException
+
 import scala.concurrent._
 
 @Singleton
@@ -43,7 +45,14 @@ class ErrorHandler @Inject()() extends HttpErrorHandler {
     )
   }
 
-  def onServerError(request: RequestHeader, throwable: Throwable): Future[Result] = {
+  def onServerError(request: RequestHeader, throwable: Throwable): Future[Result] =
+    throwable match {
+      // Exceptions of asynchronous actions (e.g. Publix) come wrapped
+      case e: CompletionException if e.getCause != null => onServerError(request, e.getCause)
+      case _ => handleServerError(request, throwable)
+    }
+
+  private def handleServerError(request: RequestHeader, throwable: Throwable): Future[Result] = {
     // We use Play's onServerError() to catch JATOS' JatosGuiExceptions and
     // PublixException. Those exceptions come with a their own result. We
     // log the exception and show this result.
@@ -3,12 +3,13 @@ package general
 import java.io.File
 import javax.inject.Inject
 
-import daos.common.UserDao
+import daos.common.{ComponentResultDao, UserDao}
 import general.common.Common
 import models.common.User.Role
 import play.api.Logger
 import play.db.jpa.JPAApi
 import services.gui.UserService
+import utils.common.ResultDataStore
 
 import scala.compat.java8.FunctionConverters._
 
@@ -18,12 +19,14 @@ import scala.compat.java8.FunctionConverters._
   *
   * @author Kristian Lange
   */
-class Initializer @Inject()(jpa: JPAApi, userDao: UserDao, userService: UserService) {
+class Initializer @Inject()(jpa: JPAApi, userDao: UserDao, userService: UserService,
+    componentResultDao: ComponentResultDao, resultDataStore: ResultDataStore) {
 
   private val logger: Logger = Logger(this.getClass)
 
   checkAdmin()
   checkStudyAssetsRootDir()
+  migrateResultData()
   logger.info("JATOS initialized")
 
   /**
@@ -53,4 +56,21 @@ class Initializer @Inject()(jpa: JPAApi, userDao: UserDao, userService: UserServ
     if (!studyAssetsRoot.isDirectory) logger.error(".checkStudyAssetsRootDir: Study assets root directory " + Common.getStudyAssetsRootPath + " couldn't be created.")
   }
 
+  /**
+    * If configured moves all result data that are still stored in the database into the
+    * ResultDataStore. It's done in several transactions to keep the memory usage low.
+    */
+  private def migrateResultData() {
+    if (!resultDataStore.isEnabled || !Common.isResultDataMigrate) return
+    logger.info(".migrateResultData: Moving result data into " + Common.getResultDataPath)
+    var total = 0
+    var moved = 0
+    do {
+      moved = jpa.withTransaction(asJavaSupplier(() =>
+        componentResultDao.moveDataToResultDataStore(100)))
+      total += moved
+    } while (moved > 0)
+    logger.info(".migrateResultData: Moved result data of " + total + " component results")
+  }
+
 }
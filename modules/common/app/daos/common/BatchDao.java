@@ -3,8 +3,13 @@ package daos.common;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import general.common.StudyMetadataCache;
 import models.common.Batch;
+import models.common.workers.Worker;
+import org.hibernate.Hibernate;
+import org.hibernate.event.spi.EventSource;
 import play.db.jpa.JPAApi;
+import utils.common.JsonUtils;
 
 /**
  * DAO of Batch entity
@@ -14,25 +19,113 @@ import play.db.jpa.JPAApi;
 @Singleton
 public class BatchDao extends AbstractDao {
 
+	private final StudyMetadataCache studyMetadataCache;
+	private final JsonUtils jsonUtils;
+
 	@Inject
-	BatchDao(JPAApi jpa) {
+	BatchDao(JPAApi jpa, StudyMetadataCache studyMetadataCache,
+			JsonUtils jsonUtils) {
 		super(jpa);
+		this.studyMetadataCache = studyMetadataCache;
+		this.jsonUtils = jsonUtils;
 	}
 
 	public void create(Batch batch) {
+		batch.setWorkerCount(batch.getWorkerList().size());
 		persist(batch);
+		invalidateStudyMetadata(batch);
 	}
 
 	public void update(Batch batch) {
 		merge(batch);
 	}
 
+	/**
+	 * Removes the batch. Its rendered batch properties are removed from
+	 * JsonUtils' cache after the transaction completed - a request that
+	 * rendered them in the meantime can't leave them behind.
+	 */
 	public void remove(Batch batch) {
 		super.remove(batch);
+		invalidateStudyMetadata(batch);
+		Long batchId = batch.getId();
+		jpa.em().unwrap(EventSource.class).getActionQueue().registerProcess(
+				(success, session) -> jsonUtils.removeBatchProperties(batchId));
 	}
 
 	public Batch findById(Long id) {
 		return jpa.em().find(Batch.class, id);
 	}
 
+	/**
+	 * Adds the worker (has to be persisted already) to the batch's worker
+	 * list and increases the batch's workerCount. Does nothing if the worker
+	 * is in the batch already. If the list isn't loaded yet only the mapping
+	 * is inserted - adding it to the list would load all the batch's workers
+	 * first.
+	 * 
+	 * The UPDATE of the workerCount locks the batch's row until the end of
+	 * the transaction: concurrent transactions that add a worker to the same
+	 * batch have to wait and count afterwards the workers of this one too.
+	 */
+	public void addWorker(Batch batch, Worker worker) {
+		if (hasWorker(batch, worker)) {
+			return;
+		}
+		if (Hibernate.isInitialized(batch.getWorkerList())) {
+			batch.addWorker(worker);
+			merge(batch);
+		} else {
+			String queryStr = "INSERT INTO BatchWorkerMap (batch_id, worker_id) "
+					+ "VALUES (:batchId, :workerId)";
+			jpa.em().createNativeQuery(queryStr)
+					.setParameter("batchId", batch.getId())
+					.setParameter("workerId", worker.getId()).executeUpdate();
+		}
+		jpa.em().createNativeQuery("UPDATE Batch SET workerCount = "
+				+ "workerCount + 1 WHERE id = :batchId")
+				.setParameter("batchId", batch.getId()).executeUpdate();
+		batch.setWorkerCount(batch.getWorkerCount() + 1);
+	}
+
+	/**
+	 * Returns the current number of workers in the given batch without
+	 * loading them. It includes the ones added in this transaction.
+	 */
+	public int countWorkers(Batch batch) {
+		Number result = (Number) jpa.em()
+				.createQuery("SELECT b.workerCount FROM Batch b "
+						+ "WHERE b.id = :batchId")
+				.setParameter("batchId", batch.getId()).getSingleResult();
+		return result.intValue();
+	}
+
+	/**
+	 * Returns true if the worker is in the batch's worker list. If the list
+	 * isn't loaded yet only the mapping is looked up (by its primary key).
+	 */
+	public boolean hasWorker(Batch batch, Worker worker) {
+		if (Hibernate.isInitialized(batch.getWorkerList())) {
+			return batch.hasWorker(worker);
+		}
+		if (worker.getId() == null) {
+			return false;
+		}
+		String queryStr = "SELECT COUNT(w) FROM Batch b JOIN b.workerList w "
+				+ "WHERE b.id = :batchId AND w.id = :workerId";
+		Number result = (Number) jpa.em().createQuery(queryStr)
+				.setParameter("batchId", batch.getId())
+				.setParameter("workerId", worker.getId()).getSingleResult();
+		return result.intValue() > 0;
+	}
+
+	/**
+	 * The study's default batch might have changed
+	 */
+	private void invalidateStudyMetadata(Batch batch) {
+		if (batch.getStudy() != null) {
+			studyMetadataCache.invalidate(batch.getStudy().getId());
+		}
+	}
+
 }
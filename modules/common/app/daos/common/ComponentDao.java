@@ -7,6 +7,7 @@ import javax.inject.Singleton;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import general.common.StudyMetadataCache;
 import models.common.Component;
 import models.common.Study;
 import play.db.jpa.JPAApi;
@@ -19,17 +20,22 @@ import play.db.jpa.JPAApi;
 @Singleton
 public class ComponentDao extends AbstractDao {
 
+	private final StudyMetadataCache studyMetadataCache;
+
 	@Inject
-	ComponentDao(JPAApi jpa) {
+	ComponentDao(JPAApi jpa, StudyMetadataCache studyMetadataCache) {
 		super(jpa);
+		this.studyMetadataCache = studyMetadataCache;
 	}
 
 	public void create(Component component) {
 		persist(component);
+		invalidateStudyMetadata(component);
 	}
 
 	public void update(Component component) {
 		merge(component);
+		invalidateStudyMetadata(component);
 	}
 
 	/**
@@ -38,10 +44,12 @@ public class ComponentDao extends AbstractDao {
 	public void changeActive(Component component, boolean active) {
 		component.setActive(active);
 		merge(component);
+		invalidateStudyMetadata(component);
 	}
 
 	public void remove(Component component) {
 		super.remove(component);
+		invalidateStudyMetadata(component);
 	}
 
 	public Component findById(Long id) {
@@ -88,6 +96,13 @@ public class ComponentDao extends AbstractDao {
 		query.setParameter("newIndex", newPosition - 1);
 		query.setParameter("id", component.getId());
 		query.executeUpdate();
+		invalidateStudyMetadata(component);
+	}
+
+	private void invalidateStudyMetadata(Component component) {
+		if (component.getStudy() != null) {
+			studyMetadataCache.invalidate(component.getStudy().getId());
+		}
 	}
 
 }
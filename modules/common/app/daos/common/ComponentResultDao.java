@@ -2,13 +2,33 @@ package daos.common;
 
 import models.common.Component;
 import models.common.ComponentResult;
+import models.common.ComponentResultChunk;
+import models.common.StudyResult;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventSource;
+import play.Logger;
+import play.Logger.ALogger;
 import play.db.jpa.JPAApi;
+import utils.common.ResultDataCodec;
+import utils.common.ResultDataStore;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * DAO for ComponentResult entity
@@ -18,9 +38,14 @@ import java.util.List;
 @Singleton
 public class ComponentResultDao extends AbstractDao {
 
+    private static final ALogger LOGGER = Logger.of(ComponentResultDao.class);
+
+    private final ResultDataStore resultDataStore;
+
     @Inject
-    ComponentResultDao(JPAApi jpa) {
+    ComponentResultDao(JPAApi jpa, ResultDataStore resultDataStore) {
         super(jpa);
+        this.resultDataStore = resultDataStore;
     }
 
     public void create(ComponentResult componentResult) {
@@ -31,15 +56,365 @@ public class ComponentResultDao extends AbstractDao {
         merge(componentResult);
     }
 
+    /**
+     * Adds the ComponentResult (has to be persisted already) at the end of the StudyResult's
+     * ComponentResult list. If the list isn't loaded yet the ComponentResult's study result and
+     * list position are set directly - adding it to the list would load all the StudyResult's
+     * ComponentResults (including their result data) first.
+     */
+    public void addToStudyResult(StudyResult studyResult, ComponentResult componentResult) {
+        if (Hibernate.isInitialized(studyResult.getComponentResultList())) {
+            studyResult.addComponentResult(componentResult);
+            merge(studyResult);
+            return;
+        }
+        Number position = (Number) jpa.em().createQuery("SELECT COUNT(cr) FROM ComponentResult cr "
+                + "WHERE cr.studyResult = :studyResult")
+                .setParameter("studyResult", studyResult).getSingleResult();
+        String queryStr = "UPDATE ComponentResult SET studyResult_id = :studyResultId, "
+                + "componentResultList_order = :position WHERE id = :id";
+        jpa.em().createNativeQuery(queryStr)
+                .setParameter("studyResultId", studyResult.getId())
+                .setParameter("position", position.intValue())
+                .setParameter("id", componentResult.getId()).executeUpdate();
+    }
+
+    /**
+     * Returns true if result data are stored in the ResultDataStore instead of the database
+     */
+    public boolean isResultDataStoreEnabled() {
+        return resultDataStore.isEnabled();
+    }
+
+    /**
+     * Returns the whole result data of the ComponentResult: its data followed by all appended
+     * chunks. The chunks are loaded only now. Returns null if there are no result data at all.
+     */
+    public String getData(ComponentResult componentResult) {
+        if (!componentResult.hasData()) return null;
+        StringBuilder sb = new StringBuilder();
+        appendDataTo(componentResult, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the whole result data of the ComponentResult (its data followed by all appended
+     * chunks) to the given StringBuilder. Result data stored in the ResultDataStore are
+     * streamed from their files.
+     */
+    public void appendDataTo(ComponentResult componentResult, StringBuilder sb) {
+        if (componentResult.getDataHash() != null) {
+            resultDataStore.appendTo(componentResult.getDataHash(), sb);
+        } else if (componentResult.getEncodedData() != null) {
+            ResultDataCodec.decodeTo(componentResult.getEncodedData(), sb);
+        }
+        for (ComponentResultChunk chunk : componentResult.getDataChunkList()) {
+            if (chunk.getDataHash() != null) {
+                resultDataStore.appendTo(chunk.getDataHash(), sb);
+            } else if (chunk.getEncodedData() != null) {
+                ResultDataCodec.decodeTo(chunk.getEncodedData(), sb);
+            }
+        }
+    }
+
+    /**
+     * Returns at most the first maxLength characters of the ComponentResult's result data or
+     * null if there are no result data at all. Uses the preview if possible and reads only as
+     * much of files and chunks as necessary.
+     */
+    public String getDataPrefix(ComponentResult componentResult, int maxLength) {
+        if (!componentResult.hasData()) return null;
+        StringBuilder sb = new StringBuilder();
+        String dataHash = componentResult.getDataHash();
+        if (dataHash != null) {
+            String dataPreview = componentResult.getDataPreview();
+            boolean previewIsWholeData =
+                    dataPreview.length() < ComponentResult.DATA_PREVIEW_LENGTH;
+            if (dataPreview.length() >= maxLength || previewIsWholeData) {
+                sb.append(StringUtils.left(dataPreview, maxLength));
+            } else {
+                sb.append(resultDataStore.readPrefix(dataHash, maxLength));
+            }
+        } else if (componentResult.getEncodedData() != null) {
+            sb.append(ResultDataCodec.decodePrefix(componentResult.getEncodedData(), maxLength));
+        }
+        for (ComponentResultChunk chunk : componentResult.getDataChunkList()) {
+            if (sb.length() >= maxLength) break;
+            int remaining = maxLength - sb.length();
+            if (chunk.getDataHash() != null) {
+                sb.append(resultDataStore.readPrefix(chunk.getDataHash(), remaining));
+            } else if (chunk.getEncodedData() != null) {
+                sb.append(ResultDataCodec.decodePrefix(chunk.getEncodedData(), remaining));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the given data to the ComponentResult's result data by storing them as a new
+     * ComponentResultChunk. The result data that were stored before aren't loaded. If the
+     * ResultDataStore is enabled the data are written into it and the chunk keeps only their
+     * hash.
+     */
+    public void appendData(ComponentResult componentResult, String data) {
+        if (data != null && resultDataStore.isEnabled()) {
+            String dataHash = storeInResultDataStore(data.getBytes(StandardCharsets.UTF_8));
+            addStoredChunk(componentResult, dataHash);
+        } else {
+            addChunk(componentResult, new ComponentResultChunk(componentResult, data));
+        }
+    }
+
+    /**
+     * Like appendData() but the data are in the given file (UTF-8 encoded) that is moved into
+     * the ResultDataStore under the given hash (see ResultDataStore.storeFile())
+     */
+    public void appendDataFile(ComponentResult componentResult, Path file, String dataHash)
+            throws IOException {
+        storeFileInResultDataStore(file, dataHash);
+        addStoredChunk(componentResult, dataHash);
+    }
+
+    /**
+     * Like appendData() but the result data are streamed from the given file (with the given
+     * charset and length in characters) into the new chunk's CLOB. They are never read into
+     * memory as a whole. Pending changes of the ComponentResult are flushed and it's refreshed
+     * afterwards.
+     */
+    public void appendDataStream(ComponentResult componentResult, Path file, Charset charset,
+            long length) throws IOException {
+        jpa.em().flush();
+        insertChunk(componentResult, file, charset, length);
+        jpa.em().refresh(componentResult);
+    }
+
+    /**
+     * Like replaceData() but the result data are streamed from the given file (with the given
+     * charset and length in characters) into the database (see appendDataStream()). They are
+     * stored as the ComponentResult's only chunk. Pending changes of the ComponentResult are
+     * flushed and it's refreshed afterwards.
+     */
+    public void replaceDataStream(ComponentResult componentResult, Path file, Charset charset,
+            long length) throws IOException {
+        jpa.em().flush();
+        // Find the hashes without loading the chunks and their data
+        Set<String> oldDataHashes = new HashSet<>(jpa.em().createQuery(
+                "SELECT c.dataHash FROM ComponentResultChunk c "
+                        + "WHERE c.componentResult = :cr AND c.dataHash IS NOT NULL", String.class)
+                .setParameter("cr", componentResult).getResultList());
+        if (componentResult.getDataHash() != null) {
+            oldDataHashes.add(componentResult.getDataHash());
+        }
+        jpa.em().createQuery("DELETE FROM ComponentResultChunk c WHERE c.componentResult = :cr")
+                .setParameter("cr", componentResult).executeUpdate();
+        jpa.em().createQuery("UPDATE ComponentResult cr SET cr.data = NULL, cr.dataHash = NULL, "
+                + "cr.dataSize = NULL, cr.dataPreview = NULL WHERE cr = :cr")
+                .setParameter("cr", componentResult).executeUpdate();
+        insertChunk(componentResult, file, charset, length);
+        jpa.em().refresh(componentResult);
+        removeUnusedDataFiles(oldDataHashes);
+    }
+
+    /**
+     * Inserts a new ComponentResultChunk with the result data of the given file. The data are
+     * encoded by ResultDataCodec and streamed into the CLOB by the JDBC driver.
+     */
+    private void insertChunk(ComponentResult componentResult, Path file, Charset charset,
+            long length) throws IOException {
+        Session session = jpa.em().unwrap(Session.class);
+        try (ResultDataCodec.EncodedReader encoded = ResultDataCodec.encode(file, charset,
+                length)) {
+            Clob clob = Hibernate.getLobCreator(session)
+                    .createClob(encoded.getReader(), encoded.getLength());
+            session.doWork(connection -> {
+                String sql = "INSERT INTO ComponentResultChunk (componentResult_id, data) "
+                        + "VALUES (?, ?)";
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setLong(1, componentResult.getId());
+                    statement.setClob(2, clob);
+                    statement.executeUpdate();
+                }
+            });
+        }
+    }
+
+    private void addStoredChunk(ComponentResult componentResult, String dataHash) {
+        ComponentResultChunk chunk = new ComponentResultChunk();
+        chunk.setComponentResult(componentResult);
+        chunk.setDataHash(dataHash);
+        addChunk(componentResult, chunk);
+    }
+
+    private void addChunk(ComponentResult componentResult, ComponentResultChunk chunk) {
+        persist(chunk);
+        // If the chunks are already loaded add it there too - otherwise they are loaded from
+        // the DB later on (the chunk is already inserted since IDs are generated by the DB)
+        if (Hibernate.isInitialized(componentResult.getDataChunkList())) {
+            componentResult.getDataChunkList().add(chunk);
+        }
+    }
+
+    /**
+     * Replaces the ComponentResult's result data (and all appended chunks) with the given data.
+     * If the ResultDataStore is enabled the data are written into it and only their hash, size
+     * and preview are kept. Files in the ResultDataStore that aren't used anymore are removed.
+     */
+    public void replaceData(ComponentResult componentResult, String data) {
+        Set<String> oldDataHashes = getDataHashes(componentResult);
+        if (data != null && resultDataStore.isEnabled()) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            String dataHash = storeInResultDataStore(bytes);
+            oldDataHashes.remove(dataHash);
+            componentResult.setStoredData(dataHash, bytes.length, data);
+        } else {
+            componentResult.setData(data);
+        }
+        merge(componentResult);
+        removeUnusedDataFiles(oldDataHashes);
+    }
+
+    /**
+     * Like replaceData() but the data are in the given file (UTF-8 encoded) that is moved into
+     * the ResultDataStore under the given hash (see ResultDataStore.storeFile())
+     */
+    public void replaceDataFile(ComponentResult componentResult, Path file, String dataHash,
+            long dataSize, String dataPreview) throws IOException {
+        Set<String> oldDataHashes = getDataHashes(componentResult);
+        oldDataHashes.remove(dataHash);
+        storeFileInResultDataStore(file, dataHash);
+        componentResult.setStoredData(dataHash, dataSize, dataPreview);
+        merge(componentResult);
+        removeUnusedDataFiles(oldDataHashes);
+    }
+
+    /**
+     * Writes the given data into the ResultDataStore and returns their hash. See
+     * releaseAfterCompletion().
+     */
+    private String storeInResultDataStore(byte[] data) {
+        String dataHash = resultDataStore.store(data);
+        releaseAfterCompletion(dataHash);
+        return dataHash;
+    }
+
+    private void storeFileInResultDataStore(Path file, String dataHash) throws IOException {
+        resultDataStore.storeFile(file, dataHash);
+        releaseAfterCompletion(dataHash);
+    }
+
+    /**
+     * A file in the ResultDataStore is only referred to by the database after the current
+     * transaction committed. Until then it's pending and can't be removed. If the transaction is
+     * rolled back the file is removed again - unless someone else uses it.
+     */
+    private void releaseAfterCompletion(String dataHash) {
+        jpa.em().unwrap(EventSource.class).getActionQueue().registerProcess(
+                (success, session) -> {
+                    resultDataStore.release(dataHash);
+                    if (!success) removeUnusedDataFile(dataHash);
+                });
+    }
+
+    private Set<String> getDataHashes(ComponentResult componentResult) {
+        Set<String> dataHashes = new HashSet<>();
+        if (componentResult.getDataHash() != null) {
+            dataHashes.add(componentResult.getDataHash());
+        }
+        componentResult.getDataChunkList().stream()
+                .map(ComponentResultChunk::getDataHash)
+                .filter(hash -> hash != null)
+                .forEach(dataHashes::add);
+        return dataHashes;
+    }
+
     public void remove(ComponentResult componentResult) {
         super.remove(componentResult);
     }
 
+    /**
+     * Removes all given ComponentResults together with their result data chunks. Since this
+     * uses bulk deletes the ComponentResults' data should be read before (e.g. for the study
+     * log).
+     */
     public void removeAll(List<ComponentResult> componentResultList) {
         if (componentResultList.isEmpty()) return;
+        Set<String> dataHashes = new HashSet<>();
+        dataHashes.addAll(jpa.em().createQuery("SELECT cr.dataHash FROM ComponentResult cr "
+                + "WHERE cr in :crList AND cr.dataHash IS NOT NULL", String.class)
+                .setParameter("crList", componentResultList).getResultList());
+        dataHashes.addAll(jpa.em().createQuery("SELECT c.dataHash FROM ComponentResultChunk c "
+                + "WHERE c.componentResult in :crList AND c.dataHash IS NOT NULL", String.class)
+                .setParameter("crList", componentResultList).getResultList());
+        String chunkQueryStr = "DELETE FROM ComponentResultChunk c "
+                + "WHERE c.componentResult in :crList";
+        jpa.em().createQuery(chunkQueryStr)
+                .setParameter("crList", componentResultList).executeUpdate();
         String queryStr = "DELETE FROM ComponentResult cr WHERE cr in :crList";
         Query query = jpa.em().createQuery(queryStr);
         query.setParameter("crList", componentResultList).executeUpdate();
+        removeUnusedDataFiles(dataHashes);
+    }
+
+    /**
+     * Removes the files with the given hashes from the ResultDataStore if no ComponentResult or
+     * ComponentResultChunk refers to them anymore. They are removed only after the current
+     * transaction was committed successfully.
+     */
+    private void removeUnusedDataFiles(Collection<String> dataHashes) {
+        if (dataHashes.isEmpty() || !resultDataStore.isEnabled()) return;
+        Set<String> dataHashesCopy = new HashSet<>(dataHashes);
+        jpa.em().unwrap(EventSource.class).getActionQueue().registerProcess(
+                (success, session) -> {
+                    if (success) dataHashesCopy.forEach(this::removeUnusedDataFile);
+                });
+    }
+
+    /**
+     * Removes the file with the given hash from the ResultDataStore if no ComponentResult or
+     * ComponentResultChunk refers to it. Is called after a transaction completed - the check
+     * runs in a new transaction (while the hash is locked in the ResultDataStore).
+     */
+    private void removeUnusedDataFile(String dataHash) {
+        try {
+            resultDataStore.removeIfUnused(dataHash,
+                    () -> jpa.withTransaction("default", true,
+                            () -> countDataHashReferences(dataHash) == 0));
+        } catch (Exception e) {
+            LOGGER.error(".removeUnusedDataFile: couldn't remove result data file " + dataHash,
+                    e);
+        }
+    }
+
+    private long countDataHashReferences(String dataHash) {
+        Number count = (Number) jpa.em().createQuery(
+                "SELECT COUNT(cr) FROM ComponentResult cr WHERE cr.dataHash = :hash")
+                .setParameter("hash", dataHash).getSingleResult();
+        Number chunkCount = (Number) jpa.em().createQuery(
+                "SELECT COUNT(c) FROM ComponentResultChunk c WHERE c.dataHash = :hash")
+                .setParameter("hash", dataHash).getSingleResult();
+        return count.longValue() + chunkCount.longValue();
+    }
+
+    /**
+     * Moves the result data of at most maxResults ComponentResults (and their chunks) that are
+     * still stored in the database into the ResultDataStore. Returns the number of
+     * ComponentResults that were moved.
+     */
+    public int moveDataToResultDataStore(int maxResults) {
+        String queryStr = "SELECT DISTINCT cr FROM ComponentResult cr "
+                + "LEFT JOIN cr.dataChunkList c "
+                + "WHERE cr.data IS NOT NULL OR c.data IS NOT NULL";
+        List<ComponentResult> componentResultList = jpa.em()
+                .createQuery(queryStr, ComponentResult.class)
+                .setMaxResults(maxResults).getResultList();
+        int moved = 0;
+        for (ComponentResult componentResult : componentResultList) {
+            if (componentResult.moveDataToResultDataStore(this::storeInResultDataStore)) {
+                merge(componentResult);
+                moved++;
+            }
+        }
+        return moved;
     }
 
     public void refresh(ComponentResult componentResult) {
@@ -50,6 +425,17 @@ public class ComponentResultDao extends AbstractDao {
         return jpa.em().find(ComponentResult.class, id);
     }
 
+    /**
+     * Returns the ComponentResults with the given IDs in one query. IDs of ComponentResults that
+     * don't exist are ignored.
+     */
+    public List<ComponentResult> findAllByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return Collections.emptyList();
+        String queryStr = "SELECT cr FROM ComponentResult cr WHERE cr.id IN :ids";
+        TypedQuery<ComponentResult> query = jpa.em().createQuery(queryStr, ComponentResult.class);
+        return query.setParameter("ids", ids).getResultList();
+    }
+
     /**
      * Returns the number of ComponentResults belonging to the given Component.
      */
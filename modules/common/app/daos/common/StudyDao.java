@@ -8,6 +8,7 @@ import javax.persistence.TypedQuery;
 
 import models.common.Study;
 import models.common.User;
+import general.common.StudyMetadataCache;
 import play.db.jpa.JPAApi;
 
 /**
@@ -18,9 +19,12 @@ import play.db.jpa.JPAApi;
 @Singleton
 public class StudyDao extends AbstractDao {
 
+	private final StudyMetadataCache studyMetadataCache;
+
 	@Inject
-	StudyDao(JPAApi jpa) {
+	StudyDao(JPAApi jpa, StudyMetadataCache studyMetadataCache) {
 		super(jpa);
+		this.studyMetadataCache = studyMetadataCache;
 	}
 
 	public void create(Study study) {
@@ -29,10 +33,12 @@ public class StudyDao extends AbstractDao {
 
 	public void remove(Study study) {
 		super.remove(study);
+		studyMetadataCache.invalidate(study.getId());
 	}
 
 	public void update(Study study) {
 		merge(study);
+		studyMetadataCache.invalidate(study.getId());
 	}
 
 	public Study findById(Long id) {
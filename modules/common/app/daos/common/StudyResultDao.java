@@ -1,6 +1,10 @@
 package daos.common;
 
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -10,6 +14,9 @@ import javax.persistence.TypedQuery;
 import models.common.Batch;
 import models.common.Study;
 import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import models.common.workers.Worker;
+import org.hibernate.Hibernate;
 import play.db.jpa.JPAApi;
 
 /**
@@ -45,6 +52,26 @@ public class StudyResultDao extends AbstractDao {
 		return jpa.em().find(StudyResult.class, id);
 	}
 
+	/**
+	 * Retrieves the StudyResult together with its Study, Batch (including the
+	 * allowed worker types), Worker and (if it exists) the Component with the
+	 * given component ID in one query. Afterwards all of them are in the
+	 * persistence context and can be found by their ID without another query.
+	 * The component ID can be null. Returns null if the StudyResult doesn't
+	 * exist.
+	 */
+	public StudyResult findByIdWithRunContext(Long id, Long componentId) {
+		String queryStr = "SELECT sr, c FROM StudyResult sr "
+				+ "JOIN FETCH sr.study JOIN FETCH sr.worker "
+				+ "JOIN FETCH sr.batch b LEFT JOIN FETCH b.allowedWorkerTypes "
+				+ "LEFT JOIN Component c ON c.id = :componentId "
+				+ "WHERE sr.id = :id";
+		List<Object[]> resultList = jpa.em()
+				.createQuery(queryStr, Object[].class).setParameter("id", id)
+				.setParameter("componentId", componentId).getResultList();
+		return resultList.isEmpty() ? null : (StudyResult) resultList.get(0)[0];
+	}
+
 	/**
 	 * Returns the number of StudyResults belonging to the given study.
 	 */
@@ -56,6 +83,61 @@ public class StudyResultDao extends AbstractDao {
 		return result.intValue();
 	}
 
+	/**
+	 * Adds the StudyResult (has to be persisted already) at the end of the
+	 * worker's StudyResult list. If the list isn't loaded yet the StudyResult's
+	 * worker and list position are set directly - adding it to the list would
+	 * load all the worker's StudyResults first.
+	 */
+	public void addToWorker(Worker worker, StudyResult studyResult) {
+		if (Hibernate.isInitialized(worker.getStudyResultList())) {
+			worker.addStudyResult(studyResult);
+			merge(worker);
+			return;
+		}
+		String countQueryStr = "SELECT COUNT(sr) FROM StudyResult sr "
+				+ "WHERE sr.worker = :worker";
+		Number position = (Number) jpa.em().createQuery(countQueryStr)
+				.setParameter("worker", worker).getSingleResult();
+		String queryStr = "UPDATE StudyResult SET worker_id = :workerId, "
+				+ "studyResultList_order = :position WHERE id = :id";
+		jpa.em().createNativeQuery(queryStr)
+				.setParameter("workerId", worker.getId())
+				.setParameter("position", position.intValue())
+				.setParameter("id", studyResult.getId()).executeUpdate();
+	}
+
+	/**
+	 * Returns the number of StudyResults of the given worker and study. Uses
+	 * the index on (worker_id, study_id, studyState) and doesn't load the
+	 * worker's StudyResults.
+	 */
+	public int countByWorkerAndStudy(Worker worker, Study study) {
+		String queryStr = "SELECT COUNT(sr) FROM StudyResult sr "
+				+ "WHERE sr.worker = :worker AND sr.study = :study";
+		Query query = jpa.em().createQuery(queryStr)
+				.setParameter("worker", worker).setParameter("study", study);
+		Number result = (Number) query.getSingleResult();
+		return result.intValue();
+	}
+
+	/**
+	 * Returns the number of StudyResults of the given worker and study that
+	 * are in one of the given states. Uses the index on (worker_id, study_id,
+	 * studyState) and doesn't load the worker's StudyResults.
+	 */
+	public int countByWorkerAndStudyAndStates(Worker worker, Study study,
+			Collection<StudyState> studyStates) {
+		String queryStr = "SELECT COUNT(sr) FROM StudyResult sr "
+				+ "WHERE sr.worker = :worker AND sr.study = :study "
+				+ "AND sr.studyState IN :studyStates";
+		Query query = jpa.em().createQuery(queryStr)
+				.setParameter("worker", worker).setParameter("study", study)
+				.setParameter("studyStates", studyStates);
+		Number result = (Number) query.getSingleResult();
+		return result.intValue();
+	}
+
 	/**
 	 * Returns the number of StudyResults belonging to the given batch.
 	 */
@@ -81,6 +163,20 @@ public class StudyResultDao extends AbstractDao {
 		return result.intValue();
 	}
 
+	/**
+	 * Returns the StudyResults with the given IDs in one query. IDs of
+	 * StudyResults that don't exist are ignored.
+	 */
+	public List<StudyResult> findAllByIds(Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		String queryStr = "SELECT sr FROM StudyResult sr WHERE sr.id IN :ids";
+		TypedQuery<StudyResult> query = jpa.em().createQuery(queryStr,
+				StudyResult.class);
+		return query.setParameter("ids", ids).getResultList();
+	}
+
 	public List<StudyResult> findAllByStudy(Study study) {
 		String queryStr = "SELECT sr FROM StudyResult sr "
 				+ "WHERE sr.study=:study";
@@ -112,4 +208,33 @@ public class StudyResultDao extends AbstractDao {
 				.setParameter("workerType", workerType).getResultList();
 	}
 
+	/**
+	 * Sets the lastSeenDate of all StudyResults in the given map (StudyResult
+	 * ID -> time in ms) with one UPDATE statement. StudyResults that don't
+	 * exist anymore are ignored and a lastSeenDate that is already later (e.g.
+	 * written by another JATOS node in clustered mode) is kept. Returns the
+	 * number of StudyResults found.
+	 */
+	public int updateLastSeenDates(Map<Long, Long> lastSeenMap) {
+		if (lastSeenMap.isEmpty()) {
+			return 0;
+		}
+		StringBuilder queryStr = new StringBuilder(
+				"UPDATE StudyResult sr SET sr.lastSeenDate = CASE");
+		for (int i = 0; i < lastSeenMap.size(); i++) {
+			queryStr.append(" WHEN sr.id = :id").append(i)
+					.append(" AND (sr.lastSeenDate IS NULL OR sr.lastSeenDate < :date")
+					.append(i).append(") THEN :date").append(i);
+		}
+		queryStr.append(" ELSE sr.lastSeenDate END WHERE sr.id IN :ids");
+		Query query = jpa.em().createQuery(queryStr.toString());
+		int i = 0;
+		for (Map.Entry<Long, Long> entry : lastSeenMap.entrySet()) {
+			query.setParameter("id" + i, entry.getKey());
+			query.setParameter("date" + i, new Timestamp(entry.getValue()));
+			i++;
+		}
+		return query.setParameter("ids", lastSeenMap.keySet()).executeUpdate();
+	}
+
 }
@@ -0,0 +1,63 @@
+package general.common;
+
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts per study what happens to the frames that are sent out via batch and
+ * group channels (see ChannelOutbox in the session module). It lives in the
+ * common module so the GUI can show the counters (Home.metrics). It's
+ * thread-safe.
+ *
+ * @author Kristian Lange (2017)
+ */
+@Singleton
+public class ChannelStats {
+
+	private final Map<Long, ChannelCounters> studyCounters = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the counters of the study with the given ID. Creates them if they
+	 * don't exist yet.
+	 */
+	public ChannelCounters forStudy(Long studyId) {
+		return studyCounters.computeIfAbsent(studyId, id -> new ChannelCounters());
+	}
+
+	/**
+	 * Returns the counters of all studies that had a channel since JATOS
+	 * started. Maps the study ID to the counters.
+	 */
+	public Map<Long, ChannelCounters> getAll() {
+		return Collections.unmodifiableMap(studyCounters);
+	}
+
+	/**
+	 * Counters of one study
+	 */
+	public static class ChannelCounters {
+
+		/**
+		 * Frames that were handed over to a ChannelOutbox to be sent to the
+		 * client
+		 */
+		public final LongAdder queuedFrames = new LongAdder();
+
+		/**
+		 * Frames that were dropped because the client was too slow to receive
+		 * them
+		 */
+		public final LongAdder droppedFrames = new LongAdder();
+
+		/**
+		 * Channels that were closed because too many frames that can't be
+		 * dropped were waiting
+		 */
+		public final LongAdder closedChannels = new LongAdder();
+
+	}
+
+}
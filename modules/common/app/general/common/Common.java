@@ -39,6 +39,7 @@ public class Common {
      */
     private static final String PROPERTY_STUDY_ASSETS_ROOT_PATH = "jatos.studyAssetsRootPath";
     public static final String PROPERTY_JATOS_STUDY_LOGS_PATH = "jatos.studyLogs.path";
+    public static final String PROPERTY_JATOS_RESULT_DATA_PATH = "jatos.resultData.path";
 
     /**
      * JATOS' absolute base path without trailing '/.'
@@ -62,6 +63,34 @@ public class Common {
      */
     private static String studyLogsPath;
 
+    /**
+     * Path in the file system where JATOS stores result data. If it's null the result data are
+     * stored in the database.
+     */
+    private static String resultDataPath;
+
+    /**
+     * If true result data that are still stored in the database are moved to the result data
+     * path during JATOS' start
+     */
+    private static boolean resultDataMigrate;
+
+    /**
+     * Max size in bytes of a result data submission (defined in application.conf)
+     */
+    private static long resultDataMaxSize;
+
+    /**
+     * Max size in bytes of a result data submission for particular studies: maps study IDs to
+     * their limit (defined in application.conf)
+     */
+    private static Map<Long, Long> resultDataStudyMaxSize;
+
+    /**
+     * If true result data that are stored in the database are compressed (gzip)
+     */
+    private static boolean resultDataCompression;
+
     /**
      * Is true if an in-memory database is used.
      */
@@ -104,6 +133,84 @@ public class Common {
      */
     private static String mac;
 
+    /**
+     * Interval in milliseconds in which a BatchDispatcher writes its in-memory batch session
+     * back to the database (defined in application.conf)
+     */
+    private static int batchSessionFlushMillis;
+
+    /**
+     * Time window in milliseconds in which a BatchDispatcher collects batch session patches
+     * to apply them together with only one version increase. 0 means no coalescing (defined in
+     * application.conf)
+     */
+    private static int batchSessionCoalesceMillis;
+
+    /**
+     * Interval in milliseconds in which a GroupDispatcher writes its in-memory group session
+     * back to the database (defined in application.conf)
+     */
+    private static int groupSessionFlushMillis;
+
+    /**
+     * Interval in milliseconds in which a GroupDispatcher reloads the group state and active
+     * members from the database (defined in application.conf)
+     */
+    private static int groupSessionRefreshMillis;
+
+    /**
+     * Interval in milliseconds in which the HeartbeatRecorder writes the collected heartbeats to
+     * the database (defined in application.conf)
+     */
+    private static int heartbeatFlushMillis;
+
+    /**
+     * Max number of study starts per batch that run at the same time - 0 means no limit (defined
+     * in application.conf)
+     */
+    private static int studyStartMaxConcurrent;
+
+    /**
+     * Max number of study starts per batch that wait for their turn (defined in application.conf)
+     */
+    private static int studyStartMaxQueued;
+
+    /**
+     * Seconds after which a study start that was rejected because of a full queue should be tried
+     * again (defined in application.conf)
+     */
+    private static int studyStartRetryAfter;
+
+    /**
+     * Max number of frames of broadcast messages that a batch or group channel buffers for a
+     * slow client - after that the oldest one is dropped (defined in application.conf)
+     */
+    private static int channelOutboundBufferSize;
+
+    /**
+     * Max number of frames that can't be dropped (e.g. session patches) that a batch or group
+     * channel buffers for a slow client - after that the channel is closed (defined in
+     * application.conf)
+     */
+    private static int channelOutboundBufferMaxUndroppable;
+
+    /**
+     * True if this JATOS node is part of a cluster of JATOS nodes (Akka Cluster) that share the
+     * same database (defined in application.conf by akka.actor.provider)
+     */
+    private static boolean clustered;
+
+    /**
+     * Size of the thread pool that does the database access (defined in application.conf)
+     */
+    private static int dbPoolSize;
+
+    /**
+     * Size of the database connection pool (defined in application.conf). It should be at least
+     * twice the dbPoolSize.
+     */
+    private static int dbConnectionPoolSize;
+
     /**
      * Message that will be displayed during user creation that describes password requirements
      */
@@ -133,6 +240,11 @@ public class Common {
         studyAssetsRootPath = fillStudyAssetsRootPath(configuration);
         studyLogsEnabled = configuration.getBoolean("jatos.studyLogs.enabled");
         studyLogsPath = fillStudyLogsPath(configuration);
+        resultDataPath = fillResultDataPath(configuration);
+        resultDataMigrate = configuration.getBoolean("jatos.resultData.migrate");
+        resultDataMaxSize = configuration.getBytes("jatos.resultData.maxSize");
+        resultDataStudyMaxSize = fillResultDataStudyMaxSize(configuration);
+        resultDataCompression = configuration.getBoolean("jatos.resultData.compression");
         inMemoryDb = configuration.getString("db.default.url").contains("jdbc:h2:mem:");
         userSessionTimeout = configuration.getInt("jatos.userSession.timeout");
         userSessionInactivity = configuration.getInt("jatos.userSession.inactivity");
@@ -145,6 +257,27 @@ public class Common {
         dbDefaultDriver = configuration.getString("db.default.driver");
         jpaDefault = configuration.getString("jpa.default");
         mac = fillMac();
+        batchSessionFlushMillis = configuration.getInt("jatos.batchSession.flushMillis");
+        batchSessionCoalesceMillis = configuration.getInt("jatos.batchSession.coalesceMillis");
+        groupSessionFlushMillis = configuration.getInt("jatos.groupSession.flushMillis");
+        groupSessionRefreshMillis = configuration.getInt("jatos.groupSession.refreshMillis");
+        heartbeatFlushMillis = configuration.getInt("jatos.heartbeat.flushMillis");
+        studyStartMaxConcurrent = configuration.getInt("jatos.studyStart.maxConcurrent");
+        studyStartMaxQueued = configuration.getInt("jatos.studyStart.maxQueued");
+        studyStartRetryAfter = configuration.getInt("jatos.studyStart.retryAfter");
+        channelOutboundBufferSize = configuration.getInt("jatos.channel.outboundBuffer.size");
+        channelOutboundBufferMaxUndroppable = configuration.getInt(
+                "jatos.channel.outboundBuffer.maxUndroppable");
+        clustered = "akka.cluster.ClusterActorRefProvider"
+                .equals(configuration.getString("akka.actor.provider"));
+        dbPoolSize = configuration.getInt("jatos.db.poolSize");
+        dbConnectionPoolSize = configuration.getInt("jatos.db.connectionPoolSize");
+        if (dbConnectionPoolSize < 2 * dbPoolSize) {
+            LOGGER.warn("WARNING - The database connection pool (jatos.db.connectionPoolSize "
+                    + dbConnectionPoolSize + ") should be at least twice as big as the thread "
+                    + "pool that does the database access (jatos.db.poolSize " + dbPoolSize
+                    + "). Otherwise JATOS might get stuck under load.");
+        }
         userPasswordLength = configuration.getInt("jatos.user.password.length");
         userPasswordStrength = configuration.getInt("jatos.user.password.strength");
         if (userPasswordStrength > userPasswordStrengthRegexList.size()) {
@@ -208,6 +341,42 @@ public class Common {
         return tmpStudyLogPath;
     }
 
+    private String fillResultDataPath(Configuration configuration) {
+        String tmpResultDataPath = configuration.getString(PROPERTY_JATOS_RESULT_DATA_PATH);
+        if (tmpResultDataPath == null || tmpResultDataPath.trim().isEmpty()) {
+            LOGGER.info("Result data are stored in the database");
+            return null;
+        }
+
+        // Replace ~ with actual home directory
+        tmpResultDataPath = tmpResultDataPath.replace("~", System.getProperty("user.home"));
+        // Replace Unix-like file separator with actual system's one
+        tmpResultDataPath = tmpResultDataPath.replace("/", File.separator);
+        // If relative path add JATOS' base path as prefix
+        if (!(new File(tmpResultDataPath).isAbsolute())) {
+            tmpResultDataPath = basepath + File.separator + tmpResultDataPath;
+        }
+        LOGGER.info("Path to result data directory is " + tmpResultDataPath);
+        return tmpResultDataPath;
+    }
+
+    private Map<Long, Long> fillResultDataStudyMaxSize(Configuration configuration) {
+        Map<Long, Long> studyMaxSize = new HashMap<>();
+        Configuration studyMaxSizeConfig =
+                configuration.getConfig("jatos.resultData.studyMaxSize");
+        if (studyMaxSizeConfig == null) {
+            return studyMaxSize;
+        }
+        for (String studyId : studyMaxSizeConfig.keys()) {
+            try {
+                studyMaxSize.put(Long.parseLong(studyId), studyMaxSizeConfig.getBytes(studyId));
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid study ID " + studyId + " in jatos.resultData.studyMaxSize");
+            }
+        }
+        return studyMaxSize;
+    }
+
     private String fillMac() {
         String macStr = "unknown";
         try {
@@ -250,6 +419,29 @@ public class Common {
         return studyLogsPath;
     }
 
+    public static String getResultDataPath() {
+        return resultDataPath;
+    }
+
+    public static boolean isResultDataMigrate() {
+        return resultDataMigrate;
+    }
+
+    public static long getResultDataMaxSize() {
+        return resultDataMaxSize;
+    }
+
+    /**
+     * Returns the max size in bytes of a result data submission for the study with the given ID
+     */
+    public static long getResultDataMaxSize(Long studyId) {
+        return resultDataStudyMaxSize.getOrDefault(studyId, resultDataMaxSize);
+    }
+
+    public static boolean isResultDataCompression() {
+        return resultDataCompression;
+    }
+
     public static boolean isInMemoryDb() {
         return inMemoryDb;
     }
@@ -282,6 +474,58 @@ public class Common {
         return mac;
     }
 
+    public static int getBatchSessionFlushMillis() {
+        return batchSessionFlushMillis;
+    }
+
+    public static int getBatchSessionCoalesceMillis() {
+        return batchSessionCoalesceMillis;
+    }
+
+    public static int getGroupSessionFlushMillis() {
+        return groupSessionFlushMillis;
+    }
+
+    public static int getGroupSessionRefreshMillis() {
+        return groupSessionRefreshMillis;
+    }
+
+    public static int getHeartbeatFlushMillis() {
+        return heartbeatFlushMillis;
+    }
+
+    public static int getStudyStartMaxConcurrent() {
+        return studyStartMaxConcurrent;
+    }
+
+    public static int getStudyStartMaxQueued() {
+        return studyStartMaxQueued;
+    }
+
+    public static int getStudyStartRetryAfter() {
+        return studyStartRetryAfter;
+    }
+
+    public static int getChannelOutboundBufferSize() {
+        return channelOutboundBufferSize;
+    }
+
+    public static int getChannelOutboundBufferMaxUndroppable() {
+        return channelOutboundBufferMaxUndroppable;
+    }
+
+    public static boolean isClustered() {
+        return clustered;
+    }
+
+    public static int getDbPoolSize() {
+        return dbPoolSize;
+    }
+
+    public static int getDbConnectionPoolSize() {
+        return dbConnectionPoolSize;
+    }
+
     public static int getUserPasswordMinLength() {
         return userPasswordLength;
     }
@@ -0,0 +1,161 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.StudyResultDao;
+import models.common.StudyResult;
+import play.Logger;
+import play.Logger.ALogger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the heartbeats of jatos.js in memory instead of writing each one
+ * into the database. It keeps only the time of the last heartbeat of each
+ * StudyResult and writes them periodically (every
+ * 'jatos.heartbeat.flushMillis') in batched UPDATE statements into
+ * StudyResult's lastSeenDate. They are also written when JATOS shuts down.
+ *
+ * Since the database can lag behind by up to one flush interval everything
+ * that shows the lastSeenDate should get it via
+ * {@link #getLastSeenDate(StudyResult)}.
+ *
+ * In clustered mode the heartbeats of a StudyResult can arrive at different
+ * JATOS nodes: each node flushes its own ones and a lastSeenDate is never
+ * set back to an earlier time (see StudyResultDao.updateLastSeenDates).
+ *
+ * @author Kristian Lange (2017)
+ */
+@Singleton
+public class HeartbeatRecorder {
+
+	private static final ALogger LOGGER = Logger.of(HeartbeatRecorder.class);
+
+	/**
+	 * Max number of StudyResults per UPDATE statement
+	 */
+	private static final int MAX_BATCH_SIZE = 500;
+
+	private final JPAApi jpa;
+	private final StudyResultDao studyResultDao;
+	private final ActorSystem actorSystem;
+	private final JdbcExecutionContext jdbcExecutionContext;
+
+	/**
+	 * Maps StudyResult IDs to the time (in ms) of their last heartbeat that
+	 * isn't written into the database yet
+	 */
+	private final Map<Long, Long> lastSeenMap = new ConcurrentHashMap<>();
+
+	private volatile Cancellable scheduledFlush;
+
+	@Inject
+	HeartbeatRecorder(JPAApi jpa, StudyResultDao studyResultDao,
+			ActorSystem actorSystem, JdbcExecutionContext jdbcExecutionContext,
+			ApplicationLifecycle lifecycle) {
+		this.jpa = jpa;
+		this.studyResultDao = studyResultDao;
+		this.actorSystem = actorSystem;
+		this.jdbcExecutionContext = jdbcExecutionContext;
+		lifecycle.addStopHook(() -> CompletableFuture.runAsync(() -> {
+			cancelScheduledFlush();
+			flush();
+		}, jdbcExecutionContext.get()));
+	}
+
+	/**
+	 * Records a heartbeat of the StudyResult with the given ID. Doesn't need
+	 * a transaction.
+	 */
+	public void record(Long studyResultId) {
+		lastSeenMap.put(studyResultId, System.currentTimeMillis());
+		scheduleFlush();
+	}
+
+	/**
+	 * Returns the time of the last heartbeat of the given StudyResult: the
+	 * unflushed one if there is one or otherwise its lastSeenDate
+	 */
+	public Timestamp getLastSeenDate(StudyResult studyResult) {
+		Long unflushed = lastSeenMap.get(studyResult.getId());
+		Timestamp lastSeenDate = studyResult.getLastSeenDate();
+		if (unflushed != null && (lastSeenDate == null
+				|| unflushed > lastSeenDate.getTime())) {
+			return new Timestamp(unflushed);
+		}
+		return lastSeenDate;
+	}
+
+	/**
+	 * Writes all recorded heartbeats into the database. Heartbeats that arrive
+	 * in the meantime stay for the next flush. If the database isn't
+	 * reachable the heartbeats are kept and it's tried again next time.
+	 */
+	public synchronized void flush() {
+		if (lastSeenMap.isEmpty()) {
+			return;
+		}
+		Map<Long, Long> batch = new HashMap<>();
+		for (Map.Entry<Long, Long> entry : lastSeenMap.entrySet()) {
+			batch.put(entry.getKey(), entry.getValue());
+			if (batch.size() >= MAX_BATCH_SIZE) {
+				flush(batch);
+				batch = new HashMap<>();
+			}
+		}
+		flush(batch);
+	}
+
+	private void flush(Map<Long, Long> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			jpa.withTransaction(
+					() -> studyResultDao.updateLastSeenDates(batch));
+		} catch (Exception e) {
+			LOGGER.error(".flush: couldn't write " + batch.size()
+					+ " heartbeats into the database", e);
+			return;
+		}
+		// Remove only if there was no newer heartbeat in the meantime
+		batch.forEach(lastSeenMap::remove);
+	}
+
+	/**
+	 * Starts the periodic flush with the first heartbeat - Common is
+	 * initialized for sure by then
+	 */
+	private void scheduleFlush() {
+		if (scheduledFlush != null) {
+			return;
+		}
+		synchronized (this) {
+			if (scheduledFlush == null) {
+				FiniteDuration interval = Duration.create(
+						Common.getHeartbeatFlushMillis(),
+						TimeUnit.MILLISECONDS);
+				scheduledFlush = actorSystem.scheduler().schedule(interval,
+						interval, this::flush, jdbcExecutionContext.get());
+			}
+		}
+	}
+
+	private synchronized void cancelScheduledFlush() {
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel();
+		}
+	}
+
+}
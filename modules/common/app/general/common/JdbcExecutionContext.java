@@ -0,0 +1,81 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import scala.concurrent.ExecutionContext$;
+import scala.concurrent.ExecutionContextExecutor;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Provides the execution context (thread pool) that is meant for blocking
+ * database access (JPA/JDBC) that shouldn't happen in Play's default thread
+ * pool. It's configured in application.conf under 'jatos.jdbcExecutionContext'
+ * and its size is set by 'jatos.db.poolSize'. The database connection pool
+ * ('jatos.db.connectionPoolSize') has at least twice as many connections since
+ * a task sometimes needs a second connection while it holds the first one.
+ *
+ * Since it's an ExecutionContextExecutor it can be used in Scala as an
+ * ExecutionContext and in Java as an Executor.
+ *
+ * It counts the tasks that wait in its queue and the ones that currently run.
+ */
+@Singleton
+public class JdbcExecutionContext {
+
+	public static final String NAME = "jatos.jdbcExecutionContext";
+
+	private final ExecutionContextExecutor executionContext;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final LongAdder completed = new LongAdder();
+
+	@Inject
+	JdbcExecutionContext(ActorSystem actorSystem) {
+		ExecutionContextExecutor dispatcher = actorSystem.dispatchers()
+				.lookup(NAME);
+		this.executionContext = ExecutionContext$.MODULE$
+				.fromExecutor(task -> {
+					queued.incrementAndGet();
+					dispatcher.execute(() -> {
+						queued.decrementAndGet();
+						active.incrementAndGet();
+						try {
+							task.run();
+						} finally {
+							active.decrementAndGet();
+							completed.increment();
+						}
+					});
+				});
+	}
+
+	public ExecutionContextExecutor get() {
+		return executionContext;
+	}
+
+	/**
+	 * Number of tasks that wait for a free thread
+	 */
+	public int getQueueSize() {
+		return queued.get();
+	}
+
+	/**
+	 * Number of tasks that currently run
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * Number of tasks that ran since JATOS started
+	 */
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+
+}
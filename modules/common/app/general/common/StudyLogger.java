@@ -8,6 +8,7 @@ import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import daos.common.ComponentResultDao;
 import models.common.Batch;
 import models.common.ComponentResult;
 import models.common.Study;
@@ -19,6 +20,7 @@ import play.Logger;
 import play.libs.Json;
 import utils.common.HashUtils;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
@@ -72,6 +74,13 @@ public class StudyLogger {
     public static final String COMPONENT_UUID = "componentUuid";
     public static final String COMPONENT_UUIDS = "componentUuids";
 
+    private final ComponentResultDao componentResultDao;
+
+    @Inject
+    StudyLogger(ComponentResultDao componentResultDao) {
+        this.componentResultDao = componentResultDao;
+    }
+
     public String getFilename(Study study) {
         return study.getUuid() + ".log";
     }
@@ -217,9 +226,7 @@ public class StudyLogger {
         ArrayNode componentUuidArray = Json.newArray();
         ArrayNode workerIdArray = Json.newArray();
         for (ComponentResult cr : componentResultList) {
-            String resultDataHash = (cr.getData() != null) ?
-                    HashUtils.getHash(cr.getData(), HashUtils.SHA_256) : NO_DATA;
-            dataHashesArray.add(resultDataHash);
+            dataHashesArray.add(getResultDataHash(cr));
             componentUuidArray.add(cr.getComponent().getUuid());
             workerIdArray.add(cr.getWorkerId());
         }
@@ -240,8 +247,19 @@ public class StudyLogger {
      */
     public void logResultDataStoring(ComponentResult componentResult) {
         if (!Common.isStudyLogsEnabled()) return;
-        String resultDataHash = (componentResult.getData() != null) ?
-                HashUtils.getHash(componentResult.getData(), HashUtils.SHA_256) : NO_DATA;
+        logResultDataStoring(componentResult, getResultDataHash(componentResult));
+    }
+
+    /**
+     * Adds an entry to the study log: adds the given hash of the result data, component UUID,
+     * and the worker ID. Other than logResultDataStoring(ComponentResult) it doesn't load the
+     * result data to calculate the hash.
+     *
+     * @param componentResult ComponentResults that will be stored
+     * @param resultDataHash  hash of the result data calculated like HashUtils.getHash()
+     */
+    public void logResultDataStoring(ComponentResult componentResult, String resultDataHash) {
+        if (!Common.isStudyLogsEnabled()) return;
         Study study = componentResult.getStudyResult().getStudy();
         String componentUuid = componentResult.getComponent().getUuid();
         Long workerId = componentResult.getWorkerId();
@@ -253,6 +271,34 @@ public class StudyLogger {
         log(study, jsonObj);
     }
 
+    /**
+     * Adds an entry to the study log: adds the hash of the appended result data, component UUID,
+     * and the worker ID. Only the appended part is hashed so the result data stored so far don't
+     * have to be loaded. The whole result data of a component result are the ones of its last
+     * 'Stored component result data' entry followed by the parts of all 'Appended component
+     * result data' entries after it (in the log's order) - so the log entries form a chain that
+     * can be checked part by part.
+     *
+     * @param componentResult    ComponentResult the data are appended to
+     * @param appendedDataHash   hash of the appended result data calculated like
+     *                           HashUtils.getHash()
+     */
+    public void logResultDataAppending(ComponentResult componentResult,
+            String appendedDataHash) {
+        if (!Common.isStudyLogsEnabled()) return;
+        String resultDataHash = appendedDataHash != null ? appendedDataHash : NO_DATA;
+        Study study = componentResult.getStudyResult().getStudy();
+        String componentUuid = componentResult.getComponent().getUuid();
+        Long workerId = componentResult.getWorkerId();
+        ObjectNode jsonObj = Json.newObject();
+        jsonObj.put(MSG, "Appended component result data. The hash is of the appended part " +
+                "only: it follows the result data of the previous entries of this component.");
+        jsonObj.put(COMPONENT_UUID, componentUuid);
+        jsonObj.put(WORKER_ID, workerId);
+        jsonObj.put(DATA_HASH, resultDataHash);
+        log(study, jsonObj);
+    }
+
     /**
      * Adds an entry to the study log: adds hashes of all component result data, all component UUIDs,
      * and all worker IDs of the worker who run this component. All component results must come
@@ -269,8 +315,7 @@ public class StudyLogger {
         ArrayNode componentUuidArray = Json.newArray();
         ArrayNode workerIdArray = Json.newArray();
         for (ComponentResult cr : componentResultList) {
-            dataHashesArray.add((cr.getData() != null) ?
-                    HashUtils.getHash(cr.getData(), HashUtils.SHA_256) : NO_DATA);
+            dataHashesArray.add(getResultDataHash(cr));
             componentUuidArray.add(cr.getComponent().getUuid());
             workerIdArray.add(cr.getWorkerId());
         }
@@ -296,6 +341,14 @@ public class StudyLogger {
         logResultDataRemoving(componentResultList);
     }
 
+    /**
+     * Returns the SHA-256 hash of the ComponentResult's whole result data or NO_DATA
+     */
+    private String getResultDataHash(ComponentResult componentResult) {
+        String data = componentResultDao.getData(componentResult);
+        return (data != null) ? HashUtils.getHash(data, HashUtils.SHA_256) : NO_DATA;
+    }
+
     /**
      * Adds the given jsonObj as an entry to the study
      */
@@ -0,0 +1,248 @@
+package general.common;
+
+import models.common.Component;
+import models.common.Study;
+import org.hibernate.event.spi.EventSource;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process read-through cache for the parts of a study that don't change
+ * while it runs but that are needed by (nearly) every Publix request: the
+ * ordered list of component IDs, which of them are active and the default
+ * batch's ID. Without it each of these requests would load the study's
+ * component list or batch list from the database. Additionally it can hold
+ * JSON that was rendered from the study or its components (e.g. for jatos.js'
+ * init data).
+ *
+ * The DAOs invalidate a study's entry whenever the study, one of its
+ * components or batches is changed. Invalidation happens immediately and
+ * again after the transaction completed: only then other transactions see the
+ * changes. Each invalidation increments the cache's version and an entry is
+ * only stored if no invalidation happened while it was loaded - this way a
+ * load that raced with a change can't put stale data into the cache.
+ *
+ * Entries are loaded in their own (read-only) transaction and not from the
+ * caller's one: the caller's persistence context might hold changes that
+ * aren't committed yet or its snapshot of the database might be older than
+ * the last invalidation. Only one request per study loads at a time - the
+ * others meanwhile get metadata from their own transaction that aren't
+ * cached.
+ *
+ * Invalidations are only seen by this JATOS node. Therefore in clustered mode
+ * (several nodes share one database) nothing is cached: the metadata are
+ * loaded anew for each request.
+ *
+ * @author Kristian Lange (2017)
+ */
+@Singleton
+public class StudyMetadataCache {
+
+	private final JPAApi jpa;
+
+	private final Map<Long, StudyMetadata> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * IDs of the studies that are loaded right now
+	 */
+	private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+
+	@Inject
+	StudyMetadataCache(JPAApi jpa) {
+		this.jpa = jpa;
+	}
+
+	/**
+	 * Returns the metadata of the study with the given ID. If it isn't cached
+	 * it's loaded from the database (needs a transaction). Returns null if the
+	 * study doesn't exist.
+	 */
+	public StudyMetadata get(Long studyId) {
+		StudyMetadata metadata = cache.get(studyId);
+		if (metadata != null) {
+			return metadata;
+		}
+		if (Common.isClustered() || !loading.add(studyId)) {
+			return getUncached(studyId);
+		}
+		try {
+			long versionBeforeLoad = version.get();
+			metadata = loadInOwnTransaction(studyId,
+					study -> new StudyMetadata(study, this));
+			if (metadata == null) {
+				return null;
+			}
+			cache.put(studyId, metadata);
+			// Throw it out again if there was an invalidation in the meantime
+			if (version.get() != versionBeforeLoad) {
+				cache.remove(studyId, metadata);
+			}
+			return metadata;
+		} finally {
+			loading.remove(studyId);
+		}
+	}
+
+	/**
+	 * Metadata from the caller's transaction that are not put into the cache
+	 */
+	private StudyMetadata getUncached(Long studyId) {
+		Study study = jpa.em().find(Study.class, studyId);
+		return study != null ? new StudyMetadata(study, null) : null;
+	}
+
+	/**
+	 * Loads the study with the given ID in a new read-only transaction and
+	 * passes it to the given loader. Returns null if the study doesn't exist.
+	 */
+	private <T> T loadInOwnTransaction(Long studyId, Function<Study, T> loader) {
+		return jpa.withTransaction("default", true, () -> {
+			Study study = jpa.em().find(Study.class, studyId);
+			return study != null ? loader.apply(study) : null;
+		});
+	}
+
+	/**
+	 * Removes the study with the given ID from the cache - now and after the
+	 * current transaction (if there is one) completed.
+	 */
+	public void invalidate(Long studyId) {
+		if (studyId == null) {
+			return;
+		}
+		remove(studyId);
+		EventSource session = jpa.em().unwrap(EventSource.class);
+		session.getActionQueue().registerProcess(
+				(success, sessionImplementor) -> remove(studyId));
+	}
+
+	private void remove(Long studyId) {
+		version.incrementAndGet();
+		cache.remove(studyId);
+	}
+
+	/**
+	 * Snapshot of a study's metadata. Apart from the rendered JSON it's
+	 * immutable.
+	 */
+	public static class StudyMetadata {
+
+		/**
+		 * The cache that loaded this metadata or null if they aren't cached
+		 */
+		private final StudyMetadataCache cache;
+
+		private final Long studyId;
+		private final List<Long> componentIdList;
+		private final Set<Long> activeComponentIds;
+		private final Long defaultBatchId;
+		private final Map<String, String> renderedJson =
+				new ConcurrentHashMap<>();
+
+		StudyMetadata(Study study, StudyMetadataCache cache) {
+			this.cache = cache;
+			this.studyId = study.getId();
+			List<Long> componentIdList = new ArrayList<>();
+			Set<Long> activeComponentIds = new HashSet<>();
+			for (Component component : study.getComponentList()) {
+				componentIdList.add(component.getId());
+				if (component.isActive()) {
+					activeComponentIds.add(component.getId());
+				}
+			}
+			this.componentIdList = Collections
+					.unmodifiableList(componentIdList);
+			this.activeComponentIds = Collections
+					.unmodifiableSet(activeComponentIds);
+			this.defaultBatchId = study.getBatchList().isEmpty() ? null
+					: study.getDefaultBatch().getId();
+		}
+
+		public Long getStudyId() {
+			return studyId;
+		}
+
+		/**
+		 * IDs of the study's components in their order
+		 */
+		public List<Long> getComponentIdList() {
+			return componentIdList;
+		}
+
+		public boolean hasComponent(Long componentId) {
+			return componentIdList.contains(componentId);
+		}
+
+		public boolean isComponentActive(Long componentId) {
+			return activeComponentIds.contains(componentId);
+		}
+
+		/**
+		 * Returns the ID of the component at the given position (starts with 1)
+		 * or null if there is none.
+		 */
+		public Long getComponentId(int position) {
+			if (position < 1 || position > componentIdList.size()) {
+				return null;
+			}
+			return componentIdList.get(position - 1);
+		}
+
+		/**
+		 * Returns the ID of the first active component or null if the study
+		 * has no active components.
+		 */
+		public Long getFirstActiveComponentId() {
+			return findActiveComponentId(0);
+		}
+
+		/**
+		 * Returns the ID of the next active component after the component with
+		 * the given ID or null if there is none.
+		 */
+		public Long getNextActiveComponentId(Long componentId) {
+			return findActiveComponentId(
+					componentIdList.indexOf(componentId) + 1);
+		}
+
+		public Long getDefaultBatchId() {
+			return defaultBatchId;
+		}
+
+		/**
+		 * Returns the JSON stored under the given key. If there is none yet
+		 * it's rendered with the given renderer (that must only use the study
+		 * and its components) and stored. It's thrown out together with the
+		 * rest of this metadata. If this metadata are cached the renderer gets
+		 * the study from its own transaction (like the metadata) - otherwise
+		 * it gets the given study of the caller.
+		 */
+		public String getRenderedJson(String key, Study study,
+				Function<Study, String> renderer) {
+			return renderedJson.computeIfAbsent(key, k -> {
+				String json = (cache != null)
+						? cache.loadInOwnTransaction(studyId, renderer) : null;
+				return json != null ? json : renderer.apply(study);
+			});
+		}
+
+		private Long findActiveComponentId(int fromIndex) {
+			for (int i = fromIndex; i < componentIdList.size(); i++) {
+				if (activeComponentIds.contains(componentIdList.get(i))) {
+					return componentIdList.get(i);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
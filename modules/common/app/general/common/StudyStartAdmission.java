@@ -0,0 +1,247 @@
+package general.common;
+
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for study starts: if a study link is shared widely a lot
+ * of participants start at the same time and their study starts would occupy
+ * all threads and database connections - the participants that already run
+ * the study would be slowed down. Therefore per batch only
+ * 'jatos.studyStart.maxConcurrent' study starts run at the same time and up to
+ * 'jatos.studyStart.maxQueued' more wait (without occupying a thread) for
+ * their turn. Further study starts are rejected right away and should be tried
+ * again after 'jatos.studyStart.retryAfter' seconds.
+ *
+ * Batches are identified by the study ID and the batch ID. The caller has to
+ * make sure the batch exists before it acquires a slot (the IDs come from the
+ * request's URL). A batch only has slots and a queue as long as it has
+ * running or waiting study starts - afterwards they're removed, so they don't
+ * pile up. Its counters (admitted, queued, rejected) are kept separately since
+ * JATOS started. It's thread-safe.
+ *
+ * In clustered mode each JATOS node has its own admission control: the limits
+ * apply per node - like the threads and database connections they protect.
+ *
+ * @author Kristian Lange (2017)
+ */
+@Singleton
+public class StudyStartAdmission {
+
+	private static final CompletableFuture<Void> ADMITTED = CompletableFuture
+			.completedFuture(null);
+
+	/**
+	 * Returned by a BatchAdmission that was removed already
+	 */
+	private static final CompletableFuture<Void> REMOVED = new CompletableFuture<>();
+
+	private final Map<String, BatchAdmission> admissions = new ConcurrentHashMap<>();
+
+	private final Map<String, BatchCounters> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns a CompletionStage that completes as soon as the study start in
+	 * the given batch may run: right away if there are free slots or
+	 * otherwise when it's its turn. Returns null if the queue is full and the
+	 * study start is rejected. Each study start that was admitted has to call
+	 * {@link #release(Long, Long)} after it's done - whether it was successful
+	 * or not.
+	 */
+	public CompletionStage<Void> acquire(Long studyId, Long batchId) {
+		if (!isEnabled()) {
+			return ADMITTED;
+		}
+		String key = key(studyId, batchId);
+		while (true) {
+			BatchAdmission admission = admissions.computeIfAbsent(key,
+					k -> new BatchAdmission(counters.computeIfAbsent(k,
+							c -> new BatchCounters(studyId, batchId))));
+			CompletableFuture<Void> admitted = admission.acquire(
+					Common.getStudyStartMaxConcurrent(),
+					Common.getStudyStartMaxQueued());
+			// If it was removed in the meantime try again with a new one
+			if (admitted != REMOVED) {
+				return admitted;
+			}
+		}
+	}
+
+	/**
+	 * Frees the slot of a study start and hands it over to the next one in
+	 * the queue
+	 */
+	public void release(Long studyId, Long batchId) {
+		if (!isEnabled()) {
+			return;
+		}
+		String key = key(studyId, batchId);
+		BatchAdmission admission = admissions.get(key);
+		if (admission != null) {
+			admission.release(() -> admissions.remove(key, admission));
+		}
+	}
+
+	/**
+	 * Returns the state of all batches that had study starts since JATOS
+	 * started
+	 */
+	public List<Metrics> getMetrics() {
+		List<Metrics> metricsList = new ArrayList<>();
+		counters.forEach((key, c) -> {
+			BatchAdmission admission = admissions.get(key);
+			int running = 0;
+			int waiting = 0;
+			if (admission != null) {
+				synchronized (admission) {
+					running = admission.running;
+					waiting = admission.queue.size();
+				}
+			}
+			metricsList.add(new Metrics(c.studyId, c.batchId, running,
+					waiting, c.admitted.sum(), c.queued.sum(),
+					c.rejected.sum()));
+		});
+		return metricsList;
+	}
+
+	public boolean isEnabled() {
+		return Common.getStudyStartMaxConcurrent() > 0;
+	}
+
+	private static String key(Long studyId, Long batchId) {
+		return studyId + "/" + batchId;
+	}
+
+	/**
+	 * Slots and queue of one batch
+	 */
+	private static class BatchAdmission {
+
+		private final BatchCounters counters;
+		private final Deque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+		private int running = 0;
+		private boolean removed = false;
+
+		BatchAdmission(BatchCounters counters) {
+			this.counters = counters;
+		}
+
+		synchronized CompletableFuture<Void> acquire(int maxConcurrent,
+				int maxQueued) {
+			if (removed) {
+				return REMOVED;
+			}
+			if (running < maxConcurrent) {
+				running++;
+				counters.admitted.increment();
+				return ADMITTED;
+			}
+			if (queue.size() < maxQueued) {
+				CompletableFuture<Void> waiting = new CompletableFuture<>();
+				queue.add(waiting);
+				counters.queued.increment();
+				return waiting;
+			}
+			counters.rejected.increment();
+			return null;
+		}
+
+		/**
+		 * The given remover is called (within the lock) if there are no
+		 * running or waiting study starts left
+		 */
+		void release(Runnable remover) {
+			CompletableFuture<Void> next;
+			synchronized (this) {
+				next = queue.poll();
+				if (next == null) {
+					running = Math.max(0, running - 1);
+					if (running == 0) {
+						removed = true;
+						remover.run();
+					}
+					return;
+				}
+				// The slot goes straight to the next one
+				counters.admitted.increment();
+			}
+			// Outside of the lock: it can run the next study start
+			next.complete(null);
+		}
+
+	}
+
+	/**
+	 * Counters of one batch since JATOS started
+	 */
+	private static class BatchCounters {
+
+		private final Long studyId;
+		private final Long batchId;
+		private final LongAdder admitted = new LongAdder();
+		private final LongAdder queued = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+
+		BatchCounters(Long studyId, Long batchId) {
+			this.studyId = studyId;
+			this.batchId = batchId;
+		}
+
+	}
+
+	/**
+	 * State of the admission control of one batch
+	 */
+	public static class Metrics {
+
+		public final Long studyId;
+		public final Long batchId;
+
+		/**
+		 * Study starts that run right now
+		 */
+		public final int running;
+
+		/**
+		 * Study starts that wait right now
+		 */
+		public final int waiting;
+
+		/**
+		 * Study starts that were admitted since JATOS started
+		 */
+		public final long admitted;
+
+		/**
+		 * Study starts that had to wait since JATOS started
+		 */
+		public final long queued;
+
+		/**
+		 * Study starts that were rejected since JATOS started
+		 */
+		public final long rejected;
+
+		Metrics(Long studyId, Long batchId, int running, int waiting,
+				long admitted, long queued, long rejected) {
+			this.studyId = studyId;
+			this.batchId = batchId;
+			this.running = running;
+			this.waiting = waiting;
+			this.admitted = admitted;
+			this.queued = queued;
+			this.rejected = rejected;
+		}
+
+	}
+
+}
@@ -107,6 +107,17 @@ public class Batch {
 					@JoinColumn(name = "worker_id", referencedColumnName = "id") })
 	private Set<Worker> workerList = new HashSet<>();
 
+	/**
+	 * Number of workers in the workerList. It's maintained by the BatchDao
+	 * together with the BatchWorkerMap, so the workers don't have to be loaded
+	 * to count them. Other than the rest of the batch it's only changed with
+	 * UPDATE statements (and never by merging the entity) - otherwise
+	 * concurrently added workers could be lost.
+	 */
+	@JsonIgnore
+	@Column(nullable = false, updatable = false)
+	private int workerCount = 0;
+
 	/**
 	 * Set of worker types that are allowed to run in this batch. If the worker
 	 * type is not in this list, it has no permission to run this study.
@@ -254,6 +265,18 @@ public class Batch {
 		workerList.add(worker);
 	}
 
+	/**
+	 * Number of workers as it was when this batch was loaded. Use
+	 * BatchDao.countWorkers() to get the current number.
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
 	public void removeWorker(Worker worker) {
 		workerList.remove(worker);
 	}
@@ -1,9 +1,15 @@
 package models.common;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
 
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -11,16 +17,21 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.OrderBy;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.BatchSize;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+import utils.common.ResultDataCodec;
+
 /**
  * Domain model / entity of a component result. It's used by JPA and JSON
  * marshaling.
@@ -35,6 +46,11 @@ public class ComponentResult {
 
 	public static final String COMPONENT_RESULTS = "componentResults";
 
+	/**
+	 * Max number of characters of the data preview
+	 */
+	public static final int DATA_PREVIEW_LENGTH = 1024;
+
 	@Id
 	@GeneratedValue
 	private Long id;
@@ -92,11 +108,50 @@ public class ComponentResult {
 	/**
 	 * Result data string submitted from the client during running the
 	 * component. It can be any string and doesn't have to be in JSON format.
+	 * Result data that were appended later on are stored in the
+	 * dataChunkList. It's null if the result data are stored in the
+	 * ResultDataStore. It's in the form of ResultDataCodec (maybe compressed)
+	 * and must only be accessed through it. ComponentResultDao puts the whole
+	 * result data together.
 	 */
 	@Lob
 	@JsonIgnore
 	private String data;
 
+	/**
+	 * SHA-256 hash of the result data if they are stored in the
+	 * ResultDataStore (instead of in the data field)
+	 */
+	@JsonIgnore
+	@Column(length = 64)
+	private String dataHash;
+
+	/**
+	 * Size in bytes (UTF-8) of the result data stored in the ResultDataStore
+	 */
+	@JsonIgnore
+	private Long dataSize;
+
+	/**
+	 * Beginning of the result data stored in the ResultDataStore - enough to
+	 * show them in the GUI without reading the file
+	 */
+	@JsonIgnore
+	@Column(length = DATA_PREVIEW_LENGTH)
+	private String dataPreview;
+
+	/**
+	 * Chunks of result data that were appended to the data in the order they
+	 * were appended. This relationship is bidirectional. The chunks of several
+	 * ComponentResults are loaded together (e.g. during export of result data).
+	 */
+	@JsonIgnore
+	@BatchSize(size = 100)
+	@OneToMany(mappedBy = "componentResult", fetch = FetchType.LAZY,
+			cascade = CascadeType.REMOVE, orphanRemoval = true)
+	@OrderBy("id")
+	private List<ComponentResultChunk> dataChunkList = new ArrayList<>();
+
 	/**
 	 * Error message in case something went wrong with the component (state is
 	 * FAIL). Can be left null.
@@ -162,14 +217,90 @@ public class ComponentResult {
 		return this.component;
 	}
 
+	/**
+	 * Sets the result data (stored in the database) and removes all chunks
+	 * that were appended before. To store them in the ResultDataStore (if
+	 * it's enabled) use ComponentResultDao.replaceData() instead.
+	 */
 	public void setData(String data) {
-		this.data = data;
+		this.data = ResultDataCodec.encode(data);
+		this.dataHash = null;
+		this.dataSize = null;
+		this.dataPreview = null;
+		this.dataChunkList.clear();
+	}
+
+	/**
+	 * Sets result data that are already stored in the ResultDataStore and
+	 * removes all chunks that were appended before
+	 */
+	public void setStoredData(String dataHash, long dataSize,
+			String dataPreview) {
+		setStoredDataKeepChunks(dataHash, dataSize, dataPreview);
+		this.dataChunkList.clear();
+	}
+
+	private void setStoredDataKeepChunks(String dataHash, long dataSize,
+			String dataPreview) {
+		this.data = null;
+		this.dataHash = dataHash;
+		this.dataSize = dataSize;
+		this.dataPreview = StringUtils.left(dataPreview, DATA_PREVIEW_LENGTH);
+	}
+
+	/**
+	 * Returns true if there are any result data (the data or appended chunks)
+	 */
+	public boolean hasData() {
+		return data != null || dataHash != null || !dataChunkList.isEmpty();
 	}
 
-	public String getData() {
+	/**
+	 * Returns the result data stored in the database in the form of
+	 * ResultDataCodec or null. Use ComponentResultDao.getData() to get the
+	 * whole result data.
+	 */
+	public String getEncodedData() {
 		return this.data;
 	}
 
+	/**
+	 * Moves the result data and all chunks that are still stored in the
+	 * database into the ResultDataStore. The given function stores the UTF-8
+	 * encoded data and returns their hash (see ComponentResultDao). Returns
+	 * true if something was moved.
+	 */
+	public boolean moveDataToResultDataStore(Function<byte[], String> store) {
+		boolean moved = false;
+		if (data != null) {
+			String decodedData = ResultDataCodec.decode(data);
+			byte[] bytes = decodedData.getBytes(StandardCharsets.UTF_8);
+			setStoredDataKeepChunks(store.apply(bytes), bytes.length,
+					decodedData);
+			moved = true;
+		}
+		for (ComponentResultChunk chunk : dataChunkList) {
+			moved |= chunk.moveDataToResultDataStore(store);
+		}
+		return moved;
+	}
+
+	public String getDataHash() {
+		return this.dataHash;
+	}
+
+	public Long getDataSize() {
+		return this.dataSize;
+	}
+
+	public String getDataPreview() {
+		return this.dataPreview;
+	}
+
+	public List<ComponentResultChunk> getDataChunkList() {
+		return this.dataChunkList;
+	}
+
 	public void setErrorMsg(String errorMsg) {
 		this.errorMsg = StringUtils.substring(errorMsg, 0, 255);
 	}
@@ -0,0 +1,155 @@
+package models.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+import utils.common.ResultDataCodec;
+
+/**
+ * Domain model / entity of a chunk of result data that was appended to a
+ * component result. A ComponentResult's data is its own data followed by the
+ * data of all its chunks in the order of their IDs. This way appending result
+ * data is just an insert of a new chunk and doesn't need to load and write
+ * back all the data that were stored before.
+ * 
+ * @author Kristian Lange (2017)
+ */
+@Entity
+@Table(name = "ComponentResultChunk")
+public class ComponentResultChunk {
+
+	@Id
+	@GeneratedValue
+	private Long id;
+
+	/**
+	 * ComponentResult that this chunk belongs to. This relationship is
+	 * bidirectional.
+	 */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "componentResult_id", nullable = false)
+	private ComponentResult componentResult;
+
+	/**
+	 * Part of the result data. It's null if it's stored in the
+	 * ResultDataStore. It's in the form of ResultDataCodec (maybe compressed).
+	 */
+	@Lob
+	private String data;
+
+	/**
+	 * SHA-256 hash of this part of the result data if it's stored in the
+	 * ResultDataStore (instead of in the data field)
+	 */
+	@Column(length = 64)
+	private String dataHash;
+
+	public ComponentResultChunk() {
+	}
+
+	/**
+	 * Chunk with data that are stored in the database. To store them in the
+	 * ResultDataStore (if it's enabled) use ComponentResultDao.appendData().
+	 */
+	public ComponentResultChunk(ComponentResult componentResult, String data) {
+		this.componentResult = componentResult;
+		this.data = ResultDataCodec.encode(data);
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Long getId() {
+		return this.id;
+	}
+
+	public void setComponentResult(ComponentResult componentResult) {
+		this.componentResult = componentResult;
+	}
+
+	public ComponentResult getComponentResult() {
+		return this.componentResult;
+	}
+
+	/**
+	 * Returns this part of the result data if it's stored in the database (in
+	 * the form of ResultDataCodec) or null
+	 */
+	public String getEncodedData() {
+		return this.data;
+	}
+
+	/**
+	 * Sets the hash of data that are already stored in the ResultDataStore
+	 */
+	public void setDataHash(String dataHash) {
+		this.data = null;
+		this.dataHash = dataHash;
+	}
+
+	public String getDataHash() {
+		return this.dataHash;
+	}
+
+	/**
+	 * Moves the data into the ResultDataStore if they are still stored in the
+	 * database. The given function stores the UTF-8 encoded data and returns
+	 * their hash (see ComponentResultDao). Returns true if they were moved.
+	 */
+	public boolean moveDataToResultDataStore(Function<byte[], String> store) {
+		if (data == null) {
+			return false;
+		}
+		this.dataHash = store.apply(ResultDataCodec.decode(data)
+				.getBytes(StandardCharsets.UTF_8));
+		this.data = null;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(id) + ", " + componentResult.getId();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (!(obj instanceof ComponentResultChunk)) {
+			return false;
+		}
+		ComponentResultChunk other = (ComponentResultChunk) obj;
+		if (id == null) {
+			if (other.id != null) {
+				return false;
+			}
+		} else if (!id.equals(other.getId())) {
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import models.common.workers.Worker;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.sql.Timestamp;
@@ -98,10 +99,12 @@ public class StudyResult {
 
     /**
      * List of ComponentResults that belongs to this StudyResult. This
-     * relationship is bidirectional.
+     * relationship is bidirectional. The lists of several StudyResults are
+     * loaded together (e.g. during export of result data).
      */
     @JsonIgnore
     @OneToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
     @OrderColumn(name = "componentResultList_order")
     @JoinColumn(name = "studyResult_id")
     // Not using mappedBy because of
@@ -111,6 +111,34 @@ public abstract class Worker {
 		}
 	}
 
+	/**
+	 * Returns the WORKER_TYPE constant that is equal to the given worker type
+	 * (e.g. one that was parsed from a cookie) or the given one if there is
+	 * none. All further comparisons and hash lookups can then use the
+	 * constant with its cached hash code.
+	 */
+	public static String internWorkerType(String workerType) {
+		if (workerType == null) {
+			return null;
+		}
+		switch (workerType) {
+		case JatosWorker.WORKER_TYPE:
+			return JatosWorker.WORKER_TYPE;
+		case GeneralSingleWorker.WORKER_TYPE:
+			return GeneralSingleWorker.WORKER_TYPE;
+		case MTSandboxWorker.WORKER_TYPE:
+			return MTSandboxWorker.WORKER_TYPE;
+		case MTWorker.WORKER_TYPE:
+			return MTWorker.WORKER_TYPE;
+		case PersonalMultipleWorker.WORKER_TYPE:
+			return PersonalMultipleWorker.WORKER_TYPE;
+		case PersonalSingleWorker.WORKER_TYPE:
+			return PersonalSingleWorker.WORKER_TYPE;
+		default:
+			return workerType;
+		}
+	}
+
 	public void setId(Long id) {
 		this.id = id;
 	}
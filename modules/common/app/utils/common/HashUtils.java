@@ -33,7 +33,20 @@ public class HashUtils {
         }
     }
 
-    private static String bytesToHex(byte[] hashByte) {
+    /**
+     * Calculates hash of the given bytes with the given hash function. Converts the byte array
+     * into an String of hexadecimal characters.
+     */
+    public static String getHash(byte[] bytes, String hashFunction) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(hashFunction);
+            return bytesToHex(digest.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String bytesToHex(byte[] hashByte) {
         StringBuilder sb = new StringBuilder();
         for (byte aHashByte : hashByte) {
             sb.append(Integer.toString((aHashByte & 0xff) + 0x100, 16)
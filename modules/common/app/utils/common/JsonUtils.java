@@ -1,11 +1,17 @@
 package utils.common;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import daos.common.ComponentResultDao;
+import general.common.HeartbeatRecorder;
+import general.common.StudyMetadataCache;
+import general.common.StudyMetadataCache.StudyMetadata;
 import models.common.*;
 import models.common.workers.JatosWorker;
 import models.common.workers.Worker;
@@ -16,11 +22,14 @@ import play.Logger.ALogger;
 import play.libs.Json;
 import utils.common.JsonUtils.SidebarStudy.SidebarComponent;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class the handles everything around JSON, like marshaling and
@@ -37,6 +46,30 @@ public class JsonUtils {
     public static final String DATA = "data";
     public static final String VERSION = "version";
 
+    private final StudyMetadataCache studyMetadataCache;
+    private final HeartbeatRecorder heartbeatRecorder;
+    private final ComponentResultDao componentResultDao;
+
+    /**
+     * Batch properties rendered for the init data mapped to the batch ID. A
+     * batch is changed often during a study run (e.g. by new workers or the
+     * batch session) so instead of invalidating them on each change they are
+     * stored together with the properties they were rendered from. Since these
+     * properties come from the batch that was loaded for the current request
+     * it works in clustered mode too. BatchDao removes a batch's entry when the
+     * batch is removed.
+     */
+    private final Map<Long, RenderedBatchProperties> batchPropertiesCache =
+            new ConcurrentHashMap<>();
+
+    @Inject
+    JsonUtils(StudyMetadataCache studyMetadataCache, HeartbeatRecorder heartbeatRecorder,
+            ComponentResultDao componentResultDao) {
+        this.studyMetadataCache = studyMetadataCache;
+        this.heartbeatRecorder = heartbeatRecorder;
+        this.componentResultDao = componentResultDao;
+    }
+
     /**
      * Helper class for selectively marshaling an Object to JSON. Only fields of
      * that Object that are annotated with this class will be serialised. The
@@ -101,37 +134,57 @@ public class JsonUtils {
 
     /**
      * Returns init data that are requested during initialisation of each
-     * component run: Marshals the study properties and the component properties
-     * and puts them together with the session data (stored in StudyResult) into
-     * a new JSON object.
+     * component run: the study properties, batch properties, component list
+     * and component properties together with the session data and URL query
+     * parameters (both stored in StudyResult) as a JSON string.
+     *
+     * Only the study session data and the URL query parameters change from
+     * request to request. All other parts are rendered once (per version of
+     * the study, batch or component) and are then spliced in as they are.
      */
-    public JsonNode initData(Batch batch, StudyResult studyResult, Study study,
+    public String initData(Batch batch, StudyResult studyResult, Study study,
             Component component) throws IOException {
-        String studyProperties = asJsonForPublix(study);
-        String batchProperties = asJsonForPublix(batch);
-        ArrayNode componentList = getComponentListForInitData(study);
-        String componentProperties = asJsonForPublix(component);
+        StudyMetadata studyMetadata = studyMetadataCache.get(study.getId());
+        String studyProperties;
+        String componentList;
+        String componentProperties;
+        try {
+            studyProperties = studyMetadata.getRenderedJson("studyProperties",
+                    study, this::asJsonForPublixUnchecked);
+            componentList = studyMetadata.getRenderedJson("componentList",
+                    study, this::getComponentListForInitData);
+            componentProperties = studyMetadata.getRenderedJson(
+                    "componentProperties-" + component.getId(), study,
+                    s -> asJsonForPublixUnchecked(
+                            findComponent(s, component)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        String batchProperties = getBatchPropertiesForInitData(batch);
         String studySessionData = studyResult.getStudySessionData();
         String urlQueryParameters = studyResult.getUrlQueryParameters();
 
-        ObjectNode initData = Json.mapper().createObjectNode();
-        initData.put("studySessionData", studySessionData);
-        // This is ugly: first marshaling, now unmarshaling again
-        // https://stackoverflow.com/questions/23006241/converting-pojo-to-jsonnode-using-a-jsonview
-        initData.set("studyProperties", Json.mapper().readTree(studyProperties));
-        initData.set("batchProperties", Json.mapper().readTree(batchProperties));
-        initData.set("componentList", componentList);
-        initData.set("componentProperties", Json.mapper().readTree(componentProperties));
-        initData.set("urlQueryParameters", Json.mapper().readTree(urlQueryParameters));
-        return initData;
+        StringBuilder initData = new StringBuilder(studyProperties.length()
+                + batchProperties.length() + componentList.length()
+                + componentProperties.length() + 256);
+        initData.append("{\"studySessionData\":");
+        appendJsonString(initData, studySessionData);
+        initData.append(",\"studyProperties\":").append(studyProperties);
+        initData.append(",\"batchProperties\":").append(batchProperties);
+        initData.append(",\"componentList\":").append(componentList);
+        initData.append(",\"componentProperties\":")
+                .append(componentProperties);
+        initData.append(",\"urlQueryParameters\":").append(
+                urlQueryParameters != null ? urlQueryParameters : "null");
+        initData.append('}');
+        return initData.toString();
     }
 
     /**
-     * Returns an JSON ArrayNode with with a component list intended for use in
-     * jatos.js initData. For each component it adds only the bare minimum of
-     * data.
+     * Returns a JSON array with a component list intended for use in jatos.js
+     * initData. For each component it adds only the bare minimum of data.
      */
-    private ArrayNode getComponentListForInitData(Study study) {
+    private String getComponentListForInitData(Study study) {
         ArrayNode componentList = Json.mapper().createArrayNode();
         for (Component tempComponent : study.getComponentList()) {
             ObjectNode componentNode = Json.mapper().createObjectNode();
@@ -141,7 +194,96 @@ public class JsonUtils {
             componentNode.put("reloadable", tempComponent.isReloadable());
             componentList.add(componentNode);
         }
-        return componentList;
+        return Json.stringify(componentList);
+    }
+
+    /**
+     * Returns the component of the given study that has the same ID as the
+     * given component or the given component itself if there is none
+     */
+    private static Component findComponent(Study study, Component component) {
+        return study.getComponentList().stream()
+                .filter(c -> c.getId().equals(component.getId())).findFirst()
+                .orElse(component);
+    }
+
+    /**
+     * Returns the batch properties for the init data. They are only rendered
+     * again if one of the properties changed since the last time.
+     */
+    private String getBatchPropertiesForInitData(Batch batch)
+            throws JsonProcessingException {
+        List<Object> properties = Arrays.asList(batch.getTitle(),
+                batch.getMaxActiveMembers(), batch.getMaxTotalMembers(),
+                batch.getMaxTotalWorkers(),
+                new HashSet<>(batch.getAllowedWorkerTypes()),
+                batch.getJsonData());
+        RenderedBatchProperties rendered = batchPropertiesCache
+                .get(batch.getId());
+        if (rendered == null || !rendered.properties.equals(properties)) {
+            rendered = new RenderedBatchProperties(properties,
+                    asJsonForPublix(batch));
+            batchPropertiesCache.put(batch.getId(), rendered);
+        }
+        return rendered.json;
+    }
+
+    /**
+     * Removes the rendered batch properties of the batch with the given ID
+     */
+    public void removeBatchProperties(Long batchId) {
+        batchPropertiesCache.remove(batchId);
+    }
+
+    private String asJsonForPublixUnchecked(Object obj) {
+        try {
+            return asJsonForPublix(obj);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the given string as a quoted and escaped JSON string (or null)
+     */
+    private static void appendJsonString(StringBuilder sb, String str) {
+        if (str == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"')
+                .append(JsonStringEncoder.getInstance().quoteAsString(str))
+                .append('"');
+    }
+
+    /**
+     * Serialises a lastSeenDate the same way as StudyResult does it
+     */
+    private static class LastSeenDate {
+
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy/MM/dd HH:mm:ss")
+        public final Timestamp lastSeenDate;
+
+        LastSeenDate(Timestamp lastSeenDate) {
+            this.lastSeenDate = lastSeenDate;
+        }
+
+    }
+
+    /**
+     * Batch properties rendered to JSON together with the properties they
+     * were rendered from
+     */
+    private static class RenderedBatchProperties {
+
+        private final List<Object> properties;
+        private final String json;
+
+        RenderedBatchProperties(List<Object> properties, String json) {
+            this.properties = properties;
+            this.json = json;
+        }
+
     }
 
     /**
@@ -150,7 +292,9 @@ public class JsonUtils {
      */
     public String componentResultDataForUI(ComponentResult componentResult) {
         final int MAX_CHAR_PER_RESULT = 1000;
-        String data = componentResult.getData();
+        // One more character than shown to know whether it has to be cut
+        String data = componentResultDao.getDataPrefix(componentResult,
+                MAX_CHAR_PER_RESULT + 1);
         if (data != null) {
             // Escape HTML tags and &
             data = data.replace("&", "&amp").replace("<", "&lt;").replace(">",
@@ -203,6 +347,12 @@ public class JsonUtils {
      */
     private JsonNode studyResultAsJsonNode(StudyResult studyResult) {
         ObjectNode studyResultNode = Json.mapper().valueToTree(studyResult);
+        // Heartbeats are written into the database with a delay
+        Timestamp lastSeenDate = heartbeatRecorder.getLastSeenDate(studyResult);
+        if (lastSeenDate != studyResult.getLastSeenDate()) {
+            studyResultNode.setAll((ObjectNode) Json.mapper()
+                    .valueToTree(new LastSeenDate(lastSeenDate)));
+        }
 
         // Add worker
         ObjectNode workerNode = Json.mapper()
@@ -439,8 +589,7 @@ public class JsonUtils {
             // Add count of batch's results
             batchNode.put("resultCount", resultCountList.get(i));
             // Add count of batch's workers (without JatosWorker)
-            batchNode.put("workerCount",
-                    batchList.get(i).getWorkerList().size());
+            batchNode.put("workerCount", batchList.get(i).getWorkerCount());
             int position = i + 1;
             batchNode.put("position", position);
             batchListNode.add(batchNode);
@@ -0,0 +1,282 @@
+package utils.common;
+
+import general.common.Common;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Storage codec for result data that are stored in the database. If
+ * 'jatos.resultData.compression' is set in application.conf result data are
+ * gzipped (and Base64 encoded since the column is text) before they are
+ * stored. Typical result data (JSON arrays of similar trials) shrink this way
+ * several times. Compressed result data start with a prefix that doesn't
+ * appear at the beginning of normal text, so result data that were stored
+ * uncompressed (e.g. before compression was switched on) keep working. Result
+ * data that start with a NUL character themselves (and could be taken for
+ * compressed ones) are stored with an escape prefix.
+ *
+ * @author Kristian Lange (2017)
+ */
+public class ResultDataCodec {
+
+    /**
+     * Marks compressed result data - starts with a NUL character
+     */
+    private static final String COMPRESSED_PREFIX = "\u0000gz:";
+
+    /**
+     * Marks uncompressed result data that start with a NUL character
+     * themselves
+     */
+    private static final String ESCAPED_PREFIX = "\u0000raw:";
+
+    /**
+     * Result data shorter than this aren't worth compressing
+     */
+    private static final int MIN_LENGTH_TO_COMPRESS = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Returns the result data in the form they are stored in the database:
+     * compressed if it's enabled (and saves space) or otherwise as they are
+     */
+    public static String encode(String data) {
+        if (data == null || !Common.isResultDataCompression()
+                || data.length() < MIN_LENGTH_TO_COMPRESS) {
+            return escape(data);
+        }
+        String compressed = compress(data);
+        return compressed.length() < data.length() ? compressed : escape(data);
+    }
+
+    /**
+     * Like encode(String) but for result data in a file that are too large to
+     * be read into memory: returns the stored form as a Reader together with
+     * its length in characters. The file has the given charset and length in
+     * characters. Compressed result data are written into a temporary file
+     * first that is removed when the returned EncodedReader is closed.
+     */
+    public static EncodedReader encode(Path file, Charset charset, long length)
+            throws IOException {
+        if (Common.isResultDataCompression() && length >= MIN_LENGTH_TO_COMPRESS) {
+            Path compressedFile = compress(file, charset);
+            long compressedLength = COMPRESSED_PREFIX.length() + Files.size(compressedFile);
+            if (compressedLength < length) {
+                Reader reader = new SequenceReader(COMPRESSED_PREFIX,
+                        Files.newBufferedReader(compressedFile, StandardCharsets.ISO_8859_1));
+                return new EncodedReader(reader, compressedLength, compressedFile);
+            }
+            Files.delete(compressedFile);
+        }
+        BufferedReader reader = Files.newBufferedReader(file, charset);
+        reader.mark(1);
+        boolean startsWithNul = reader.read() == '\u0000';
+        reader.reset();
+        if (startsWithNul) {
+            return new EncodedReader(new SequenceReader(ESCAPED_PREFIX, reader),
+                    ESCAPED_PREFIX.length() + length, null);
+        }
+        return new EncodedReader(reader, length, null);
+    }
+
+    /**
+     * Writes the gzipped and Base64 encoded result data of the given file
+     * into a new temporary file
+     */
+    private static Path compress(Path file, Charset charset) throws IOException {
+        Path compressedFile = Files.createTempFile("jatosResultData", ".gz");
+        try (Reader reader = Files.newBufferedReader(file, charset);
+             Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+                     Base64.getEncoder().wrap(Files.newOutputStream(compressedFile)),
+                     BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[BUFFER_SIZE];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(compressedFile);
+            throw e;
+        }
+        return compressedFile;
+    }
+
+    private static String escape(String data) {
+        return data != null && data.startsWith("\u0000") ? ESCAPED_PREFIX + data : data;
+    }
+
+    /**
+     * Returns the uncompressed stored data without an escape prefix
+     */
+    private static String unescape(String storedData) {
+        return storedData != null && storedData.startsWith(ESCAPED_PREFIX)
+                ? storedData.substring(ESCAPED_PREFIX.length()) : storedData;
+    }
+
+    /**
+     * Compresses the given result data regardless of the configuration
+     */
+    public static String compress(String data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+                Base64.getEncoder().wrap(bytes), BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            writer.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return COMPRESSED_PREFIX + new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    public static boolean isCompressed(String storedData) {
+        return storedData != null && storedData.startsWith(COMPRESSED_PREFIX);
+    }
+
+    /**
+     * Returns the result data from the form they are stored in the database
+     */
+    public static String decode(String storedData) {
+        if (!isCompressed(storedData)) {
+            return unescape(storedData);
+        }
+        StringBuilder sb = new StringBuilder(storedData.length() * 4);
+        decodeTo(storedData, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the result data to the given StringBuilder - compressed result
+     * data are decompressed on the fly without an intermediate String
+     */
+    public static void decodeTo(String storedData, StringBuilder sb) {
+        if (!isCompressed(storedData)) {
+            if (storedData != null) sb.append(unescape(storedData));
+            return;
+        }
+        try (Reader reader = openReader(storedData)) {
+            char[] buffer = new char[BUFFER_SIZE];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns at most the first maxLength characters of the result data -
+     * compressed result data are only decompressed as far as necessary
+     */
+    public static String decodePrefix(String storedData, int maxLength) {
+        if (!isCompressed(storedData)) {
+            String data = unescape(storedData);
+            return data != null ? data.substring(0, Math.min(maxLength, data.length())) : null;
+        }
+        try (Reader reader = openReader(storedData)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[Math.min(maxLength, BUFFER_SIZE)];
+            int length;
+            while (sb.length() < maxLength && (length = reader.read(buffer, 0,
+                    Math.min(buffer.length, maxLength - sb.length()))) != -1) {
+                sb.append(buffer, 0, length);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Reader openReader(String storedData) throws IOException {
+        byte[] base64 = storedData.substring(COMPRESSED_PREFIX.length())
+                .getBytes(StandardCharsets.ISO_8859_1);
+        return new InputStreamReader(new GZIPInputStream(Base64.getDecoder()
+                .wrap(new ByteArrayInputStream(base64)), BUFFER_SIZE),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Result data in the form they are stored in the database as a Reader
+     * together with their length in characters
+     */
+    public static class EncodedReader implements Closeable {
+
+        private final Reader reader;
+        private final long length;
+        private final Path tmpFile;
+
+        private EncodedReader(Reader reader, long length, Path tmpFile) {
+            this.reader = reader;
+            this.length = length;
+            this.tmpFile = tmpFile;
+        }
+
+        public Reader getReader() {
+            return reader;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                if (tmpFile != null) Files.deleteIfExists(tmpFile);
+            }
+        }
+
+    }
+
+    /**
+     * Reader of a prefix followed by another Reader
+     */
+    private static class SequenceReader extends Reader {
+
+        private final String prefix;
+        private final Reader reader;
+        private int position = 0;
+
+        SequenceReader(String prefix, Reader reader) {
+            this.prefix = prefix;
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (position < prefix.length()) {
+                int count = Math.min(length, prefix.length() - position);
+                prefix.getChars(position, position + count, buffer, offset);
+                position += count;
+                return count;
+            }
+            return reader.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+package utils.common;
+
+import com.google.common.util.concurrent.Striped;
+import general.common.Common;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Content-addressed file store for result data. It's used instead of the
+ * database if 'jatos.resultData.path' is set in application.conf. Each result
+ * data is stored UTF-8 encoded in a file that is named after the SHA-256 hash
+ * of its content (in a sub-directory named after the hash's first two
+ * characters). Identical result data are stored only once. The database keeps
+ * only the hash.
+ *
+ * Since a file can be shared by several results, it's only removed if no
+ * result refers to it anymore. Each store of a hash counts as pending until
+ * {@link #release(String)} is called after the storing transaction completed.
+ * A file with pending stores is never removed because the result that refers
+ * to it might not be committed yet. Storing and removing of the same hash are
+ * serialized by a lock. ComponentResultDao does all of this and is the only
+ * one that reads result data from the store.
+ *
+ * @author Kristian Lange (2017)
+ */
+@Singleton
+public class ResultDataStore {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Locks that serialize storing and removing per hash
+     */
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    /**
+     * Number of stores per hash whose transactions aren't completed yet -
+     * only accessed while holding the hash's lock
+     */
+    private final Map<String, Integer> pending = new HashMap<>();
+
+    /**
+     * Returns true if the result data are stored in files instead of the
+     * database
+     */
+    public boolean isEnabled() {
+        return Common.getResultDataPath() != null;
+    }
+
+    /**
+     * Stores the given UTF-8 encoded result data and returns their hash. The
+     * store is pending until {@link #release(String)} is called.
+     */
+    public String store(byte[] data) {
+        String hash = HashUtils.getHash(data, HashUtils.SHA_256);
+        if (addPendingIfExists(hash)) {
+            return hash;
+        }
+        try {
+            Path tmpPath = createTempFile();
+            try {
+                Files.write(tmpPath, data);
+                storeFile(tmpPath, hash);
+            } finally {
+                Files.deleteIfExists(tmpPath);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return hash;
+    }
+
+    /**
+     * Stores the given file with UTF-8 encoded result data under the given
+     * hash (the SHA-256 of the file's content). The file is moved and must be
+     * on the same file system, e.g. created by {@link #createTempFile()}. The
+     * store is pending until {@link #release(String)} is called.
+     */
+    public void storeFile(Path file, String hash) throws IOException {
+        Lock lock = locks.get(hash);
+        lock.lock();
+        try {
+            pending.merge(hash, 1, Integer::sum);
+            Path path = getPath(hash);
+            if (Files.exists(path)) {
+                return;
+            }
+            Files.createDirectories(path.getParent());
+            // Move atomically so no one ever reads a partly written file
+            try {
+                Files.move(file, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Stored by another JATOS node in the meantime - same content
+            }
+        } finally {
+            lock.unlock();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Counts a pending store of the given hash if the file exists already
+     */
+    private boolean addPendingIfExists(String hash) {
+        Lock lock = locks.get(hash);
+        lock.lock();
+        try {
+            if (!Files.exists(getPath(hash))) {
+                return false;
+            }
+            pending.merge(hash, 1, Integer::sum);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a pending store of the given hash. Has to be called once for each
+     * store after the transaction that stored it completed - whether it was
+     * committed or rolled back.
+     */
+    public void release(String hash) {
+        Lock lock = locks.get(hash);
+        lock.lock();
+        try {
+            pending.computeIfPresent(hash, (h, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates a new temporary file in the store's directory
+     */
+    public Path createTempFile() throws IOException {
+        Path root = Paths.get(Common.getResultDataPath());
+        Files.createDirectories(root);
+        return Files.createTempFile(root, "resultData", ".tmp");
+    }
+
+    /**
+     * Returns the whole result data stored under the given hash
+     */
+    public String read(String hash) {
+        try {
+            return new String(Files.readAllBytes(getPath(hash)),
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns at most the first maxLength characters of the result data
+     * stored under the given hash. Only this part of the file is read.
+     */
+    public String readPrefix(String hash, int maxLength) {
+        try (Reader reader = Files.newBufferedReader(getPath(hash),
+                StandardCharsets.UTF_8)) {
+            CharBuffer buffer = CharBuffer.allocate(maxLength);
+            while (buffer.hasRemaining() && reader.read(buffer) != -1) {
+                // Keep on reading until the buffer is full or the file ends
+            }
+            buffer.flip();
+            return buffer.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the result data stored under the given hash to the given
+     * StringBuilder. The file is streamed and not read into a String first.
+     */
+    public void appendTo(String hash, StringBuilder sb) {
+        try (Reader reader = Files.newBufferedReader(getPath(hash),
+                StandardCharsets.UTF_8)) {
+            char[] buffer = new char[BUFFER_SIZE];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes the file with the given hash if there are no pending stores of
+     * it and the given check (e.g. a database query for results that refer
+     * to it) says it's unused. The check runs while the hash is locked so the
+     * file can't be stored again in the meantime. Returns true if the file was
+     * removed.
+     */
+    public boolean removeIfUnused(String hash, BooleanSupplier isUnused) {
+        Lock lock = locks.get(hash);
+        lock.lock();
+        try {
+            if (pending.containsKey(hash) || !isUnused.getAsBoolean()) {
+                return false;
+            }
+            return Files.deleteIfExists(getPath(hash));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getPath(String hash) {
+        return Paths.get(Common.getResultDataPath(), hash.substring(0, 2),
+                hash);
+    }
+
+}
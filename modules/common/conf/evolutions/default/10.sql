@@ -0,0 +1,7 @@
+# Index for the lookup whether a worker did or finished a study already
+
+# --- !Ups
+ALTER TABLE `StudyResult` ADD KEY `IDX_studyResult_worker_study_state` (`worker_id`, `study_id`, `studyState`);
+
+# --- !Downs
+ALTER TABLE `StudyResult` DROP KEY `IDX_studyResult_worker_study_state`;
@@ -0,0 +1,8 @@
+# Number of workers of a batch - to check maxTotalWorkers without loading them
+
+# --- !Ups
+ALTER TABLE `Batch` ADD `workerCount` int(11) NOT NULL DEFAULT 0;
+UPDATE `Batch` SET `workerCount` = (SELECT COUNT(*) FROM `BatchWorkerMap` WHERE `BatchWorkerMap`.`batch_id` = `Batch`.`id`);
+
+# --- !Downs
+ALTER TABLE `Batch` DROP `workerCount`;
@@ -0,0 +1,17 @@
+# Store appended result data in chunks
+
+# --- !Ups
+
+CREATE TABLE `ComponentResultChunk` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `data` longtext,
+  `componentResult_id` bigint(20) NOT NULL,
+  PRIMARY KEY (`id`)
+) DEFAULT CHARSET=utf8;
+
+ALTER TABLE `ComponentResultChunk` ADD KEY `FK_componentResultChunk_componentResult` (`componentResult_id`);
+ALTER TABLE `ComponentResultChunk` ADD CONSTRAINT `FK_componentResultChunk_componentResult` FOREIGN KEY (`componentResult_id`) REFERENCES `ComponentResult` (`id`);
+
+# --- !Downs
+
+DROP TABLE IF EXISTS `ComponentResultChunk`;
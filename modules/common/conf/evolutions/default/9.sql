@@ -0,0 +1,12 @@
+# Result data can be stored in files named after their hash instead of in the DB
+
+# --- !Ups
+ALTER TABLE `ComponentResult` ADD `dataHash` varchar(64) DEFAULT NULL;
+ALTER TABLE `ComponentResult` ADD `dataSize` bigint(20) DEFAULT NULL;
+ALTER TABLE `ComponentResult` ADD `dataPreview` varchar(1024) DEFAULT NULL;
+ALTER TABLE `ComponentResult` ADD KEY `IDX_componentResult_dataHash` (`dataHash`);
+ALTER TABLE `ComponentResultChunk` ADD `dataHash` varchar(64) DEFAULT NULL;
+ALTER TABLE `ComponentResultChunk` ADD KEY `IDX_componentResultChunk_dataHash` (`dataHash`);
+
+# --- !Downs
+# not supported
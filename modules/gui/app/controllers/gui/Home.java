@@ -2,13 +2,21 @@ package controllers.gui;
 
 import controllers.gui.actionannotations.AuthenticationAction.Authenticated;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import daos.common.StudyDao;
+import general.common.ChannelStats;
+import general.common.ChannelStats.ChannelCounters;
+import general.common.Common;
+import general.common.JdbcExecutionContext;
+import general.common.StudyStartAdmission;
 import models.common.Study;
 import models.common.User;
 import models.common.User.Role;
 import play.Logger;
 import play.Logger.ALogger;
 import play.db.jpa.Transactional;
+import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
@@ -21,6 +29,7 @@ import utils.common.JsonUtils;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Controller that provides actions for the home view.
@@ -38,16 +47,24 @@ public class Home extends Controller {
     private final BreadcrumbsService breadcrumbsService;
     private final StudyDao studyDao;
     private final LogFileReader logFileReader;
+    private final JdbcExecutionContext jdbcExecutionContext;
+    private final StudyStartAdmission studyStartAdmission;
+    private final ChannelStats channelStats;
 
     @Inject
     Home(JsonUtils jsonUtils, AuthenticationService authenticationService,
             BreadcrumbsService breadcrumbsService, StudyDao studyDao,
-            LogFileReader logFileReader) {
+            LogFileReader logFileReader,
+            JdbcExecutionContext jdbcExecutionContext,
+            StudyStartAdmission studyStartAdmission, ChannelStats channelStats) {
         this.jsonUtils = jsonUtils;
         this.authenticationService = authenticationService;
         this.breadcrumbsService = breadcrumbsService;
         this.studyDao = studyDao;
         this.logFileReader = logFileReader;
+        this.jdbcExecutionContext = jdbcExecutionContext;
+        this.studyStartAdmission = studyStartAdmission;
+        this.channelStats = channelStats;
     }
 
     /**
@@ -99,4 +116,59 @@ public class Home extends Controller {
         return ok().chunked(logFileReader.read("application.log", lineLimit))
                 .as("text/plain; charset=utf-8");
     }
+
+    /**
+     * Ajax request
+     * <p>
+     * Returns the current load of JATOS as JSON: the thread pool that does the
+     * database access, the admission control of study starts (per batch) and
+     * the outbound frames of the batch and group channels (per study). Only for
+     * users with Role ADMIN. It doesn't access the database and therefore
+     * isn't @Transactional: it doesn't hold a database connection while it
+     * collects the metrics.
+     */
+    @Authenticated(Role.ADMIN)
+    public Result metrics() {
+        LOGGER.debug(".metrics");
+        ObjectNode metricsNode = Json.newObject();
+
+        ObjectNode jdbcNode = metricsNode.putObject("jdbcExecutionContext");
+        jdbcNode.put("poolSize", Common.getDbPoolSize());
+        jdbcNode.put("connectionPoolSize", Common.getDbConnectionPoolSize());
+        jdbcNode.put("queueSize", jdbcExecutionContext.getQueueSize());
+        jdbcNode.put("activeCount", jdbcExecutionContext.getActiveCount());
+        jdbcNode.put("completedCount", jdbcExecutionContext.getCompletedCount());
+
+        ObjectNode admissionNode = metricsNode.putObject("studyStartAdmission");
+        admissionNode.put("enabled", studyStartAdmission.isEnabled());
+        admissionNode.put("maxConcurrent", Common.getStudyStartMaxConcurrent());
+        admissionNode.put("maxQueued", Common.getStudyStartMaxQueued());
+        admissionNode.put("retryAfter", Common.getStudyStartRetryAfter());
+        ArrayNode batchesNode = admissionNode.putArray("batches");
+        for (StudyStartAdmission.Metrics metrics : studyStartAdmission.getMetrics()) {
+            batchesNode.addObject()
+                    .put("studyId", metrics.studyId)
+                    .put("batchId", metrics.batchId)
+                    .put("running", metrics.running)
+                    .put("waiting", metrics.waiting)
+                    .put("admitted", metrics.admitted)
+                    .put("queued", metrics.queued)
+                    .put("rejected", metrics.rejected);
+        }
+
+        ObjectNode channelsNode = metricsNode.putObject("channels");
+        channelsNode.put("outboundBufferSize", Common.getChannelOutboundBufferSize());
+        channelsNode.put("outboundBufferMaxUndroppable",
+                Common.getChannelOutboundBufferMaxUndroppable());
+        ArrayNode studiesNode = channelsNode.putArray("studies");
+        for (Map.Entry<Long, ChannelCounters> entry : channelStats.getAll().entrySet()) {
+            ChannelCounters counters = entry.getValue();
+            studiesNode.addObject()
+                    .put("studyId", entry.getKey())
+                    .put("queuedFrames", counters.queuedFrames.sum())
+                    .put("droppedFrames", counters.droppedFrames.sum())
+                    .put("closedChannels", counters.closedChannels.sum());
+        }
+        return ok(metricsNode);
+    }
 }
@@ -11,6 +11,7 @@ import models.common.User;
 import models.common.User.Role;
 import play.Logger;
 import play.Logger.ALogger;
+import play.db.jpa.JPAApi;
 import play.mvc.Action;
 import play.mvc.Http;
 import play.mvc.Result;
@@ -53,8 +54,10 @@ import java.util.concurrent.CompletionStage;
  * done once during login (class {@link Authentication}).
  * <p>
  * IMPORTANT: Since this annotation accesses the database the annotated method
- * has to be within a transaction. This means the @Transactional annotation has
- * to be BEFORE the @Authenticated annotation.
+ * should be within a transaction. This means the @Transactional annotation has
+ * to be BEFORE the @Authenticated annotation. Only methods that don't access
+ * the database themselves (e.g. {@link Home#metrics()}) can do without - then
+ * the user is retrieved in a short transaction of its own.
  *
  * @author Kristian Lange (2015 - 2017)
  */
@@ -76,11 +79,14 @@ public class AuthenticationAction extends Action<Authenticated> {
 
     private final Provider<Home> homeProvider;
     private final AuthenticationService authenticationService;
+    private final JPAApi jpa;
 
     @Inject
-    AuthenticationAction(Provider<Home> homeProvider, AuthenticationService authenticationService) {
+    AuthenticationAction(Provider<Home> homeProvider, AuthenticationService authenticationService,
+            JPAApi jpa) {
         this.homeProvider = homeProvider;
         this.authenticationService = authenticationService;
+        this.jpa = jpa;
     }
 
     public CompletionStage<Result> call(Http.Context ctx) {
@@ -89,7 +95,7 @@ public class AuthenticationAction extends Action<Authenticated> {
         // retrieve the user from the database and put it into our RequestScope
         // since we need it later anyway. Storing it in the RequestScope now
         // saves us some database requests later.
-        User loggedInUser = authenticationService.getLoggedInUserBySessionCookie(ctx.session());
+        User loggedInUser = retrieveLoggedInUser(ctx);
         if (loggedInUser == null) {
             authenticationService.clearSessionCookie(ctx.session());
             return callForbiddenDueToAuthentication(ctx.request().remoteAddress(),
@@ -131,6 +137,32 @@ public class AuthenticationAction extends Action<Authenticated> {
         return delegate.call(ctx);
     }
 
+    /**
+     * Retrieves the logged-in user from the database - in the transaction of
+     * the annotated method or, if it has none, in a read-only transaction of
+     * its own that is closed again before the method is called.
+     */
+    private User retrieveLoggedInUser(Http.Context ctx) {
+        if (isTransactionBound()) {
+            return authenticationService.getLoggedInUserBySessionCookie(ctx.session());
+        }
+        return jpa.withTransaction("default", true,
+                () -> authenticationService.getLoggedInUserBySessionCookie(ctx.session()));
+    }
+
+    /**
+     * Returns true if there is an EntityManager bound to the current request
+     * (the method is annotated with @Transactional)
+     */
+    private boolean isTransactionBound() {
+        try {
+            jpa.em();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
     private boolean isAuthorized(User loggedInUser) {
         // configuration.value() contains the Role parameter of @Authenticated
         Role neededRole = configuration.value();
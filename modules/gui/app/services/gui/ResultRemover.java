@@ -66,8 +66,8 @@ public class ResultRemover {
                 resultService.getComponentResults(componentResultIdList);
         checker.checkComponentResults(componentResultList, user, true);
         componentResultList.forEach(this::removeComponentResultFromStudyResult);
-        componentResultDao.removeAll(componentResultList);
         studyLogger.logResultDataRemoving(componentResultList);
+        componentResultDao.removeAll(componentResultList);
     }
 
     /**
@@ -84,8 +84,8 @@ public class ResultRemover {
         List<Long> studyResultIdList = resultService.extractResultIds(studyResultIds);
         List<StudyResult> studyResultList = resultService.getStudyResults(studyResultIdList);
         checker.checkStudyResults(studyResultList, user, true);
-        studyResultList.forEach(this::removeStudyResult);
         studyLogger.logStudyResultDataRemoving(studyResultList);
+        studyResultList.forEach(this::removeStudyResult);
     }
 
     /**
@@ -99,8 +99,8 @@ public class ResultRemover {
                 componentResultDao.findAllByComponent(component);
         checker.checkComponentResults(componentResultList, user, true);
         componentResultList.forEach(this::removeComponentResultFromStudyResult);
-        componentResultDao.removeAll(componentResultList);
         studyLogger.logResultDataRemoving(componentResultList);
+        componentResultDao.removeAll(componentResultList);
     }
 
     /**
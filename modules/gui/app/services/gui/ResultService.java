@@ -3,6 +3,8 @@ package services.gui;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -68,9 +70,12 @@ public class ResultService {
      */
     public List<ComponentResult> getComponentResults(
             List<Long> componentResultIdList) throws NotFoundException {
+        Map<Long, ComponentResult> componentResultMap = componentResultDao
+                .findAllByIds(componentResultIdList).stream()
+                .collect(Collectors.toMap(ComponentResult::getId, Function.identity()));
         List<ComponentResult> componentResultList = new ArrayList<>();
         for (Long componentResultId : componentResultIdList) {
-            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            ComponentResult componentResult = componentResultMap.get(componentResultId);
             if (componentResult == null) {
                 throw new NotFoundException(MessagesStrings
                         .componentResultNotExist(componentResultId));
@@ -86,9 +91,12 @@ public class ResultService {
      */
     public List<StudyResult> getStudyResults(List<Long> studyResultIdList)
             throws NotFoundException {
+        Map<Long, StudyResult> studyResultMap = studyResultDao
+                .findAllByIds(studyResultIdList).stream()
+                .collect(Collectors.toMap(StudyResult::getId, Function.identity()));
         List<StudyResult> studyResultList = new ArrayList<>();
         for (Long studyResultId : studyResultIdList) {
-            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            StudyResult studyResult = studyResultMap.get(studyResultId);
             if (studyResult == null) {
                 throw new NotFoundException(
                         MessagesStrings.studyResultNotExist(studyResultId));
@@ -137,9 +145,8 @@ public class ResultService {
         Iterator<ComponentResult> iterator = componentResultList.iterator();
         while (iterator.hasNext()) {
             ComponentResult componentResult = iterator.next();
-            String data = componentResult.getData();
-            if (data != null) {
-                sb.append(data);
+            if (componentResult.hasData()) {
+                componentResultDao.appendDataTo(componentResult, sb);
                 if (iterator.hasNext()) {
                     sb.append("\n");
                 }
@@ -255,8 +255,7 @@ public class StudyService {
         // For each of the study's batches add the user's JatosWorker
         JatosWorker jatosWorker = user.getWorker();
         for (Batch batch : study.getBatchList()) {
-            batch.addWorker(jatosWorker);
-            batchDao.update(batch);
+            batchDao.addWorker(batch, jatosWorker);
         }
         workerDao.update(jatosWorker);
     }
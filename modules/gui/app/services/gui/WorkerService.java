@@ -95,9 +95,8 @@ public class WorkerService {
         while (amount > 0) {
             T worker = workerConstructor.apply(comment);
             validateWorker(worker);
-            batch.addWorker(worker);
             workerDao.create(worker);
-            batchDao.update(batch);
+            batchDao.addWorker(batch, worker);
             workerList.add(worker);
             amount--;
         }
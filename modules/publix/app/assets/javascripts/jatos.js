@@ -137,6 +137,11 @@ var jatos = {};
 	 */
 	var groupSessionVersion;
 	var batchSessionVersion;
+	/**
+	 * Version of the group membership (members and open group channels). JATOS
+	 * sends membership changes as deltas and this version orders them.
+	 */
+	var groupMembershipVersion;
 	/**
 	 * Group channel WebSocket to exchange messages between workers of a group.
 	 * Not to be confused with 'jatos.groupChannels'. Accessible only by jatos.js.
@@ -1113,7 +1118,8 @@ var jatos = {};
 		groupChannel = new WebSocket(
 			((window.location.protocol === "https:") ? "wss://" : "ws://") +
 			window.location.host + "/publix/" + jatos.studyId +
-			"/group/join" + "?srid=" + jatos.studyResultId);
+			"/group/join" + "?srid=" + jatos.studyResultId +
+			"&membershipUpdates=delta");
 		groupChannel.onopen = function (event) {
 			// Do nothing -  group channel opening is only done when we have the group session version
 		};
@@ -1133,6 +1139,7 @@ var jatos = {};
 			jatos.groupChannels = [];
 			groupSessionData = {};
 			groupSessionVersion = null;
+			groupMembershipVersion = null;
 			callFunctionIfExist(callbacks.onClose);
 		};
 		return joiningGroupDeferred;
@@ -1174,6 +1181,9 @@ var jatos = {};
 		if (typeof groupMsg.channels != 'undefined') {
 			jatos.groupChannels = groupMsg.channels;
 		}
+		if (typeof groupMsg.membershipVersion != 'undefined') {
+			updateGroupMembership(groupMsg);
+		}
 		if (typeof groupMsg.sessionPatches != 'undefined') {
 			jsonpatch.apply(groupSessionData, groupMsg.sessionPatches);
 		}
@@ -1191,6 +1201,76 @@ var jatos = {};
 		}
 	}
 
+	/**
+	 * Applies a membership change that JATOS sent as a delta (only the changed
+	 * member without the lists of members and channels). Messages with the full
+	 * lists just set the membership version.
+	 */
+	function updateGroupMembership(groupMsg) {
+		var isDelta = typeof groupMsg.members == 'undefined';
+		if (!isDelta) {
+			groupMembershipVersion = groupMsg.membershipVersion;
+			return;
+		}
+		// A delta that isn't newer than the current membership means the group's
+		// membership version started again (e.g. the group was moved to a
+		// different JATOS node) or the delta came from the group this worker was
+		// reassigned from. Don't apply it but ask JATOS for the full membership.
+		if (groupMembershipVersion !== null &&
+			typeof groupMembershipVersion != 'undefined' &&
+			groupMsg.membershipVersion <= groupMembershipVersion) {
+			requestGroupMembership();
+			return;
+		}
+		groupMembershipVersion = groupMsg.membershipVersion;
+		switch (groupMsg.action) {
+			case "OPENED":
+				addToArray(jatos.groupMembers, groupMsg.memberId);
+				addToArray(jatos.groupChannels, groupMsg.memberId);
+				break;
+			case "CLOSED":
+				removeFromArray(jatos.groupChannels, groupMsg.memberId);
+				break;
+			case "JOINED":
+				addToArray(jatos.groupMembers, groupMsg.memberId);
+				break;
+			case "LEFT":
+				removeFromArray(jatos.groupMembers, groupMsg.memberId);
+				break;
+		}
+	}
+
+	/**
+	 * Asks JATOS via the group channel to send the full membership (lists of
+	 * members and channels). It comes back with the action 'MEMBERSHIP'.
+	 */
+	function requestGroupMembership() {
+		if (!groupChannel || groupChannel.readyState != 1) {
+			return;
+		}
+		var msgObj = {};
+		msgObj.action = "MEMBERSHIP";
+		msgObj.membershipVersion = groupMembershipVersion;
+		try {
+			groupChannel.send(JSON.stringify(msgObj));
+		} catch (error) {
+			console.error(error);
+		}
+	}
+
+	function addToArray(array, element) {
+		if (array.indexOf(element) === -1) {
+			array.push(element);
+		}
+	}
+
+	function removeFromArray(array, element) {
+		var index = array.indexOf(element);
+		if (index !== -1) {
+			array.splice(index, 1);
+		}
+	}
+
 	function callGroupActionCallbacks(groupMsg, callbacks) {
 		if (!groupMsg.action) {
 			return;
@@ -1245,6 +1325,10 @@ var jatos = {};
 				}
 				callFunctionIfExist(callbacks.onUpdate);
 				break;
+			case "MEMBERSHIP":
+				// Got the full membership that was requested
+				callFunctionIfExist(callbacks.onUpdate);
+				break;
 			case "FIXED":
 				// The group is now fixed (no new members)
 				if (groupFixedTimeout) {
@@ -1,25 +1,27 @@
 package controllers.publix
 
-import javax.inject.{Inject, Named, Singleton}
+import javax.inject.{Inject, Singleton}
 
 import akka.actor.{ActorRef, ActorSystem}
 import akka.pattern.ask
 import akka.stream.Materializer
 import akka.stream.scaladsl.Flow
 import akka.util.Timeout
-import batch.BatchChannelActor
 import batch.BatchDispatcher.PoisonChannel
-import batch.BatchDispatcherRegistry.{GetOrCreate, ItsThisOne}
+import batch.{BatchChannelActor, BatchDispatcherRegistry}
 import exceptions.publix.PublixException
+import general.ChannelFlow
+import general.common.ChannelStats
 import models.common.workers._
 import play.api.Logger
-import play.api.libs.streams.ActorFlow
+import play.api.http.websocket.Message
+import play.api.libs.concurrent.Execution.Implicits.defaultContext
 import play.api.mvc._
 import services.publix.idcookie.IdCookieService
 import services.publix.workers._
 import services.publix.{PublixUtils, StudyAuthorisation}
 
-import scala.concurrent.Await
+import scala.concurrent.Future
 import scala.concurrent.duration._
 
 /**
@@ -42,8 +44,10 @@ abstract class BatchChannel[A <: Worker](publixUtils: PublixUtils[A],
   var idCookieService: IdCookieService = _
 
   @Inject
-  @Named("batch-dispatcher-registry-actor")
-  var batchDispatcherRegistry: ActorRef = _
+  var batchDispatcherRegistry: BatchDispatcherRegistry = _
+
+  @Inject
+  var channelStats: ChannelStats = _
 
   /**
     * Time to wait for an answer after asking an Akka actor
@@ -51,11 +55,13 @@ abstract class BatchChannel[A <: Worker](publixUtils: PublixUtils[A],
   implicit val timeout: Timeout = 5.seconds
 
   /**
-    * HTTP endpoint that opens a batch channel and returns a Akka stream Flow that will be turned
-    * into WebSocket. In case of an error/problem an PublixException is thrown.
+    * HTTP endpoint that opens a batch channel and returns a Future of an Akka stream Flow that
+    * will be turned into WebSocket. It accesses the database and has to be called within a
+    * transaction. The returned Future doesn't need the database anymore. In case of an
+    * error/problem an PublixException is thrown.
     */
   @throws(classOf[PublixException])
-  def open(studyId: Long, studyResultId: Long): Flow[Any, Nothing, _] = {
+  def open(studyId: Long, studyResultId: Long): Future[Flow[Message, Message, _]] = {
     logger.info(s".open: studyId $studyId, studyResultId $studyResultId")
     val idCookie = idCookieService.getIdCookie(studyResultId)
     val worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId)
@@ -65,33 +71,25 @@ abstract class BatchChannel[A <: Worker](publixUtils: PublixUtils[A],
     val studyResult = publixUtils.retrieveStudyResult(worker, study, studyResultId)
 
     // Get the BatchDispatcher that will handle this batch.
-    val batchDispatcher = getOrCreateBatchDispatcher(batch.getId)
+    val batchDispatcher = batchDispatcherRegistry.getOrCreate(batch.getId)
     // If this BatchDispatcher already has a batch channel for this
     // StudyResult, close the old one before opening a new one.
-    closeBatchChannel(studyResult.getId, batchDispatcher)
-    ActorFlow.actorRef { out => BatchChannelActor.props(out, studyResult.getId, batchDispatcher) }
-  }
-
-  /**
-    * Asks the BatchDispatcherRegistry to get or create a batch dispatcher for the given ID. It
-    * waits until it receives an answer. The answer is an ActorRef (to a BatchDispatcher).
-    */
-  private def getOrCreateBatchDispatcher(batchId: Long): ActorRef = {
-    val future = batchDispatcherRegistry ? GetOrCreate(batchId)
-    Await.result(future, timeout.duration).asInstanceOf[ItsThisOne].dispatcher
+    val id = studyResult.getId
+    val counters = channelStats.forStudy(study.getId)
+    closeBatchChannel(id, batchDispatcher).map { _ =>
+      ChannelFlow.actorRef(out => BatchChannelActor.props(out, id, batchDispatcher), counters)
+    }
   }
 
   /**
     * Closes the batch channel that belongs to the given study result ID and is managed by the
-    * given BatchDispatcher. Waits until it receives a result from the BatchDispatcher actor. It
-    * returns true if the BatchChannel was managed by the BatchDispatcher and was successfully
-    * removed from the BatchDispatcher, false otherwise (it was probably never managed by the
-    * dispatcher).
+    * given BatchDispatcher. The returned Future completes with the result from the
+    * BatchDispatcher actor: true if the BatchChannel was managed by the BatchDispatcher and was
+    * successfully removed from the BatchDispatcher, false otherwise (it was probably never
+    * managed by the dispatcher).
     */
-  private def closeBatchChannel(studyResultId: Long, batchDispatcher: ActorRef) = {
-    val future = batchDispatcher ? PoisonChannel(studyResultId)
-    Await.result(future, timeout.duration).asInstanceOf[Boolean]
-  }
+  private def closeBatchChannel(studyResultId: Long, batchDispatcher: ActorRef): Future[Boolean] =
+    (batchDispatcher ? PoisonChannel(studyResultId)).mapTo[Boolean]
 
 }
 
@@ -2,12 +2,16 @@ package controllers.publix
 
 import javax.inject.{Inject, Singleton}
 
+import akka.stream.scaladsl.Flow
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging
 import exceptions.publix.{BadRequestPublixException, ForbiddenPublixException, NotFoundPublixException, PublixException}
+import general.ChannelProtocol
+import general.common.JdbcExecutionContext
 import models.common.workers._
 import play.api.Logger
-import play.api.libs.json.JsValue
-import play.api.mvc.{Action, Controller, Results, WebSocket}
+import play.api.http.websocket.Message
+import play.api.libs.concurrent.Execution.Implicits.defaultContext
+import play.api.mvc._
 import play.db.jpa.JPAApi
 import services.publix.idcookie.IdCookieService
 
@@ -17,12 +21,14 @@ import scala.concurrent.Future
 /**
   * This class intercepts a request before it gets to the BatchChannel or GroupChannel. It has
   * several purposes: exception handling, final WebSocket creation, and matching to the right
-  * worker type.
+  * worker type. The matching uses dispatch tables from worker type to the (singleton) channel
+  * implementations that are built once.
   */
 @Singleton
 @PublixAccessLogging
 class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
                                    jpa: JPAApi,
+                                   jdbcExecutionContext: JdbcExecutionContext,
                                    generalSingleBatchChannel: GeneralSingleBatchChannel,
                                    jatosBatchChannel: JatosBatchChannel,
                                    mTBatchChannel: MTBatchChannel,
@@ -37,6 +43,28 @@ class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
 
   private val logger: Logger = Logger(this.getClass)
 
+  /**
+    * Dispatch table: worker type -> batch channel that handles it
+    */
+  private val batchChannels: Map[String, BatchChannel[_ <: Worker]] = Map(
+    MTWorker.WORKER_TYPE -> mTBatchChannel,
+    MTSandboxWorker.WORKER_TYPE -> mTBatchChannel,
+    JatosWorker.WORKER_TYPE -> jatosBatchChannel,
+    PersonalMultipleWorker.WORKER_TYPE -> personalMultipleBatchChannel,
+    PersonalSingleWorker.WORKER_TYPE -> personalSingleBatchChannel,
+    GeneralSingleWorker.WORKER_TYPE -> generalSingleBatchChannel)
+
+  /**
+    * Dispatch table: worker type -> group channel that handles it
+    */
+  private val groupChannels: Map[String, GroupChannel[_ <: Worker]] = Map(
+    MTWorker.WORKER_TYPE -> mTGroupChannel,
+    MTSandboxWorker.WORKER_TYPE -> mTGroupChannel,
+    JatosWorker.WORKER_TYPE -> jatosGroupChannel,
+    PersonalMultipleWorker.WORKER_TYPE -> personalMultipleGroupChannel,
+    PersonalSingleWorker.WORKER_TYPE -> personalSingleGroupChannel,
+    GeneralSingleWorker.WORKER_TYPE -> generalSingleGroupChannel)
+
   /**
     * HTTP type: WebSocket
     *
@@ -44,53 +72,30 @@ class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
     * session data) between study runs of a batch. All batch session data are stored in a Batch
     * model and the batch channels will be handled by a BatchDispatcher which uses Akka.
     *
+    * The database access happens in the JdbcExecutionContext and waiting for the BatchDispatcher
+    * is non-blocking. This way opening many channels at the same time doesn't block Play's
+    * default thread pool.
+    *
     * @param studyId       Study's ID
     * @param studyResultId StudyResult's ID
     * @return WebSocket that transports JSON strings.
     */
   def openBatch(studyId: Long, studyResultId: Long): WebSocket =
-    WebSocket.acceptOrResult[JsValue, JsValue] { request =>
-
-      Future.successful({
-        // Set Http.Context used in Play with Java. Needed by IdCookieService
-        play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request))
-        val idCookie = idCookieService.getIdCookie(studyResultId)
-
-        jpa.withTransaction(asJavaSupplier(() =>
-          try {
-            idCookie.getWorkerType match {
-              case MTWorker.WORKER_TYPE =>
-                Right(mTBatchChannel.open(studyId, studyResultId))
-              case MTSandboxWorker.WORKER_TYPE =>
-                Right(mTBatchChannel.open(studyId, studyResultId))
-              case JatosWorker.WORKER_TYPE =>
-                Right(jatosBatchChannel.open(studyId, studyResultId))
-              case PersonalMultipleWorker.WORKER_TYPE =>
-                Right(personalMultipleBatchChannel.open(studyId, studyResultId))
-              case PersonalSingleWorker.WORKER_TYPE =>
-                Right(personalSingleBatchChannel.open(studyId, studyResultId))
-              case GeneralSingleWorker.WORKER_TYPE =>
-                Right(generalSingleBatchChannel.open(studyId, studyResultId))
-              case _ => Left(Results.BadRequest)
-            }
-          } catch {
-            // Due to returning a WebSocket we can't throw a PublixExceptions like
-            // with other publix endpoints
-            case e: NotFoundPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.NotFound)
-            case e: ForbiddenPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.Forbidden)
-            case e: BadRequestPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.BadRequest)
-            case e: Exception =>
-              logger.error(".open: Exception during opening of batch channel", e)
-              Left(Results.InternalServerError)
-          }
-        ))
-      })
+    WebSocket.acceptOrResult[Message, Message] { request =>
+      Future {
+        withJavaContext(request) {
+          val idCookie = idCookieService.getIdCookie(studyResultId)
+
+          val batchChannel = batchChannels.getOrElse(idCookie.getWorkerType,
+            throw new BadRequestPublixException(
+              s"Unknown worker type ${idCookie.getWorkerType}"))
+          jpa.withTransaction(asJavaSupplier(() =>
+            batchChannel.open(studyId, studyResultId)
+          ))
+        }
+      }(jdbcExecutionContext.get).flatMap(identity)
+        .map[Either[Result, Flow[Message, Message, _]]](Right(_))
+        .recover(handleOpeningException("batch"))
     }
 
   /**
@@ -101,72 +106,78 @@ class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
     * stored in a GroupResult and the group channels will be handled by a GroupDispatcher which
     * uses Akka.
     *
+    * The joining (database access) happens in the JdbcExecutionContext and waiting for the
+    * GroupDispatcher is non-blocking. This way opening many channels at the same time doesn't
+    * block Play's default thread pool.
+    *
+    * The client can choose the wire protocol with the query parameter 'protocol': 'json' (JSON
+    * in text frames, default) or 'cbor' (CBOR in binary frames). With the query parameter
+    * 'membershipUpdates' it can choose to get membership changes as 'delta' (only the changed
+    * member and a membership version) or 'full' (lists of all members and channels, default).
+    *
     * @param studyId       studyId Study's ID
     * @param studyResultId StudyResult's ID
-    * @return WebSocket that transfers JSON
+    * @return WebSocket that transfers JSON (or CBOR)
     */
   def joinGroup(studyId: Long, studyResultId: Long): WebSocket =
-    WebSocket.acceptOrResult[JsValue, JsValue] {
-      request =>
-
-        Future.successful({
-          // Set Http.Context used in Play with Java. Needed by IdCookieService
-          play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request))
+    WebSocket.acceptOrResult[Message, Message] { request =>
+      Future {
+        withJavaContext(request) {
+          val protocolName = request.getQueryString(ChannelProtocol.QueryParameter)
+          val protocol = ChannelProtocol.fromName(protocolName).getOrElse(
+            throw new BadRequestPublixException(s"Unknown protocol ${protocolName.get}"))
+          val deltaMembership = request.getQueryString("membershipUpdates") match {
+            case None | Some("full") => false
+            case Some("delta") => true
+            case Some(other) =>
+              throw new BadRequestPublixException(s"Unknown membership updates $other")
+          }
           val idCookie = idCookieService.getIdCookie(studyResultId)
 
-          try {
-            idCookie.getWorkerType match {
-              case MTWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  mTGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(mTGroupChannel.open(studyResult))
-              case MTSandboxWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  mTGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(mTGroupChannel.open(studyResult))
-              case JatosWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  jatosGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(jatosGroupChannel.open(studyResult))
-              case PersonalMultipleWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  personalMultipleGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(personalMultipleGroupChannel.open(studyResult))
-              case PersonalSingleWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  personalSingleGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(personalSingleGroupChannel.open(studyResult))
-              case GeneralSingleWorker.WORKER_TYPE =>
-                val studyResult = jpa.withTransaction(asJavaSupplier(() =>
-                  generalSingleGroupChannel.join(studyId, studyResultId)
-                ))
-                Right(generalSingleGroupChannel.open(studyResult))
-              case _ => Left(Results.BadRequest)
-            }
-          } catch {
-            // Due to returning a WebSocket we can't throw a PublixExceptions like
-            // with other publix endpoints
-            case e: NotFoundPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.NotFound)
-            case e: ForbiddenPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.Forbidden)
-            case e: BadRequestPublixException =>
-              logger.info(s".open: ${e.getMessage}")
-              Left(Results.BadRequest)
-            case e: Exception =>
-              logger.error(".open: Exception during opening of group channel", e)
-              Left(Results.InternalServerError)
-          }
-        })
+          val groupChannel = groupChannels.getOrElse(idCookie.getWorkerType,
+            throw new BadRequestPublixException(
+              s"Unknown worker type ${idCookie.getWorkerType}"))
+          val studyResult = jpa.withTransaction(asJavaSupplier(() =>
+            groupChannel.join(studyId, studyResultId)
+          ))
+          groupChannel.open(studyResult, protocol, deltaMembership)
+        }
+      }(jdbcExecutionContext.get).flatMap(identity)
+        .map[Either[Result, Flow[Message, Message, _]]](Right(_))
+        .recover(handleOpeningException("group"))
     }
 
+  /**
+    * Sets Http.Context used in Play with Java (needed e.g. by IdCookieService) for the current
+    * thread, runs the given block and removes the Http.Context again. Removing is necessary
+    * because the thread is taken from a thread pool.
+    */
+  private def withJavaContext[T](request: RequestHeader)(block: => T): T = {
+    play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request))
+    try block
+    finally play.mvc.Http.Context.current.remove()
+  }
+
+  /**
+    * Due to returning a WebSocket we can't throw a PublixExceptions like with other publix
+    * endpoints. Instead they are turned into the corresponding Result here.
+    */
+  private def handleOpeningException(channelType: String)
+  : PartialFunction[Throwable, Either[Result, Flow[Message, Message, _]]] = {
+    case e: NotFoundPublixException =>
+      logger.info(s".open: ${e.getMessage}")
+      Left(Results.NotFound)
+    case e: ForbiddenPublixException =>
+      logger.info(s".open: ${e.getMessage}")
+      Left(Results.Forbidden)
+    case e: BadRequestPublixException =>
+      logger.info(s".open: ${e.getMessage}")
+      Left(Results.BadRequest)
+    case e: Exception =>
+      logger.error(s".open: Exception during opening of $channelType channel", e)
+      Left(Results.InternalServerError)
+  }
+
   /**
     * HTTP type: Ajax GET request
     *
@@ -187,24 +198,13 @@ class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
       play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request))
       val idCookie = idCookieService.getIdCookie(studyResultId)
 
-      jpa.withTransaction(asJavaSupplier(() => {
-
-        idCookie.getWorkerType match {
-          case MTWorker.WORKER_TYPE =>
-            mTGroupChannel.reassign(studyId, studyResultId)
-          case MTSandboxWorker.WORKER_TYPE =>
-            mTGroupChannel.reassign(studyId, studyResultId)
-          case JatosWorker.WORKER_TYPE =>
-            jatosGroupChannel.reassign(studyId, studyResultId)
-          case PersonalMultipleWorker.WORKER_TYPE =>
-            personalMultipleGroupChannel.reassign(studyId, studyResultId)
-          case PersonalSingleWorker.WORKER_TYPE =>
-            personalSingleGroupChannel.reassign(studyId, studyResultId)
-          case GeneralSingleWorker.WORKER_TYPE =>
-            generalSingleGroupChannel.reassign(studyId, studyResultId)
-          case _ => Results.BadRequest
-        }
-      }))
+      groupChannels.get(idCookie.getWorkerType) match {
+        case Some(groupChannel) =>
+          jpa.withTransaction(asJavaSupplier(() =>
+            groupChannel.reassign(studyId, studyResultId)
+          ))
+        case None => Results.BadRequest
+      }
   }
 
   /**
@@ -225,24 +225,13 @@ class ChannelInterceptor @Inject()(idCookieService: IdCookieService,
       play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request))
       val idCookie = idCookieService.getIdCookie(studyResultId)
 
-      jpa.withTransaction(asJavaSupplier(() => {
-
-        idCookie.getWorkerType match {
-          case MTWorker.WORKER_TYPE =>
-            mTGroupChannel.leave(studyId, studyResultId)
-          case MTSandboxWorker.WORKER_TYPE =>
-            mTGroupChannel.leave(studyId, studyResultId)
-          case JatosWorker.WORKER_TYPE =>
-            jatosGroupChannel.leave(studyId, studyResultId)
-          case PersonalMultipleWorker.WORKER_TYPE =>
-            personalMultipleGroupChannel.leave(studyId, studyResultId)
-          case PersonalSingleWorker.WORKER_TYPE =>
-            personalSingleGroupChannel.leave(studyId, studyResultId)
-          case GeneralSingleWorker.WORKER_TYPE =>
-            generalSingleGroupChannel.leave(studyId, studyResultId)
-          case _ => Results.BadRequest
-        }
-      }))
+      groupChannels.get(idCookie.getWorkerType) match {
+        case Some(groupChannel) =>
+          jpa.withTransaction(asJavaSupplier(() =>
+            groupChannel.leave(studyId, studyResultId)
+          ))
+        case None => Results.BadRequest
+      }
   }
 
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package controllers.publix
 
-import javax.inject.{Inject, Named, Singleton}
+import javax.inject.{Inject, Singleton}
 
 import akka.actor.{ActorRef, ActorSystem}
 import akka.pattern.ask
@@ -8,19 +8,22 @@ import akka.stream.Materializer
 import akka.stream.scaladsl.Flow
 import akka.util.Timeout
 import exceptions.publix.{ForbiddenPublixException, PublixException}
+import general.ChannelProtocol.ChannelProtocol
+import general.ChannelFlow
+import general.common.ChannelStats
 import group.GroupDispatcher.{JoinedGroup, LeftGroup, PoisonChannel, ReassignChannel}
-import group.GroupDispatcherRegistry.{Get, GetOrCreate, ItsThisOne}
-import group.{GroupAdministration, GroupChannelActor, GroupDispatcher}
+import group.{GroupAdministration, GroupChannelActor, GroupDispatcher, GroupDispatcherRegistry}
 import models.common.workers._
 import models.common.{GroupResult, StudyResult}
 import play.api.Logger
-import play.api.libs.streams.ActorFlow
+import play.api.http.websocket.Message
+import play.api.libs.concurrent.Execution.Implicits.defaultContext
 import play.api.mvc._
 import services.publix.idcookie.IdCookieService
 import services.publix.workers._
 import services.publix.{PublixErrorMessages, PublixUtils, StudyAuthorisation}
 
-import scala.concurrent.Await
+import scala.concurrent.Future
 import scala.concurrent.duration._
 
 /**
@@ -43,12 +46,14 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
   var idCookieService: IdCookieService = _
 
   @Inject
-  @Named("group-dispatcher-registry-actor")
-  var groupDispatcherRegistry: ActorRef = _
+  var groupDispatcherRegistry: GroupDispatcherRegistry = _
 
   @Inject
   var groupAdministration: GroupAdministration = _
 
+  @Inject
+  var channelStats: ChannelStats = _
+
   /**
     * Time to wait for an answer after asking an Akka actor
     */
@@ -90,19 +95,27 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
   }
 
   /**
-    * Opens a group channel and returns a Akka stream Flow that will be turned into WebSocket. In
-    * case of an error/problem an PublixException is thrown.
+    * Opens a group channel and returns a Future of an Akka stream Flow that will be turned into
+    * WebSocket. The group channel uses the given wire protocol and gets membership changes
+    * either as deltas or with the full lists of members and channels. It doesn't access the
+    * database. In case of an error/problem an PublixException is thrown.
     */
   @throws(classOf[PublixException])
-  def open(studyResult: StudyResult): Flow[Any, Nothing, _] = {
-    logger.info(s".open: studyResultId ${studyResult.getId}")
+  def open(studyResult: StudyResult, protocol: ChannelProtocol,
+           deltaMembership: Boolean): Future[Flow[Message, Message, _]] = {
+    logger.info(s".open: studyResultId ${studyResult.getId}, protocol $protocol, " +
+      s"deltaMembership $deltaMembership")
     val groupResult: GroupResult = studyResult.getActiveGroupResult
     // Get the GroupDispatcher that will handle this GroupResult.
-    val groupDispatcher = getOrCreateDispatcher(groupResult.getId)
+    val groupDispatcher = groupDispatcherRegistry.getOrCreate(groupResult.getId)
     // If this GroupDispatcher already has a group channel for this
     // StudyResult, close the old one before opening a new one.
-    closeGroupChannelBlocking(studyResult.getId, groupDispatcher)
-    ActorFlow.actorRef { out => GroupChannelActor.props(out, studyResult.getId, groupDispatcher) }
+    val id = studyResult.getId
+    val counters = channelStats.forStudy(studyResult.getStudy.getId)
+    closeOldGroupChannel(id, groupDispatcher).map { _ =>
+      ChannelFlow.actorRef(out =>
+        GroupChannelActor.props(out, id, groupDispatcher, protocol, deltaMembership), counters)
+    }
   }
 
   /**
@@ -189,7 +202,7 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
     */
   private def closeGroupChannel(studyResult: StudyResult, groupResult:
   GroupResult): Unit = {
-    val groupDispatcherOption = getDispatcher(groupResult.getId)
+    val groupDispatcherOption = groupDispatcherRegistry.get(groupResult.getId)
     if (groupDispatcherOption.isDefined) {
       groupDispatcherOption.get ! PoisonChannel(studyResult.getId)
       sendLeftMsg(studyResult, groupResult)
@@ -198,18 +211,15 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
 
   /**
     * Closes the group channel that belongs to the given StudyResult and is
-    * managed by the given GroupDispatcher. Waits until it receives a result
-    * from the GroupDispatcher actor. It returns true if the
-    * GroupChannelActor was
-    * managed by the GroupDispatcher and was successfully removed from the
+    * managed by the given GroupDispatcher. The returned Future completes with
+    * the result from the GroupDispatcher actor: true if the GroupChannelActor
+    * was managed by the GroupDispatcher and was successfully removed from the
     * GroupDispatcher - false otherwise (it was probably never managed by the
     * dispatcher).
     */
-  private def closeGroupChannelBlocking(studyResultId: Long,
-                                        groupDispatcher: ActorRef): Boolean = {
-    val future = groupDispatcher ? PoisonChannel(studyResultId)
-    Await.result(future, timeout.duration).asInstanceOf[Boolean]
-  }
+  private def closeOldGroupChannel(studyResultId: Long,
+                                   groupDispatcher: ActorRef): Future[Boolean] =
+    (groupDispatcher ? PoisonChannel(studyResultId)).mapTo[Boolean]
 
   /**
     * Sends a message to each member of the group (the GroupResult this
@@ -219,7 +229,7 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
   private def sendJoinedMsg(studyResult: StudyResult): Unit = {
     val groupResult = studyResult.getActiveGroupResult
     if (groupResult != null) {
-      val groupDispatcherOption = getDispatcher(groupResult.getId)
+      val groupDispatcherOption = groupDispatcherRegistry.get(groupResult.getId)
       if (groupDispatcherOption.isDefined)
         groupDispatcherOption.get ! JoinedGroup(studyResult.getId)
     }
@@ -232,33 +242,12 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
   private def sendLeftMsg(studyResult: StudyResult, groupResult: GroupResult)
   : Unit = {
     if (groupResult != null) {
-      val groupDispatcherOption = getDispatcher(groupResult.getId)
+      val groupDispatcherOption = groupDispatcherRegistry.get(groupResult.getId)
       if (groupDispatcherOption.isDefined)
         groupDispatcherOption.get ! LeftGroup(studyResult.getId)
     }
   }
 
-  /**
-    * Get the GroupDispatcher to this GroupResult. The answer is an
-    * ActorRef (to a GroupDispatcher).
-    */
-  private def getDispatcher(groupResultId: Long): Option[ActorRef] = {
-    val future = groupDispatcherRegistry ? Get(groupResultId)
-    Await.result(future, timeout.duration).asInstanceOf[ItsThisOne]
-      .groupDispatcherOption
-  }
-
-  /**
-    * Asks the GroupDispatcherRegistry to get or create a group dispatcher for
-    * the given ID. It waits until it receives an answer. The answer is an
-    * ActorRef (to a GroupDispatcher).
-    */
-  private def getOrCreateDispatcher(groupResultId: Long): ActorRef = {
-    val future = groupDispatcherRegistry ? GetOrCreate(groupResultId)
-    Await.result(future, timeout.duration).asInstanceOf[ItsThisOne]
-      .groupDispatcherOption.get
-  }
-
   /**
     * Reassigns the given group channel that is associated with the given
     * StudyResult. It moves the group channel from the current GroupDispatcher
@@ -267,10 +256,10 @@ abstract class GroupChannel[A <: Worker](publixUtils: PublixUtils[A],
   def reassignGroupChannel(studyResult: StudyResult,
                            currentGroupResult: GroupResult,
                            differentGroupResult: GroupResult): Unit = {
-    val currentDispatcher = getDispatcher(currentGroupResult.getId).get
+    val currentDispatcher = groupDispatcherRegistry.get(currentGroupResult.getId).get
     // Get or create, because if the dispatcher was empty it was shutdown
     // and has to be recreated
-    val differentDispatcher = getOrCreateDispatcher(differentGroupResult.getId)
+    val differentDispatcher = groupDispatcherRegistry.getOrCreate(differentGroupResult.getId)
     currentDispatcher ! ReassignChannel(studyResult.getId, differentDispatcher)
     currentDispatcher ! GroupDispatcher.LeftGroup(studyResult.getId())
     differentDispatcher ! JoinedGroup(studyResult.getId)
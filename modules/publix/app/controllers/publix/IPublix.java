@@ -84,7 +84,8 @@ public interface IPublix {
      * <p>
      * Heartbeat of a study result: when was the study run last seen. jatos.js
      * periodically sends an Ajax request to this endpoint. The time when this
-     * request arrives is stored in StudyResult's lastSeenDate field.
+     * request arrives is stored in StudyResult's lastSeenDate field - not
+     * immediately but with the next flush of the HeartbeatRecorder.
      */
     Result heartbeat(Long studyId, Long studyResultId) throws PublixException;
 
@@ -2,8 +2,10 @@ package controllers.publix;
 
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
+import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenReloadException;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatRecorder;
 import general.common.StudyLogger;
 import models.common.*;
 import models.common.ComponentResult.ComponentState;
@@ -17,6 +19,7 @@ import play.mvc.Result;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.PublixUtils;
+import services.publix.RunContext;
 import services.publix.StudyAuthorisation;
 import services.publix.idcookie.IdCookieModel;
 import services.publix.idcookie.IdCookieService;
@@ -25,8 +28,7 @@ import utils.common.JsonUtils;
 
 import javax.inject.Singleton;
 import java.io.IOException;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.io.UncheckedIOException;
 
 /**
  * Abstract controller class for all controllers that implement the IPublix
@@ -51,6 +53,7 @@ public abstract class Publix<T extends Worker> extends Controller
     protected final ComponentResultDao componentResultDao;
     protected final StudyResultDao studyResultDao;
     protected final StudyLogger studyLogger;
+    protected final HeartbeatRecorder heartbeatRecorder;
 
     public Publix(JPAApi jpa, PublixUtils<T> publixUtils,
             StudyAuthorisation<T> studyAuthorisation,
@@ -58,7 +61,8 @@ public abstract class Publix<T extends Worker> extends Controller
             IdCookieService idCookieService, PublixErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger,
+            HeartbeatRecorder heartbeatRecorder) {
         this.jpa = jpa;
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
@@ -70,6 +74,7 @@ public abstract class Publix<T extends Worker> extends Controller
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
         this.studyLogger = studyLogger;
+        this.heartbeatRecorder = heartbeatRecorder;
     }
 
     @Override
@@ -78,13 +83,13 @@ public abstract class Publix<T extends Worker> extends Controller
         LOGGER.info(".startComponent: studyId " + studyId + ", "
                 + "componentId " + componentId + ", " + "studyResultId "
                 + studyResultId);
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, componentId,
                 studyResultId);
+        T worker = runContext.getWorker();
+        Study study = runContext.getStudy();
+        Batch batch = runContext.getBatch();
+        Component component = runContext.getComponent();
+        StudyResult studyResult = runContext.getStudyResult();
         publixUtils.setPreStudyStateByComponentId(studyResult, study,
                 componentId);
 
@@ -120,11 +125,8 @@ public abstract class Publix<T extends Worker> extends Controller
             throws PublixException {
         LOGGER.info(".startNextComponent: studyId " + studyId + ", "
                 + "studyResultId " + studyResultId);
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
-                studyResultId);
+        StudyResult studyResult = retrieveRunContext(studyId, null,
+                studyResultId).getStudyResult();
 
         Component nextComponent = publixUtils
                 .retrieveNextActiveComponent(studyResult);
@@ -143,15 +145,15 @@ public abstract class Publix<T extends Worker> extends Controller
             Long studyResultId) throws PublixException, IOException {
         LOGGER.info(".getInitData: studyId " + studyId + ", " + "componentId "
                 + componentId + ", " + "studyResultId " + studyResultId);
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, componentId,
                 studyResultId);
+        Study study = runContext.getStudy();
+        Batch batch = runContext.getBatch();
+        Component component = runContext.getComponent();
+        StudyResult studyResult = runContext.getStudyResult();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(runContext.getWorker(),
+                study, batch);
+        publixUtils.checkComponentBelongsToStudy(study, component);
         ComponentResult componentResult;
         try {
             componentResult = publixUtils
@@ -168,7 +170,8 @@ public abstract class Publix<T extends Worker> extends Controller
         componentResult.setComponentState(ComponentState.DATA_RETRIEVED);
         componentResultDao.update(componentResult);
 
-        return ok(jsonUtils.initData(batch, studyResult, study, component));
+        return ok(jsonUtils.initData(batch, studyResult, study, component))
+                .as("application/json");
     }
 
     @Override
@@ -176,13 +179,11 @@ public abstract class Publix<T extends Worker> extends Controller
             throws PublixException {
         LOGGER.info(".setStudySessionData: studyId " + studyId + ", "
                 + "studyResultId " + studyResultId);
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        studyAuthorisation.checkWorkerAllowedToDoStudy(runContext.getWorker(),
+                runContext.getStudy(), runContext.getBatch());
+        StudyResult studyResult = runContext.getStudyResult();
         String studySessionData = request().body().asText();
         studyResult.setStudySessionData(studySessionData);
         studyResultDao.update(studyResult);
@@ -194,13 +195,14 @@ public abstract class Publix<T extends Worker> extends Controller
             throws PublixException {
         LOGGER.debug(".heartbeat: studyId " + studyId + ", " + "studyResultId "
                 + studyResultId);
+        // Heartbeats are frequent: check only the ID cookie and don't touch
+        // the database
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
-                studyResultId);
-        studyResult.setLastSeenDate(new Timestamp(new Date().getTime()));
-        studyResultDao.update(studyResult);
+        if (!studyId.equals(idCookie.getStudyId())) {
+            throw new BadRequestPublixException(
+                    PublixErrorMessages.STUDY_RESULT_DOESN_T_BELONG_TO_THIS_STUDY);
+        }
+        heartbeatRecorder.record(studyResultId);
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
@@ -226,16 +228,15 @@ public abstract class Publix<T extends Worker> extends Controller
 
     private Result submitOrAppendResultData(Long studyId, Long componentId,
             Long studyResultId, boolean append) throws PublixException {
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, componentId,
                 studyResultId);
+        Study study = runContext.getStudy();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(runContext.getWorker(),
+                study, runContext.getBatch());
+        publixUtils.checkComponentBelongsToStudy(study,
+                runContext.getComponent());
+
+        StudyResult studyResult = runContext.getStudyResult();
         ComponentResult componentResult = publixUtils
                 .retrieveCurrentComponentResult(studyResult);
         if (componentResult == null) {
@@ -245,22 +246,55 @@ public abstract class Publix<T extends Worker> extends Controller
                     .finishStudy(studyId, studyResult.getId(), false, error));
         }
 
-        String postedResultData = request().body().asText();
-        String resultData;
+        ResultDataBodyParser.ResultData resultData = request().body()
+                .as(ResultDataBodyParser.ResultData.class);
+        componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
+        try {
+            storeResultData(componentResult, resultData, append);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         if (append) {
-            String currentResultData = componentResult.getData();
-            resultData = currentResultData != null ?
-                    currentResultData + postedResultData : postedResultData;
+            studyLogger.logResultDataAppending(componentResult,
+                    resultData.getStudyLogHash());
         } else {
-            resultData = postedResultData;
+            studyLogger.logResultDataStoring(componentResult,
+                    resultData.getStudyLogHash());
         }
-        componentResult.setData(resultData);
-        componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
-        componentResultDao.update(componentResult);
-        studyLogger.logResultDataStoring(componentResult);
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
+    /**
+     * Stores the posted result data: if possible the file that the body
+     * parser wrote is moved into the ResultDataStore as it is. Otherwise they
+     * are streamed from the file into the database and never read into memory
+     * as a whole. Appended result data are stored as a chunk without loading
+     * the result data stored so far.
+     */
+    private void storeResultData(ComponentResult componentResult,
+            ResultDataBodyParser.ResultData resultData, boolean append)
+            throws IOException {
+        if (componentResultDao.isResultDataStoreEnabled() && resultData.isUtf8()) {
+            if (append) {
+                componentResultDao.appendDataFile(componentResult,
+                        resultData.getFile(), resultData.getDataHash());
+                componentResultDao.update(componentResult);
+            } else {
+                componentResultDao.replaceDataFile(componentResult,
+                        resultData.getFile(), resultData.getDataHash(),
+                        resultData.getSize(), resultData.getPreview());
+            }
+        } else if (append) {
+            componentResultDao.appendDataStream(componentResult,
+                    resultData.getFile(), resultData.getCharset(),
+                    resultData.getLength());
+        } else {
+            componentResultDao.replaceDataStream(componentResult,
+                    resultData.getFile(), resultData.getCharset(),
+                    resultData.getLength());
+        }
+    }
+
     @Override
     public Result finishComponent(Long studyId, Long componentId,
             Long studyResultId, Boolean successful, String errorMsg)
@@ -269,16 +303,15 @@ public abstract class Publix<T extends Worker> extends Controller
                 + "componentId " + componentId + ", " + "studyResultId "
                 + studyResultId + ", " + "successful " + successful + ", "
                 + "errorMsg \"" + errorMsg + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-        publixUtils.checkComponentBelongsToStudy(study, component);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, componentId,
                 studyResultId);
+        Study study = runContext.getStudy();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(runContext.getWorker(),
+                study, runContext.getBatch());
+        publixUtils.checkComponentBelongsToStudy(study,
+                runContext.getComponent());
+
+        StudyResult studyResult = runContext.getStudyResult();
         ComponentResult componentResult = publixUtils
                 .retrieveCurrentComponentResult(studyResult);
         if (componentResult == null) {
@@ -305,14 +338,14 @@ public abstract class Publix<T extends Worker> extends Controller
         LOGGER.info(".abortStudy: studyId " + studyId + ", " + ", "
                 + "studyResultId " + studyResultId + ", " + "message \""
                 + message + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        T worker = runContext.getWorker();
+        Study study = runContext.getStudy();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study,
+                runContext.getBatch());
+
+        StudyResult studyResult = runContext.getStudyResult();
         if (!PublixHelpers.studyDone(studyResult)) {
             publixUtils.abortStudy(message, studyResult);
             publixUtils.finishMemberInGroup(studyResult);
@@ -334,14 +367,14 @@ public abstract class Publix<T extends Worker> extends Controller
         LOGGER.info(".finishStudy: studyId " + studyId + ", " + "studyResultId "
                 + studyResultId + ", " + "successful " + successful + ", "
                 + "errorMsg \"" + errorMsg + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<T> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        T worker = runContext.getWorker();
+        Study study = runContext.getStudy();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study,
+                runContext.getBatch());
+
+        StudyResult studyResult = runContext.getStudyResult();
         if (!PublixHelpers.studyDone(studyResult)) {
             publixUtils.finishStudyResult(successful, errorMsg, studyResult);
             publixUtils.finishMemberInGroup(studyResult);
@@ -364,11 +397,11 @@ public abstract class Publix<T extends Worker> extends Controller
     @Override
     public Result log(Long studyId, Long componentId, Long studyResultId)
             throws PublixException {
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        T worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
+        RunContext<T> runContext = retrieveRunContext(studyId, null,
+                studyResultId);
+        T worker = runContext.getWorker();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker,
+                runContext.getStudy(), runContext.getBatch());
         String msg = request().body().asText();
         LOGGER.info("logging from client: study ID " + studyId
                 + ", component ID " + componentId + ", worker ID "
@@ -377,4 +410,15 @@ public abstract class Publix<T extends Worker> extends Controller
         return ok(" "); // jQuery.ajax cannot handle empty responses
     }
 
+    /**
+     * Retrieves everything this request needs about the study run (worker,
+     * study, batch, component and study result) with the help of the ID cookie
+     * that belongs to the given study result ID. The component ID can be null.
+     */
+    protected RunContext<T> retrieveRunContext(Long studyId, Long componentId,
+            Long studyResultId) throws PublixException {
+        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
+        return publixUtils.retrieveRunContext(idCookie, studyId, componentId);
+    }
+
 }
@@ -1,22 +1,36 @@
 package controllers.publix;
 
+import com.google.common.collect.ImmutableMap;
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging;
 import controllers.publix.workers.*;
+import daos.common.BatchDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.PublixException;
+import general.common.Common;
+import general.common.JdbcExecutionContext;
+import general.common.StudyMetadataCache;
+import general.common.StudyMetadataCache.StudyMetadata;
+import general.common.StudyStartAdmission;
+import models.common.Batch;
 import models.common.workers.*;
-import play.Application;
-import play.db.jpa.Transactional;
+import play.db.jpa.JPAApi;
+import play.libs.concurrent.HttpExecution;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import services.publix.PublixErrorMessages;
 import services.publix.idcookie.IdCookieService;
 import utils.common.HttpUtils;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 /**
  * Interceptor for Publix: it intercepts requests for JATOS' public API (Publix)
@@ -38,502 +52,300 @@ import java.io.IOException;
  * PersonalSinglePublix. They use PersonalSingleWorker.<br>
  * 5. Requests coming from an General Single run will be forwarded to
  * GeneralSinglePublix. They use the GeneralSingleWorker.<br>
+ * <p>
+ * The implementations are singletons and are resolved only once (when this
+ * interceptor is created) into a dispatch table from worker type to
+ * implementation.
+ * <p>
+ * All endpoints are asynchronous: the forwarded call and its database access
+ * run within a transaction in the JdbcExecutionContext and don't block Play's
+ * default thread pool (that e.g. serves the study assets).
+ * <p>
+ * Study starts go through the StudyStartAdmission first (if it's switched on
+ * with 'jatos.studyStart.maxConcurrent'): if too many participants start at
+ * the same time they have to wait or get a 'please wait' page (HTTP 503 with
+ * Retry-After) that tries again later. Only study starts of batches that
+ * exist go through it - the others go straight to the IPublix implementation
+ * that answers with an error.
  *
  * @author Kristian Lange
  */
 @Singleton
 @PublixAccessLogging
-public class PublixInterceptor extends Controller implements IPublix {
+public class PublixInterceptor extends Controller {
 
     private final IdCookieService idCookieService;
-    private final Provider<Application> application;
+    private final JPAApi jpa;
+    private final JdbcExecutionContext jdbcExecutionContext;
+    private final StudyStartAdmission studyStartAdmission;
+    private final StudyMetadataCache studyMetadataCache;
+    private final BatchDao batchDao;
+    private final MTPublix mtPublix;
+
+    /**
+     * Dispatch table: maps each worker type to the IPublix implementation that
+     * handles it. It's built once and never changes.
+     */
+    private final Map<String, IPublix> publixByWorkerType;
 
     @Inject
-    public PublixInterceptor(IdCookieService idCookieService,
-            Provider<Application> application) {
+    public PublixInterceptor(IdCookieService idCookieService, JPAApi jpa,
+            JdbcExecutionContext jdbcExecutionContext,
+            StudyStartAdmission studyStartAdmission,
+            StudyMetadataCache studyMetadataCache, BatchDao batchDao,
+            MTPublix mtPublix,
+            JatosPublix jatosPublix,
+            PersonalMultiplePublix personalMultiplePublix,
+            PersonalSinglePublix personalSinglePublix,
+            GeneralSinglePublix generalSinglePublix) {
         this.idCookieService = idCookieService;
-        this.application = application;
+        this.jpa = jpa;
+        this.jdbcExecutionContext = jdbcExecutionContext;
+        this.studyStartAdmission = studyStartAdmission;
+        this.studyMetadataCache = studyMetadataCache;
+        this.batchDao = batchDao;
+        this.mtPublix = mtPublix;
+        this.publixByWorkerType = ImmutableMap.<String, IPublix>builder()
+                // Handle MTWorker like MTSandboxWorker
+                .put(MTWorker.WORKER_TYPE, mtPublix)
+                .put(MTSandboxWorker.WORKER_TYPE, mtPublix)
+                .put(JatosWorker.WORKER_TYPE, jatosPublix)
+                .put(PersonalMultipleWorker.WORKER_TYPE, personalMultiplePublix)
+                .put(PersonalSingleWorker.WORKER_TYPE, personalSinglePublix)
+                .put(GeneralSingleWorker.WORKER_TYPE, generalSinglePublix)
+                .build();
     }
 
-    @Override
-    @Transactional
-    public Result startStudy(Long studyId, Long batchId)
-            throws PublixException {
-        Result result;
-        String workerType = getWorkerTypeFromQuery();
-        switch (workerType) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).startStudy(studyId,
-                        batchId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).startStudy(studyId,
-                        batchId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startStudy(studyId, batchId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .startStudy(studyId, batchId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .startStudy(studyId, batchId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
+    public CompletionStage<Result> startStudy(Long studyId, Long batchId) {
+        PublixCall startStudy = () -> publix(getWorkerTypeFromQuery())
+                .startStudy(studyId, batchId);
+        if (!studyStartAdmission.isEnabled()) {
+            return callAsync(startStudy);
         }
-        return result;
+        Executor executor = HttpExecution
+                .fromThread((Executor) jdbcExecutionContext.get());
+        CompletionStage<Long> existingBatchId = CompletableFuture.supplyAsync(
+                () -> jpa.withTransaction(
+                        () -> retrieveExistingBatchId(studyId, batchId)),
+                executor);
+        return existingBatchId.thenCompose(admittedBatchId -> {
+            if (admittedBatchId == null) {
+                return callAsync(existingBatchId, startStudy, executor);
+            }
+            CompletionStage<Void> admission = studyStartAdmission
+                    .acquire(studyId, admittedBatchId);
+            if (admission == null) {
+                return CompletableFuture.completedFuture(pleaseWait());
+            }
+            return callAsync(admission, startStudy, executor).whenComplete(
+                    (result, throwable) -> studyStartAdmission
+                            .release(studyId, admittedBatchId));
+        });
     }
 
-    @Override
-    @Transactional
-    public Result startComponent(Long studyId, Long componentId,
-            Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result =
-                        instanceOfPublix(MTPublix.class).startComponent(studyId,
-                                componentId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .startComponent(studyId,
-                                componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startComponent(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .startComponent(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .startComponent(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
+    /**
+     * Returns the ID of the batch with the given ID (or of the study's default
+     * batch if the batchId is -1) if it exists and belongs to the study with
+     * the given ID - otherwise null. Needs a transaction.
+     */
+    private Long retrieveExistingBatchId(Long studyId, Long batchId) {
+        StudyMetadata studyMetadata = studyMetadataCache.get(studyId);
+        if (studyMetadata == null) {
+            return null;
         }
-        return result;
+        if (batchId == -1) {
+            return studyMetadata.getDefaultBatchId();
+        }
+        Batch batch = batchDao.findById(batchId);
+        return batch != null && batch.getStudy().getId().equals(studyId)
+                ? batch.getId() : null;
     }
 
-    @Override
-    @Transactional
-    public Result startComponentByPosition(Long studyId, Integer position,
-            Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .startComponentByPosition(studyId, position,
-                                studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .startComponentByPosition(studyId, position,
-                                studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startComponentByPosition(studyId, position,
-                                studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .startComponentByPosition(studyId, position,
-                                studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .startComponentByPosition(studyId, position,
-                                studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> startComponent(Long studyId,
+            Long componentId, Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .startComponent(studyId, componentId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result startNextComponent(Long studyId, Long studyResultId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .startNextComponent(studyId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .startNextComponent(studyId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .startNextComponent(studyId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .startNextComponent(studyId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .startNextComponent(studyId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> startComponentByPosition(Long studyId,
+            Integer position, Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .startComponentByPosition(studyId, position, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result getInitData(Long studyId, Long componentId,
-            Long studyResultId) throws PublixException, IOException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).getInitData(studyId,
-                        componentId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result =
-                        instanceOfPublix(JatosPublix.class).getInitData(studyId,
-                                componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .getInitData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> startNextComponent(Long studyId,
+            Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .startNextComponent(studyId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result setStudySessionData(Long studyId, Long studyResultId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .setStudySessionData(studyId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> getInitData(Long studyId, Long componentId,
+            Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .getInitData(studyId, componentId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result heartbeat(Long studyId, Long studyResultId)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).heartbeat(studyId,
-                        studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).heartbeat(studyId,
-                        studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .heartbeat(studyId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> setStudySessionData(Long studyId,
+            Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .setStudySessionData(studyId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result submitResultData(Long studyId, Long componentId,
-            Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .submitResultData(studyId,
-                                componentId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .submitResultData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> heartbeat(Long studyId, Long studyResultId) {
+        return callWithoutDb(() -> publixByIdCookie(studyResultId)
+                .heartbeat(studyId, studyResultId));
     }
 
-    @Override
-    @Transactional
-    public Result appendResultData(Long studyId, Long componentId,
-            Long studyResultId) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .appendResultData(studyId,
-                                componentId, studyResultId);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .appendResultData(studyId, componentId, studyResultId);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    @BodyParser.Of(ResultDataBodyParser.class)
+    public CompletionStage<Result> submitResultData(Long studyId,
+            Long componentId, Long studyResultId) {
+        ResultDataBodyParser.ResultData resultData = request().body()
+                .as(ResultDataBodyParser.ResultData.class);
+        return deleteAfterwards(resultData, callAsync(
+                () -> publixByIdCookie(studyResultId).submitResultData(studyId,
+                        componentId, studyResultId)));
     }
 
-    @Override
-    @Transactional
-    public Result finishComponent(Long studyId, Long componentId,
-            Long studyResultId, Boolean successful, String errorMsg)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class)
-                        .finishComponent(studyId,
-                                componentId, studyResultId, successful,
-                                errorMsg);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).finishComponent(
-                        studyId, componentId, studyResultId, successful,
-                        errorMsg);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .finishComponent(studyId, componentId, studyResultId,
-                                successful, errorMsg);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .finishComponent(studyId, componentId, studyResultId,
-                                successful, errorMsg);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .finishComponent(studyId, componentId, studyResultId,
-                                successful, errorMsg);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    @BodyParser.Of(ResultDataBodyParser.class)
+    public CompletionStage<Result> appendResultData(Long studyId,
+            Long componentId, Long studyResultId) {
+        ResultDataBodyParser.ResultData resultData = request().body()
+                .as(ResultDataBodyParser.ResultData.class);
+        return deleteAfterwards(resultData, callAsync(
+                () -> publixByIdCookie(studyResultId).appendResultData(studyId,
+                        componentId, studyResultId)));
     }
 
-    @Override
-    @Transactional
-    public Result abortStudy(Long studyId, Long studyResultId, String message)
-            throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).abortStudy(studyId,
-                        studyResultId, message);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result = instanceOfPublix(JatosPublix.class).abortStudy(studyId,
-                        studyResultId, message);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .abortStudy(studyId, studyResultId, message);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
-        }
-        return result;
+    public CompletionStage<Result> finishComponent(Long studyId,
+            Long componentId, Long studyResultId, Boolean successful,
+            String errorMsg) {
+        return callAsync(() -> publixByIdCookie(studyResultId).finishComponent(
+                studyId, componentId, studyResultId, successful, errorMsg));
     }
 
-    @Override
-    @Transactional
-    public Result finishStudy(Long studyId, Long studyResultId,
-            Boolean successful, String errorMsg) throws PublixException {
-        Result result;
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                result = instanceOfPublix(MTPublix.class).finishStudy(studyId,
-                        studyResultId, successful, errorMsg);
-                break;
-            case JatosWorker.WORKER_TYPE:
-                result =
-                        instanceOfPublix(JatosPublix.class).finishStudy(studyId,
-                                studyResultId, successful, errorMsg);
-                break;
-            case PersonalMultipleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalMultiplePublix.class)
-                        .finishStudy(studyId, studyResultId, successful,
-                                errorMsg);
-                break;
-            case PersonalSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(PersonalSinglePublix.class)
-                        .finishStudy(studyId, studyResultId, successful,
-                                errorMsg);
-                break;
-            case GeneralSingleWorker.WORKER_TYPE:
-                result = instanceOfPublix(GeneralSinglePublix.class)
-                        .finishStudy(studyId, studyResultId, successful,
-                                errorMsg);
-                break;
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
+    public CompletionStage<Result> abortStudy(Long studyId, Long studyResultId,
+            String message) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .abortStudy(studyId, studyResultId, message));
+    }
+
+    public CompletionStage<Result> finishStudy(Long studyId, Long studyResultId,
+            Boolean successful, String errorMsg) {
+        return callAsync(() -> publixByIdCookie(studyResultId)
+                .finishStudy(studyId, studyResultId, successful, errorMsg));
+    }
+
+    public CompletionStage<Result> log(Long studyId, Long componentId,
+            Long studyResultId) {
+        return callAsync(() -> publixByIdCookie(studyResultId).log(studyId,
+                componentId, studyResultId));
+    }
+
+    /**
+     * Removes the temporary file of the posted result data after the call
+     * completed - whether it was successful or not
+     */
+    private CompletionStage<Result> deleteAfterwards(
+            ResultDataBodyParser.ResultData resultData,
+            CompletionStage<Result> resultStage) {
+        return resultStage.whenComplete((result, throwable) -> {
+            if (resultData != null) resultData.deleteFile();
+        });
+    }
+
+    /**
+     * Runs the given call asynchronously within a transaction in the
+     * JdbcExecutionContext. The HTTP context (request, session, cookies) is
+     * passed on to the thread that runs it. Exceptions (e.g. PublixExceptions)
+     * complete the returned CompletionStage exceptionally and end up in the
+     * ErrorHandler like before.
+     */
+    private CompletionStage<Result> callAsync(PublixCall call) {
+        Executor executor = HttpExecution
+                .fromThread((Executor) jdbcExecutionContext.get());
+        return CompletableFuture.supplyAsync(() -> jpa.withTransaction(() -> {
+            try {
+                return call.call();
+            } catch (PublixException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }), executor);
+    }
+
+    /**
+     * Like {@link #callAsync(PublixCall)} but the call runs only after the
+     * given CompletionStage completed (e.g. the admission of a study start).
+     * The given executor has to carry the HTTP context already.
+     */
+    private CompletionStage<Result> callAsync(CompletionStage<?> after,
+            PublixCall call, Executor executor) {
+        return after.thenApplyAsync(ignored -> jpa.withTransaction(() -> {
+            try {
+                return call.call();
+            } catch (PublixException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }), executor);
+    }
+
+    /**
+     * Response for a study start that wasn't admitted: a lightweight page
+     * that tells the participant to wait and reloads itself after the
+     * Retry-After time
+     */
+    private Result pleaseWait() {
+        int retryAfter = Common.getStudyStartRetryAfter();
+        return status(Http.Status.SERVICE_UNAVAILABLE,
+                views.html.publix.pleaseWait.render(retryAfter))
+                .withHeader(Http.HeaderNames.RETRY_AFTER,
+                        String.valueOf(retryAfter));
+    }
+
+    /**
+     * Runs the given call right away in the current thread - for calls that
+     * don't access the database and therefore need neither a transaction nor
+     * a thread of the JdbcExecutionContext. Exceptions complete the returned
+     * CompletionStage exceptionally like in callAsync.
+     */
+    private CompletionStage<Result> callWithoutDb(PublixCall call) {
+        CompletableFuture<Result> resultFuture = new CompletableFuture<>();
+        try {
+            resultFuture.complete(call.call());
+        } catch (PublixException | IOException e) {
+            resultFuture.completeExceptionally(new CompletionException(e));
         }
-        return result;
+        return resultFuture;
     }
 
-    @Override
-    @Transactional
-    public Result log(Long studyId, Long componentId, Long studyResultId)
-            throws PublixException {
-        switch (getWorkerTypeFromIdCookie(studyResultId)) {
-            case MTWorker.WORKER_TYPE:
-                // Handle MTWorker like MTSandboxWorker
-            case MTSandboxWorker.WORKER_TYPE:
-                return instanceOfPublix(MTPublix.class)
-                        .log(studyId, componentId,
-                                studyResultId);
-            case JatosWorker.WORKER_TYPE:
-                return instanceOfPublix(JatosPublix.class)
-                        .log(studyId, componentId,
-                                studyResultId);
-            case PersonalMultipleWorker.WORKER_TYPE:
-                return instanceOfPublix(PersonalMultiplePublix.class)
-                        .log(studyId,
-                                componentId, studyResultId);
-            case PersonalSingleWorker.WORKER_TYPE:
-                return instanceOfPublix(PersonalSinglePublix.class).log(studyId,
-                        componentId, studyResultId);
-            case GeneralSingleWorker.WORKER_TYPE:
-                return instanceOfPublix(GeneralSinglePublix.class).log(studyId,
-                        componentId, studyResultId);
-            default:
-                throw new BadRequestPublixException(
-                        PublixErrorMessages.UNKNOWN_WORKER_TYPE);
+    /**
+     * A call to one of the IPublix implementations
+     */
+    @FunctionalInterface
+    private interface PublixCall {
+        Result call() throws PublixException, IOException;
+    }
+
+    /**
+     * Returns the IPublix implementation that handles the given worker type
+     * (package-private for PublixInterceptorTest)
+     */
+    IPublix publix(String workerType) throws BadRequestPublixException {
+        IPublix publix = workerType != null
+                ? publixByWorkerType.get(workerType) : null;
+        if (publix == null) {
+            throw new BadRequestPublixException(
+                    PublixErrorMessages.UNKNOWN_WORKER_TYPE);
         }
+        return publix;
     }
 
     /**
-     * Uses Guice to create a new instance of the given class, a class that must
-     * inherit from Publix.
+     * Returns the IPublix implementation that handles the worker type of the
+     * study run with the given ID (from JATOS' ID cookie)
      */
-    private <T extends Publix<?>> T instanceOfPublix(Class<T> publixClass) {
-        return application.get().injector().instanceOf(publixClass);
+    private IPublix publixByIdCookie(Long studyResultId)
+            throws PublixException {
+        return publix(getWorkerTypeFromIdCookie(studyResultId));
     }
 
     /**
@@ -563,7 +375,7 @@ public class PublixInterceptor extends Controller implements IPublix {
         // Check for MT worker and MT Sandbox worker
         String mtWorkerId = HttpUtils.getQueryString(MTPublix.MT_WORKER_ID);
         if (mtWorkerId != null) {
-            return instanceOfPublix(MTPublix.class).retrieveWorkerType();
+            return mtPublix.retrieveWorkerType();
         }
         // Check for Personal Multiple Worker
         String pmWorkerId = HttpUtils.getQueryString(
@@ -0,0 +1,374 @@
+package controllers.publix;
+
+import akka.stream.IOResult;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import general.common.Common;
+import models.common.ComponentResult;
+import play.Logger;
+import play.Logger.ALogger;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import utils.common.HashUtils;
+import utils.common.ResultDataStore;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Body parser for result data submissions (submitResultData and
+ * appendResultData). Other than Play's text body parser it doesn't buffer the
+ * whole body in memory: the bytes are streamed into a temporary file (in the
+ * ResultDataStore's directory if it's enabled) while their size, their SHA-256
+ * hash (the ResultDataStore's key), the study log's hash and a preview are
+ * calculated on the fly. If the body is larger than the study's limit
+ * (jatos.resultData.maxSize or jatos.resultData.studyMaxSize) it's rejected
+ * with 413 Request Entity Too Large.
+ *
+ * The temporary file has to be removed after the request with
+ * {@link ResultData#deleteFile()}.
+ *
+ * @author Kristian Lange (2017)
+ */
+public class ResultDataBodyParser implements BodyParser<ResultDataBodyParser.ResultData> {
+
+    private static final ALogger LOGGER = Logger.of(ResultDataBodyParser.class);
+
+    private static final Pattern STUDY_ID_IN_PATH = Pattern.compile("^/publix/(\\d+)/");
+
+    /**
+     * Executor for the little work that is done after the stream completed
+     */
+    private static final Executor SAME_THREAD = Runnable::run;
+
+    private final ResultDataStore resultDataStore;
+
+    @Inject
+    ResultDataBodyParser(ResultDataStore resultDataStore) {
+        this.resultDataStore = resultDataStore;
+    }
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, ResultData>> apply(
+            Http.RequestHeader request) {
+        long maxSize = Common.getResultDataMaxSize(getStudyId(request));
+        if (getContentLength(request) > maxSize) {
+            return Accumulator.done(F.Either.Left(tooLarge(maxSize)));
+        }
+        Charset charset = request.charset().map(Charset::forName)
+                .orElse(StandardCharsets.UTF_8);
+
+        Path file;
+        try {
+            file = resultDataStore.isEnabled() ? resultDataStore.createTempFile()
+                    : Files.createTempFile("jatosResultData", ".tmp");
+        } catch (IOException e) {
+            LOGGER.error(".apply: couldn't create temporary file", e);
+            return Accumulator.done(F.Either.Left(Results.internalServerError()));
+        }
+        ResultDataDigest digest = new ResultDataDigest(charset, maxSize);
+        Sink<ByteString, CompletionStage<IOResult>> sink = Flow.<ByteString>create()
+                .map(bytes -> {
+                    digest.update(bytes);
+                    return bytes;
+                })
+                .toMat(FileIO.toPath(file), Keep.right());
+
+        return Accumulator.fromSink(sink).map(ioResult -> {
+            if (!ioResult.wasSuccessful()) {
+                throw new CompletionException(ioResult.getError());
+            }
+            digest.finish();
+            return F.Either.<Result, ResultData>Right(new ResultData(file, charset,
+                    digest.getSize(), digest.getLength(), digest.getDataHash(),
+                    digest.getStudyLogHash(), digest.getPreview()));
+        }, SAME_THREAD).recover(throwable -> {
+            deleteQuietly(file);
+            Throwable cause = throwable instanceof CompletionException
+                    && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (cause instanceof ResultDataTooLargeException) {
+                return F.Either.Left(tooLarge(maxSize));
+            }
+            LOGGER.error(".apply: couldn't read result data", cause);
+            return F.Either.Left(Results.badRequest());
+        }, SAME_THREAD);
+    }
+
+    private static Long getStudyId(Http.RequestHeader request) {
+        Matcher matcher = STUDY_ID_IN_PATH.matcher(request.path());
+        return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    /**
+     * Returns the Content-Length header's value or -1 if there is none
+     */
+    private static long getContentLength(Http.RequestHeader request) {
+        try {
+            String contentLength = request.getHeader(Http.HeaderNames.CONTENT_LENGTH);
+            return contentLength != null ? Long.parseLong(contentLength) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Result tooLarge(long maxSize) {
+        return Results.status(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+                "Result data are larger than the allowed " + maxSize + " bytes");
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn(".deleteQuietly: couldn't delete " + file, e);
+        }
+    }
+
+    /**
+     * Result data of a request body that are stored in a temporary file
+     */
+    public static class ResultData {
+
+        private final Path file;
+        private final Charset charset;
+        private final long size;
+        private final long length;
+        private final String dataHash;
+        private final String studyLogHash;
+        private final String preview;
+
+        ResultData(Path file, Charset charset, long size, long length, String dataHash,
+                String studyLogHash, String preview) {
+            this.file = file;
+            this.charset = charset;
+            this.size = size;
+            this.length = length;
+            this.dataHash = dataHash;
+            this.studyLogHash = studyLogHash;
+            this.preview = preview;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Size of the result data in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Length of the result data in characters
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * SHA-256 hash of the bytes of the result data - it's the key in the
+         * ResultDataStore if they are UTF-8 encoded
+         */
+        public String getDataHash() {
+            return dataHash;
+        }
+
+        /**
+         * Hash of the result data like the StudyLogger calculates it
+         */
+        public String getStudyLogHash() {
+            return studyLogHash;
+        }
+
+        /**
+         * Beginning of the result data (ComponentResult.DATA_PREVIEW_LENGTH
+         * characters)
+         */
+        public String getPreview() {
+            return preview;
+        }
+
+        /**
+         * True if the file can be moved into the ResultDataStore as it is
+         */
+        public boolean isUtf8() {
+            return StandardCharsets.UTF_8.equals(charset);
+        }
+
+        /**
+         * Removes the temporary file (if it wasn't moved already)
+         */
+        public void deleteFile() {
+            deleteQuietly(file);
+        }
+
+    }
+
+    /**
+     * Thrown if the body is larger than allowed - it fails the stream
+     */
+    private static class ResultDataTooLargeException extends RuntimeException {
+    }
+
+    /**
+     * Calculates size, hashes and preview of the result data chunk by chunk.
+     * The study log's hash (HashUtils.getHash) is calculated over the text's
+     * ISO-8859-1 encoding, therefore the bytes are decoded and every character
+     * that can't be encoded in ISO-8859-1 (a surrogate pair counts as one) is
+     * hashed as '?' - the same way String.getBytes() does it.
+     */
+    private static class ResultDataDigest {
+
+        private static final int BUFFER_SIZE = 8192;
+
+        private final long maxSize;
+        private final CharsetDecoder decoder;
+        private final MessageDigest dataDigest;
+        private final MessageDigest studyLogDigest;
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private final byte[] isoBytes = new byte[BUFFER_SIZE];
+        private final StringBuilder preview = new StringBuilder();
+        private ByteBuffer remaining = ByteBuffer.allocate(0);
+        private boolean pendingHighSurrogate = false;
+        private long size = 0;
+        private long charCount = 0;
+
+        ResultDataDigest(Charset charset, long maxSize) {
+            this.maxSize = maxSize;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            try {
+                this.dataDigest = MessageDigest.getInstance(HashUtils.SHA_256);
+                this.studyLogDigest = MessageDigest.getInstance(HashUtils.SHA_256);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void update(ByteString bytes) {
+            size += bytes.size();
+            if (size > maxSize) {
+                throw new ResultDataTooLargeException();
+            }
+            dataDigest.update(bytes.asByteBuffer());
+            ByteBuffer in;
+            if (remaining.hasRemaining()) {
+                // Bytes of a character that was split between two chunks
+                in = ByteBuffer.allocate(remaining.remaining() + bytes.size());
+                in.put(remaining).put(bytes.asByteBuffer());
+                in.flip();
+            } else {
+                in = bytes.asByteBuffer();
+            }
+            decode(in, false);
+            remaining = ByteBuffer.allocate(in.remaining()).put(in);
+            remaining.flip();
+        }
+
+        void finish() {
+            decode(remaining, true);
+            CoderResult result;
+            do {
+                result = decoder.flush(chars);
+                drainChars();
+            } while (result.isOverflow());
+            if (pendingHighSurrogate) {
+                studyLogDigest.update((byte) '?');
+                pendingHighSurrogate = false;
+            }
+        }
+
+        private void decode(ByteBuffer in, boolean endOfInput) {
+            CoderResult result;
+            do {
+                result = decoder.decode(in, chars, endOfInput);
+                drainChars();
+            } while (result.isOverflow());
+        }
+
+        private void drainChars() {
+            chars.flip();
+            charCount += chars.remaining();
+            int length = 0;
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (preview.length() < ComponentResult.DATA_PREVIEW_LENGTH) {
+                    preview.append(c);
+                }
+                if (Character.isHighSurrogate(c)) {
+                    if (pendingHighSurrogate) {
+                        isoBytes[length++] = '?';
+                    }
+                    pendingHighSurrogate = true;
+                } else if (Character.isLowSurrogate(c)) {
+                    // Either the end of a surrogate pair or a lone one
+                    isoBytes[length++] = '?';
+                    pendingHighSurrogate = false;
+                } else {
+                    if (pendingHighSurrogate) {
+                        isoBytes[length++] = '?';
+                        pendingHighSurrogate = false;
+                    }
+                    isoBytes[length++] = c <= 0xFF ? (byte) c : (byte) '?';
+                }
+                if (length >= BUFFER_SIZE - 1) {
+                    studyLogDigest.update(isoBytes, 0, length);
+                    length = 0;
+                }
+            }
+            studyLogDigest.update(isoBytes, 0, length);
+            chars.clear();
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLength() {
+            return charCount;
+        }
+
+        String getDataHash() {
+            return HashUtils.bytesToHex(dataDigest.digest());
+        }
+
+        String getStudyLogHash() {
+            return HashUtils.bytesToHex(studyLogDigest.digest());
+        }
+
+        String getPreview() {
+            return preview.toString();
+        }
+
+    }
+
+}
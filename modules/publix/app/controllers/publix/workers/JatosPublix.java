@@ -9,6 +9,7 @@ import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.ForbiddenReloadException;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatRecorder;
 import general.common.StudyLogger;
 import models.common.*;
 import models.common.workers.JatosWorker;
@@ -20,6 +21,7 @@ import play.mvc.Result;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.ResultCreator;
+import services.publix.RunContext;
 import services.publix.idcookie.IdCookieModel;
 import services.publix.idcookie.IdCookieService;
 import services.publix.workers.JatosErrorMessages;
@@ -93,10 +95,12 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
             IdCookieService idCookieService, JatosErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger,
+            HeartbeatRecorder heartbeatRecorder) {
         super(jpa, publixUtils, studyAuthorisation, groupChannel,
                 idCookieService, errorMessages, studyAssets, jsonUtils,
-                componentResultDao, studyResultDao, studyLogger);
+                componentResultDao, studyResultDao, studyLogger,
+                heartbeatRecorder);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -149,17 +153,17 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
                 + studyResultId + ", " + "logged-in user's email "
                 + session(SESSION_USER_EMAIL));
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        JatosWorker worker = publixUtils
-                .retrieveTypedWorker(idCookie.getWorkerId());
-        Component component = publixUtils.retrieveComponent(study, componentId);
+        RunContext<JatosWorker> runContext = retrieveRunContext(studyId,
+                componentId, studyResultId);
+        Study study = runContext.getStudy();
+        Batch batch = runContext.getBatch();
+        JatosWorker worker = runContext.getWorker();
+        Component component = runContext.getComponent();
         studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
         publixUtils.checkComponentBelongsToStudy(study, component);
 
         // Check if it's a single component show or a whole study show
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
-                studyResultId);
+        StudyResult studyResult = runContext.getStudyResult();
         JatosRun jatosRun = idCookie.getJatosRun();
         switch (jatosRun) {
             case RUN_STUDY:
@@ -203,21 +207,19 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
                 + "studyResultId " + studyResultId + ", "
                 + "logged-in user's email " + session(SESSION_USER_EMAIL));
         IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        JatosWorker worker = publixUtils
-                .retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<JatosWorker> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        Batch batch = runContext.getBatch();
+        JatosWorker worker = runContext.getWorker();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker,
+                runContext.getStudy(), batch);
+
+        StudyResult studyResult = runContext.getStudyResult();
 
         // Check if it's a single component show or a whole study show
         JatosRun jatosRun = idCookie.getJatosRun();
         switch (jatosRun) {
             case RUN_STUDY:
-                studyResult = publixUtils.retrieveStudyResult(worker, study,
-                        studyResultId);
                 break;
             case RUN_COMPONENT_START:
                 // Should never happen
@@ -251,15 +253,14 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
                 + studyResultId + ", " + "logged-in user email "
                 + session(SESSION_USER_EMAIL) + ", " + "message \"" + message
                 + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        JatosWorker worker = publixUtils
-                .retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<JatosWorker> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        Study study = runContext.getStudy();
+        JatosWorker worker = runContext.getWorker();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study,
+                runContext.getBatch());
+
+        StudyResult studyResult = runContext.getStudyResult();
         if (!PublixHelpers.studyDone(studyResult)) {
             publixUtils.abortStudy(message, studyResult);
             publixUtils.finishMemberInGroup(studyResult);
@@ -286,15 +287,14 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
                 + studyResultId + ", " + "logged-in user email "
                 + session(SESSION_USER_EMAIL) + ", " + "successful "
                 + successful + ", " + "errorMsg \"" + errorMsg + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        JatosWorker worker = publixUtils
-                .retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<JatosWorker> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        Study study = runContext.getStudy();
+        JatosWorker worker = runContext.getWorker();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study,
+                runContext.getBatch());
+
+        StudyResult studyResult = runContext.getStudyResult();
         if (!PublixHelpers.studyDone(studyResult)) {
             publixUtils.finishStudyResult(successful, errorMsg, studyResult);
             publixUtils.finishMemberInGroup(studyResult);
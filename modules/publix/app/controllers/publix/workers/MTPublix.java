@@ -9,6 +9,7 @@ import daos.common.StudyResultDao;
 import daos.common.worker.MTWorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatRecorder;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -23,8 +24,8 @@ import play.mvc.Result;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.ResultCreator;
+import services.publix.RunContext;
 import services.publix.WorkerCreator;
-import services.publix.idcookie.IdCookieModel;
 import services.publix.idcookie.IdCookieService;
 import services.publix.workers.MTErrorMessages;
 import services.publix.workers.MTPublixUtils;
@@ -74,11 +75,12 @@ public class MTPublix extends Publix<MTWorker> implements IPublix {
             MTGroupChannel groupChannel, IdCookieService idCookieService,
             MTErrorMessages errorMessages, StudyAssets studyAssets,
             JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger) {
+            StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger,
+            HeartbeatRecorder heartbeatRecorder) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupChannel, idCookieService,
                 errorMessages, studyAssets, jsonUtils, componentResultDao,
-                studyResultDao, studyLogger);
+                studyResultDao, studyLogger, heartbeatRecorder);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -142,15 +144,14 @@ public class MTPublix extends Publix<MTWorker> implements IPublix {
         LOGGER.info(".finishStudy: studyId " + studyId + ", " + "studyResultId "
                 + studyResultId + ", " + "successful " + successful + ", "
                 + "errorMsg \"" + errorMsg + "\"");
-        IdCookieModel idCookie = idCookieService.getIdCookie(studyResultId);
-        Study study = publixUtils.retrieveStudy(studyId);
-        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
-        MTWorker worker = publixUtils
-                .retrieveTypedWorker(idCookie.getWorkerId());
-        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study, batch);
-
-        StudyResult studyResult = publixUtils.retrieveStudyResult(worker, study,
+        RunContext<MTWorker> runContext = retrieveRunContext(studyId, null,
                 studyResultId);
+        Study study = runContext.getStudy();
+        MTWorker worker = runContext.getWorker();
+        studyAuthorisation.checkWorkerAllowedToDoStudy(worker, study,
+                runContext.getBatch());
+
+        StudyResult studyResult = runContext.getStudyResult();
         String confirmationCode;
         if (!PublixHelpers.studyDone(studyResult)) {
             confirmationCode = publixUtils.finishStudyResult(successful,
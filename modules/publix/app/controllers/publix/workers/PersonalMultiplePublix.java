@@ -7,6 +7,7 @@ import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.PublixException;
+import general.common.HeartbeatRecorder;
 import general.common.StudyLogger;
 import models.common.Batch;
 import models.common.Component;
@@ -56,10 +57,12 @@ public class PersonalMultiplePublix extends Publix<PersonalMultipleWorker> imple
             PersonalMultipleErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger,
+            HeartbeatRecorder heartbeatRecorder) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupChannel, idCookieService, errorMessages, studyAssets,
-                jsonUtils, componentResultDao, studyResultDao, studyLogger);
+                jsonUtils, componentResultDao, studyResultDao, studyLogger,
+                heartbeatRecorder);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
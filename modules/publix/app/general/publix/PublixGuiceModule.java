@@ -1,10 +1,8 @@
 package general.publix;
 
 import batch.BatchDispatcher;
-import batch.BatchDispatcherRegistry;
 import com.google.inject.AbstractModule;
 import com.google.inject.TypeLiteral;
-import group.GroupDispatcherRegistry;
 import group.GroupDispatcher;
 import models.common.workers.*;
 import play.libs.akka.AkkaGuiceSupport;
@@ -46,8 +44,6 @@ public class PublixGuiceModule extends AbstractModule implements AkkaGuiceSuppor
 		}).to(PersonalSinglePublixUtils.class);
 
 		// Config which Akka actors should be handled by Guice
-		bindActor(GroupDispatcherRegistry.class, "group-dispatcher-registry-actor");
-		bindActor(BatchDispatcherRegistry.class, "batch-dispatcher-registry-actor");
 		bindActorFactory(BatchDispatcher.class, BatchDispatcher.Factory.class);
 		bindActorFactory(GroupDispatcher.class, GroupDispatcher.Factory.class);
 	}
@@ -1,7 +1,10 @@
 package services.publix;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import daos.common.StudyResultDao;
 import models.common.ComponentResult;
 import models.common.ComponentResult.ComponentState;
 import models.common.Study;
@@ -14,31 +17,32 @@ import models.common.workers.Worker;
  */
 public abstract class PublixHelpers {
 
+	/**
+	 * States of a StudyResult that count as done
+	 */
+	public static final List<StudyState> DONE_STUDY_STATES = Collections
+			.unmodifiableList(Arrays.asList(StudyState.FINISHED,
+					StudyState.ABORTED, StudyState.FAIL));
+
 	/**
 	 * Checks if the worker finished this study already. 'Finished' includes
-	 * failed and aborted.
+	 * failed and aborted. It's an indexed COUNT query and doesn't load the
+	 * worker's StudyResults.
 	 */
-	public static boolean finishedStudyAlready(Worker worker, Study study) {
-		for (StudyResult studyResult : worker.getStudyResultList()) {
-			if (studyResult.getStudy().equals(study)
-					&& studyDone(studyResult)) {
-				return true;
-			}
-		}
-		return false;
+	public static boolean finishedStudyAlready(StudyResultDao studyResultDao,
+			Worker worker, Study study) {
+		return studyResultDao.countByWorkerAndStudyAndStates(worker, study,
+				DONE_STUDY_STATES) > 0;
 	}
 
 	/**
 	 * Checks if the worker ever did this study (independent of the study
-	 * result's state).
+	 * result's state). It's an indexed COUNT query and doesn't load the
+	 * worker's StudyResults.
 	 */
-	public static boolean didStudyAlready(Worker worker, Study study) {
-		for (StudyResult studyResult : worker.getStudyResultList()) {
-			if (studyResult.getStudy().equals(study)) {
-				return true;
-			}
-		}
-		return false;
+	public static boolean didStudyAlready(StudyResultDao studyResultDao,
+			Worker worker, Study study) {
+		return studyResultDao.countByWorkerAndStudy(worker, study) > 0;
 	}
 
 	/**
@@ -46,9 +50,7 @@ public abstract class PublixHelpers {
 	 * otherwise.
 	 */
 	public static boolean studyDone(StudyResult studyResult) {
-		StudyState state = studyResult.getStudyState();
-		return state == StudyState.FINISHED || state == StudyState.ABORTED
-				|| state == StudyState.FAIL;
+		return DONE_STUDY_STATES.contains(studyResult.getStudyState());
 	}
 
 	/**
@@ -4,11 +4,14 @@ import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.*;
 import general.common.StudyLogger;
+import general.common.StudyMetadataCache;
+import general.common.StudyMetadataCache.StudyMetadata;
 import group.GroupAdministration;
 import models.common.*;
 import models.common.ComponentResult.ComponentState;
 import models.common.StudyResult.StudyState;
 import models.common.workers.Worker;
+import services.publix.idcookie.IdCookieModel;
 import services.publix.idcookie.IdCookieService;
 import utils.common.JsonUtils;
 
@@ -36,6 +39,7 @@ public abstract class PublixUtils<T extends Worker> {
     private final WorkerDao workerDao;
     private final BatchDao batchDao;
     private final StudyLogger studyLogger;
+    private final StudyMetadataCache studyMetadataCache;
 
     public PublixUtils(ResultCreator resultCreator,
             IdCookieService idCookieService,
@@ -43,7 +47,8 @@ public abstract class PublixUtils<T extends Worker> {
             PublixErrorMessages errorMessages, StudyDao studyDao,
             StudyResultDao studyResultDao, ComponentDao componentDao,
             ComponentResultDao componentResultDao, WorkerDao workerDao,
-            BatchDao batchDao, StudyLogger studyLogger) {
+            BatchDao batchDao, StudyLogger studyLogger,
+            StudyMetadataCache studyMetadataCache) {
         this.resultCreator = resultCreator;
         this.idCookieService = idCookieService;
         this.groupAdministration = groupAdministration;
@@ -55,6 +60,7 @@ public abstract class PublixUtils<T extends Worker> {
         this.workerDao = workerDao;
         this.batchDao = batchDao;
         this.studyLogger = studyLogger;
+        this.studyMetadataCache = studyMetadataCache;
     }
 
     /**
@@ -139,9 +145,8 @@ public abstract class PublixUtils<T extends Worker> {
         // Clear all data and set ABORTED for all ComponentResults
         for (ComponentResult componentResult : studyResult
                 .getComponentResultList()) {
-            componentResult.setData(null);
             componentResult.setComponentState(ComponentState.ABORTED);
-            componentResultDao.update(componentResult);
+            componentResultDao.replaceData(componentResult, null);
         }
 
         // Set StudyResult to state ABORTED and set message
@@ -237,6 +242,27 @@ public abstract class PublixUtils<T extends Worker> {
         }
     }
 
+    /**
+     * Retrieves the worker, study, batch, component and study result of the
+     * study run that belongs to the given ID cookie and checks them like the
+     * single retrieve methods do. All entities are loaded with one query. The
+     * component ID can be null if the request isn't about a component.
+     */
+    public RunContext<T> retrieveRunContext(IdCookieModel idCookie,
+            Long studyId, Long componentId) throws PublixException {
+        Long studyResultId = idCookie.getStudyResultId();
+        // Subsequent retrievals by ID are served from the persistence context
+        studyResultDao.findByIdWithRunContext(studyResultId, componentId);
+        T worker = retrieveTypedWorker(idCookie.getWorkerId());
+        Study study = retrieveStudy(studyId);
+        Batch batch = retrieveBatch(idCookie.getBatchId());
+        Component component = (componentId != null)
+                ? retrieveComponent(study, componentId) : null;
+        StudyResult studyResult = retrieveStudyResult(worker, study,
+                studyResultId);
+        return new RunContext<>(worker, study, batch, component, studyResult);
+    }
+
     public StudyResult retrieveStudyResult(Worker worker, Study study,
             Long studyResultId)
             throws ForbiddenPublixException, BadRequestPublixException {
@@ -249,8 +275,9 @@ public abstract class PublixUtils<T extends Worker> {
             throw new BadRequestPublixException(
                     PublixErrorMessages.STUDY_RESULT_DOESN_T_EXIST);
         }
-        // Check that the given worker actually did this study result
-        if (!worker.getStudyResultList().contains(studyResult)) {
+        // Check that the given worker actually did this study result (without
+        // loading all the worker's study results)
+        if (!worker.equals(studyResult.getWorker())) {
             throw new ForbiddenPublixException(PublixErrorMessages
                     .workerNeverDidStudy(worker, study.getId()));
         }
@@ -331,16 +358,13 @@ public abstract class PublixUtils<T extends Worker> {
      */
     public Component retrieveFirstActiveComponent(Study study)
             throws NotFoundPublixException {
-        Component component = study.getFirstComponent();
-        // Find first active component or null if study has no active components
-        while (component != null && !component.isActive()) {
-            component = study.getNextComponent(component);
-        }
-        if (component == null) {
+        Long componentId = retrieveStudyMetadata(study.getId())
+                .getFirstActiveComponentId();
+        if (componentId == null) {
             throw new NotFoundPublixException(PublixErrorMessages
                     .studyHasNoActiveComponents(study.getId()));
         }
-        return component;
+        return componentDao.findById(componentId);
     }
 
     /**
@@ -350,14 +374,13 @@ public abstract class PublixUtils<T extends Worker> {
      */
     public Component retrieveNextActiveComponent(StudyResult studyResult) {
         Component currentComponent = retrieveLastComponent(studyResult);
-        Component nextComponent = studyResult.getStudy()
-                .getNextComponent(currentComponent);
+        StudyMetadata studyMetadata = studyMetadataCache
+                .get(studyResult.getStudy().getId());
         // Find next active component or null if study has no more components
-        while (nextComponent != null && !nextComponent.isActive()) {
-            nextComponent = studyResult.getStudy()
-                    .getNextComponent(nextComponent);
-        }
-        return nextComponent;
+        Long nextComponentId = studyMetadata.getNextActiveComponentId(
+                currentComponent != null ? currentComponent.getId() : null);
+        return nextComponentId != null
+                ? componentDao.findById(nextComponentId) : null;
     }
 
     /**
@@ -374,16 +397,17 @@ public abstract class PublixUtils<T extends Worker> {
     public Component retrieveComponent(Study study, Long componentId)
             throws NotFoundPublixException, BadRequestPublixException,
             ForbiddenPublixException {
+        StudyMetadata studyMetadata = retrieveStudyMetadata(study.getId());
         Component component = componentDao.findById(componentId);
         if (component == null) {
             throw new NotFoundPublixException(PublixErrorMessages
                     .componentNotExist(study.getId(), componentId));
         }
-        if (!component.getStudy().getId().equals(study.getId())) {
+        if (!studyMetadata.hasComponent(componentId)) {
             throw new BadRequestPublixException(PublixErrorMessages
                     .componentNotBelongToStudy(study.getId(), componentId));
         }
-        if (!component.isActive()) {
+        if (!studyMetadata.isComponentActive(componentId)) {
             throw new ForbiddenPublixException(PublixErrorMessages
                     .componentNotActive(study.getId(), componentId));
         }
@@ -392,19 +416,17 @@ public abstract class PublixUtils<T extends Worker> {
 
     public Component retrieveComponentByPosition(Long studyId, Integer position)
             throws NotFoundPublixException, BadRequestPublixException {
-        Study study = retrieveStudy(studyId);
+        StudyMetadata studyMetadata = retrieveStudyMetadata(studyId);
         if (position == null) {
             throw new BadRequestPublixException(
                     PublixErrorMessages.COMPONENTS_POSITION_NOT_NULL);
         }
-        Component component;
-        try {
-            component = study.getComponent(position);
-        } catch (IndexOutOfBoundsException e) {
+        Long componentId = studyMetadata.getComponentId(position);
+        if (componentId == null) {
             throw new NotFoundPublixException(PublixErrorMessages
-                    .noComponentAtPosition(study.getId(), position));
+                    .noComponentAtPosition(studyId, position));
         }
-        return component;
+        return componentDao.findById(componentId);
     }
 
     /**
@@ -420,6 +442,21 @@ public abstract class PublixUtils<T extends Worker> {
         return study;
     }
 
+    /**
+     * Returns the cached metadata (e.g. component order and active flags) of
+     * the study with the given ID. It throws an NotFoundPublixException if
+     * there is no such study.
+     */
+    private StudyMetadata retrieveStudyMetadata(Long studyId)
+            throws NotFoundPublixException {
+        StudyMetadata studyMetadata = studyMetadataCache.get(studyId);
+        if (studyMetadata == null) {
+            throw new NotFoundPublixException(
+                    PublixErrorMessages.studyNotExist(studyId));
+        }
+        return studyMetadata;
+    }
+
     /**
      * Checks if this component belongs to this study and throws an
      * BadRequestPublixException if it doesn't.
@@ -451,7 +488,8 @@ public abstract class PublixUtils<T extends Worker> {
     public Batch retrieveBatchByIdOrDefault(Long batchId, Study study) {
         if (batchId == -1) {
             // The default batch is always the first one in study's batch list
-            return study.getDefaultBatch();
+            return batchDao.findById(studyMetadataCache.get(study.getId())
+                    .getDefaultBatchId());
         } else {
             return batchDao.findById(batchId);
         }
@@ -6,7 +6,6 @@ import javax.inject.Singleton;
 import daos.common.ComponentResultDao;
 import daos.common.GroupResultDao;
 import daos.common.StudyResultDao;
-import daos.common.worker.WorkerDao;
 import models.common.Batch;
 import models.common.Component;
 import models.common.ComponentResult;
@@ -26,15 +25,13 @@ public class ResultCreator {
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
     private final GroupResultDao groupResultDao;
-    private final WorkerDao workerDao;
 
     @Inject
     ResultCreator(ComponentResultDao componentResultDao, StudyResultDao studyResultDao,
-            GroupResultDao groupResultDao, WorkerDao workerDao) {
+            GroupResultDao groupResultDao) {
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
         this.groupResultDao = groupResultDao;
-        this.workerDao = workerDao;
     }
 
     /**
@@ -42,18 +39,16 @@ public class ResultCreator {
      */
     public StudyResult createStudyResult(Study study, Batch batch, Worker worker) {
         StudyResult studyResult = new StudyResult(study, batch, worker);
-        worker.addStudyResult(studyResult);
         studyResultDao.create(studyResult);
-        workerDao.update(worker);
+        studyResultDao.addToWorker(worker, studyResult);
         return studyResult;
     }
 
     public ComponentResult createComponentResult(StudyResult studyResult, Component component) {
         ComponentResult componentResult = new ComponentResult(component);
         componentResult.setStudyResult(studyResult);
-        studyResult.addComponentResult(componentResult);
         componentResultDao.create(componentResult);
-        studyResultDao.update(studyResult);
+        componentResultDao.addToStudyResult(studyResult, componentResult);
         return componentResult;
     }
 
@@ -0,0 +1,58 @@
+package services.publix;
+
+import models.common.Batch;
+import models.common.Component;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.workers.Worker;
+
+/**
+ * Snapshot of everything a Publix endpoint needs to know about the current
+ * study run: the worker, study, batch, component and study result. It's
+ * retrieved with {@link PublixUtils#retrieveRunContext} in one go and can't be
+ * changed afterwards (the entities in it still can).
+ *
+ * @author Kristian Lange (2017)
+ */
+public class RunContext<T extends Worker> {
+
+    private final T worker;
+    private final Study study;
+    private final Batch batch;
+    private final Component component;
+    private final StudyResult studyResult;
+
+    public RunContext(T worker, Study study, Batch batch, Component component,
+            StudyResult studyResult) {
+        this.worker = worker;
+        this.study = study;
+        this.batch = batch;
+        this.component = component;
+        this.studyResult = studyResult;
+    }
+
+    public T getWorker() {
+        return worker;
+    }
+
+    public Study getStudy() {
+        return study;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    /**
+     * Returns the component of this request or null if the request is not
+     * about a particular component (e.g. heartbeat or finishStudy)
+     */
+    public Component getComponent() {
+        return component;
+    }
+
+    public StudyResult getStudyResult() {
+        return studyResult;
+    }
+
+}
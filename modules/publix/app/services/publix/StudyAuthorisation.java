@@ -1,7 +1,6 @@
 package services.publix;
 
-import java.util.Set;
-
+import daos.common.BatchDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -9,6 +8,12 @@ import models.common.workers.Worker;
 
 public abstract class StudyAuthorisation<T extends Worker> {
 
+	private final BatchDao batchDao;
+
+	protected StudyAuthorisation(BatchDao batchDao) {
+		this.batchDao = batchDao;
+	}
+
 	/**
 	 * Checks whether the given worker is allowed to start this study in this
 	 * batch. If the worker has no permission an ForbiddenPublixException is
@@ -27,17 +32,23 @@ public abstract class StudyAuthorisation<T extends Worker> {
 
 	/**
 	 * Check if the max total worker number is reached for this batch. Only
-	 * non-JatosWorker count here.
+	 * non-JatosWorker count here. The workers are counted without loading
+	 * them (Batch's workerCount).
+	 * 
+	 * The worker is always added to the batch first (BatchDao.addWorker) -
+	 * also if the batch has no limit, or if the worker was created earlier
+	 * for another batch (e.g. a returning MTWorker). This locks the batch
+	 * until the end of the transaction and a rejected worker is rolled back
+	 * together with it - concurrent study starts can't exceed
+	 * maxTotalWorkers.
 	 */
 	public void checkMaxTotalWorkers(Batch batch, Worker worker)
 			throws ForbiddenPublixException {
-		Set<Worker> workerSet = batch.getWorkerList();
-		// Add the worker who wants to run the study (he might have run it
-		// already)
-		workerSet.add(worker);
-		int potentialWorkerNumber = workerSet.size();
-		if (batch.getMaxTotalWorkers() != null
-				&& potentialWorkerNumber > batch.getMaxTotalWorkers()) {
+		batchDao.addWorker(batch, worker);
+		if (batch.getMaxTotalWorkers() == null) {
+			return;
+		}
+		if (batchDao.countWorkers(batch) > batch.getMaxTotalWorkers()) {
 			throw new ForbiddenPublixException(PublixErrorMessages
 					.batchMaxTotalWorkerReached(batch.getId()));
 		}
@@ -38,9 +38,8 @@ public class WorkerCreator {
 		} else {
 			worker = new MTWorker(mtWorkerId);
 		}
-		batch.addWorker(worker);
 		workerDao.create(worker);
-		batchDao.update(batch);
+		batchDao.addWorker(batch, worker);
 		return worker;
 	}
 	
@@ -49,9 +48,8 @@ public class WorkerCreator {
 	 */
 	public GeneralSingleWorker createAndPersistGeneralSingleWorker(Batch batch) {
 		GeneralSingleWorker worker = new GeneralSingleWorker();
-		batch.addWorker(worker);
 		workerDao.create(worker);
-		batchDao.update(batch);
+		batchDao.addWorker(batch, worker);
 		return worker;
 	}
 
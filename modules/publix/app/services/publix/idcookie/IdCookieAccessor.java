@@ -1,14 +1,18 @@
 package services.publix.idcookie;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import controllers.publix.Publix;
 import controllers.publix.workers.JatosPublix.JatosRun;
 import general.common.RequestScope;
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.JatosWorker;
+import models.common.workers.MTSandboxWorker;
+import models.common.workers.MTWorker;
+import models.common.workers.PersonalMultipleWorker;
+import models.common.workers.PersonalSingleWorker;
+import models.common.workers.Worker;
 import play.Logger;
 import play.Logger.ALogger;
 import play.mvc.Http.Cookie;
@@ -40,8 +44,51 @@ public class IdCookieAccessor {
 
     private static final ALogger LOGGER = Logger.of(IdCookieAccessor.class);
 
-    protected static final String COOKIE_EQUALS = "=";
-    protected static final String COOKIE_AND = "&";
+    protected static final char COOKIE_EQUALS = '=';
+    protected static final char COOKIE_AND = '&';
+
+    /**
+     * Keys of an ID cookie's value in the order they are checked. The
+     * position of a key is its bit in the masks of buildIdCookie.
+     */
+    private static final String[] KEYS = {IdCookieModel.WORKER_ID,
+            IdCookieModel.WORKER_TYPE, IdCookieModel.BATCH_ID,
+            IdCookieModel.GROUP_RESULT_ID, IdCookieModel.STUDY_ID,
+            IdCookieModel.STUDY_RESULT_ID, IdCookieModel.COMPONENT_ID,
+            IdCookieModel.COMPONENT_RESULT_ID, IdCookieModel.COMPONENT_POSITION,
+            IdCookieModel.STUDY_ASSETS, IdCookieModel.JATOS_RUN,
+            IdCookieModel.CREATION_TIME};
+    private static final int WORKER_ID = 0;
+    private static final int WORKER_TYPE = 1;
+    private static final int BATCH_ID = 2;
+    private static final int GROUP_RESULT_ID = 3;
+    private static final int STUDY_ID = 4;
+    private static final int STUDY_RESULT_ID = 5;
+    private static final int COMPONENT_ID = 6;
+    private static final int COMPONENT_RESULT_ID = 7;
+    private static final int COMPONENT_POSITION = 8;
+    private static final int STUDY_ASSETS = 9;
+    private static final int JATOS_RUN = 10;
+    private static final int CREATION_TIME = 11;
+
+    /**
+     * Keys that must have a value
+     */
+    private static final boolean[] STRICT = {true, true, true, false, true,
+            true, false, false, false, true, false, true};
+
+    /**
+     * Keys with String values
+     */
+    private static final boolean[] STRING_VALUE = {false, true, false, false,
+            false, false, false, false, false, true, true, false};
+
+    private static final String[] WORKER_TYPES = {JatosWorker.WORKER_TYPE,
+            GeneralSingleWorker.WORKER_TYPE, MTSandboxWorker.WORKER_TYPE,
+            MTWorker.WORKER_TYPE, PersonalMultipleWorker.WORKER_TYPE,
+            PersonalSingleWorker.WORKER_TYPE};
+
+    private static final JatosRun[] JATOS_RUNS = JatosRun.values();
 
     private final IdCookieSerialiser idCookieSerialiser;
 
@@ -81,8 +128,9 @@ public class IdCookieAccessor {
         IdCookieCollection idCookieCollection = new IdCookieCollection();
         for (Cookie cookie : cookies) {
             // Cookie names are case insensitive
-            if (cookie.name().toLowerCase()
-                    .startsWith(IdCookieModel.ID_COOKIE_NAME.toLowerCase())) {
+            if (cookie.name().regionMatches(true, 0,
+                    IdCookieModel.ID_COOKIE_NAME, 0,
+                    IdCookieModel.ID_COOKIE_NAME.length())) {
                 try {
                     IdCookieModel idCookie = buildIdCookie(cookie);
                     idCookieCollection.add(idCookie);
@@ -96,49 +144,153 @@ public class IdCookieAccessor {
         return idCookieCollection;
     }
 
-    private IdCookieModel buildIdCookie(Cookie cookie)
+    /**
+     * Parses the given cookie's value (key=value&key=value&...) in a single
+     * pass and fills the IdCookieModel directly. Unknown keys are ignored and
+     * if a key occurs more than once the last one counts. Only String values
+     * are URL-decoded.
+     */
+    IdCookieModel buildIdCookie(Cookie cookie)
             throws IdCookieMalformedException {
         IdCookieModel idCookie = new IdCookieModel();
-        Map<String, String> cookieMap = getCookiesKeyValuePairs(cookie);
+        String value = cookie.value();
+        // Bits (position in KEYS) of the keys that were found
+        int found = 0;
+        // Bits of the keys whose value is malformed
+        int malformed = 0;
+        int pairStart = 0;
+        while (true) {
+            int pairEnd = value.indexOf(COOKIE_AND, pairStart);
+            if (pairEnd == -1) {
+                pairEnd = value.length();
+            }
+            // Like String.split: trailing '=' don't count
+            int end = pairEnd;
+            while (end > pairStart && value.charAt(end - 1) == COOKIE_EQUALS) {
+                end--;
+            }
+            if (end == pairStart && pairEnd > pairStart) {
+                throw new IdCookieMalformedException(
+                        "Couldn't extract key from ID cookie.");
+            }
+            int equals = indexOf(value, COOKIE_EQUALS, pairStart, end);
+            if (equals != -1
+                    && indexOf(value, COOKIE_EQUALS, equals + 1, end) != -1) {
+                throw new IdCookieMalformedException(
+                        "Wrong number of '&' in ID cookie.");
+            }
+            int keyEnd = equals != -1 ? equals : end;
+            int valueStart = equals != -1 ? equals + 1 : end;
+            int key = indexOfKey(value, pairStart, keyEnd);
+            if (key != -1) {
+                found |= 1 << key;
+                if (setValue(idCookie, key, value, valueStart, end)) {
+                    malformed &= ~(1 << key);
+                } else {
+                    malformed |= 1 << key;
+                }
+            }
+            if (pairEnd == value.length()) {
+                break;
+            }
+            pairStart = pairEnd + 1;
+        }
+
         idCookie.setName(cookie.name());
         idCookie.setIndex(getCookieIndex(cookie.name()));
-        idCookie.setWorkerId(getValueAsLong(cookieMap, IdCookieModel.WORKER_ID,
-                true, cookie.name()));
-        idCookie.setWorkerType(getValueAsString(cookieMap,
-                IdCookieModel.WORKER_TYPE, true, cookie.name()));
-        idCookie.setBatchId(getValueAsLong(cookieMap, IdCookieModel.BATCH_ID,
-                true, cookie.name()));
-        idCookie.setGroupResultId(getValueAsLong(cookieMap,
-                IdCookieModel.GROUP_RESULT_ID, false, cookie.name()));
-        idCookie.setStudyId(getValueAsLong(cookieMap, IdCookieModel.STUDY_ID,
-                true, cookie.name()));
-        idCookie.setStudyResultId(getValueAsLong(cookieMap,
-                IdCookieModel.STUDY_RESULT_ID, true, cookie.name()));
-        idCookie.setComponentId(getValueAsLong(cookieMap,
-                IdCookieModel.COMPONENT_ID, false, cookie.name()));
-        idCookie.setComponentResultId(getValueAsLong(cookieMap,
-                IdCookieModel.COMPONENT_RESULT_ID, false, cookie.name()));
-        idCookie.setComponentPosition(getValueAsInt(cookieMap,
-                IdCookieModel.COMPONENT_POSITION, false, cookie.name()));
-        idCookie.setStudyAssets(getValueAsString(cookieMap,
-                IdCookieModel.STUDY_ASSETS, true, cookie.name()));
-        idCookie.setJatosRun(valueOfJatosRun(cookieMap, cookie));
-        idCookie.setCreationTime(getValueAsLong(cookieMap,
-                IdCookieModel.CREATION_TIME, true, cookie.name()));
+        for (int key = 0; key < KEYS.length; key++) {
+            boolean missing = (found & 1 << key) == 0;
+            // A missing String value is always malformed
+            if ((missing && (STRICT[key] || STRING_VALUE[key]))
+                    || (malformed & 1 << key) != 0) {
+                throw new IdCookieMalformedException(PublixErrorMessages
+                        .couldntExtractFromIdCookie(cookie.name(), KEYS[key]));
+            }
+        }
         return idCookie;
     }
 
+    /**
+     * Sets the value (between start and end) of the key with the given
+     * position in KEYS in the IdCookieModel. Returns false if the value is
+     * malformed.
+     */
+    private boolean setValue(IdCookieModel idCookie, int key, String value,
+            int start, int end) {
+        boolean isNull = regionEquals(value, start, end, "null");
+        try {
+            switch (key) {
+                case WORKER_ID:
+                    idCookie.setWorkerId(isNull ? null : parseLong(value, start, end));
+                    break;
+                case WORKER_TYPE:
+                    String workerType = match(value, start, end, WORKER_TYPES);
+                    if (workerType == null) {
+                        workerType = Worker.internWorkerType(
+                                urlDecode(value, start, end));
+                    }
+                    idCookie.setWorkerType(workerType);
+                    return !workerType.trim().isEmpty();
+                case BATCH_ID:
+                    idCookie.setBatchId(isNull ? null : parseLong(value, start, end));
+                    break;
+                case GROUP_RESULT_ID:
+                    idCookie.setGroupResultId(
+                            isNull ? null : parseLong(value, start, end));
+                    break;
+                case STUDY_ID:
+                    idCookie.setStudyId(isNull ? null : parseLong(value, start, end));
+                    break;
+                case STUDY_RESULT_ID:
+                    idCookie.setStudyResultId(
+                            isNull ? null : parseLong(value, start, end));
+                    break;
+                case COMPONENT_ID:
+                    idCookie.setComponentId(
+                            isNull ? null : parseLong(value, start, end));
+                    break;
+                case COMPONENT_RESULT_ID:
+                    idCookie.setComponentResultId(
+                            isNull ? null : parseLong(value, start, end));
+                    break;
+                case COMPONENT_POSITION:
+                    idCookie.setComponentPosition(
+                            isNull ? null : parseInt(value, start, end));
+                    break;
+                case STUDY_ASSETS:
+                    String studyAssets = urlDecode(value, start, end);
+                    idCookie.setStudyAssets(studyAssets);
+                    return !studyAssets.trim().isEmpty();
+                case JATOS_RUN:
+                    idCookie.setJatosRun(valueOfJatosRun(value, start, end));
+                    return true;
+                case CREATION_TIME:
+                    idCookie.setCreationTime(
+                            isNull ? null : parseLong(value, start, end));
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException or a malformed URL encoding
+            return false;
+        }
+        return !isNull || !STRICT[key];
+    }
+
     /**
      * Maps the IdCookie value for a JATOS run to the enum {@link JatosRun}. If
      * the value can't be matched to an instance of JatosRun then null is
-     * returned.
+     * returned. A malformed URL encoding throws an IllegalArgumentException.
      */
-    private JatosRun valueOfJatosRun(Map<String, String> cookieMap,
-            Cookie cookie) throws IdCookieMalformedException {
+    private JatosRun valueOfJatosRun(String value, int start, int end) {
+        for (JatosRun jatosRun : JATOS_RUNS) {
+            if (regionEquals(value, start, end, jatosRun.name())) {
+                return jatosRun;
+            }
+        }
+        String jatosRunStr = urlDecode(value, start, end);
         try {
-            return JatosRun.valueOf(getValueAsString(cookieMap,
-                    IdCookieModel.JATOS_RUN, false, cookie.name()));
-        } catch (IllegalArgumentException | NullPointerException e) {
+            return JatosRun.valueOf(jatosRunStr);
+        } catch (IllegalArgumentException e) {
             return null;
         }
     }
@@ -149,126 +301,111 @@ public class IdCookieAccessor {
      * is thrown.
      */
     private int getCookieIndex(String name) throws IdCookieMalformedException {
-        String lastChar = name.substring(name.length() - 1);
-        try {
-            return Integer.valueOf(lastChar);
-        } catch (NumberFormatException e) {
+        int index = Character.digit(name.charAt(name.length() - 1), 10);
+        if (index == -1) {
             throw new IdCookieMalformedException(PublixErrorMessages
                     .couldntExtractIndexFromIdCookieName(name));
-
         }
+        return index;
     }
 
     /**
-     * Extract and returns a Map with the given Cookie's key-value pairs.
+     * Returns the position of the key between start and end in KEYS or -1 if
+     * it's not a key of an ID cookie
      */
-    private Map<String, String> getCookiesKeyValuePairs(Cookie cookie)
-            throws IdCookieMalformedException {
-        Map<String, String> cookieKeyValuePairs = new HashMap<>();
-        for (String pairStr : cookie.value().split(COOKIE_AND)) {
-            addKeyValuePair(cookieKeyValuePairs, pairStr);
+    private static int indexOfKey(String str, int start, int end) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (regionEquals(str, start, end, KEYS[i])) {
+                return i;
+            }
         }
-        return cookieKeyValuePairs;
+        return -1;
     }
 
-    private void addKeyValuePair(Map<String, String> cookieKeyValuePairs, String pairStr)
-            throws IdCookieMalformedException {
-        String[] pairArray = pairStr.split(COOKIE_EQUALS);
-        String key;
-        String value;
-        // Every pair should have 2 elements (a key and a value)
-        if (pairArray.length == 0) {
-            throw new IdCookieMalformedException(
-                    "Couldn't extract key from ID cookie.");
-        } else if (pairArray.length == 1) {
-            key = pairArray[0];
-            value = "";
-        } else if (pairArray.length == 2) {
-            key = pairArray[0];
-            value = pairArray[1];
-        } else {
-            throw new IdCookieMalformedException(
-                    "Wrong number of '&' in ID cookie.");
+    /**
+     * Returns the one of the given constants that is equal to the part of the
+     * string between start and end or null if there is none
+     */
+    private static String match(String str, int start, int end,
+            String[] constants) {
+        for (String constant : constants) {
+            if (regionEquals(str, start, end, constant)) {
+                return constant;
+            }
         }
-        cookieKeyValuePairs.put(key, value);
+        return null;
+    }
+
+    private static boolean regionEquals(String str, int start, int end,
+            String other) {
+        return end - start == other.length()
+                && str.regionMatches(start, other, 0, other.length());
+    }
+
+    private static int indexOf(String str, char c, int start, int end) {
+        int index = str.indexOf(c, start);
+        return index < end ? index : -1;
     }
 
     /**
-     * Searches the given map the given key and returns the corresponding value
-     * as String. Throws a MalformedIdCookieException if the key doesn't exist.
-     * If strict is true and the value is "" it throws an
-     * MalformedIdCookieException.
+     * URL-decodes the part of the string between start and end. Only creates
+     * a new String if there is something to decode.
      */
-    private String getValueAsString(Map<String, String> cookieMap, String key,
-            boolean strict, String cookieName)
-            throws IdCookieMalformedException {
-        String valueStr;
-        try {
-            valueStr = HttpUtils.urlDecode(cookieMap.get(key));
-        } catch (Exception e) {
-            throw new IdCookieMalformedException(PublixErrorMessages
-                    .couldntExtractFromIdCookie(cookieName, key));
-        }
-        if (strict && valueStr.trim().isEmpty()) {
-            throw new IdCookieMalformedException(PublixErrorMessages
-                    .couldntExtractFromIdCookie(cookieName, key));
+    private static String urlDecode(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '%' || c == '+') {
+                return HttpUtils.urlDecode(str.substring(start, end));
+            }
         }
-        return valueStr;
+        return str.substring(start, end);
     }
 
     /**
-     * Searches the given map the given key and returns the corresponding value
-     * as Long. Does some simple validation.
-     *
-     * @param cookieMap  Map with cookie's key-value pairs
-     * @param key        Key to extract the value from
-     * @param strict     If true it doesn't accept null values and throws an
-     *                   MalformedIdCookieException. If false it just returns null.
-     * @param cookieName Name of the cookie
-     * @return Value that maps the key
-     * @throws IdCookieMalformedException Throws a MalformedIdCookieException if the a cookie value is
-     *                                    malformed.
+     * Parses the part of the string between start and end like Long.valueOf
+     * does but without creating a String
      */
-    private Long getValueAsLong(Map<String, String> cookieMap, String key, boolean strict,
-            String cookieName) throws IdCookieMalformedException {
-        String valueStr = cookieMap.get(key);
-        if ((valueStr == null || valueStr.equals("null")) && !strict) {
-            return null;
+    private static long parseLong(String str, int start, int end) {
+        if (start == end) {
+            throw new NumberFormatException();
         }
-        try {
-            return Long.valueOf(valueStr);
-        } catch (Exception e) {
-            throw new IdCookieMalformedException(PublixErrorMessages
-                    .couldntExtractFromIdCookie(cookieName, key));
+        int i = start;
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        char first = str.charAt(i);
+        if (first == '-' || first == '+') {
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            }
+            i++;
+            if (i == end) {
+                throw new NumberFormatException();
+            }
         }
+        // Accumulate negatively like Long.parseLong to reach Long.MIN_VALUE
+        long multmin = limit / 10;
+        long result = 0;
+        while (i < end) {
+            int digit = Character.digit(str.charAt(i++), 10);
+            if (digit < 0 || result < multmin) {
+                throw new NumberFormatException();
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException();
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
     }
 
-    /**
-     * Searches the given map the given key and returns the corresponding value
-     * as Integer. Does some simple validation.
-     *
-     * @param cookieMap  Map with cookie's key-value pairs
-     * @param key        Key to extract the value from
-     * @param strict     If true it doesn't accept null values and throws an
-     *                   MalformedIdCookieException. If false it just returns null.
-     * @param cookieName Name of the cookie
-     * @return Value that maps the key
-     * @throws IdCookieMalformedException Throws a MalformedIdCookieException if the cookie value is
-     *                                    malformed.
-     */
-    private Integer getValueAsInt(Map<String, String> cookieMap, String key,
-            boolean strict, String cookieName)
-            throws IdCookieMalformedException {
-        String valueStr = cookieMap.get(key);
-        if ((valueStr == null || valueStr.equals("null")) && !strict) {
-            return null;
-        }
-        try {
-            return Integer.valueOf(valueStr);
-        } catch (Exception e) {
-            throw new IdCookieMalformedException(PublixErrorMessages
-                    .couldntExtractFromIdCookie(cookieName, key));
+    private static int parseInt(String str, int start, int end) {
+        long result = parseLong(str, start, end);
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw new NumberFormatException();
         }
+        return (int) result;
     }
 
     /**
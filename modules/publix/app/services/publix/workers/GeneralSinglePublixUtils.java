@@ -5,6 +5,7 @@ import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import general.common.StudyLogger;
+import general.common.StudyMetadataCache;
 import group.GroupAdministration;
 import models.common.StudyResult;
 import models.common.StudyResult.StudyState;
@@ -36,10 +37,12 @@ public class GeneralSinglePublixUtils extends PublixUtils<GeneralSingleWorker> {
             GeneralSingleErrorMessages errorMessages, StudyDao studyDao,
             StudyResultDao studyResultDao, ComponentDao componentDao,
             ComponentResultDao componentResultDao, WorkerDao workerDao,
-            BatchDao batchDao, StudyLogger studyLogger) {
+            BatchDao batchDao, StudyLogger studyLogger,
+            StudyMetadataCache studyMetadataCache) {
         super(resultCreator, idCookieService, groupAdministration,
                 errorMessages, studyDao, studyResultDao, componentDao,
-                componentResultDao, workerDao, batchDao, studyLogger);
+                componentResultDao, workerDao, batchDao, studyLogger,
+                studyMetadataCache);
     }
 
     @Override
@@ -1,7 +1,10 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.BatchDao;
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -19,6 +22,15 @@ import services.publix.StudyAuthorisation;
 public class GeneralSingleStudyAuthorisation
 		extends StudyAuthorisation<GeneralSingleWorker> {
 
+	private final StudyResultDao studyResultDao;
+
+	@Inject
+	GeneralSingleStudyAuthorisation(BatchDao batchDao,
+			StudyResultDao studyResultDao) {
+		super(batchDao);
+		this.studyResultDao = studyResultDao;
+	}
+
 	@Override
 	public void checkWorkerAllowedToStartStudy(GeneralSingleWorker worker,
 			Study study, Batch batch) throws ForbiddenPublixException {
@@ -40,7 +52,8 @@ public class GeneralSingleStudyAuthorisation
 							study.getId(), batch.getId()));
 		}
 		// General single workers can't repeat the same study
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (PublixHelpers.finishedStudyAlready(studyResultDao, worker,
+				study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
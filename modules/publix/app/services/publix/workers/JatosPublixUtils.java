@@ -8,6 +8,7 @@ import daos.common.worker.WorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenPublixException;
 import general.common.StudyLogger;
+import general.common.StudyMetadataCache;
 import group.GroupAdministration;
 import models.common.User;
 import models.common.workers.JatosWorker;
@@ -41,10 +42,12 @@ public class JatosPublixUtils extends PublixUtils<JatosWorker> {
             JatosErrorMessages errorMessages, UserDao userDao,
             StudyDao studyDao, StudyResultDao studyResultDao,
             ComponentDao componentDao, ComponentResultDao componentResultDao,
-            WorkerDao workerDao, BatchDao batchDao, StudyLogger studyLogger) {
+            WorkerDao workerDao, BatchDao batchDao, StudyLogger studyLogger,
+            StudyMetadataCache studyMetadataCache) {
         super(resultCreator, idCookieService, groupAdministration,
                 errorMessages, studyDao, studyResultDao, componentDao,
-                componentResultDao, workerDao, batchDao, studyLogger);
+                componentResultDao, workerDao, batchDao, studyLogger,
+                studyMetadataCache);
         this.errorMessages = errorMessages;
         this.userDao = userDao;
     }
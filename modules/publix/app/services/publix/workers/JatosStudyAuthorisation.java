@@ -1,9 +1,11 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import controllers.publix.Publix;
 import controllers.publix.workers.JatosPublix;
+import daos.common.BatchDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -20,6 +22,11 @@ import services.publix.StudyAuthorisation;
 @Singleton
 public class JatosStudyAuthorisation extends StudyAuthorisation<JatosWorker> {
 
+	@Inject
+	JatosStudyAuthorisation(BatchDao batchDao) {
+		super(batchDao);
+	}
+
 	@Override
 	public void checkWorkerAllowedToStartStudy(JatosWorker worker, Study study,
 			Batch batch) throws ForbiddenPublixException {
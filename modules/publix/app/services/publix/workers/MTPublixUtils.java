@@ -5,6 +5,7 @@ import daos.common.*;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import general.common.StudyLogger;
+import general.common.StudyMetadataCache;
 import group.GroupAdministration;
 import models.common.workers.MTWorker;
 import models.common.workers.Worker;
@@ -32,10 +33,12 @@ public class MTPublixUtils extends PublixUtils<MTWorker> {
             MTErrorMessages errorMessages, StudyDao studyDao,
             StudyResultDao studyResultDao, ComponentDao componentDao,
             ComponentResultDao componentResultDao, WorkerDao workerDao,
-            BatchDao batchDao, StudyLogger studyLogger) {
+            BatchDao batchDao, StudyLogger studyLogger,
+            StudyMetadataCache studyMetadataCache) {
         super(resultCreator, idCookieService, groupAdministration,
                 errorMessages, studyDao, studyResultDao, componentDao,
-                componentResultDao, workerDao, batchDao, studyLogger);
+                componentResultDao, workerDao, batchDao, studyLogger,
+                studyMetadataCache);
     }
 
     @Override
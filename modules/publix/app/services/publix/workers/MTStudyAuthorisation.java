@@ -1,7 +1,10 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.BatchDao;
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -19,6 +22,15 @@ import services.publix.StudyAuthorisation;
 @Singleton
 public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 
+	private final StudyResultDao studyResultDao;
+
+	@Inject
+	MTStudyAuthorisation(BatchDao batchDao,
+			StudyResultDao studyResultDao) {
+		super(batchDao);
+		this.studyResultDao = studyResultDao;
+	}
+
 	@Override
 	public void checkWorkerAllowedToStartStudy(MTWorker worker, Study study,
 			Batch batch) throws ForbiddenPublixException {
@@ -27,7 +39,7 @@ public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 					PublixErrorMessages.batchInactive(batch.getId()));
 		}
 		if (!(worker instanceof MTSandboxWorker)
-				&& PublixHelpers.didStudyAlready(worker, study)) {
+				&& PublixHelpers.didStudyAlready(studyResultDao, worker, study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
@@ -49,7 +61,8 @@ public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 			return;
 		}
 		// MTurk workers can't repeat studies
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (PublixHelpers.finishedStudyAlready(studyResultDao, worker,
+				study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
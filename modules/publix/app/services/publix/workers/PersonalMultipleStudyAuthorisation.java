@@ -1,7 +1,9 @@
 package services.publix.workers;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.BatchDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -18,6 +20,11 @@ import services.publix.StudyAuthorisation;
 public class PersonalMultipleStudyAuthorisation
 		extends StudyAuthorisation<PersonalMultipleWorker> {
 
+	@Inject
+	PersonalMultipleStudyAuthorisation(BatchDao batchDao) {
+		super(batchDao);
+	}
+
 	@Override
 	public void checkWorkerAllowedToStartStudy(PersonalMultipleWorker worker,
 			Study study, Batch batch) throws ForbiddenPublixException {
@@ -3,6 +3,8 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.BatchDao;
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
@@ -21,9 +23,14 @@ import services.publix.StudyAuthorisation;
 public class PersonalSingleStudyAuthorisation
 		extends StudyAuthorisation<PersonalSingleWorker> {
 
+	private final StudyResultDao studyResultDao;
+
 	@Inject
 	PersonalSingleStudyAuthorisation(
-			PersonalSingleErrorMessages errorMessages) {
+			PersonalSingleErrorMessages errorMessages, BatchDao batchDao,
+			StudyResultDao studyResultDao) {
+		super(batchDao);
+		this.studyResultDao = studyResultDao;
 	}
 
 	@Override
@@ -55,7 +62,8 @@ public class PersonalSingleStudyAuthorisation
 							study.getId(), batch.getId()));
 		}
 		// Personal single workers can't repeat the same study
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (PublixHelpers.finishedStudyAlready(studyResultDao, worker,
+				study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
@@ -5,7 +5,6 @@ import javax.inject.{Inject, Singleton}
 import batch.BatchDispatcher.{BatchAction, BatchActionJsonKey, BatchMsg, TellWhom}
 import com.google.common.base.Strings
 import daos.common.BatchDao
-import gnieh.diffson.playJson._
 import models.common.Batch
 import play.api.Logger
 import play.api.libs.json.{JsObject, JsValue, Json}
@@ -15,6 +14,7 @@ import scala.compat.java8.FunctionConverters.asJavaSupplier
 
 /**
   * Handles batch action messages received by a BatchDispatcher from a client via a batch channel.
+  * It also loads the batch session from the database into a BatchSession and persists it again.
   *
   * @author Kristian Lange (2017)
   */
@@ -30,75 +30,173 @@ class BatchActionHandler @Inject()(jpa: JPAApi,
     * 'action' in their JSON. The only action handled here is the a patch for the batch session.
     * The function returns BatchMsges that will be send out to the batch members.
     */
-  def handleActionMsg(actionMsg: BatchMsg, batchId: Long): List[BatchMsg] = {
+  def handleActionMsg(actionMsg: BatchMsg, batchId: Long,
+                      session: Option[BatchSession]): List[BatchMsg] = {
     val actionValue = (actionMsg.json \ BatchActionJsonKey.Action.toString).as[String]
     val action = BatchAction.withName(actionValue)
     action match {
-      case BatchAction.Session => handlePatch(actionMsg.json, batchId)
+      case BatchAction.Session => handlePatch(actionMsg.json, batchId, session)
       case _ =>
         List(msgBuilder.buildError(s"Unknown action $action", TellWhom.SenderOnly))
     }
   }
 
   /**
-    * Applies JSON Patch for the batch session and tells everyone in the batch
+    * Applies JSON Patch to the in-memory batch session and tells everyone in the batch. The
+    * patched session data are persisted later on (see persistSession).
     */
-  private def handlePatch(json: JsObject, batchId: Long): List[BatchMsg] = {
+  private def handlePatch(json: JsObject, batchId: Long,
+                          sessionOption: Option[BatchSession]): List[BatchMsg] = {
+    if (sessionOption.isEmpty) {
+      val errorMsg = s"Couldn't find batch with ID $batchId in database."
+      return List(msgBuilder.buildError(errorMsg, TellWhom.SenderOnly))
+    }
+
+    val session = sessionOption.get
+    try {
+      val clientsVersion = (json \ BatchActionJsonKey.SessionVersion.toString).as[Long]
+      val patch = (json \ BatchActionJsonKey.SessionPatches.toString).get
+      val success = session.checkVersionAndPatch(patch, clientsVersion)
+      logger.debug(s".handlePatch: batchId $batchId, " +
+        s"clientsVersion $clientsVersion, batchSessionPatch ${Json.stringify(patch)}, " +
+        s"success $success")
+      if (success) {
+        val msg1 = msgBuilder.buildSessionPatch(session, patch, TellWhom.All)
+        val msg2 = msgBuilder.buildSimple(session, BatchAction.SessionAck, TellWhom.SenderOnly)
+        List(msg1, msg2)
+      } else
+        List(msgBuilder.buildSimple(session, BatchAction.SessionFail, TellWhom.SenderOnly))
+
+    } catch {
+      case e: Exception =>
+        logger.warn(s".handlePatch: batchId $batchId, json ${Json.stringify(json)}, " +
+          s"${e.getClass.getName}: ${e.getMessage}")
+        List(msgBuilder.buildSimple(session, BatchAction.SessionFail, TellWhom.SenderOnly))
+    }
+  }
+
+  /**
+    * Returns true if the BatchMsg is a batch session patch
+    */
+  def isSessionPatch(actionMsg: BatchMsg): Boolean =
+    (actionMsg.json \ BatchActionJsonKey.Action.toString).asOpt[String]
+      .contains(BatchAction.Session.toString)
+
+  /**
+    * Handles a batch session patch if coalescing is switched on: the patch is only added to the
+    * pending patches of the BatchSession. Returns None if it was accepted - then the sender gets
+    * its SESSION_ACK after the pending patches are committed (see commitPendingPatches).
+    * Otherwise the returned BatchMsg (e.g. SESSION_FAIL) has to be sent back to the sender.
+    */
+  def handlePendingPatch(actionMsg: BatchMsg, batchId: Long,
+                         sessionOption: Option[BatchSession]): Option[BatchMsg] = {
+    if (sessionOption.isEmpty) {
+      val errorMsg = s"Couldn't find batch with ID $batchId in database."
+      return Some(msgBuilder.buildError(errorMsg, TellWhom.SenderOnly))
+    }
+
+    val session = sessionOption.get
+    val json = actionMsg.json
+    try {
+      val clientsVersion = (json \ BatchActionJsonKey.SessionVersion.toString).as[Long]
+      val patch = (json \ BatchActionJsonKey.SessionPatches.toString).get
+      val success = session.checkVersionAndAddPendingPatch(patch, clientsVersion)
+      logger.debug(s".handlePendingPatch: batchId $batchId, " +
+        s"clientsVersion $clientsVersion, batchSessionPatch ${Json.stringify(patch)}, " +
+        s"success $success")
+      if (success) None
+      else Some(msgBuilder.buildSimple(session, BatchAction.SessionFail, TellWhom.SenderOnly))
+
+    } catch {
+      case e: Exception =>
+        logger.warn(s".handlePendingPatch: batchId $batchId, json ${Json.stringify(json)}, " +
+          s"${e.getClass.getName}: ${e.getMessage}")
+        Some(msgBuilder.buildSimple(session, BatchAction.SessionFail, TellWhom.SenderOnly))
+    }
+  }
+
+  /**
+    * Commits the pending patches of the BatchSession. Returns a SESSION message with all
+    * committed patches for everyone in the batch and a SESSION_ACK for the senders of the
+    * patches.
+    */
+  def commitPendingPatches(session: BatchSession): List[BatchMsg] = {
+    val mergedPatch = session.commitPendingPatches()
+    logger.debug(s".commitPendingPatches: batchId ${session.batchId}, " +
+      s"version ${session.getVersion}, batchSessionPatch ${Json.stringify(mergedPatch)}")
+    val msg1 = msgBuilder.buildSessionPatch(session, mergedPatch, TellWhom.All)
+    val msg2 = msgBuilder.buildSimple(session, BatchAction.SessionAck, TellWhom.SenderOnly)
+    List(msg1, msg2)
+  }
+
+  /**
+    * Loads the batch session data and version of the batch with the given ID from the database.
+    * Returns None if the batch doesn't exist.
+    */
+  def loadSession(batchId: Long): Option[BatchSession] = {
     jpa.withTransaction(asJavaSupplier(() => {
       val batch = batchDao.findById(batchId)
-      if (batch == null) {
-        val errorMsg = s"Couldn't find batch with ID $batchId in database."
-        List(msgBuilder.buildError(errorMsg, TellWhom.SenderOnly))
+      if (batch != null)
+        Some(new BatchSession(batchId, parseSessionData(batch), batch.getBatchSessionVersion))
+      else {
+        logger.warn(s".loadSession: couldn't find batch with ID $batchId in database")
+        None
       }
+    }))
+  }
+
+  /**
+    * Persists the session data in the Batch - but only if there are unsaved changes. Returns true
+    * if the batch session was changed in the database by someone else in the meantime (e.g. in
+    * JATOS' GUI). In this case the patches that weren't persisted yet are applied again on top of
+    * the session data from the database (see BatchSession.rebase) and the result is persisted.
+    * The pending patches are discarded.
+    */
+  def persistSession(session: BatchSession): Boolean = {
+    if (!session.isDirty) return false
 
-      try {
-        val clientsVersion = (json \ BatchActionJsonKey.SessionVersion.toString).as[Long]
-        val patch = (json \ BatchActionJsonKey.SessionPatches.toString).get
-        val patchedSessionData = patchSessionData(patch, batch)
-        logger.debug(s".handlePatch: batchId $batchId, " +
-          s"clientsVersion $clientsVersion, batchSessionPatch ${Json.stringify(patch)}, " +
-          s"updatedSessionData ${Json.stringify(patchedSessionData)}")
-
-        val success = checkVersionAndPersistSessionData(patchedSessionData, batch, clientsVersion)
-        if (success) {
-          val msg1 = msgBuilder.buildSessionPatch(batch, patch, TellWhom.All)
-          val msg2 = msgBuilder.buildSimple(batch, BatchAction.SessionAck, TellWhom.SenderOnly)
-          List(msg1, msg2)
-        } else
-          List(msgBuilder.buildSimple(batch, BatchAction.SessionFail, TellWhom.SenderOnly))
-
-      } catch {
-        case e: Exception =>
-          logger.warn(s".handlePatch: batchId $batchId, json ${Json.stringify(json)}, " +
-            s"${e.getClass.getName}: ${e.getMessage}")
-          List(msgBuilder.buildSimple(batch, BatchAction.SessionFail, TellWhom.SenderOnly))
+    jpa.withTransaction(asJavaSupplier(() => {
+      val batch = batchDao.findById(session.batchId)
+      if (batch == null) {
+        logger.info(s".persistSession: batch with ID ${session.batchId} doesn't exist anymore")
+        session.markPersisted()
+        false
+      } else if (batch.getBatchSessionVersion != session.getPersistedVersion) {
+        logger.warn(s".persistSession: batchId ${session.batchId}, batch session was changed " +
+          s"in the database (version ${batch.getBatchSessionVersion}) - applying the in-memory " +
+          s"patches since version ${session.getPersistedVersion} again")
+        val failedPatches = session.rebase(parseSessionData(batch), batch.getBatchSessionVersion)
+        failedPatches.foreach(patch =>
+          logger.warn(s".persistSession: batchId ${session.batchId}, couldn't apply patch " +
+            s"${Json.stringify(patch)} to the changed batch session"))
+        writeSession(batch, session)
+        true
+      } else {
+        writeSession(batch, session)
+        false
       }
     }))
   }
 
-  private def patchSessionData(patch: JsValue, batch: Batch): JsValue = {
-    val currentSessionData =
-      if (!Strings.isNullOrEmpty(batch.getBatchSessionData))
-        Json.parse(batch.getBatchSessionData)
-      else Json.obj()
-    JsonPatch.apply(patch)(currentSessionData)
+  private def writeSession(batch: Batch, session: BatchSession): Unit = {
+    logger.debug(s".persistSession: batchId ${session.batchId}, version ${session.getVersion}")
+    batch.setBatchSessionData(session.getData.toString)
+    batch.setBatchSessionVersion(session.getVersion)
+    batchDao.update(batch)
+    session.markPersisted()
   }
 
-  /**
-    * Persists the given sessionData in the Batch and increases
-    * the batchSessionVersion by 1 - but only if the stored version
-    * is equal to the received one. Returns true if this was successful -
-    * otherwise false.
-    */
-  private def checkVersionAndPersistSessionData(sessionData: JsValue, batch: Batch,
-                                                version: Long): Boolean = {
-    if (batch != null && sessionData != null && batch.getBatchSessionVersion == version) {
-      batch.setBatchSessionData(sessionData.toString)
-      batch.setBatchSessionVersion(batch.getBatchSessionVersion + 1l)
-      batchDao.update(batch)
-      return true
+  private def parseSessionData(batch: Batch): JsValue = {
+    try {
+      if (Strings.isNullOrEmpty(batch.getBatchSessionData)) Json.obj()
+      else Json.parse(batch.getBatchSessionData)
+    } catch {
+      case e: Exception =>
+        logger.error(s".parseSessionData: invalid session data in DB - batchId " +
+          s"${batch.getId}, batchSessionVersion ${batch.getBatchSessionVersion}, " +
+          s"batchSessionData ${batch.getBatchSessionData}, error: ${e.getMessage}")
+        Json.obj()
     }
-    false
   }
 
 }
@@ -4,6 +4,7 @@ import javax.inject.Inject
 
 import akka.actor.{Actor, ActorRef, PoisonPill, Props}
 import batch.BatchDispatcher._
+import general.ClientFrameForwarding
 import play.api.libs.json.JsObject
 
 /**
@@ -21,33 +22,38 @@ import play.api.libs.json.JsObject
   * UnregisterChannel message. A BatchChannelActor can, if it's told to, reassign itself to a
   * different BatchDispatcher.
   *
+  * The client sends JSON in text frames or CBOR in binary frames (see ClientFrameForwarding).
+  *
   * @author Kristian Lange (2017)
   */
 object BatchChannelActor {
-  def props(out: ActorRef, studyResultId: Long, batchDispatcher: ActorRef) =
+  def props(out: ActorRef, studyResultId: Long, batchDispatcher: ActorRef): Props =
     Props(new BatchChannelActor(out, studyResultId, batchDispatcher))
 }
 
-class BatchChannelActor @Inject()(out: ActorRef,
-                                  studyResultId: Long,
-                                  batchDispatcher: ActorRef) extends Actor {
+class BatchChannelActor @Inject()(protected val out: ActorRef,
+                                  protected val studyResultId: Long,
+                                  batchDispatcher: ActorRef)
+  extends Actor with ClientFrameForwarding {
 
   override def preStart() = batchDispatcher ! RegisterChannel(studyResultId)
 
   override def postStop() = batchDispatcher ! UnregisterChannel(studyResultId)
 
-  def receive = {
-    case msg: JsObject =>
-      // If we receive an JSON object (can only come from the client) wrap it in a
-      // BatchMsg and forward it to the BatchDispatcher
-      batchDispatcher ! BatchMsg(msg)
+  def receive = receiveClientFrame orElse {
     case msg: BatchMsg =>
       // If we receive a BatchMsg (can only come from the BatchDispatcher)
-      // send the unwrapped JSON to the client
-      out ! msg.json
+      // send its already rendered text frame to the client
+      out ! msg.textFrame
     case _: PoisonChannel =>
       // Kill this batch channel
       self ! PoisonPill
   }
 
+  /**
+    * Wraps a JSON object from the client in a BatchMsg and forwards it to the BatchDispatcher
+    */
+  override protected def forwardToDispatcher(json: JsObject): Unit =
+    batchDispatcher ! BatchMsg(json)
+
 }
@@ -2,15 +2,19 @@ package batch
 
 import javax.inject.Inject
 
-import akka.actor.{Actor, ActorRef, PoisonPill}
+import akka.Done
+import akka.actor.{Actor, ActorRef, Cancellable, PoisonPill}
 import batch.BatchDispatcher.TellWhom.TellWhom
 import batch.BatchDispatcher._
-import batch.BatchDispatcherRegistry.Unregister
 import com.google.inject.assistedinject.Assisted
 import general.ChannelRegistry
+import general.common.Common
 import play.api.Logger
+import play.api.http.websocket.TextMessage
 import play.api.libs.json.{JsObject, Json}
 
+import scala.concurrent.duration._
+
 /**
   * A BatchDispatcher is an Akka Actor responsible for distributing messages (BatchMsg) within a
   * batch.
@@ -28,12 +32,22 @@ import play.api.libs.json.{JsObject, Json}
   * batch. These messages are essentially JSON Patches after RFC 6902 and used to describe
   * changes in the batch session data. The session data are stored and persisted with the Batch.
   *
+  * While a BatchDispatcher is alive it keeps the batch session in memory (BatchSession) and
+  * patches are applied only there. The batch session is written back to the Batch periodically
+  * (jatos.batchSession.flushMillis), when the BatchDispatcher stops, and when JATOS shuts down.
+  *
+  * Optionally (jatos.batchSession.coalesceMillis) a BatchDispatcher collects the patches that
+  * arrive within a short time window and commits all non-conflicting ones together: the batch
+  * session version is increased only once, everyone gets one SESSION message with all patches,
+  * and each sender gets its SESSION_ACK. Without coalescing concurrent patches with the same
+  * version fail (except the first one) and have to be resent by the clients.
+  *
   * @author Kristian Lange (2017)
   */
 object BatchDispatcher {
 
   trait Factory {
-    def apply(dispatcherRegistry: ActorRef,
+    def apply(dispatcherRegistry: BatchDispatcherRegistry,
               actionHandler: BatchActionHandler,
               actionMsgBuilder: BatchActionMsgBuilder,
               batchId: Long): Actor
@@ -56,6 +70,23 @@ object BatchDispatcher {
     */
   case class PoisonChannel(studyResultId: Long)
 
+  /**
+    * Message that tells a BatchDispatcher to persist its batch session. It answers with Done
+    * afterwards.
+    */
+  case object FlushSession
+
+  /**
+    * Message a BatchDispatcher sends itself periodically to persist its batch session
+    */
+  private case object FlushSessionTick
+
+  /**
+    * Message a BatchDispatcher sends itself at the end of a coalescing window to commit the
+    * pending batch session patches
+    */
+  private case object CommitPendingPatches
+
   object TellWhom extends Enumeration {
     type TellWhom = Value
     val All, SenderOnly, Unknown = Value
@@ -94,11 +125,18 @@ object BatchDispatcher {
     * Message used for an action message. It has a JSON string and the JSON
     * contains an 'action' field. Additionally it can be addressed with TellWhom.
     */
-  case class BatchMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
+  case class BatchMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown) {
+
+    /**
+      * This message as a WebSocket text frame. It's rendered only once, no matter to how many
+      * batch channels the message is sent.
+      */
+    lazy val textFrame: TextMessage = TextMessage(Json.stringify(json))
+  }
 
 }
 
-class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
+class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: BatchDispatcherRegistry,
                                 @Assisted actionHandler: BatchActionHandler,
                                 @Assisted actionMsgBuilder: BatchActionMsgBuilder,
                                 @Assisted batchId: Long) extends Actor {
@@ -107,13 +145,57 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
 
   private val channelRegistry = new ChannelRegistry
 
-  override def postStop() = dispatcherRegistry ! Unregister(batchId)
+  /**
+    * In-memory batch session (authoritative while this BatchDispatcher is alive). Is None if the
+    * batch couldn't be found in the database.
+    */
+  private var session: Option[BatchSession] = None
+
+  private var flushSchedule: Option[Cancellable] = None
+
+  /**
+    * Time window in which session patches are collected. None if coalescing is switched off.
+    */
+  private val coalesceWindow: Option[FiniteDuration] =
+    Some(Common.getBatchSessionCoalesceMillis.millis).filter(_.length > 0)
+
+  /**
+    * Senders of the pending patches of the current coalescing window
+    */
+  private var pendingPatchSenders = List[ActorRef]()
+
+  /**
+    * Whether this BatchDispatcher had no channels at the last FlushSessionTick
+    */
+  private var emptyAtLastTick = false
+
+  override def preStart() = {
+    session = actionHandler.loadSession(batchId)
+    import context.dispatcher
+    val interval = Common.getBatchSessionFlushMillis.millis
+    flushSchedule = Some(context.system.scheduler.schedule(interval, interval, self,
+      FlushSessionTick))
+  }
+
+  override def postStop() = {
+    flushSchedule.foreach(_.cancel())
+    commitPendingPatches()
+    flushSession()
+    dispatcherRegistry.unregister(batchId, self)
+  }
 
   def receive = {
     case actionMsg: BatchMsg => handleActionMsg(actionMsg)
     case RegisterChannel(studyResultId: Long) => registerChannel(studyResultId)
     case UnregisterChannel(studyResultId: Long) => unregisterChannel(studyResultId)
     case p: PoisonChannel => poisonChannel(p)
+    case FlushSessionTick =>
+      flushSession()
+      stopIfUnused()
+    case CommitPendingPatches => commitPendingPatches()
+    case FlushSession =>
+      flushSession()
+      sender ! Done
   }
 
   /**
@@ -123,8 +205,66 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     logger.debug(s".handleActionMsg: batchId $batchId, " +
       s"studyResultId ${channelRegistry.getStudyResult(sender).get}, " +
       s"actionMsg ${Json.stringify(actionMsg.json)}")
-    val msgList = actionHandler.handleActionMsg(actionMsg, batchId)
-    tellActionMsg(msgList)
+    if (coalesceWindow.isDefined && actionHandler.isSessionPatch(actionMsg))
+      handlePendingPatch(actionMsg)
+    else {
+      val msgList = actionHandler.handleActionMsg(actionMsg, batchId, session)
+      tellActionMsg(msgList)
+    }
+  }
+
+  /**
+    * Adds a session patch to the pending patches. The first patch of a coalescing window
+    * schedules the commit at the end of the window.
+    */
+  private def handlePendingPatch(actionMsg: BatchMsg) = {
+    actionHandler.handlePendingPatch(actionMsg, batchId, session) match {
+      case Some(answer) => tellSenderOnly(answer)
+      case None =>
+        if (pendingPatchSenders.isEmpty) {
+          import context.dispatcher
+          context.system.scheduler.scheduleOnce(coalesceWindow.get, self, CommitPendingPatches)
+        }
+        pendingPatchSenders ::= sender
+    }
+  }
+
+  /**
+    * Commits the pending patches: tells everyone about them and sends a SESSION_ACK to each
+    * sender of a patch.
+    */
+  private def commitPendingPatches() = {
+    session.filter(_.hasPendingPatches).foreach { s =>
+      val msgList = actionHandler.commitPendingPatches(s)
+      msgList.foreach(msg =>
+        if (msg.tellWhom == TellWhom.All) tellAll(msg)
+        else pendingPatchSenders.reverse.foreach(_ ! msg)
+      )
+    }
+    pendingPatchSenders = Nil
+  }
+
+  /**
+    * Persists the batch session. If it was changed in the database in the meantime (e.g. in the
+    * GUI) the BatchSession now has the data from the database with the already acknowledged
+    * patches applied on top and we tell everyone about it. Pending patches fail.
+    */
+  private def flushSession() = {
+    try {
+      session.foreach(s =>
+        if (actionHandler.persistSession(s)) {
+          // The BatchSession was rebased on the database version and its pending patches are gone
+          val failMsg = actionMsgBuilder.buildSimple(s, BatchAction.SessionFail,
+            TellWhom.SenderOnly)
+          pendingPatchSenders.foreach(_ ! failMsg)
+          pendingPatchSenders = Nil
+          tellAll(actionMsgBuilder.buildSessionData(s, BatchAction.Session, TellWhom.All))
+        }
+      )
+    } catch {
+      case e: Exception =>
+        logger.error(s".flushSession: batchId $batchId, couldn't persist batch session", e)
+    }
   }
 
   /**
@@ -133,8 +273,12 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
   private def registerChannel(studyResultId: Long) = {
     logger.debug(s".registerChannel: batchId $batchId, studyResultId $studyResultId")
     channelRegistry.register(studyResultId, sender)
-    tellActionMsg(List(actionMsgBuilder.buildSessionData(
-      batchId, BatchAction.Opened, TellWhom.SenderOnly)))
+    val msg = session match {
+      case Some(s) => actionMsgBuilder.buildSessionData(s, BatchAction.Opened, TellWhom.SenderOnly)
+      case None => actionMsgBuilder.buildError(
+        s"Couldn't find batch with ID $batchId in database.", TellWhom.SenderOnly)
+    }
+    tellActionMsg(List(msg))
   }
 
   /**
@@ -154,6 +298,16 @@ class BatchDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     if (channelRegistry.isEmpty) self ! PoisonPill
   }
 
+  /**
+    * In clustered mode a message from a different node can start a BatchDispatcher that never
+    * gets a channel. It stops itself if it had no channels during a whole flush interval.
+    */
+  private def stopIfUnused() = {
+    if (dispatcherRegistry.isClustered && emptyAtLastTick && channelRegistry.isEmpty)
+      self ! PoisonPill
+    emptyAtLastTick = channelRegistry.isEmpty
+  }
+
   /**
     * Tells the BatchChannelActor to close itself. The BatchChannelActor then sends a
     * UnregisterChannel back to this BatchDispatcher during postStop and then we
@@ -2,69 +2,39 @@ package batch
 
 import javax.inject.{Inject, Singleton}
 
-import akka.actor.{Actor, ActorRef, ActorSystem}
-import batch.BatchDispatcherRegistry.{GetOrCreate, ItsThisOne, Unregister}
-import play.api.Logger
-import play.api.libs.concurrent.InjectedActorSupport
-
-import scala.collection.mutable
+import akka.actor.{ActorSystem, Props}
+import batch.BatchDispatcher.{FlushSession, RegisterChannel, UnregisterChannel}
+import general.DispatcherRegistry
+import play.api.inject.ApplicationLifecycle
 
 /**
-  * A BatchDispatcherRegistry is an Akka Actor that keeps track of all BatchDispatcher Actors.
+  * A BatchDispatcherRegistry keeps track of all BatchDispatcher Actors.
+  *
+  * It is thread-safe and based on a ConcurrentHashMap: getting the BatchDispatcher of one batch
+  * doesn't wait for other batches and the BatchDispatcher of a batch is created only once even if
+  * many batch channels are opened at the same time.
+  *
+  * In clustered mode the BatchDispatchers are placed by their batch ID across the nodes.
   *
   * @author Kristian Lange (2017)
   */
-object BatchDispatcherRegistry {
-
-  abstract class RegistryProtocol
-
-  /**
-    * Used by the BatchChannel service to ask which BatchDispatcher actor manages a particular
-    * batch. If it doesn't exist, create a new one.
-    */
-  case class GetOrCreate(batchId: Long) extends RegistryProtocol
-
-  /**
-    * Used to answer the BatchChannel service which BatchDispatcher actor manages a particular
-    * batch.
-    */
-  case class ItsThisOne(dispatcher: ActorRef) extends RegistryProtocol
-
-  /**
-    * Used by a BatchDispatcher to unregister itself from this registry
-    */
-  case class Unregister(batchId: Long) extends RegistryProtocol
-
-}
-
 @Singleton
 class BatchDispatcherRegistry @Inject()(actorSystem: ActorSystem,
+                                        lifecycle: ApplicationLifecycle,
                                         dispatcherFactory: BatchDispatcher.Factory,
                                         actionHandler: BatchActionHandler,
                                         actionMsgBuilder: BatchActionMsgBuilder)
-  extends Actor with InjectedActorSupport {
+  extends DispatcherRegistry(actorSystem, lifecycle, "BatchDispatcher") {
 
-  private val logger: Logger = Logger(this.getClass)
+  override protected def dispatcherProps(batchId: Long): Props =
+    Props(dispatcherFactory(this, actionHandler, actionMsgBuilder, batchId))
 
-  /**
-    * Contains the dispatchers that are currently registered. Maps the an ID to the ActorRef.
-    */
-  private val dispatcherMap = mutable.HashMap[Long, ActorRef]()
+  override protected def flushSessionMsg: Any = FlushSession
 
-  def receive = {
-    case GetOrCreate(batchId: Long) =>
-      // Someone wants to know the Dispatcher to a particular ID
-      // If it doesn't exist, create a new one.
-      if (!dispatcherMap.contains(batchId)) {
-        val dispatcher = injectedChild(
-          dispatcherFactory(self, actionHandler, actionMsgBuilder, batchId), batchId.toString)
-        dispatcherMap += (batchId -> dispatcher)
-        logger.debug(s".receive: registered dispatcher for batch ID $batchId")
-      }
-      sender ! ItsThisOne(dispatcherMap(batchId))
-    case Unregister(batchId: Long) =>
-      dispatcherMap -= batchId
-      logger.debug(s".receive: unregistered dispatcher for batch ID $batchId")
+  override protected def channelDelta(msg: Any): Int = msg match {
+    case _: RegisterChannel => 1
+    case _: UnregisterChannel => -1
+    case _ => 0
   }
 
 }
@@ -0,0 +1,175 @@
+package batch
+
+import gnieh.diffson.playJson._
+import play.api.libs.json._
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+  * The batch session of one batch as it is kept in memory by the batch's BatchDispatcher. While a
+  * BatchDispatcher is alive its BatchSession is the authoritative version of the batch session
+  * data: patches are applied here and the result is written back to the Batch entity only from
+  * time to time (see BatchActionHandler.persistSession).
+  *
+  * If coalescing is switched on (jatos.batchSession.coalesceMillis) patches are first collected
+  * as pending patches and later on committed together with only one version increase.
+  *
+  * Not thread-safe - it's meant to be used only from within its BatchDispatcher.
+  */
+class BatchSession(val batchId: Long, private var data: JsValue, private var version: Long) {
+
+  /**
+    * The version that is currently stored in the database
+    */
+  private var persistedVersion: Long = version
+
+  /**
+    * Session data with all pending patches applied
+    */
+  private var pendingData: JsValue = data
+
+  /**
+    * Operations of all pending patches in the order they were added
+    */
+  private val pendingOperations = ArrayBuffer[JsValue]()
+
+  /**
+    * JSON Pointers (as lists of reference tokens) of the session data parts that are changed by
+    * the pending patches
+    */
+  private val pendingLocks = ArrayBuffer[List[String]]()
+
+  /**
+    * Patches of the versions that aren't persisted yet - one per version. They are applied again
+    * if the session data in the database were changed in the meantime (see rebase).
+    */
+  private val unpersistedPatches = ArrayBuffer[JsValue]()
+
+  def getData: JsValue = data
+
+  def getVersion: Long = version
+
+  def getPersistedVersion: Long = persistedVersion
+
+  /**
+    * Returns true if there are changes that aren't persisted yet.
+    */
+  def isDirty: Boolean = version != persistedVersion
+
+  /**
+    * Applies the JSON Patch to the session data and increases the version by 1 - but only if the
+    * given version is equal to the current one. Returns true if this was successful - otherwise
+    * false. Throws an exception if the patch can't be applied.
+    */
+  def checkVersionAndPatch(patch: JsValue, clientsVersion: Long): Boolean = {
+    if (version != clientsVersion) return false
+    data = JsonPatch.apply(patch)(data)
+    version += 1
+    unpersistedPatches += patch
+    true
+  }
+
+  def hasPendingPatches: Boolean = pendingOperations.nonEmpty
+
+  /**
+    * Adds the JSON Patch to the pending patches - but only if the given version is equal to the
+    * current one and the patch doesn't conflict with the already pending patches. Two patches
+    * conflict if they change the same part of the session data: one's path is the same as or
+    * lies within the other's path. Operations on array elements count as changes of the whole
+    * array since they can shift the indices. Returns true if this was successful - otherwise
+    * false. Throws an exception if the patch can't be applied.
+    */
+  def checkVersionAndAddPendingPatch(patch: JsValue, clientsVersion: Long): Boolean = {
+    if (version != clientsVersion) return false
+    val base = if (hasPendingPatches) pendingData else data
+    val operations = patch match {
+      case JsArray(values) => values
+      case operation => Seq(operation)
+    }
+    val locks = operations.flatMap(lockedPaths(_, base))
+    if (locks.exists(lock => pendingLocks.exists(overlap(lock, _)))) return false
+    pendingData = JsonPatch.apply(patch)(base)
+    pendingOperations ++= operations
+    pendingLocks ++= locks
+    true
+  }
+
+  /**
+    * Applies all pending patches to the session data and increases the version by 1. Returns the
+    * operations of all pending patches as one JSON Patch.
+    */
+  def commitPendingPatches(): JsArray = {
+    val mergedPatch = JsArray(pendingOperations.toList)
+    data = pendingData
+    version += 1
+    unpersistedPatches += mergedPatch
+    discardPendingPatches()
+    mergedPatch
+  }
+
+  def discardPendingPatches(): Unit = {
+    pendingOperations.clear()
+    pendingLocks.clear()
+  }
+
+  /**
+    * Returns the paths (JSON Pointer 'path' and 'from') of a patch operation as lists of
+    * reference tokens. If the path points into an array the array's path is returned instead.
+    */
+  private def lockedPaths(operation: JsValue, base: JsValue): Seq[List[String]] = {
+    val paths = Seq("path", "from").flatMap(key => (operation \ key).asOpt[String])
+    paths.map { path =>
+      val tokens = path.split("/", -1).toList.drop(1)
+        .map(_.replace("~1", "/").replace("~0", "~"))
+      if (tokens.nonEmpty && isArray(base, tokens.init)) tokens.init else tokens
+    }
+  }
+
+  private def isArray(json: JsValue, tokens: List[String]): Boolean = {
+    val node = tokens.foldLeft[JsLookupResult](JsDefined(json)) { (result, token) =>
+      result.toOption match {
+        case Some(array: JsArray) if isIndex(token) => array \ token.toInt
+        case Some(obj: JsObject) => obj \ token
+        case _ => JsUndefined(s"No array or object at $token")
+      }
+    }
+    node.toOption.exists(_.isInstanceOf[JsArray])
+  }
+
+  private def isIndex(token: String): Boolean =
+    token.nonEmpty && token.length < 10 && token.forall(_.isDigit)
+
+  private def overlap(lock1: List[String], lock2: List[String]): Boolean =
+    lock1.startsWith(lock2) || lock2.startsWith(lock1)
+
+  /**
+    * Marks the current version as stored in the database
+    */
+  def markPersisted(): Unit = {
+    persistedVersion = version
+    unpersistedPatches.clear()
+  }
+
+  /**
+    * Takes over the session data and version from the database (e.g. if they were changed in
+    * JATOS' GUI) and applies the patches that aren't persisted yet on top of them again - the
+    * clients already got their SESSION_ACK for those. The version is increased by one for each of
+    * them. Pending patches are discarded. Returns the patches that couldn't be applied anymore.
+    */
+  def rebase(persistedData: JsValue, persistedVersion: Long): Seq[JsValue] = {
+    val failedPatches = ArrayBuffer[JsValue]()
+    data = unpersistedPatches.foldLeft(persistedData) { (rebasedData, patch) =>
+      try JsonPatch.apply(patch)(rebasedData)
+      catch {
+        case _: Exception =>
+          failedPatches += patch
+          rebasedData
+      }
+    }
+    version = persistedVersion + unpersistedPatches.size
+    this.persistedVersion = persistedVersion
+    discardPendingPatches()
+    failedPatches
+  }
+
+}
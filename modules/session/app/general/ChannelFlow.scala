@@ -0,0 +1,62 @@
+package general
+
+import akka.actor._
+import akka.stream.scaladsl.{Flow, Keep, Sink, Source, SourceQueueWithComplete}
+import akka.stream.{Materializer, OverflowStrategy}
+import general.common.ChannelStats.ChannelCounters
+import org.reactivestreams.Publisher
+import play.api.http.websocket.Message
+
+/**
+  * Creates the Akka stream Flow for a batch or group channel's WebSocket. It works like Play's
+  * ActorFlow.actorRef but the frames that the channel actor sends to its 'out' ActorRef go
+  * through a ChannelOutbox with a bounded buffer and overflow policies.
+  *
+  * @author Kristian Lange (2017)
+  */
+object ChannelFlow {
+
+  /**
+    * Size of the WebSocket stream's own buffer. Everything beyond is buffered in the
+    * ChannelOutbox.
+    */
+  private val StreamBufferSize = 16
+
+  /**
+    * Creates a Flow that is handled by the actor created by the given props. The props get the
+    * ChannelOutbox as the ActorRef to send frames to the client.
+    */
+  def actorRef(props: ActorRef => Props, counters: ChannelCounters)
+              (implicit factory: ActorRefFactory, mat: Materializer): Flow[Message, Message, _] = {
+    val (queue, publisher) = outboundStream()
+
+    Flow.fromSinkAndSource(
+      Sink.actorRef(factory.actorOf(Props(new Actor {
+        val outbox = context.watch(context.actorOf(ChannelOutbox.props(queue, counters),
+          "outbox"))
+        val flowActor = context.watch(context.actorOf(props(outbox), "flowActor"))
+
+        def receive = {
+          case Status.Success(_) | Status.Failure(_) => flowActor ! PoisonPill
+          case Terminated(_) => context.stop(self)
+          case other => flowActor ! other
+        }
+
+        override def supervisorStrategy = OneForOneStrategy() {
+          case _ => SupervisorStrategy.Stop
+        }
+      })), Status.Success(())),
+      Source.fromPublisher(publisher)
+    )
+  }
+
+  /**
+    * Materializes the stream of the frames that go to the client: returns the queue to put
+    * frames in and the publisher that the WebSocket subscribes to
+    */
+  def outboundStream()(implicit mat: Materializer)
+  : (SourceQueueWithComplete[Message], Publisher[Message]) =
+    Source.queue[Message](StreamBufferSize, OverflowStrategy.backpressure)
+      .toMat(Sink.asPublisher(false))(Keep.both).run()
+
+}
@@ -0,0 +1,130 @@
+package general
+
+import akka.actor.{Actor, Props}
+import akka.stream.QueueOfferResult
+import akka.stream.scaladsl.SourceQueueWithComplete
+import general.ChannelOutbox.{Offered, OutboundFrame}
+import general.common.ChannelStats.ChannelCounters
+import general.common.Common
+import play.api.Logger
+import play.api.http.websocket.Message
+
+import scala.collection.mutable
+import scala.util.{Success, Try}
+
+/**
+  * A ChannelOutbox is an Akka Actor that buffers the frames that a batch or group channel sends
+  * to its client. Since a client (e.g. a participant on a slow mobile connection) might not be
+  * able to receive the frames as fast as they are sent, the buffer is bounded and has different
+  * overflow policies depending on the kind of frame:
+  *
+  * 1) Frames that may be dropped (broadcast and direct messages between group members): at most
+  * jatos.channel.outboundBuffer.size are buffered, after that the oldest one is dropped.
+  * 2) All other frames (e.g. session patches, membership changes) are never dropped since the
+  * client would get out of sync. If more than jatos.channel.outboundBuffer.maxUndroppable are
+  * waiting the channel is closed. The client can then reopen the channel and gets the current
+  * state.
+  *
+  * The frames are handed over one by one to the WebSocket's stream (a SourceQueue) as soon as it
+  * has demand. When the ChannelOutbox stops it completes the stream, which closes the WebSocket.
+  *
+  * @author Kristian Lange (2017)
+  */
+object ChannelOutbox {
+
+  def props(queue: SourceQueueWithComplete[Message], counters: ChannelCounters): Props =
+    Props(new ChannelOutbox(queue, counters, Common.getChannelOutboundBufferSize,
+      Common.getChannelOutboundBufferMaxUndroppable))
+
+  /**
+    * Message to a ChannelOutbox: a frame for the client and whether it may be dropped. A plain
+    * Message sent to a ChannelOutbox is never dropped.
+    */
+  case class OutboundFrame(frame: Message, droppable: Boolean)
+
+  /**
+    * Message a ChannelOutbox sends itself after the WebSocket's stream took a frame
+    */
+  private case class Offered(result: Try[QueueOfferResult])
+
+}
+
+class ChannelOutbox(queue: SourceQueueWithComplete[Message],
+                    counters: ChannelCounters,
+                    maxDroppable: Int,
+                    maxUndroppable: Int) extends Actor {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  private val pending = mutable.Queue[OutboundFrame]()
+
+  private var pendingDroppable = 0
+
+  private var dropped = 0L
+
+  /**
+    * True while a frame is offered to the stream and we wait for the stream to take it
+    */
+  private var offering = false
+
+  override def postStop() = {
+    queue.complete()
+    if (dropped > 0) logger.info(s".postStop: dropped $dropped frames")
+  }
+
+  def receive = {
+    case outboundFrame: OutboundFrame => enqueue(outboundFrame)
+    case frame: Message => enqueue(OutboundFrame(frame, droppable = false))
+    case Offered(Success(QueueOfferResult.Enqueued)) =>
+      offering = false
+      offerNext()
+    case Offered(_) =>
+      // The stream is closed or failed: the WebSocket is gone
+      context.stop(self)
+  }
+
+  private def enqueue(outboundFrame: OutboundFrame): Unit = {
+    counters.queuedFrames.increment()
+    if (outboundFrame.droppable) {
+      if (pendingDroppable >= maxDroppable && !dropOldestDroppable()) {
+        drop()
+        return
+      }
+      pendingDroppable += 1
+    } else if (pending.size - pendingDroppable >= maxUndroppable) {
+      logger.warn(s".enqueue: more than $maxUndroppable frames waiting for a slow client - " +
+        s"closing channel")
+      counters.closedChannels.increment()
+      context.stop(self)
+      return
+    }
+    pending.enqueue(outboundFrame)
+    offerNext()
+  }
+
+  private def dropOldestDroppable(): Boolean = {
+    val oldest = pending.dequeueFirst(_.droppable)
+    if (oldest.isDefined) {
+      pendingDroppable -= 1
+      drop()
+    }
+    oldest.isDefined
+  }
+
+  private def drop() = {
+    dropped += 1
+    counters.droppedFrames.increment()
+  }
+
+  private def offerNext() = {
+    if (!offering && pending.nonEmpty) {
+      val outboundFrame = pending.dequeue()
+      if (outboundFrame.droppable) pendingDroppable -= 1
+      offering = true
+      import context.dispatcher
+      val outbox = self
+      queue.offer(outboundFrame.frame).onComplete(result => outbox ! Offered(result))
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package general
+
+import akka.actor.{Actor, ActorRef}
+import akka.util.ByteString
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+import play.api.Logger
+import play.api.http.websocket._
+import play.api.libs.json.jackson.PlayJsonModule
+import play.api.libs.json.{JsObject, JsValue}
+
+import scala.util.{Failure, Success, Try}
+
+/**
+  * Wire protocols a client can choose for its channel. The default is JSON in WebSocket text
+  * frames. With CBOR (RFC 7049) the messages have the same JSON shape but are sent in binary
+  * frames. The protocol is chosen by the client with the query parameter 'protocol' during
+  * opening of the channel (e.g. '/publix/1/group/join?srid=1&protocol=cbor').
+  *
+  * @author Kristian Lange (2017)
+  */
+object ChannelProtocol extends Enumeration {
+  type ChannelProtocol = Value
+  val Json = Value("json")
+  val Cbor = Value("cbor")
+
+  /**
+    * Name of the query parameter used to choose the protocol
+    */
+  val QueryParameter = "protocol"
+
+  /**
+    * Returns the protocol with the given name or the default protocol (JSON) if no name is
+    * given. Returns None if there is no protocol with the given name.
+    */
+  def fromName(name: Option[String]): Option[ChannelProtocol] =
+    name.fold[Option[ChannelProtocol]](Some(Json))(n => values.find(_.toString == n))
+
+  /**
+    * Decodes a frame received from a client: text frames contain JSON and binary frames CBOR.
+    */
+  def decode(frame: Message): Try[JsValue] = frame match {
+    case TextMessage(text) => Try(play.api.libs.json.Json.parse(text))
+    case BinaryMessage(bytes) => Try(CborCodec.decode(bytes))
+    case _ => Failure(new IllegalArgumentException(s"Unexpected frame $frame"))
+  }
+}
+
+/**
+  * Handles the frames a channel actor (BatchChannelActor or GroupChannelActor) receives from its
+  * client: text frames with JSON and binary frames with CBOR (see ChannelProtocol). JSON objects
+  * are forwarded to the channel's dispatcher, other JSON values are ignored. If a frame can't be
+  * parsed the channel is closed (like Play does with JSON WebSockets).
+  */
+trait ClientFrameForwarding {
+  this: Actor =>
+
+  private val frameLogger: Logger = Logger(this.getClass)
+
+  /**
+    * The actor that sends frames to the client
+    */
+  protected def out: ActorRef
+
+  protected def studyResultId: Long
+
+  /**
+    * Sends the JSON object received from the client to the channel's dispatcher
+    */
+  protected def forwardToDispatcher(json: JsObject): Unit
+
+  protected def receiveClientFrame: Actor.Receive = {
+    case frame: TextMessage => forward(ChannelProtocol.decode(frame))
+    case frame: BinaryMessage => forward(ChannelProtocol.decode(frame))
+  }
+
+  private def forward(json: Try[JsValue]): Unit = json match {
+    case Success(jsObject: JsObject) =>
+      forwardToDispatcher(jsObject)
+    case Success(_) =>
+      frameLogger.debug(s".forward: studyResultId $studyResultId, ignoring message that " +
+        s"isn't a JSON object")
+    case Failure(e) =>
+      frameLogger.info(s".forward: studyResultId $studyResultId, unable to parse message: " +
+        s"${e.getMessage}")
+      out ! CloseMessage(Some(CloseCodes.Unacceptable), "Unable to parse message")
+  }
+
+}
+
+/**
+  * Converts between play-json's JsValue and CBOR. It uses Jackson's CBOR data format together
+  * with play-json's Jackson module, so the JsValue doesn't have to be rendered to a JSON
+  * string first.
+  */
+object CborCodec {
+
+  private val mapper = new ObjectMapper(new CBORFactory()).registerModule(PlayJsonModule)
+
+  def encode(json: JsValue): ByteString = ByteString(mapper.writeValueAsBytes(json))
+
+  def decode(bytes: ByteString): JsValue = mapper.readValue(bytes.toArray, classOf[JsValue])
+
+}
@@ -0,0 +1,123 @@
+package general
+
+import java.util.concurrent.ConcurrentHashMap
+
+import akka.actor.{ActorRef, ActorSystem, Props}
+import akka.pattern.ask
+import akka.util.Timeout
+import general.DispatcherSharding.DispatcherEnvelope
+import play.api.Logger
+import play.api.inject.ApplicationLifecycle
+
+import scala.collection.JavaConverters._
+import scala.compat.java8.FunctionConverters.asJavaFunction
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+/**
+  * A DispatcherRegistry keeps track of all dispatcher Actors of one type (batch or group).
+  *
+  * It is thread-safe and based on a ConcurrentHashMap: getting the dispatcher of one batch or
+  * group doesn't wait for other ones and a dispatcher is created only once even if many channels
+  * are opened at the same time.
+  *
+  * In clustered mode (see DispatcherSharding) the dispatchers are placed across the nodes by
+  * Akka Cluster Sharding and this registry keeps track of the local DispatcherProxies instead.
+  *
+  * @author Kristian Lange (2017)
+  */
+abstract class DispatcherRegistry(actorSystem: ActorSystem,
+                                  lifecycle: ApplicationLifecycle,
+                                  typeName: String) {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  /**
+    * Contains the dispatchers (or in clustered mode the DispatcherProxies) that are currently
+    * registered. Maps the dispatcher's ID (batch ID or group result ID) to the ActorRef.
+    */
+  private val dispatcherMap = new ConcurrentHashMap[Long, ActorRef]()
+
+  /**
+    * ShardRegion of this dispatcher type if JATOS runs in clustered mode
+    */
+  private val region: Option[ActorRef] =
+    if (DispatcherSharding.isClustered(actorSystem))
+      Some(DispatcherSharding.startRegion(actorSystem, typeName, dispatcherProps))
+    else None
+
+  /**
+    * Time to wait for the dispatchers to persist their sessions
+    */
+  implicit val timeout: Timeout = 30.seconds
+
+  // Persist all in-memory sessions before JATOS shuts down
+  lifecycle.addStopHook(() => flushAllSessions())
+
+  /**
+    * Creates the Props of the dispatcher with the given ID
+    */
+  protected def dispatcherProps(dispatcherId: Long): Props
+
+  /**
+    * Message that tells a dispatcher to persist its session and to answer afterwards
+    */
+  protected def flushSessionMsg: Any
+
+  /**
+    * By how much the given message changes the number of channels that are registered in a
+    * dispatcher (e.g. 1 for a RegisterChannel). Used by the DispatcherProxies in clustered mode.
+    */
+  protected def channelDelta(msg: Any): Int
+
+  /**
+    * True if the dispatchers are placed across the nodes of an Akka Cluster
+    */
+  def isClustered: Boolean = region.isDefined
+
+  /**
+    * Returns the dispatcher with the given ID or None if there is none. In clustered mode the
+    * dispatcher might run on a different node and therefore always a DispatcherProxy is returned.
+    */
+  def get(dispatcherId: Long): Option[ActorRef] =
+    if (isClustered) Some(getOrCreate(dispatcherId))
+    else Option(dispatcherMap.get(dispatcherId))
+
+  /**
+    * Returns the dispatcher with the given ID. If it doesn't exist, create a new one.
+    */
+  def getOrCreate(dispatcherId: Long): ActorRef =
+    dispatcherMap.computeIfAbsent(dispatcherId, asJavaFunction((id: Long) => {
+      logger.debug(s".getOrCreate: registered $typeName with ID $id")
+      region match {
+        case Some(r) => actorSystem.actorOf(DispatcherSharding.proxyProps(r, id, channelDelta,
+          proxy => unregister(id, proxy)))
+        case None => actorSystem.actorOf(dispatcherProps(id))
+      }
+    }))
+
+  /**
+    * Used by a dispatcher (or DispatcherProxy) to unregister itself from this registry. It's only
+    * removed if it's still the one registered for this ID.
+    */
+  def unregister(dispatcherId: Long, dispatcher: ActorRef): Unit = {
+    if (dispatcherMap.remove(dispatcherId, dispatcher))
+      logger.debug(s".unregister: unregistered $typeName with ID $dispatcherId")
+  }
+
+  /**
+    * Lets all dispatchers (in clustered mode only the ones running on this node) persist their
+    * sessions. The returned Future completes after all are persisted.
+    */
+  def flushAllSessions(): Future[_] = {
+    import actorSystem.dispatcher
+    region match {
+      case Some(r) =>
+        DispatcherSharding.localDispatcherIds(r).flatMap(ids => Future.sequence(
+          ids.toList.map(id => r ? DispatcherEnvelope(id, flushSessionMsg))))
+      case None =>
+        Future.sequence(dispatcherMap.values.asScala.toList.map(_ ? flushSessionMsg))
+    }
+  }
+
+}
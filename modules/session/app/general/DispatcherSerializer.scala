@@ -0,0 +1,107 @@
+package general
+
+import java.nio.ByteBuffer
+
+import akka.actor.ExtendedActorSystem
+import akka.serialization.{SerializationExtension, SerializerWithStringManifest}
+import akka.util.ByteString
+import batch.BatchDispatcher
+import batch.BatchDispatcher.BatchMsg
+import general.DispatcherSharding.DispatcherEnvelope
+import group.GroupDispatcher
+import group.GroupDispatcher.GroupMsg
+import play.api.libs.json.JsObject
+
+/**
+  * Akka serializer for the messages that go between the JATOS nodes in clustered mode (see
+  * DispatcherSharding): the DispatcherEnvelope and the BatchMsg and GroupMsg it mostly carries.
+  * The JSON of a BatchMsg or GroupMsg is written as CBOR (see CborCodec) after its TellWhom. The
+  * message inside a DispatcherEnvelope is serialized with the serializer that is bound to it.
+  *
+  * It's bound to the messages in application.conf (akka.actor.serialization-bindings).
+  */
+class DispatcherSerializer(system: ExtendedActorSystem) extends SerializerWithStringManifest {
+
+  private val EnvelopeManifest = "E"
+  private val BatchMsgManifest = "B"
+  private val GroupMsgManifest = "G"
+
+  private lazy val serialization = SerializationExtension(system)
+
+  override val identifier: Int = 7231
+
+  override def manifest(obj: AnyRef): String = obj match {
+    case _: DispatcherEnvelope => EnvelopeManifest
+    case _: BatchMsg => BatchMsgManifest
+    case _: GroupMsg => GroupMsgManifest
+    case _ => throw new IllegalArgumentException(s"Can't serialize ${obj.getClass.getName}")
+  }
+
+  override def toBinary(obj: AnyRef): Array[Byte] = obj match {
+    case DispatcherEnvelope(dispatcherId, msg) => envelopeToBinary(dispatcherId, msg)
+    case BatchMsg(json, tellWhom) => jsonMsgToBinary(tellWhom.id, json)
+    case GroupMsg(json, tellWhom) => jsonMsgToBinary(tellWhom.id, json)
+    case _ => throw new IllegalArgumentException(s"Can't serialize ${obj.getClass.getName}")
+  }
+
+  override def fromBinary(bytes: Array[Byte], manifest: String): AnyRef = manifest match {
+    case EnvelopeManifest => envelopeFromBinary(bytes)
+    case BatchMsgManifest => BatchMsg(jsonFromBinary(bytes), BatchDispatcher.TellWhom(bytes(0)))
+    case GroupMsgManifest => GroupMsg(jsonFromBinary(bytes), GroupDispatcher.TellWhom(bytes(0)))
+    case _ => throw new IllegalArgumentException(s"Unknown manifest $manifest")
+  }
+
+  /**
+    * TellWhom (1 byte), JSON as CBOR
+    */
+  private def jsonMsgToBinary(tellWhom: Int, json: JsObject): Array[Byte] = {
+    val cbor = CborCodec.encode(json)
+    val buffer = ByteBuffer.allocate(1 + cbor.length)
+    buffer.put(tellWhom.toByte)
+    cbor.copyToBuffer(buffer)
+    buffer.array
+  }
+
+  /**
+    * Returns the JSON after the TellWhom
+    */
+  private def jsonFromBinary(bytes: Array[Byte]): JsObject =
+    CborCodec.decode(ByteString(bytes).drop(1)).as[JsObject]
+
+  /**
+    * Dispatcher ID (8 bytes), the message's serializer ID (4 bytes), length of the message's
+    * manifest (4 bytes), the manifest, the serialized message
+    */
+  private def envelopeToBinary(dispatcherId: Long, msg: Any): Array[Byte] = {
+    val msgRef = msg.asInstanceOf[AnyRef]
+    val serializer = serialization.findSerializerFor(msgRef)
+    val msgManifest = serializer match {
+      case s: SerializerWithStringManifest => s.manifest(msgRef)
+      case s if s.includeManifest => msgRef.getClass.getName
+      case _ => ""
+    }
+    val manifestBytes = msgManifest.getBytes("UTF-8")
+    val msgBytes = serializer.toBinary(msgRef)
+    val buffer = ByteBuffer.allocate(8 + 4 + 4 + manifestBytes.length + msgBytes.length)
+    buffer.putLong(dispatcherId)
+    buffer.putInt(serializer.identifier)
+    buffer.putInt(manifestBytes.length)
+    buffer.put(manifestBytes)
+    buffer.put(msgBytes)
+    buffer.array
+  }
+
+  private def envelopeFromBinary(bytes: Array[Byte]): DispatcherEnvelope = {
+    val buffer = ByteBuffer.wrap(bytes)
+    val dispatcherId = buffer.getLong
+    val serializerId = buffer.getInt
+    val manifestBytes = new Array[Byte](buffer.getInt)
+    buffer.get(manifestBytes)
+    val msgBytes = new Array[Byte](buffer.remaining)
+    buffer.get(msgBytes)
+    val msg = serialization.deserialize(msgBytes, serializerId,
+      new String(manifestBytes, "UTF-8")).get
+    DispatcherEnvelope(dispatcherId, msg)
+  }
+
+}
@@ -0,0 +1,135 @@
+package general
+
+import akka.actor._
+import akka.cluster.ClusterActorRefProvider
+import akka.cluster.sharding.ShardRegion.{CurrentShardRegionState, GetShardRegionState}
+import akka.cluster.sharding.{ClusterSharding, ClusterShardingSettings, ShardRegion}
+import akka.pattern.ask
+import akka.util.Timeout
+import general.DispatcherSharding.DispatcherEnvelope
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration._
+
+/**
+  * Places batch and group dispatchers across the nodes of an Akka Cluster (Akka Cluster
+  * Sharding). It's only used if JATOS runs in clustered mode, i.e. Akka's actor provider is
+  * configured to be the ClusterActorRefProvider. Then several JATOS nodes can run behind a load
+  * balancer and the members of a batch or group can open their channels on different nodes: there
+  * is still only one dispatcher per batch or group within the whole cluster.
+  *
+  * A dispatcher's entity ID is its batch ID or group result ID. Messages are sent to a dispatcher
+  * via a DispatcherProxy that wraps them in a DispatcherEnvelope and forwards them to the
+  * ShardRegion. Since the proxies keep the original sender a dispatcher and its channels don't
+  * notice the difference. The envelopes and the BatchMsgs and GroupMsgs in them are serialized by
+  * the DispatcherSerializer. Cluster Sharding keeps its state in Akka Distributed Data (see
+  * akka.cluster.sharding.state-store-mode in application.conf).
+  *
+  * @author Kristian Lange (2017)
+  */
+object DispatcherSharding {
+
+  /**
+    * Number of shards per dispatcher type. Should be about ten times the maximal number of nodes.
+    */
+  private val NumberOfShards = 100
+
+  /**
+    * Idle time after which a DispatcherProxy without channels stops itself
+    */
+  private[general] val ProxyIdleTimeout = 1.minute
+
+  /**
+    * Message to a ShardRegion: the message to the dispatcher and the dispatcher's ID
+    */
+  case class DispatcherEnvelope(dispatcherId: Long, msg: Any)
+
+  private val extractEntityId: ShardRegion.ExtractEntityId = {
+    case DispatcherEnvelope(dispatcherId, msg) => (dispatcherId.toString, msg)
+  }
+
+  private val extractShardId: ShardRegion.ExtractShardId = {
+    case DispatcherEnvelope(dispatcherId, _) => (math.abs(dispatcherId) % NumberOfShards).toString
+  }
+
+  /**
+    * Returns true if the given ActorSystem is part of an Akka Cluster
+    */
+  def isClustered(actorSystem: ActorSystem): Boolean =
+    actorSystem.asInstanceOf[ExtendedActorSystem].provider.isInstanceOf[ClusterActorRefProvider]
+
+  /**
+    * Starts the ShardRegion for the given dispatcher type (e.g. 'BatchDispatcher') on this node
+    * and returns it. The dispatchers are created with the given function that gets their ID.
+    */
+  def startRegion(actorSystem: ActorSystem, typeName: String,
+                  dispatcherProps: Long => Props): ActorRef =
+    ClusterSharding(actorSystem).start(typeName, Props(new DispatcherEntity(dispatcherProps)),
+      ClusterShardingSettings(actorSystem), extractEntityId, extractShardId)
+
+  /**
+    * Returns the IDs of the dispatchers that currently run on this node
+    */
+  def localDispatcherIds(region: ActorRef)
+                        (implicit timeout: Timeout, ec: ExecutionContext): Future[Set[Long]] =
+    (region ? GetShardRegionState).mapTo[CurrentShardRegionState].map(
+      _.shards.flatMap(_.entityIds).map(_.toLong))
+
+  /**
+    * Creates the Props of a DispatcherProxy. The function channelDelta tells the proxy by how much
+    * a message changes the number of channels on this node that use this dispatcher (e.g. 1 for a
+    * RegisterChannel and -1 for an UnregisterChannel). The function onStop is called when the
+    * proxy stops itself.
+    */
+  def proxyProps(region: ActorRef, dispatcherId: Long, channelDelta: Any => Int,
+                 onStop: ActorRef => Unit): Props =
+    Props(new DispatcherProxy(region, dispatcherId, channelDelta, onStop))
+
+}
+
+/**
+  * The entity that Cluster Sharding creates for a dispatcher. Its name is the dispatcher's ID.
+  * It creates the actual dispatcher as its child and forwards all messages to it. If the
+  * dispatcher stops itself (because it has no more channels) the entity asks its shard to
+  * passivate it: messages that arrive in the meantime are buffered by the shard and start a new
+  * dispatcher.
+  */
+private class DispatcherEntity(dispatcherProps: Long => Props) extends Actor {
+
+  private val dispatcher = context.watch(
+    context.actorOf(dispatcherProps(self.path.name.toLong), "dispatcher"))
+
+  def receive = {
+    case Terminated(`dispatcher`) => context.parent ! ShardRegion.Passivate(PoisonPill)
+    case msg => dispatcher forward msg
+  }
+
+}
+
+/**
+  * Local representative of a dispatcher that might run on a different node. It's what the
+  * dispatcher registries hand out in clustered mode. It forwards all messages (keeping the
+  * sender) to the ShardRegion.
+  *
+  * It stops itself after it was idle for a while and no channel on this node is registered any
+  * more with its dispatcher.
+  */
+private class DispatcherProxy(region: ActorRef,
+                              dispatcherId: Long,
+                              channelDelta: Any => Int,
+                              onStop: ActorRef => Unit) extends Actor {
+
+  private var channelCount = 0
+
+  context.setReceiveTimeout(DispatcherSharding.ProxyIdleTimeout)
+
+  override def postStop() = onStop(self)
+
+  def receive = {
+    case ReceiveTimeout => if (channelCount <= 0) context.stop(self)
+    case msg =>
+      channelCount += channelDelta(msg)
+      region forward DispatcherEnvelope(dispatcherId, msg)
+  }
+
+}
@@ -5,7 +5,6 @@ import javax.inject.{Inject, Singleton}
 import com.google.common.base.Strings
 import daos.common.GroupResultDao
 import general.ChannelRegistry
-import gnieh.diffson.playJson._
 import group.GroupDispatcher.{GroupAction, GroupActionJsonKey, GroupMsg, TellWhom}
 import models.common.GroupResult
 import models.common.GroupResult.GroupState
@@ -13,12 +12,14 @@ import play.api.Logger
 import play.api.libs.json.{JsObject, JsValue, Json}
 import play.db.jpa.JPAApi
 
+import scala.collection.JavaConverters._
 import scala.compat.java8.FunctionConverters.asJavaSupplier
 
 /**
   * Handles group action messages. Those messages are of type GroupMsg with a JSON object that
   * contains an 'action' field. It was received by an GroupDispatcher and comes from a client via
-  * a GroupChannelActor.
+  * a GroupChannelActor. It also loads the group's state from the database into a GroupSession and
+  * persists it again.
   *
   * @author Kristian Lange (2017)
   */
@@ -32,106 +33,159 @@ class GroupActionHandler @Inject()(jpa: JPAApi,
   /**
     * Handles group actions originating from a client: Gets a GroupMsg that contains a field
     * 'action' in their JSON. The only action handled here are 1) the a patch for the group
-    * session, or 2) the msg to fix the group. The function returns GroupMsges that will be send
-    * out to the group members.
+    * session, 2) the msg to fix the group, or 3) the request for the full membership. The
+    * function returns GroupMsges that will be send out to the group members.
     */
   def handleActionMsg(msg: GroupMsg, groupResultId: Long, studyResultId: Long,
-                      registry: ChannelRegistry): List[GroupMsg] = {
+                      session: Option[GroupSession], registry: ChannelRegistry): List[GroupMsg] = {
     logger.debug(s".handleActionMsg: groupResultId $groupResultId, studyResultId $studyResultId, " +
       s"jsonNode ${Json.stringify(msg.json)}")
+    if (session.isEmpty) {
+      val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
+      return List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
+    }
+
     val actionValue = (msg.json \ GroupActionJsonKey.Action.toString).as[String]
     val action = GroupAction.withName(actionValue)
     action match {
-      case GroupAction.Session => handlePatch(msg.json, groupResultId, studyResultId, registry)
-      case GroupAction.Fixed => handleActionFix(groupResultId, studyResultId, registry);
+      case GroupAction.Session => handlePatch(msg.json, session.get, studyResultId)
+      case GroupAction.Fixed => handleActionFix(session.get);
+      case GroupAction.Membership =>
+        handleMembershipRequest(msg.json, session.get, studyResultId, registry)
       case _ =>
         List(msgBuilder.buildError(groupResultId, s"Unknown action $action", TellWhom.SenderOnly))
     }
   }
 
   /**
-    * Applies the patch to the group session
+    * Applies the patch to the in-memory group session. The patched session data are persisted
+    * later on (see persistSession).
     */
-  private def handlePatch(json: JsObject, groupResultId: Long,
-                          studyResultId: Long, registry: ChannelRegistry): List[GroupMsg] = {
-    jpa.withTransaction(asJavaSupplier(() => {
-      val groupResult = groupResultDao.findById(groupResultId)
-      if (groupResult == null) {
-        val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
-        List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
-      }
+  private def handlePatch(json: JsObject, session: GroupSession,
+                          studyResultId: Long): List[GroupMsg] = {
+    try {
+      val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
+      val patch = (json \ GroupActionJsonKey.SessionPatches.toString).get
+      val success = session.checkVersionAndPatch(patch, clientsVersion)
+      logger.debug(s".handlePatch: groupResultId ${session.groupResultId}, " +
+        s"clientsVersion $clientsVersion, " +
+        s"groupSessionPatch ${Json.stringify(patch)}, " +
+        s"success $success")
 
-      try {
-        val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
-        val patch = (json \ GroupActionJsonKey.SessionPatches.toString).get
-        val patchedSessionData = patchSessionData(patch, groupResult)
-        logger.debug(s".handlePatch: groupResultId $groupResultId, " +
-          s"clientsVersion $clientsVersion, " +
-          s"groupSessionPatch ${Json.stringify(patch)}, " +
-          s"updatedSessionData ${Json.stringify(patchedSessionData)}")
-
-        val success = checkVersionAndPersistSessionData(patchedSessionData, groupResult,
-          clientsVersion)
-        if (success) {
-          val msg1 = msgBuilder.buildSessionPatch(groupResult, studyResultId, patch, TellWhom.All)
-          val msg2 = msgBuilder.buildSimple(groupResult, GroupAction.SessionAck, TellWhom
-            .SenderOnly)
-          List(msg1, msg2)
-        } else {
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, TellWhom.SenderOnly))
-        }
-      } catch {
-        case e: Exception =>
-          logger.warn(s".handlePatch: groupResultId $groupResultId, json ${Json.stringify(json)}," +
-            s" ${e.getClass.getName}: ${e.getMessage}")
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, TellWhom.SenderOnly))
+      if (success) {
+        val msg1 = msgBuilder.buildSessionPatch(session, studyResultId, patch, TellWhom.All)
+        val msg2 = msgBuilder.buildSimple(session, GroupAction.SessionAck, TellWhom.SenderOnly)
+        List(msg1, msg2)
+      } else {
+        List(msgBuilder.buildSimple(session, GroupAction.SessionFail, TellWhom.SenderOnly))
       }
-    }))
-  }
-
-  private def patchSessionData(patch: JsValue, groupResult: GroupResult): JsValue = {
-    val currentSessionData =
-      if (!Strings.isNullOrEmpty(groupResult.getGroupSessionData))
-        Json.parse(groupResult.getGroupSessionData)
-      else Json.obj()
-    JsonPatch.apply(patch)(currentSessionData)
+    } catch {
+      case e: Exception =>
+        logger.warn(s".handlePatch: groupResultId ${session.groupResultId}, " +
+          s"json ${Json.stringify(json)}, ${e.getClass.getName}: ${e.getMessage}")
+        List(msgBuilder.buildSimple(session, GroupAction.SessionFail, TellWhom.SenderOnly))
+    }
   }
 
   /**
-    * Persists the given sessionData in the GroupResult and increases the
-    * groupSessionVersion by 1 - but only if the stored version is equal to the
-    * received one. Returns true if this was successful - otherwise false.
+    * Answers the sender with the full membership (lists of all members and channels and the
+    * current membership version). A client asks for it if it got a membership delta that isn't
+    * newer than its own membership version. This happens if the client's version is greater than
+    * ours, e.g. since this group's GroupDispatcher was created anew and started again at 0.
     */
-  private def checkVersionAndPersistSessionData(sessionData: JsValue, groupResult: GroupResult,
-                                                version: Long): Boolean = {
-    if (groupResult != null && sessionData != null &&
-      groupResult.getGroupSessionVersion == version) {
-      groupResult.setGroupSessionData(sessionData.toString)
-      groupResult.setGroupSessionVersion(groupResult.getGroupSessionVersion + 1l)
-      groupResultDao.update(groupResult)
-      return true
-    }
-    false
+  private def handleMembershipRequest(json: JsObject, session: GroupSession, studyResultId: Long,
+                                      registry: ChannelRegistry): List[GroupMsg] = {
+    val clientsVersion = (json \ GroupActionJsonKey.MembershipVersion.toString).asOpt[Long]
+    logger.debug(s".handleMembershipRequest: groupResultId ${session.groupResultId}, " +
+      s"studyResultId $studyResultId, clientsVersion $clientsVersion, " +
+      s"membershipVersion ${session.getMembershipVersion}")
+    List(msgBuilder.build(session, studyResultId, registry, includeSessionData = false,
+      GroupAction.Membership, TellWhom.SenderOnly))
   }
 
   /**
-    * Changes state of GroupResult to FIXED and sends an update to all group
-    * members
+    * Changes state of GroupResult to FIXED and sends an update to all group members. Other than
+    * the session data the state is persisted right away, since it decides whether new members
+    * can join the group.
     */
-  private def handleActionFix(groupResultId: Long, studyResultId: Long,
-                              registry: ChannelRegistry) = {
+  private def handleActionFix(session: GroupSession) = {
     jpa.withTransaction(asJavaSupplier(() => {
-      val groupResult = groupResultDao.findById(groupResultId)
+      val groupResult = groupResultDao.findById(session.groupResultId)
       if (groupResult != null) {
         groupResult.setGroupState(GroupState.FIXED)
         groupResultDao.update(groupResult)
-        List(msgBuilder.buildSimple(groupResult, GroupAction.Fixed, TellWhom.All))
+        session.setGroupState(GroupState.FIXED)
+        List(msgBuilder.buildSimple(session, GroupAction.Fixed, TellWhom.All))
       }
       else {
-        val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
-        List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
+        val errorMsg = s"Couldn't find group result with ID ${session.groupResultId} in database."
+        List(msgBuilder.buildError(session.groupResultId, errorMsg, TellWhom.SenderOnly))
       }
     }))
   }
 
+  /**
+    * Loads the group session data, version, state and active members of the GroupResult with the
+    * given ID from the database. Returns None if the GroupResult doesn't exist.
+    */
+  def loadSession(groupResultId: Long): Option[GroupSession] = {
+    jpa.withTransaction(asJavaSupplier(() => {
+      val groupResult = groupResultDao.findById(groupResultId)
+      if (groupResult != null)
+        Some(new GroupSession(groupResultId, parseSessionData(groupResult),
+          groupResult.getGroupSessionVersion, groupResult.getGroupState,
+          getActiveMemberIds(groupResult)))
+      else {
+        logger.warn(s".loadSession: couldn't find group result with ID $groupResultId in " +
+          s"database")
+        None
+      }
+    }))
+  }
+
+  /**
+    * Persists the session data in the GroupResult if there are unsaved changes. If 'refresh' is
+    * true it additionally refreshes the GroupState and the active members in the GroupSession
+    * with the ones from the database. If there is neither something to persist nor to refresh
+    * the database isn't touched at all. If the group is already FINISHED its session data were
+    * deleted and aren't written again.
+    */
+  def persistSession(session: GroupSession, refresh: Boolean): Unit = {
+    if (!session.isDirty && !refresh) return
+    jpa.withTransaction(asJavaSupplier(() => {
+      val groupResult = groupResultDao.findById(session.groupResultId)
+      if (groupResult == null) {
+        logger.info(s".persistSession: group result with ID ${session.groupResultId} doesn't " +
+          s"exist anymore")
+        session.markPersisted()
+      } else {
+        if (refresh) session.refresh(groupResult.getGroupState, getActiveMemberIds(groupResult))
+        if (session.isDirty && groupResult.getGroupState != GroupState.FINISHED) {
+          logger.debug(s".persistSession: groupResultId ${session.groupResultId}, " +
+            s"version ${session.getVersion}")
+          groupResult.setGroupSessionData(session.getData.toString)
+          groupResult.setGroupSessionVersion(session.getVersion)
+          groupResultDao.update(groupResult)
+        }
+        session.markPersisted()
+      }
+    }))
+  }
+
+  private def getActiveMemberIds(groupResult: GroupResult): Iterable[Long] =
+    groupResult.getActiveMemberList.asScala.map(_.getId.longValue)
+
+  private def parseSessionData(groupResult: GroupResult): JsValue = {
+    try {
+      if (Strings.isNullOrEmpty(groupResult.getGroupSessionData)) Json.obj()
+      else Json.parse(groupResult.getGroupSessionData)
+    } catch {
+      case e: Exception =>
+        logger.error(s".parseSessionData: invalid session data in DB - groupResultId " +
+          s"${groupResult.getId}, groupSessionVersion ${groupResult.getGroupSessionVersion}, " +
+          s"error: ${e.getMessage}")
+        Json.obj()
+    }
+  }
+
 }
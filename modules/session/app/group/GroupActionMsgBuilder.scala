@@ -2,27 +2,22 @@ package group
 
 import javax.inject.{Inject, Singleton}
 
-import daos.common.GroupResultDao
 import general.ChannelRegistry
 import group.GroupDispatcher.GroupAction.GroupAction
 import group.GroupDispatcher.TellWhom.TellWhom
 import group.GroupDispatcher._
-import models.common.GroupResult
 import play.api.Logger
 import play.api.libs.json._
-import play.db.jpa.JPAApi
-
-import scala.collection.JavaConverters._
-import scala.compat.java8.FunctionConverters.asJavaSupplier
 
 
 /**
-  * Utility class that builds GroupMsgs. So it mostly handles the JSON creation.
+  * Utility class that builds GroupMsgs. So it mostly handles the JSON creation. All group data
+  * are taken from the GroupSession kept in memory by the GroupDispatcher.
   *
   * @author Kristian Lange (2015, 2017)
   */
 @Singleton
-class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDao) {
+class GroupActionMsgBuilder @Inject()() {
 
   private val logger: Logger = Logger(this.getClass)
 
@@ -40,70 +35,71 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
   /**
     * Builds a simple GroupMsg with the action, group result ID, and the session version
     */
-  def buildSimple(groupResult: GroupResult, action: GroupAction, tellWhom: TellWhom): GroupMsg = {
-    logger.debug(s".buildSimple: groupResult ${groupResult.getId}")
+  def buildSimple(session: GroupSession, action: GroupAction, tellWhom: TellWhom): GroupMsg = {
+    logger.debug(s".buildSimple: groupResult ${session.groupResultId}")
     val json = Json.obj(
       GroupActionJsonKey.Action.toString -> action.toString,
-      GroupActionJsonKey.GroupResultId.toString -> groupResult.getId.toString,
-      GroupActionJsonKey.GroupState.toString -> groupResult.getGroupState.name,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult
-          .getGroupSessionVersion)))
+      GroupActionJsonKey.GroupResultId.toString -> session.groupResultId.toString,
+      GroupActionJsonKey.GroupState.toString -> session.getGroupState.name,
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(session.getVersion)))
     GroupMsg(json, tellWhom)
   }
 
   /**
     * Builds a GroupMsg with or without session data but always with session version
     */
-  def build(groupResultId: Long, studyResultId: Long, registry: ChannelRegistry,
+  def build(session: GroupSession, studyResultId: Long, registry: ChannelRegistry,
             includeSessionData: Boolean, action: GroupAction, tellWhom: TellWhom): GroupMsg = {
-    // The current group data are persisted in a GroupResult entity.
-    // The GroupResult determines who is member of the group - and not the group registry.
-    jpa.withTransaction(asJavaSupplier(() => {
-      logger.debug(s".build: groupResultId $groupResultId, studyResultId $studyResultId, action " +
-          s"$action , tellWhom ${tellWhom.toString}")
-      val groupResult = groupResultDao.findById(groupResultId)
-      if (groupResult != null)
-        buildAction(groupResult, studyResultId, registry, includeSessionData, action, tellWhom)
-      else
-        buildError(groupResultId, s"Couldn't find group result with ID $groupResultId in database" +
-            s".", TellWhom.SenderOnly)
-    }))
+    logger.debug(s".build: groupResultId ${session.groupResultId}, studyResultId " +
+        s"$studyResultId, action $action , tellWhom ${tellWhom.toString}")
+    val members = JsArray(session.getActiveMembers.map(id => JsString(id.toString)).toSeq)
+    val channels = JsArray(registry.getAllStudyResultIds.map(id => JsString(id.toString)).toSeq)
+    var json = Json.obj(
+      GroupActionJsonKey.Action.toString -> action.toString,
+      GroupActionJsonKey.MemberId.toString -> studyResultId.toString,
+      GroupActionJsonKey.GroupResultId.toString -> session.groupResultId.toString,
+      GroupActionJsonKey.GroupState.toString -> session.getGroupState.name,
+      GroupActionJsonKey.Members.toString -> members,
+      GroupActionJsonKey.Channels.toString -> channels,
+      GroupActionJsonKey.MembershipVersion.toString ->
+          JsNumber(BigDecimal(session.getMembershipVersion)),
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(session.getVersion)))
+    if (includeSessionData)
+      json = json + (GroupActionJsonKey.SessionData.toString -> session.getData)
+    GroupMsg(json, tellWhom)
+  }
+
+  /**
+    * Builds a GroupMsg for a membership change (JOINED, LEFT, OPENED, CLOSED) that contains only
+    * the member who changed and the membership version but not the lists of all members and
+    * channels. The client applies the change to its own lists.
+    */
+  def buildMembershipDelta(session: GroupSession, studyResultId: Long, action: GroupAction,
+                           tellWhom: TellWhom): GroupMsg = {
+    logger.debug(s".buildMembershipDelta: groupResultId ${session.groupResultId}, " +
+        s"studyResultId $studyResultId, action $action , tellWhom ${tellWhom.toString}")
+    val json = Json.obj(
+      GroupActionJsonKey.Action.toString -> action.toString,
+      GroupActionJsonKey.MemberId.toString -> studyResultId.toString,
+      GroupActionJsonKey.GroupResultId.toString -> session.groupResultId.toString,
+      GroupActionJsonKey.GroupState.toString -> session.getGroupState.name,
+      GroupActionJsonKey.MembershipVersion.toString ->
+          JsNumber(BigDecimal(session.getMembershipVersion)),
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(session.getVersion)))
+    GroupMsg(json, tellWhom)
   }
 
   /**
     * Builds a GroupMsg with the group session patch and version
     */
-  def buildSessionPatch(groupResult: GroupResult, studyResultId: Long, patch: JsValue,
+  def buildSessionPatch(session: GroupSession, studyResultId: Long, patch: JsValue,
                         tellWhom: TellWhom): GroupMsg = {
-    logger.debug(s".buildSessionPatch: groupResultId ${groupResult.getId}, studyResultId " +
+    logger.debug(s".buildSessionPatch: groupResultId ${session.groupResultId}, studyResultId " +
         s"$studyResultId")
     val json = Json.obj(
       GroupActionJsonKey.Action.toString -> GroupAction.Session.toString,
       GroupActionJsonKey.SessionPatches.toString -> patch,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult
-          .getGroupSessionVersion)))
-    GroupMsg(json, tellWhom)
-  }
-
-  private def buildAction(groupResult: GroupResult, studyResultId: Long, registry: ChannelRegistry,
-                          includeSessionData: Boolean, action: GroupAction,
-                          tellWhom: TellWhom): GroupMsg = {
-    val members = JsArray(
-      groupResult.getActiveMemberList.asScala.map(sr => JsString(sr.getId.toString)).toSeq
-    )
-    val channels = JsArray(registry.getAllStudyResultIds.map(id => JsString(id.toString)).toSeq)
-    var json = Json.obj(
-      GroupActionJsonKey.Action.toString -> action.toString,
-      GroupActionJsonKey.MemberId.toString -> studyResultId.toString,
-      GroupActionJsonKey.GroupResultId.toString -> groupResult.getId.toString,
-      GroupActionJsonKey.GroupState.toString -> groupResult.getGroupState.name,
-      GroupActionJsonKey.Members.toString -> members,
-      GroupActionJsonKey.Channels.toString -> channels,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult
-          .getGroupSessionVersion)))
-    if (includeSessionData)
-      json = json + (GroupActionJsonKey.SessionData.toString -> Json.parse(groupResult
-          .getGroupSessionData))
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(session.getVersion)))
     GroupMsg(json, tellWhom)
   }
 
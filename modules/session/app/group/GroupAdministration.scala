@@ -2,7 +2,7 @@ package group
 
 import javax.inject.{Inject, Singleton}
 
-import daos.common.{GroupResultDao, StudyResultDao}
+import daos.common.{BatchDao, GroupResultDao, StudyResultDao}
 import models.common.GroupResult.GroupState
 import models.common.{Batch, GroupResult, StudyResult}
 import play.db.jpa.JPAApi
@@ -23,6 +23,7 @@ import scala.compat.java8.FunctionConverters.asJavaSupplier
 @Singleton
 class GroupAdministration @Inject()(studyResultDao: StudyResultDao,
                                     groupResultDao: GroupResultDao,
+                                    batchDao: BatchDao,
                                     jpa: JPAApi) {
 
   /**
@@ -151,7 +152,7 @@ class GroupAdministration @Inject()(studyResultDao: StudyResultDao,
     val batch = groupResult.getBatch
     if (groupResult.getActiveMemberList.isEmpty &&
       batch.getMaxTotalWorkers != null &&
-      batch.getWorkerList.size >= batch.getMaxTotalWorkers) {
+      batchDao.countWorkers(batch) >= batch.getMaxTotalWorkers) {
       finishGroupResult(groupResult)
       return
     }
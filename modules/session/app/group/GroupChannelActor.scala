@@ -3,7 +3,11 @@ package group
 import javax.inject.Inject
 
 import akka.actor.{Actor, ActorRef, PoisonPill, Props}
+import general.ChannelOutbox.OutboundFrame
+import general.ChannelProtocol.ChannelProtocol
+import general.{ChannelProtocol, ClientFrameForwarding}
 import group.GroupDispatcher._
+import play.api.http.websocket._
 import play.api.libs.json.JsObject
 
 /**
@@ -22,38 +26,59 @@ import play.api.libs.json.JsObject
   * UnregisterChannel message. A GroupChannelActor can, if it's told to, reassign itself to a
   * different GroupDispatcher.
   *
+  * A GroupChannelActor sends and receives WebSocket frames: either JSON in text frames (default)
+  * or, if the client chose it during opening, CBOR in binary frames (see ChannelProtocol). The
+  * client can also choose to get membership changes as deltas (see GroupDispatcher).
+  *
   * @author Kristian Lange (2015, 2017)
   */
 object GroupChannelActor {
-  def props(out: ActorRef, studyResultId: Long, groupDispatcher: ActorRef): Props =
-    Props(new GroupChannelActor(out, studyResultId, groupDispatcher))
+  def props(out: ActorRef, studyResultId: Long, groupDispatcher: ActorRef,
+            protocol: ChannelProtocol = ChannelProtocol.Json,
+            deltaMembership: Boolean = false): Props =
+    Props(new GroupChannelActor(out, studyResultId, groupDispatcher, protocol, deltaMembership))
+
+  /**
+    * Returns the WebSocket frame that has to be sent to a client with the given protocol
+    */
+  def frame(msg: GroupMsg, protocol: ChannelProtocol): Message = protocol match {
+    case ChannelProtocol.Cbor => msg.binaryFrame
+    case _ => msg.textFrame
+  }
 }
 
-class GroupChannelActor @Inject()(out: ActorRef,
-                                  studyResultId: Long,
-                                  var groupDispatcher: ActorRef) extends Actor {
+class GroupChannelActor @Inject()(protected val out: ActorRef,
+                                  protected val studyResultId: Long,
+                                  var groupDispatcher: ActorRef,
+                                  protocol: ChannelProtocol,
+                                  deltaMembership: Boolean)
+  extends Actor with ClientFrameForwarding {
 
-  override def preStart() = groupDispatcher ! RegisterChannel(studyResultId)
+  override def preStart() = groupDispatcher ! RegisterChannel(studyResultId, deltaMembership)
 
   override def postStop() = groupDispatcher ! UnregisterChannel(studyResultId)
 
-  def receive = {
-    case json: JsObject =>
-      // If we receive a JsonNode (only from the client) wrap it in a GroupMsg and forward it to
-      // the GroupDispatcher
-      groupDispatcher ! GroupMsg(json)
+  def receive = receiveClientFrame orElse {
     case msg: GroupMsg =>
-      // If we receive a GroupMsg (only from the GroupDispatcher) send the wrapped JsonNode to
-      // the client
-      out ! msg.json
+      // If we receive a GroupMsg (only from the GroupDispatcher) send it to the client in a
+      // frame of this channel's protocol. Only messages without an action (broadcast or direct
+      // messages between members) may be dropped if the client is too slow.
+      val droppable = !msg.json.keys.contains(GroupActionJsonKey.Action.toString)
+      out ! OutboundFrame(GroupChannelActor.frame(msg, protocol), droppable)
     case rc: ReassignChannel =>
       // This group channel has to reassign to a different dispatcher
       groupDispatcher ! UnregisterChannel(studyResultId)
       groupDispatcher = rc.differentGroupDispatcher
-      groupDispatcher ! RegisterChannel(studyResultId)
+      groupDispatcher ! RegisterChannel(studyResultId, deltaMembership)
     case _: PoisonChannel =>
       // Kill this group channel actor
       self ! PoisonPill
   }
 
+  /**
+    * Wraps a JSON object from the client in a GroupMsg and forwards it to the GroupDispatcher
+    */
+  override protected def forwardToDispatcher(json: JsObject): Unit =
+    groupDispatcher ! GroupMsg(json)
+
 }
@@ -2,15 +2,21 @@ package group
 
 import javax.inject.Inject
 
-import akka.actor.{Actor, ActorRef, PoisonPill}
+import akka.Done
+import akka.actor.{Actor, ActorRef, Cancellable, PoisonPill}
 import com.google.inject.assistedinject.Assisted
-import general.ChannelRegistry
+import general.{CborCodec, ChannelRegistry}
+import general.common.Common
+import group.GroupDispatcher.GroupAction.GroupAction
 import group.GroupDispatcher.TellWhom.TellWhom
 import group.GroupDispatcher._
-import group.GroupDispatcherRegistry.Unregister
 import play.api.Logger
+import play.api.http.websocket.{BinaryMessage, TextMessage}
 import play.api.libs.json.{JsObject, Json}
 
+import scala.collection.mutable
+import scala.concurrent.duration._
+
 /**
   * A GroupDispatcher is an Akka Actor responsible for distributing messages (GroupMsg) within a
   * group. Thus it is the central class handling a group.
@@ -37,12 +43,29 @@ import play.api.libs.json.{JsObject, Json}
   * The group session patches are JSON Patches after RFC 6902 and used to describe changes in the
   * group session data. The session data are stored in the GroupResult.
   *
+  * A GroupDispatcher loads the group session data and version, the group state and the active
+  * members once when it starts and keeps them in memory (GroupSession). Session patches are only
+  * applied there and the GroupSession is written back to the GroupResult periodically
+  * (jatos.groupSession.flushMillis) if it has changed, when the GroupDispatcher stops, and when
+  * JATOS shuts down. Joining and leaving members are told by the GroupAdministration via
+  * JoinedGroup and LeftGroup messages. Only to catch changes that bypass it (e.g. a member whose
+  * study run ended without a group channel) the group state and active members are reloaded
+  * from the database - at the slower pace of jatos.groupSession.refreshMillis, so an idle group
+  * costs a query only every now and then.
+  *
+  * Membership changes (JOINED, LEFT, OPENED, CLOSED) are sent with the lists of all members and
+  * open channels. Group channels that registered with 'deltaMembership' get instead only the
+  * changed member and a membership version - only the OPENED message to the new channel itself
+  * contains the full lists. The membership version is only kept in memory and starts again at 0
+  * if the GroupDispatcher is created anew. A client that gets a delta with a version that isn't
+  * newer than its own asks with a MEMBERSHIP action for the full lists.
+  *
   * @author Kristian Lange (2015, 2017)
   */
 object GroupDispatcher {
 
   trait Factory {
-    def apply(dispatcherRegistry: ActorRef, actionHandler: GroupActionHandler,
+    def apply(dispatcherRegistry: GroupDispatcherRegistry, actionHandler: GroupActionHandler,
               actionMsgBuilder: GroupActionMsgBuilder, groupResultId: Long): Actor
   }
 
@@ -63,9 +86,11 @@ object GroupDispatcher {
   case class LeftGroup(studyResultId: Long)
 
   /**
-    * Message a GroupChannelActor can send to register in a GroupDispatcher.
+    * Message a GroupChannelActor can send to register in a GroupDispatcher. If 'deltaMembership'
+    * is true the group channel gets membership changes as deltas (see GroupActionMsgBuilder
+    * .buildMembershipDelta) instead of the full lists of members and channels.
     */
-  case class RegisterChannel(studyResultId: Long)
+  case class RegisterChannel(studyResultId: Long, deltaMembership: Boolean = false)
 
   /**
     * Message an GroupChannelActor can send to its GroupDispatcher to indicate it's closure.
@@ -85,6 +110,16 @@ object GroupDispatcher {
     */
   case class PoisonChannel(studyResultId: Long)
 
+  /**
+    * Message that tells a GroupDispatcher to persist its group session. It answers with Done
+    * afterwards.
+    */
+  case object FlushSession
+
+  /**
+    * Message a GroupDispatcher sends itself periodically to persist its group session
+    */
+  private case object FlushSessionTick
 
   object TellWhom extends Enumeration {
     type TellWhom = Value
@@ -101,6 +136,7 @@ object GroupDispatcher {
     val SessionAck = Value("SESSION_ACK") // Signals that the session update was successful
     val SessionFail = Value("SESSION_FAIL") // Signals that the session update failed
     val Fixed = Value("FIXED") // Signals that this group is now fixed (no new members)
+    val Membership = Value("MEMBERSHIP") // Request for and answer with the full membership
     val Error = Value("ERROR") // Used to send an error back to the sender
   }
 
@@ -123,6 +159,8 @@ object GroupDispatcher {
     val Members = Value("members")
     // JSON key name containing all open group channels defined by their study result ID
     val Channels = Value("channels")
+    // JSON key name for the membership version (increased with every membership change)
+    val MembershipVersion = Value("membershipVersion")
     // JSON key name for session data (must be accompanied with a session version)
     val SessionData = Value("sessionData")
     // JSON key name for a session patches (must be accompanied with a session version)
@@ -142,11 +180,24 @@ object GroupDispatcher {
     *
     * The parameter 'tellWhom' can be used to address the recipient.
     */
-  case class GroupMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
+  case class GroupMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown) {
+
+    /**
+      * This message as a text WebSocket frame for group channels that use JSON. It's rendered
+      * only once, no matter to how many group channels the message is sent.
+      */
+    lazy val textFrame: TextMessage = TextMessage(Json.stringify(json))
+
+    /**
+      * This message as a binary WebSocket frame for group channels that use CBOR. It's encoded
+      * only once, no matter to how many group channels the message is sent.
+      */
+    lazy val binaryFrame: BinaryMessage = BinaryMessage(CborCodec.encode(json))
+  }
 
 }
 
-class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
+class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: GroupDispatcherRegistry,
                                 @Assisted actionHandler: GroupActionHandler,
                                 @Assisted actionMsgBuilder: GroupActionMsgBuilder,
                                 @Assisted groupResultId: Long) extends Actor {
@@ -155,7 +206,42 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
 
   private val channelRegistry = new ChannelRegistry
 
-  override def postStop() = dispatcherRegistry ! Unregister(groupResultId)
+  /**
+    * Group channels that get membership changes as deltas
+    */
+  private val deltaMembershipChannels = mutable.Set[ActorRef]()
+
+  /**
+    * In-memory state of this group. Is None if the GroupResult couldn't be found in the database.
+    */
+  private var session: Option[GroupSession] = None
+
+  private var flushSchedule: Option[Cancellable] = None
+
+  /**
+    * Whether this GroupDispatcher had no channels at the last FlushSessionTick
+    */
+  private var emptyAtLastTick = false
+
+  /**
+    * Time (in ms) when the group state and active members were last loaded from the database
+    */
+  private var lastRefresh = 0L
+
+  override def preStart() = {
+    session = actionHandler.loadSession(groupResultId)
+    lastRefresh = System.currentTimeMillis()
+    import context.dispatcher
+    val interval = Common.getGroupSessionFlushMillis.millis
+    flushSchedule = Some(context.system.scheduler.schedule(interval, interval, self,
+      FlushSessionTick))
+  }
+
+  override def postStop() = {
+    flushSchedule.foreach(_.cancel())
+    if (session.exists(_.isDirty)) flushSession(refresh = false)
+    dispatcherRegistry.unregister(groupResultId, self)
+  }
 
   def receive = {
     case groupMsg: GroupMsg =>
@@ -167,9 +253,9 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     case LeftGroup(studyResultId: Long) =>
       // A member left
       left(studyResultId)
-    case RegisterChannel(studyResultId: Long) =>
+    case RegisterChannel(studyResultId: Long, deltaMembership: Boolean) =>
       // A GroupChannelActor wants to register
-      registerChannel(studyResultId)
+      registerChannel(studyResultId, deltaMembership)
     case UnregisterChannel(studyResultId: Long) =>
       // A GroupChannelActor wants to unregister
       unregisterChannel(studyResultId)
@@ -179,6 +265,17 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     case p: PoisonChannel =>
       // Comes from GroupChannel service: close a group channel
       poisonChannel(p)
+    case FlushSessionTick =>
+      // Time to persist the group session (if it changed) and maybe to refresh the members
+      val now = System.currentTimeMillis()
+      val refresh = now - lastRefresh >= Common.getGroupSessionRefreshMillis
+      if (refresh) lastRefresh = now
+      flushSession(refresh)
+      stopIfUnused()
+    case FlushSession =>
+      // Someone wants the group session persisted and waits for an answer
+      flushSession(refresh = false)
+      sender ! Done
   }
 
   /**
@@ -193,7 +290,7 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     if (msg.json.keys.contains(GroupActionJsonKey.Action.toString)) {
       // We have a group action message
       val studyResultId = channelRegistry.getStudyResult(sender).get
-      val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId,
+      val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId, session,
         channelRegistry)
       tellActionMsg(msgList)
 
@@ -212,14 +309,17 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     * Registers the given channel and sends an OPENED action group message to everyone in this
     * group.
     */
-  private def registerChannel(studyResultId: Long) = {
-    logger.debug(s".registerChannel: groupResultId $groupResultId, studyResultId $studyResultId")
+  private def registerChannel(studyResultId: Long, deltaMembership: Boolean) = {
+    logger.debug(s".registerChannel: groupResultId $groupResultId, studyResultId " +
+      s"$studyResultId, deltaMembership $deltaMembership")
     channelRegistry.register(studyResultId, sender)
-    val msg1 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, true, GroupAction.Opened, TellWhom.SenderOnly)
-    val msg2 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, false, GroupAction.Opened, TellWhom.AllButSender)
-    tellActionMsg(List(msg1, msg2))
+    if (deltaMembership) deltaMembershipChannels += sender
+    // Only members can open a group channel
+    session.foreach(_.addActiveMember(studyResultId))
+    session.foreach(_.increaseMembershipVersion())
+    val msg = buildMsg(studyResultId, true, GroupAction.Opened, TellWhom.SenderOnly)
+    tellSenderOnly(msg)
+    tellMembershipChange(studyResultId, GroupAction.Opened, TellWhom.AllButSender)
   }
 
   /**
@@ -234,15 +334,26 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     if (channelRegistry.containsStudyResult(studyResultId)
       && channelRegistry.getChannel(studyResultId).get == sender) {
       channelRegistry.unregister(studyResultId)
-      val msg = actionMsgBuilder.build(groupResultId, studyResultId,
-        channelRegistry, false, GroupAction.Closed, TellWhom.AllButSender)
-      tellActionMsg(List(msg))
+      deltaMembershipChannels -= sender
+      session.foreach(_.increaseMembershipVersion())
+      tellMembershipChange(studyResultId, GroupAction.Closed, TellWhom.AllButSender)
     }
 
     // Tell this dispatcher to kill itself if it has no more members
     if (channelRegistry.isEmpty) self ! PoisonPill
   }
 
+  /**
+    * In clustered mode a message from a different node (e.g. a LeftGroup) can start a
+    * GroupDispatcher that never gets a channel. It stops itself if it had no channels during a
+    * whole flush interval.
+    */
+  private def stopIfUnused() = {
+    if (dispatcherRegistry.isClustered && emptyAtLastTick && channelRegistry.isEmpty)
+      self ! PoisonPill
+    emptyAtLastTick = channelRegistry.isEmpty
+  }
+
   /**
     * Forwards this ReassignChannel message to the right group channel.
     */
@@ -284,9 +395,9 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     */
   private def joined(studyResultId: Long) {
     logger.debug(s".joined: groupResultId $groupResultId studyResultId $studyResultId")
-    val msg = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, false, GroupAction.Joined, TellWhom.AllButSender)
-    tellAllButSender(msg)
+    session.foreach(_.addActiveMember(studyResultId))
+    session.foreach(_.increaseMembershipVersion())
+    tellMembershipChange(studyResultId, GroupAction.Joined, TellWhom.AllButSender)
   }
 
   /**
@@ -295,9 +406,68 @@ class GroupDispatcher @Inject()(@Assisted dispatcherRegistry: ActorRef,
     */
   private def left(studyResultId: Long) = {
     logger.debug(s".left: groupResultId $groupResultId, studyResultId $studyResultId")
-    val msg = actionMsgBuilder.build(groupResultId, studyResultId, channelRegistry, false,
-      GroupAction.Left, TellWhom.AllButSender)
-    tellAllButSender(msg)
+    session.foreach(_.removeActiveMember(studyResultId))
+    session.foreach(_.increaseMembershipVersion())
+    tellMembershipChange(studyResultId, GroupAction.Left, TellWhom.AllButSender)
+  }
+
+  /**
+    * Persists the group session if it has unsaved changes. If 'refresh' is true it also
+    * refreshes the group state and members from the database. If the members in the database
+    * differ (e.g. someone left without a group channel) everyone is told about the changes.
+    */
+  private def flushSession(refresh: Boolean) = {
+    try {
+      session.foreach { s =>
+        val membersBefore = s.getActiveMembers.toSet
+        actionHandler.persistSession(s, refresh)
+        val membersAfter = s.getActiveMembers.toSet
+        for (studyResultId <- membersAfter -- membersBefore) {
+          s.increaseMembershipVersion()
+          tellMembershipChange(studyResultId, GroupAction.Joined, TellWhom.All)
+        }
+        for (studyResultId <- membersBefore -- membersAfter) {
+          s.increaseMembershipVersion()
+          tellMembershipChange(studyResultId, GroupAction.Left, TellWhom.All)
+        }
+      }
+    } catch {
+      case e: Exception =>
+        logger.error(s".flushSession: groupResultId $groupResultId, couldn't persist group " +
+          s"session", e)
+    }
+  }
+
+  /**
+    * Builds a GroupMsg with the data of this group's GroupSession
+    */
+  private def buildMsg(studyResultId: Long, includeSessionData: Boolean, action: GroupAction,
+                       tellWhom: TellWhom): GroupMsg = session match {
+    case Some(s) =>
+      actionMsgBuilder.build(s, studyResultId, channelRegistry, includeSessionData, action,
+        tellWhom)
+    case None =>
+      actionMsgBuilder.buildError(groupResultId, s"Couldn't find group result with ID " +
+        s"$groupResultId in database.", TellWhom.SenderOnly)
+  }
+
+  /**
+    * Tells the group members about a membership change: group channels that registered for
+    * deltas get only the changed member, all others the full lists of members and channels.
+    * Each of the two messages is only built if there is a recipient for it.
+    */
+  private def tellMembershipChange(studyResultId: Long, action: GroupAction,
+                                   tellWhom: TellWhom) = {
+    lazy val fullMsg = buildMsg(studyResultId, false, action, tellWhom)
+    lazy val deltaMsg = session match {
+      case Some(s) => actionMsgBuilder.buildMembershipDelta(s, studyResultId, action, tellWhom)
+      case None => fullMsg
+    }
+    logger.debug(s".tellMembershipChange: groupResultId $groupResultId, studyResultId " +
+      s"$studyResultId, action $action")
+    for (actorRef <- channelRegistry.getAllChannels
+         if tellWhom == TellWhom.All || actorRef != sender)
+      actorRef ! (if (deltaMembershipChannels.contains(actorRef)) deltaMsg else fullMsg)
   }
 
   /**
@@ -2,79 +2,39 @@ package group
 
 import javax.inject.{Inject, Singleton}
 
-import akka.actor.{Actor, ActorRef, ActorSystem}
-import group.GroupDispatcherRegistry.{Get, GetOrCreate, ItsThisOne, Unregister}
-import play.api.Logger
-import play.api.libs.concurrent.InjectedActorSupport
-
-import scala.collection.mutable
+import akka.actor.{ActorSystem, Props}
+import general.DispatcherRegistry
+import group.GroupDispatcher.{FlushSession, RegisterChannel, UnregisterChannel}
+import play.api.inject.ApplicationLifecycle
 
 /**
-  * A GroupDispatcherRegistry is an Akka Actor keeps track of all
-  * GroupDispatchers Actors.
+  * A GroupDispatcherRegistry keeps track of all GroupDispatchers Actors.
+  *
+  * It is thread-safe and based on a ConcurrentHashMap: getting the GroupDispatcher of one group
+  * doesn't wait for other groups and the GroupDispatcher of a group is created only once even if
+  * many group channels are opened at the same time.
+  *
+  * In clustered mode the GroupDispatchers are placed by their group result ID across the nodes.
   *
   * @author Kristian Lange (2015, 2017)
   */
-object GroupDispatcherRegistry {
-
-  abstract class RegistryProtocol
-
-  /**
-    * Used by the GroupChannel service to ask which GroupDispatcher actor manages a particular
-    * group (specified by the group result ID).
-    */
-  case class Get(groupResultId: Long) extends RegistryProtocol
-
-  /**
-    * Used by the GroupChannel service to ask which GroupDispatcher actor manages a particular
-    * group (specified by the group result ID). If it doesn't exist, create a new one.
-    */
-  case class GetOrCreate(groupResultId: Long) extends RegistryProtocol
-
-  /**
-    * Used to answer the GroupChannel service which GroupDispatcher manages a particular group.
-    */
-  case class ItsThisOne(groupDispatcherOption: Option[ActorRef]) extends RegistryProtocol
-
-  /**
-    * Used by a GroupDispatcher to unregister itself from this registry
-    */
-  case class Unregister(groupResultId: Long) extends RegistryProtocol
-
-}
-
 @Singleton
 class GroupDispatcherRegistry @Inject()(actorSystem: ActorSystem,
+                                        lifecycle: ApplicationLifecycle,
                                         dispatcherFactory: GroupDispatcher.Factory,
                                         actionHandler: GroupActionHandler,
                                         actionMsgBuilder: GroupActionMsgBuilder)
-  extends Actor with InjectedActorSupport {
+  extends DispatcherRegistry(actorSystem, lifecycle, "GroupDispatcher") {
 
-  private val logger: Logger = Logger(this.getClass)
+  override protected def dispatcherProps(groupResultId: Long): Props =
+    Props(dispatcherFactory(this, actionHandler, actionMsgBuilder, groupResultId))
 
-  /**
-    * Contains the dispatchers that are currently registered. Maps the an ID to the ActorRef.
-    */
-  private val dispatcherMap = mutable.HashMap[Long, ActorRef]()
+  override protected def flushSessionMsg: Any = FlushSession
 
-  def receive = {
-    case Get(groupResultId: Long) =>
-      // Someone wants to know the Dispatcher to a certain ID
-      sender ! ItsThisOne(dispatcherMap.get(groupResultId))
-    case GetOrCreate(groupResultId: Long) =>
-      // Someone wants to know the Dispatcher to a particular ID
-      // If it doesn't exist, create a new one.
-      if (!dispatcherMap.contains(groupResultId)) {
-        val dispatcher = injectedChild(
-          dispatcherFactory(self, actionHandler, actionMsgBuilder, groupResultId),
-          groupResultId.toString)
-        dispatcherMap += (groupResultId -> dispatcher)
-        logger.debug(s".receive: registered dispatcher for groupResult ID $groupResultId")
-      }
-      sender ! ItsThisOne(dispatcherMap.get(groupResultId))
-    case Unregister(groupResultId: Long) =>
-      // A Dispatcher closed down and wants to unregister
-      dispatcherMap -= groupResultId
-      logger.debug(s".receive: unregistered dispatcher for groupResult ID $groupResultId")
+  override protected def channelDelta(msg: Any): Int = msg match {
+    case _: RegisterChannel => 1
+    case _: UnregisterChannel => -1
+    case _ => 0
   }
+
 }
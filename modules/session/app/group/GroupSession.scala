@@ -0,0 +1,87 @@
+package group
+
+import gnieh.diffson.playJson._
+import models.common.GroupResult.GroupState
+import play.api.libs.json.JsValue
+
+import scala.collection.mutable
+
+/**
+  * The state of one group as it is kept in memory by the group's GroupDispatcher: the group
+  * session data and version, the GroupState, and the IDs of the active members (StudyResult IDs).
+  * It is loaded once when the GroupDispatcher starts. While a GroupDispatcher is alive its
+  * GroupSession is the authoritative version of the group session data: patches are applied here
+  * and the result is written back to the GroupResult only from time to time (see
+  * GroupActionHandler.persistSession).
+  *
+  * Not thread-safe - it's meant to be used only from within its GroupDispatcher.
+  */
+class GroupSession(val groupResultId: Long, private var data: JsValue, private var version: Long,
+                   private var groupState: GroupState, activeMembers: Iterable[Long]) {
+
+  /**
+    * The version that is currently stored in the database
+    */
+  private var persistedVersion: Long = version
+
+  private val activeMemberSet = mutable.LinkedHashSet[Long](activeMembers.toSeq: _*)
+
+  /**
+    * Version of the group's membership (active members and open group channels). It's only kept
+    * in memory and increased with every membership change that is sent to the group members.
+    */
+  private var membershipVersion: Long = 0
+
+  def getData: JsValue = data
+
+  def getVersion: Long = version
+
+  def getPersistedVersion: Long = persistedVersion
+
+  def getGroupState: GroupState = groupState
+
+  def setGroupState(groupState: GroupState): Unit = this.groupState = groupState
+
+  def getActiveMembers: collection.Set[Long] = activeMemberSet
+
+  def addActiveMember(studyResultId: Long): Unit = activeMemberSet += studyResultId
+
+  def removeActiveMember(studyResultId: Long): Unit = activeMemberSet -= studyResultId
+
+  def getMembershipVersion: Long = membershipVersion
+
+  def increaseMembershipVersion(): Unit = membershipVersion += 1
+
+  /**
+    * Returns true if there are changes in the session data that aren't persisted yet.
+    */
+  def isDirty: Boolean = version != persistedVersion
+
+  /**
+    * Applies the JSON Patch to the session data and increases the version by 1 - but only if the
+    * given version is equal to the current one. Returns true if this was successful - otherwise
+    * false. Throws an exception if the patch can't be applied.
+    */
+  def checkVersionAndPatch(patch: JsValue, clientsVersion: Long): Boolean = {
+    if (version != clientsVersion) return false
+    data = JsonPatch.apply(patch)(data)
+    version += 1
+    true
+  }
+
+  /**
+    * Marks the current version as stored in the database
+    */
+  def markPersisted(): Unit = persistedVersion = version
+
+  /**
+    * Overwrites the GroupState and active members with the ones from the database. Those are
+    * changed outside of the GroupDispatcher too (e.g. by the GroupAdministration).
+    */
+  def refresh(persistedGroupState: GroupState, persistedActiveMembers: Iterable[Long]): Unit = {
+    groupState = persistedGroupState
+    activeMemberSet.clear()
+    activeMemberSet ++= persistedActiveMembers
+  }
+
+}
@@ -0,0 +1,177 @@
+package batch;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.JsString;
+import play.api.libs.json.JsValue;
+import play.api.libs.json.Json;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import scala.Option;
+import scala.collection.immutable.List;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for BatchActionHandler: loading and persisting of the in-memory BatchSession and
+ * version conflicts
+ */
+public class BatchActionHandlerTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private BatchActionHandler batchActionHandler;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private static JsValue json(String json) {
+        return Json.parse(json.replace('\'', '"'));
+    }
+
+    @Test
+    public void checkLoadAndPersistSession() {
+        long batchId = createBatch("{'a':1}", 3L);
+
+        BatchSession session = batchActionHandler.loadSession(batchId).get();
+        assertThat(session.getData()).isEqualTo(json("{'a':1}"));
+        assertThat(session.getVersion()).isEqualTo(3L);
+        assertThat(session.isDirty()).isFalse();
+
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/b','value':2}]"), 3L);
+        // Nothing in the database yet
+        checkBatchSessionInDatabase(batchId, "{'a':1}", 3L);
+
+        assertThat(batchActionHandler.persistSession(session)).isFalse();
+        assertThat(session.isDirty()).isFalse();
+        checkBatchSessionInDatabase(batchId, "{'a':1,'b':2}", 4L);
+
+        BatchSession loadedSession = batchActionHandler.loadSession(batchId).get();
+        assertThat(loadedSession.getData()).isEqualTo(json("{'a':1,'b':2}"));
+        assertThat(loadedSession.getVersion()).isEqualTo(4L);
+    }
+
+    @Test
+    public void checkLoadSessionBatchNotExist() {
+        Option<BatchSession> session = batchActionHandler.loadSession(-1L);
+        assertThat(session.isEmpty()).isTrue();
+    }
+
+    /**
+     * If the batch session was changed in the database (e.g. in the GUI) the already
+     * acknowledged patches are applied again on top of it and persisted
+     */
+    @Test
+    public void checkPersistSessionAfterChangeInDatabase() {
+        long batchId = createBatch("{'a':1}", 0L);
+        BatchSession session = batchActionHandler.loadSession(batchId).get();
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/b','value':2}]"), 0L);
+
+        setBatchSessionInDatabase(batchId, "{'a':5}", 1L);
+
+        assertThat(batchActionHandler.persistSession(session)).isTrue();
+        assertThat(session.getData()).isEqualTo(json("{'a':5,'b':2}"));
+        assertThat(session.getVersion()).isEqualTo(2L);
+        assertThat(session.isDirty()).isFalse();
+        checkBatchSessionInDatabase(batchId, "{'a':5,'b':2}", 2L);
+    }
+
+    /**
+     * A patch with an outdated version fails and doesn't change the batch session
+     */
+    @Test
+    public void checkPatchWithWrongVersionFails() {
+        long batchId = createBatch("{}", 2L);
+        BatchSession session = batchActionHandler.loadSession(batchId).get();
+
+        List<BatchDispatcher.BatchMsg> msgs = batchActionHandler.handleActionMsg(
+                patchMsg("[{'op':'add','path':'/a','value':1}]", 2L), batchId,
+                Option.apply(session));
+        assertThat(msgs.size()).isEqualTo(2);
+        assertThat(action(msgs.apply(0))).isEqualTo("SESSION");
+        assertThat(action(msgs.apply(1))).isEqualTo("SESSION_ACK");
+
+        msgs = batchActionHandler.handleActionMsg(
+                patchMsg("[{'op':'add','path':'/a','value':2}]", 2L), batchId,
+                Option.apply(session));
+        assertThat(msgs.size()).isEqualTo(1);
+        assertThat(action(msgs.apply(0))).isEqualTo("SESSION_FAIL");
+        assertThat(msgs.apply(0).tellWhom())
+                .isEqualTo(BatchDispatcher.TellWhom$.MODULE$.SenderOnly());
+        assertThat(session.getData()).isEqualTo(json("{'a':1}"));
+        assertThat(session.getVersion()).isEqualTo(3L);
+    }
+
+    private long createBatch(String sessionData, long sessionVersion) {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long batchId = study.getDefaultBatch().getId();
+        setBatchSessionInDatabase(batchId, sessionData, sessionVersion);
+        return batchId;
+    }
+
+    private void setBatchSessionInDatabase(long batchId, String sessionData,
+            long sessionVersion) {
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(batchId);
+            batch.setBatchSessionData(json(sessionData).toString());
+            batch.setBatchSessionVersion(sessionVersion);
+            batchDao.update(batch);
+        });
+    }
+
+    private void checkBatchSessionInDatabase(long batchId, String sessionData,
+            long sessionVersion) {
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(batchId);
+            assertThat(Json.parse(batch.getBatchSessionData())).isEqualTo(json(sessionData));
+            assertThat(batch.getBatchSessionVersion()).isEqualTo(sessionVersion);
+        });
+    }
+
+    private static BatchDispatcher.BatchMsg patchMsg(String patch, long version) {
+        JsObject json = (JsObject) json("{'action':'SESSION','version':" + version
+                + ",'patches':" + patch + "}");
+        return new BatchDispatcher.BatchMsg(json, BatchDispatcher.TellWhom$.MODULE$.Unknown());
+    }
+
+    private static String action(BatchDispatcher.BatchMsg msg) {
+        return ((JsString) msg.json().value().apply("action")).value();
+    }
+
+}
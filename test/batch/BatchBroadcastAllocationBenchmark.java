@@ -0,0 +1,77 @@
+package batch;
+
+import org.junit.Test;
+import play.Logger;
+import play.api.http.websocket.TextMessage;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.Json;
+
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Benchmark for the fan-out of a batch session patch: measures the bytes allocated per broadcast
+ * for batches with 10, 100 and 1000 open batch channels. It compares rendering the JSON for
+ * every batch channel (like it was done by Play's JSON WebSocket) with sending the BatchMsg's
+ * text frame that is rendered only once. It only reports the allocations - run it with
+ * 'sbt bench:test'.
+ */
+public class BatchBroadcastAllocationBenchmark {
+
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+    private static final int BROADCASTS = 200;
+
+    private static final String PATCH_MSG_JSON = "{\"action\":\"SESSION\","
+            + "\"sessionVersion\":42,\"sessionPatches\":[{\"op\":\"add\","
+            + "\"path\":\"/participants/17\",\"value\":{\"name\":\"anonymous\","
+            + "\"condition\":\"B\",\"progress\":0.35,\"answers\":[3,1,4,1,5,9,2,6]}}]}";
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void compareAllocationPerBroadcast() {
+        assertThat(threadMXBean.isThreadAllocatedMemorySupported()).isTrue();
+        for (int batchSize : BATCH_SIZES) {
+            // Warm-up
+            measureAllocationPerBroadcast(batchSize, true);
+            measureAllocationPerBroadcast(batchSize, false);
+
+            long perRecipient = measureAllocationPerBroadcast(batchSize, false);
+            long once = measureAllocationPerBroadcast(batchSize, true);
+            Logger.info(BatchBroadcastAllocationBenchmark.class.getSimpleName() + ": batch size "
+                    + batchSize + " - allocation per broadcast: rendered per channel "
+                    + perRecipient / 1024 + " KB, rendered once " + once / 1024 + " KB");
+        }
+    }
+
+    /**
+     * Returns the average number of bytes this thread allocated per broadcast
+     */
+    private long measureAllocationPerBroadcast(int batchSize, boolean renderOnce) {
+        long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int i = 0; i < BROADCASTS; i++) {
+            // Like the BatchDispatcher: every broadcast is a new BatchMsg
+            BatchDispatcher.BatchMsg msg = createBatchMsg();
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            int length = 0;
+            for (int j = 0; j < batchSize; j++) {
+                TextMessage frame = renderOnce
+                        ? msg.textFrame()
+                        : new TextMessage(Json.stringify(msg.json()));
+                length += frame.data().length();
+            }
+            allocated += threadMXBean.getThreadAllocatedBytes(threadId) - start;
+            assertThat(length).isPositive();
+        }
+        return allocated / BROADCASTS;
+    }
+
+    private BatchDispatcher.BatchMsg createBatchMsg() {
+        JsObject json = (JsObject) Json.parse(PATCH_MSG_JSON);
+        return new BatchDispatcher.BatchMsg(json, BatchDispatcher.TellWhom$.MODULE$.All());
+    }
+
+}
@@ -0,0 +1,145 @@
+package batch;
+
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.StudyDao;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.BatchService;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Load test for the BatchDispatcherRegistry: opens many batch channels concurrently (like it
+ * happens when a study link is published, e.g. an MTurk HIT goes live) and reports the latency
+ * of opening a channel. Opening is measured from getting the BatchDispatcher from the registry
+ * until the OPENED message (with the batch session) arrives. It only reports the latency - run
+ * it with 'sbt bench:test'.
+ */
+public class BatchDispatcherRegistryLoadTest {
+
+    private static final int CHANNEL_COUNT = 5000;
+    private static final int BATCH_COUNT = 10;
+    private static final int THREAD_COUNT = 200;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BatchService batchService;
+
+    @Inject
+    private BatchDispatcherRegistry batchDispatcherRegistry;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void openBatchChannelsConcurrently() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        List<Long> batchIds = createBatches(study);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            long studyResultId = i + 1;
+            long batchId = batchIds.get(i % BATCH_COUNT);
+            futures.add(executor.submit(() -> openBatchChannel(batchId, studyResultId)));
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<Long> future : futures) {
+            latencies.add(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        executor.shutdown();
+
+        Collections.sort(latencies);
+        long p50 = TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 50));
+        long p99 = TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 99));
+        long max = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() - 1));
+        Logger.info(BatchDispatcherRegistryLoadTest.class.getSimpleName() + ": opened "
+                + CHANNEL_COUNT + " batch channels in " + BATCH_COUNT + " batches - latency p50 "
+                + p50 + " ms, p99 " + p99 + " ms, max " + max + " ms");
+
+        // Every channel got its OPENED message
+        assertThat(latencies.size()).isEqualTo(CHANNEL_COUNT);
+    }
+
+    /**
+     * Does what the BatchChannel does during opening and returns the latency in nanoseconds
+     */
+    private long openBatchChannel(long batchId, long studyResultId) throws Exception {
+        long start = System.nanoTime();
+        ActorRef dispatcher = batchDispatcherRegistry.getOrCreate(batchId);
+        Object answer = PatternsCS
+                .ask(dispatcher, new BatchDispatcher.RegisterChannel(studyResultId),
+                        TIMEOUT_MILLIS)
+                .toCompletableFuture().get();
+        assertThat(answer).isInstanceOf(BatchDispatcher.BatchMsg.class);
+        return System.nanoTime() - start;
+    }
+
+    private List<Long> createBatches(Study study) {
+        return jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            List<Long> batchIds = new ArrayList<>();
+            batchIds.add(s.getDefaultBatch().getId());
+            for (int i = 1; i < BATCH_COUNT; i++) {
+                Batch batch = new Batch();
+                batch.setTitle("Load test batch " + i);
+                batchService.createAndPersistBatch(batch, s);
+                batchIds.add(batch.getId());
+            }
+            return batchIds;
+        });
+    }
+
+    private static long percentile(List<Long> sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(index, 0));
+    }
+
+}
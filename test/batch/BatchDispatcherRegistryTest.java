@@ -0,0 +1,80 @@
+package batch;
+
+import akka.actor.ActorRef;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for BatchDispatcherRegistry
+ */
+public class BatchDispatcherRegistryTest {
+
+    private static final long BATCH_ID = 1L;
+    private static final int THREADS = 20;
+
+    @Inject
+    private BatchDispatcherRegistry batchDispatcherRegistry;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        Injector injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    /**
+     * Many channels of the same batch that open at the same time get the same BatchDispatcher
+     */
+    @Test
+    public void checkGetOrCreateConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<ActorRef>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                startSignal.await();
+                return batchDispatcherRegistry.getOrCreate(BATCH_ID);
+            }));
+        }
+        startSignal.countDown();
+
+        ActorRef dispatcher = batchDispatcherRegistry.getOrCreate(BATCH_ID);
+        for (Future<ActorRef> future : futures) {
+            assertThat(future.get(10, TimeUnit.SECONDS)).isSameAs(dispatcher);
+        }
+        executor.shutdown();
+        assertThat(batchDispatcherRegistry.get(BATCH_ID).get()).isSameAs(dispatcher);
+    }
+
+    @Test
+    public void checkUnregister() throws Exception {
+        ActorRef dispatcher = batchDispatcherRegistry.getOrCreate(BATCH_ID);
+        ActorRef otherDispatcher = batchDispatcherRegistry.getOrCreate(BATCH_ID + 1);
+
+        // Only the registered dispatcher can unregister itself
+        batchDispatcherRegistry.unregister(BATCH_ID, otherDispatcher);
+        assertThat(batchDispatcherRegistry.get(BATCH_ID).get()).isSameAs(dispatcher);
+
+        batchDispatcherRegistry.unregister(BATCH_ID, dispatcher);
+        assertThat(batchDispatcherRegistry.get(BATCH_ID).isEmpty()).isTrue();
+    }
+
+}
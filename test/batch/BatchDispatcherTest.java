@@ -0,0 +1,30 @@
+package batch;
+
+import org.junit.Test;
+import play.api.http.websocket.TextMessage;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.Json;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for the messages of the BatchDispatcher
+ */
+public class BatchDispatcherTest {
+
+    private static final String PATCH_MSG_JSON = "{\"action\":\"SESSION\","
+            + "\"sessionVersion\":42,\"sessionPatches\":[{\"op\":\"add\","
+            + "\"path\":\"/participants/17\",\"value\":{\"name\":\"anonymous\"}}]}";
+
+    @Test
+    public void checkTextFrameIsRenderedOnce() {
+        JsObject json = (JsObject) Json.parse(PATCH_MSG_JSON);
+        BatchDispatcher.BatchMsg msg = new BatchDispatcher.BatchMsg(json,
+                BatchDispatcher.TellWhom$.MODULE$.All());
+        TextMessage frame = msg.textFrame();
+
+        assertThat(msg.textFrame()).isSameAs(frame);
+        assertThat(Json.parse(frame.data())).isEqualTo(msg.json());
+    }
+
+}
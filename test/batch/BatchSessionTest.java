@@ -0,0 +1,145 @@
+package batch;
+
+import org.junit.Test;
+import play.api.libs.json.JsArray;
+import play.api.libs.json.JsValue;
+import play.api.libs.json.Json;
+import scala.collection.Seq;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the patching, coalescing and rebasing of batch session patches in BatchSession
+ */
+public class BatchSessionTest {
+
+    private static JsValue json(String json) {
+        return Json.parse(json.replace('\'', '"'));
+    }
+
+    @Test
+    public void checkNonConflictingPatchesAreCommittedWithOneVersion() {
+        BatchSession session = new BatchSession(1L, json("{'scores':{}}"), 3L);
+
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'add','path':'/scores/a','value':1}]"), 3L)).isTrue();
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'add','path':'/scores/b','value':2}]"), 3L)).isTrue();
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'add','path':'/scores/c','value':3}]"), 3L)).isTrue();
+
+        // Nothing changed until the commit
+        assertThat(session.hasPendingPatches()).isTrue();
+        assertThat(session.getVersion()).isEqualTo(3L);
+        assertThat(session.getData()).isEqualTo(json("{'scores':{}}"));
+
+        JsArray mergedPatch = session.commitPendingPatches();
+        assertThat(session.hasPendingPatches()).isFalse();
+        assertThat(session.getVersion()).isEqualTo(4L);
+        assertThat(session.getData()).isEqualTo(json("{'scores':{'a':1,'b':2,'c':3}}"));
+        assertThat(mergedPatch.value().size()).isEqualTo(3);
+        assertThat(session.isDirty()).isTrue();
+    }
+
+    @Test
+    public void checkConflictingPatchesFail() {
+        BatchSession session = new BatchSession(1L, json("{'scores':{'a':0}}"), 0L);
+
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'replace','path':'/scores/a','value':1}]"), 0L)).isTrue();
+        // Same path
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'replace','path':'/scores/a','value':2}]"), 0L)).isFalse();
+        // Parent path
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'remove','path':'/scores'}]"), 0L)).isFalse();
+        // Whole document
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'replace','path':'','value':{}}]"), 0L)).isFalse();
+
+        session.commitPendingPatches();
+        assertThat(session.getData()).isEqualTo(json("{'scores':{'a':1}}"));
+        assertThat(session.getVersion()).isEqualTo(1L);
+    }
+
+    @Test
+    public void checkArrayElementPatchesConflict() {
+        BatchSession session = new BatchSession(1L, json("{'list':[1,2,3]}"), 0L);
+
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'remove','path':'/list/0'}]"), 0L)).isTrue();
+        // Indices might have shifted
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'replace','path':'/list/1','value':5}]"), 0L)).isFalse();
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'add','path':'/list/-','value':4}]"), 0L)).isFalse();
+    }
+
+    @Test
+    public void checkWrongVersionFails() {
+        BatchSession session = new BatchSession(1L, json("{}"), 5L);
+
+        assertThat(session.checkVersionAndAddPendingPatch(
+                json("[{'op':'add','path':'/a','value':1}]"), 4L)).isFalse();
+        assertThat(session.hasPendingPatches()).isFalse();
+    }
+
+    @Test
+    public void checkPatchWithWrongVersionFails() {
+        BatchSession session = new BatchSession(1L, json("{'a':1}"), 5L);
+
+        assertThat(session.checkVersionAndPatch(
+                json("[{'op':'replace','path':'/a','value':2}]"), 5L)).isTrue();
+        // The client didn't get version 6 yet
+        assertThat(session.checkVersionAndPatch(
+                json("[{'op':'replace','path':'/a','value':3}]"), 5L)).isFalse();
+
+        assertThat(session.getVersion()).isEqualTo(6L);
+        assertThat(session.getData()).isEqualTo(json("{'a':2}"));
+        assertThat(session.isDirty()).isTrue();
+        session.markPersisted();
+        assertThat(session.isDirty()).isFalse();
+        assertThat(session.getPersistedVersion()).isEqualTo(6L);
+    }
+
+    /**
+     * Patches that weren't persisted yet are applied again on top of session data that were
+     * changed in the database
+     */
+    @Test
+    public void checkRebaseAppliesUnpersistedPatches() {
+        BatchSession session = new BatchSession(1L, json("{}"), 0L);
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/a','value':1}]"), 0L);
+        session.markPersisted();
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/c','value':3}]"), 1L);
+        session.checkVersionAndAddPendingPatch(json("[{'op':'add','path':'/d','value':4}]"), 2L);
+        session.commitPendingPatches();
+        session.checkVersionAndAddPendingPatch(json("[{'op':'add','path':'/e','value':5}]"), 3L);
+
+        // In the database version 1 was changed to version 2 in the meantime
+        Seq<JsValue> failedPatches = session.rebase(json("{'a':1,'b':2}"), 2L);
+
+        assertThat(failedPatches.isEmpty()).isTrue();
+        assertThat(session.getData()).isEqualTo(json("{'a':1,'b':2,'c':3,'d':4}"));
+        assertThat(session.getVersion()).isEqualTo(4L);
+        assertThat(session.getPersistedVersion()).isEqualTo(2L);
+        assertThat(session.isDirty()).isTrue();
+        // Pending patches aren't acknowledged yet and are discarded
+        assertThat(session.hasPendingPatches()).isFalse();
+    }
+
+    @Test
+    public void checkRebaseSkipsPatchesThatCantBeApplied() {
+        BatchSession session = new BatchSession(1L, json("{'list':[1]}"), 0L);
+        session.checkVersionAndPatch(json("[{'op':'replace','path':'/list/0','value':2}]"), 0L);
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/a','value':1}]"), 1L);
+
+        // The list was removed in the database
+        Seq<JsValue> failedPatches = session.rebase(json("{}"), 1L);
+
+        assertThat(failedPatches.size()).isEqualTo(1);
+        assertThat(session.getData()).isEqualTo(json("{'a':1}"));
+        assertThat(session.getVersion()).isEqualTo(3L);
+    }
+
+}
@@ -105,4 +105,37 @@ public class HomeControllerTest {
         testHelper.removeUser(TestHelper.BLA_EMAIL);
     }
 
+    /**
+     * Home.metrics isn't @Transactional - the logged-in user is retrieved in a
+     * transaction of its own
+     */
+    @Test
+    public void callMetrics() throws Exception {
+        Http.Session session = testHelper
+                .mockSessionCookieandCache(testHelper.getAdmin());
+        RequestBuilder request = new RequestBuilder().method("GET")
+                .session(session).remoteAddress(TestHelper.WWW_EXAMPLE_COM)
+                .uri(controllers.gui.routes.Home.metrics().url());
+        Result result = route(request);
+
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.contentType().get()).isEqualTo("application/json");
+        assertThat(contentAsString(result)).contains("jdbcExecutionContext");
+    }
+
+    @Test
+    public void callMetricsNotAsAdmin() throws Exception {
+        User notAdminUser = testHelper.createAndPersistUser(TestHelper.BLA_EMAIL,
+                "Bla", "bla");
+
+        Http.Session session = testHelper
+                .mockSessionCookieandCache(notAdminUser);
+        RequestBuilder request = new RequestBuilder().method("GET")
+                .session(session).remoteAddress(TestHelper.WWW_EXAMPLE_COM)
+                .uri(controllers.gui.routes.Home.metrics().url());
+        testHelper.assertJatosGuiException(request, Http.Status.FORBIDDEN, "");
+
+        testHelper.removeUser(TestHelper.BLA_EMAIL);
+    }
+
 }
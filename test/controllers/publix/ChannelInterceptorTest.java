@@ -0,0 +1,260 @@
+package controllers.publix;
+
+import akka.stream.scaladsl.Flow;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import controllers.publix.workers.JatosPublix;
+import controllers.publix.workers.JatosPublix.JatosRun;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.ApplicationLoader;
+import play.Environment;
+import play.api.http.websocket.Message;
+import play.api.mvc.Result;
+import play.api.mvc.WebSocket;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.mvc.Http.Cookie;
+import play.mvc.Http.RequestBuilder;
+import play.test.Helpers;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.util.Either;
+import services.gui.AuthenticationService;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static play.inject.Bindings.bind;
+import static play.mvc.Http.Status.*;
+import static play.test.Helpers.GET;
+import static play.test.Helpers.route;
+
+/**
+ * Tests for ChannelInterceptor: opening of batch and group channels in the
+ * JdbcExecutionContext and the mapping of exceptions to HTTP results
+ */
+public class ChannelInterceptorTest {
+
+    private Injector injector;
+
+    private Application fakeApplication;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        fakeApplication = Helpers.fakeApplication();
+
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        Helpers.start(fakeApplication);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+
+        Helpers.stop(fakeApplication);
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void checkOpenBatch() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().openBatch(study.getId(), studyResultId),
+                idCookie, "");
+        assertThat(result.isRight()).isTrue();
+    }
+
+    @Test
+    public void checkOpenBatchWithoutIdCookie() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().openBatch(study.getId(), studyResultId), null,
+                "");
+        checkStatus(result, BAD_REQUEST);
+    }
+
+    @Test
+    public void checkOpenBatchStudyNotExist() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().openBatch(-1L, studyResultId), idCookie, "");
+        checkStatus(result, NOT_FOUND);
+    }
+
+    /**
+     * Any other exception thrown during opening of a channel is turned into an
+     * Internal Server Error
+     */
+    @Test
+    public void checkOpenBatchUnexpectedException() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        JatosBatchChannel jatosBatchChannel = mock(JatosBatchChannel.class);
+        when(jatosBatchChannel.open(anyLong(), anyLong()))
+                .thenThrow(new IllegalStateException("Something went wrong"));
+        Application application = new GuiceApplicationBuilder()
+                .overrides(bind(JatosBatchChannel.class).toInstance(jatosBatchChannel))
+                .build();
+        try {
+            ChannelInterceptor channelInterceptor = application.injector()
+                    .instanceOf(ChannelInterceptor.class);
+            Either<Result, Flow<Message, Message, ?>> result = await(
+                    channelInterceptor.openBatch(study.getId(), studyResultId),
+                    idCookie, "");
+            checkStatus(result, INTERNAL_SERVER_ERROR);
+        } finally {
+            Helpers.stop(application);
+        }
+    }
+
+    @Test
+    public void checkJoinGroup() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        setGroupStudy(study);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().joinGroup(study.getId(), studyResultId),
+                idCookie, "?protocol=cbor&membershipUpdates=delta");
+        assertThat(result.isRight()).isTrue();
+
+        jpaApi.withTransaction(() -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            assertThat(studyResult.getActiveGroupResult()).isNotNull();
+        });
+    }
+
+    @Test
+    public void checkJoinGroupNotGroupStudy() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().joinGroup(study.getId(), studyResultId),
+                idCookie, "");
+        checkStatus(result, FORBIDDEN);
+    }
+
+    @Test
+    public void checkJoinGroupWrongQueryParameters() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        setGroupStudy(study);
+        Cookie idCookie = startStudy(study);
+        long studyResultId = retrieveLastStudyResultId(study);
+
+        Either<Result, Flow<Message, Message, ?>> result = await(
+                channelInterceptor().joinGroup(study.getId(), studyResultId),
+                idCookie, "?protocol=xml");
+        checkStatus(result, BAD_REQUEST);
+
+        result = await(channelInterceptor().joinGroup(study.getId(), studyResultId),
+                idCookie, "?membershipUpdates=foo");
+        checkStatus(result, BAD_REQUEST);
+
+        // Nobody joined the group
+        jpaApi.withTransaction(() -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            assertThat(studyResult.getActiveGroupResult()).isNull();
+        });
+    }
+
+    private ChannelInterceptor channelInterceptor() {
+        return fakeApplication.injector().instanceOf(ChannelInterceptor.class);
+    }
+
+    /**
+     * Calls the WebSocket with a request (with the admin logged in and the
+     * given ID cookie if not null) and waits for the result
+     */
+    private Either<Result, Flow<Message, Message, ?>> await(WebSocket webSocket,
+            Cookie idCookie, String query) throws Exception {
+        RequestBuilder request = new RequestBuilder().method(GET)
+                .uri("/publix/channel" + query)
+                .session(AuthenticationService.SESSION_USER_EMAIL,
+                        testHelper.getAdmin().getEmail());
+        if (idCookie != null) {
+            request.cookie(idCookie);
+        }
+        return Await.result(webSocket.apply(request.build()._underlyingHeader()),
+                Duration.create(10, TimeUnit.SECONDS));
+    }
+
+    private static void checkStatus(Either<Result, Flow<Message, Message, ?>> result,
+            int status) {
+        assertThat(result.isLeft()).isTrue();
+        assertThat(result.left().get().header().status()).isEqualTo(status);
+    }
+
+    private Cookie startStudy(Study study) {
+        User admin = testHelper.getAdmin();
+        String url = "/publix/" + study.getId() + "/start?"
+                + JatosPublix.JATOS_WORKER_ID + "=" + admin.getWorker().getId();
+        RequestBuilder request = new RequestBuilder().method(GET).uri(url)
+                .session(AuthenticationService.SESSION_USER_EMAIL, admin.getEmail())
+                .session(JatosPublix.SESSION_JATOS_RUN, JatosRun.RUN_STUDY.name());
+        return route(request).cookie("JATOS_IDS_0");
+    }
+
+    private void setGroupStudy(Study study) {
+        jpaApi.withTransaction(() -> {
+            Study managedStudy = studyDao.findById(study.getId());
+            managedStudy.setGroupStudy(true);
+            studyDao.update(managedStudy);
+        });
+    }
+
+    private long retrieveLastStudyResultId(Study study) {
+        return jpaApi.withTransaction(() -> {
+            List<StudyResult> studyResultList = studyResultDao
+                    .findAllByStudy(studyDao.findById(study.getId()));
+            return studyResultList.get(studyResultList.size() - 1).getId();
+        });
+    }
+
+}
@@ -0,0 +1,109 @@
+package controllers.publix;
+
+import com.google.inject.Guice;
+import controllers.publix.workers.*;
+import exceptions.publix.BadRequestPublixException;
+import models.common.workers.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import play.Application;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for the dispatching of a Publix request to the IPublix
+ * implementation of the worker type: the switch on the worker type with a
+ * lookup in Guice's injector on every request (like PublixInterceptor did it
+ * before) against the dispatch table. The worker type is a new String each
+ * time - like one that was parsed from the ID cookie. Run it with
+ * 'sbt "jmh:run .*PublixDispatchBenchmark"'. The dispatching itself is tested
+ * in PublixInterceptorTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PublixDispatchBenchmark {
+
+    @Param({MTWorker.WORKER_TYPE, MTSandboxWorker.WORKER_TYPE, JatosWorker.WORKER_TYPE,
+            PersonalMultipleWorker.WORKER_TYPE, PersonalSingleWorker.WORKER_TYPE,
+            GeneralSingleWorker.WORKER_TYPE})
+    public String workerType;
+
+    @Inject
+    private PublixInterceptor publixInterceptor;
+
+    @Inject
+    private Provider<Application> application;
+
+    @Setup
+    public void startApp() {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        Guice.createInjector(builder.applicationModule()).injectMembers(this);
+    }
+
+    @Benchmark
+    public void dispatchLikeBefore(Blackhole blackhole) throws BadRequestPublixException {
+        blackhole.consume(dispatchLikeBefore(parsed(workerType)));
+    }
+
+    @Benchmark
+    public void dispatchWithTable(Blackhole blackhole) throws BadRequestPublixException {
+        blackhole.consume(publixInterceptor.publix(
+                Worker.internWorkerType(parsed(workerType))));
+    }
+
+    /**
+     * Like PublixInterceptor did it before
+     */
+    private IPublix dispatchLikeBefore(String workerType)
+            throws BadRequestPublixException {
+        switch (workerType) {
+            case MTWorker.WORKER_TYPE:
+                // Handle MTWorker like MTSandboxWorker
+            case MTSandboxWorker.WORKER_TYPE:
+                return instanceOfPublix(MTPublix.class);
+            case JatosWorker.WORKER_TYPE:
+                return instanceOfPublix(JatosPublix.class);
+            case PersonalMultipleWorker.WORKER_TYPE:
+                return instanceOfPublix(PersonalMultiplePublix.class);
+            case PersonalSingleWorker.WORKER_TYPE:
+                return instanceOfPublix(PersonalSinglePublix.class);
+            case GeneralSingleWorker.WORKER_TYPE:
+                return instanceOfPublix(GeneralSinglePublix.class);
+            default:
+                throw new BadRequestPublixException("Unknown worker type");
+        }
+    }
+
+    private <T extends Publix<?>> T instanceOfPublix(Class<T> publixClass) {
+        return application.get().injector().instanceOf(publixClass);
+    }
+
+    /**
+     * A worker type that is equal but not identical to the constant
+     */
+    private static String parsed(String workerType) {
+        return new String(workerType.toCharArray());
+    }
+
+}
@@ -0,0 +1,115 @@
+package controllers.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import controllers.publix.workers.*;
+import exceptions.publix.BadRequestPublixException;
+import general.common.JdbcExecutionContext;
+import models.common.workers.*;
+import org.fest.assertions.Fail;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.mvc.Http;
+import play.mvc.Http.RequestBuilder;
+import services.publix.PublixErrorMessages;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletionException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for the dispatching of PublixInterceptor: from the worker type to the
+ * IPublix implementation
+ */
+public class PublixInterceptorTest {
+
+    private Injector injector;
+
+    @Inject
+    private PublixInterceptor publixInterceptor;
+
+    @Inject
+    private JdbcExecutionContext jdbcExecutionContext;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    /**
+     * Each worker type is dispatched to the singleton of its IPublix
+     * implementation - also if the worker type is equal but not identical to
+     * the WORKER_TYPE constant (e.g. parsed from the ID cookie)
+     */
+    @Test
+    public void checkPublix() throws Exception {
+        checkPublix(MTWorker.WORKER_TYPE, MTPublix.class);
+        // Handle MTWorker like MTSandboxWorker
+        checkPublix(MTSandboxWorker.WORKER_TYPE, MTPublix.class);
+        checkPublix(JatosWorker.WORKER_TYPE, JatosPublix.class);
+        checkPublix(PersonalMultipleWorker.WORKER_TYPE, PersonalMultiplePublix.class);
+        checkPublix(PersonalSingleWorker.WORKER_TYPE, PersonalSinglePublix.class);
+        checkPublix(GeneralSingleWorker.WORKER_TYPE, GeneralSinglePublix.class);
+    }
+
+    private void checkPublix(String workerType, Class<? extends IPublix> publixClass)
+            throws BadRequestPublixException {
+        IPublix publix = injector.getInstance(publixClass);
+        assertThat(publixInterceptor.publix(workerType)).isSameAs(publix);
+        String parsedWorkerType = new String(workerType.toCharArray());
+        assertThat(publixInterceptor.publix(parsedWorkerType)).isSameAs(publix);
+    }
+
+    @Test
+    public void checkPublixUnknownWorkerType() {
+        checkPublixUnknownWorkerType("Unknown");
+        checkPublixUnknownWorkerType("");
+        checkPublixUnknownWorkerType(null);
+    }
+
+    private void checkPublixUnknownWorkerType(String workerType) {
+        try {
+            publixInterceptor.publix(workerType);
+            Fail.fail();
+        } catch (BadRequestPublixException e) {
+            assertThat(e.getMessage()).isEqualTo(PublixErrorMessages.UNKNOWN_WORKER_TYPE);
+        }
+    }
+
+    /**
+     * An asynchronous call runs in the JdbcExecutionContext with the HTTP context of the
+     * calling thread and its PublixException completes the CompletionStage exceptionally
+     * (wrapped in a CompletionException which the ErrorHandler unwraps)
+     */
+    @Test
+    public void checkCallAsync() throws Exception {
+        long completedCount = jdbcExecutionContext.getCompletedCount();
+        // Request without an ID cookie
+        Http.Context.current.set(new Http.Context(
+                new RequestBuilder().uri("/publix/1/1/start?srid=1")));
+        try {
+            publixInterceptor.startComponent(1L, 1L, 1L).toCompletableFuture().join();
+            Fail.fail();
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(BadRequestPublixException.class);
+        } finally {
+            Http.Context.current.remove();
+        }
+        // The call ran in a thread of the JdbcExecutionContext (the counter is increased
+        // after the CompletionStage is completed)
+        for (int i = 0; i < 50 && jdbcExecutionContext.getCompletedCount() == completedCount;
+                i++) {
+            Thread.sleep(100);
+        }
+        assertThat(jdbcExecutionContext.getCompletedCount()).isGreaterThan(completedCount);
+    }
+
+}
@@ -6,6 +6,7 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import controllers.publix.workers.JatosPublix;
 import controllers.publix.workers.JatosPublix.JatosRun;
+import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import daos.common.UserDao;
 import general.TestHelper;
@@ -67,6 +68,9 @@ public class PublixJatosWholeRunIntegrationTest {
     @Inject
     private StudyResultDao studyResultDao;
 
+    @Inject
+    private ComponentResultDao componentResultDao;
+
     @Inject
     private UserDao userDao;
 
@@ -203,7 +207,7 @@ public class PublixJatosWholeRunIntegrationTest {
                 firstComponentResult, ComponentState.RESULTDATA_POSTED);
 
         // Check componentResult
-        assertThat(firstComponentResult.getData())
+        assertThat(componentResultDao.getData(firstComponentResult))
                 .isEqualTo("That's a test result data.");
 
         // *************************************************************
@@ -220,9 +224,29 @@ public class PublixJatosWholeRunIntegrationTest {
                 firstComponentResult, ComponentState.RESULTDATA_POSTED);
 
         // Check componentResult
-        assertThat(firstComponentResult.getData())
+        assertThat(componentResultDao.getData(firstComponentResult))
                 .isEqualTo(
                         "That's a test result data. And here are appended data.");
+        // Posted result data are streamed into chunks
+        assertThat(firstComponentResult.getDataChunkList().size()).isEqualTo(2);
+
+        // *************************************************************
+        // Send request submitResultData again: it replaces the data together
+        // with the appended ones
+        result = submitResultData(studyResult, admin, idCookie);
+
+        studyResult = retrieveStudyResult(studyResult.getId());
+        firstComponentResult = retrieveComponentResult(studyResult.getId(), 0);
+
+        // Check response
+        assertThat(result.status()).isEqualTo(OK);
+        checkStates(studyResult, StudyState.DATA_RETRIEVED,
+                firstComponentResult, ComponentState.RESULTDATA_POSTED);
+
+        // Check componentResult
+        assertThat(componentResultDao.getData(firstComponentResult))
+                .isEqualTo("That's a test result data.");
+        assertThat(firstComponentResult.getDataChunkList().size()).isEqualTo(1);
 
         // *************************************************************
         // Send request setStudySessionData:
@@ -641,6 +665,7 @@ public class PublixJatosWholeRunIntegrationTest {
             ComponentResult componentResult = studyResult
                     .getComponentResultList().get(index);
             testHelper.fetchTheLazyOnes(componentResult);
+            testHelper.fetchTheLazyOnes(componentResult.getDataChunkList());
             StudyResult componentResultsStudyResult = componentResult
                     .getStudyResult();
             testHelper.fetchTheLazyOnes(componentResultsStudyResult);
@@ -0,0 +1,155 @@
+package controllers.publix;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import general.TestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.libs.F;
+import play.mvc.Http;
+import play.mvc.Result;
+import utils.common.HashUtils;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class ResultDataBodyParser
+ */
+public class ResultDataBodyParserTest {
+
+    /**
+     * Study with a configured result data limit of 10 bytes
+     */
+    private static final long LIMITED_STUDY_ID = 99999;
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private Materializer materializer;
+
+    @Inject
+    private ResultDataBodyParser resultDataBodyParser;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()))
+                .configure("jatos.resultData.studyMaxSize." + LIMITED_STUDY_ID, "10B");
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * Characters that are split between two chunks, non-Latin characters and
+     * surrogate pairs must be hashed like the StudyLogger does it
+     */
+    @Test
+    public void checkHashesAndPreview() throws Exception {
+        String text = "Result data: äöü, 日本語, 😀 and \uD83D";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<ByteString> chunks = Arrays.asList(
+                ByteString.fromArray(bytes, 0, 16),
+                ByteString.fromArray(bytes, 16, 17),
+                ByteString.fromArray(bytes, 33, bytes.length - 33));
+
+        ResultDataBodyParser.ResultData resultData = parse(1L, Source.from(chunks)).right.get();
+
+        assertThat(resultData.getSize()).isEqualTo(bytes.length);
+        assertThat(resultData.getDataHash())
+                .isEqualTo(HashUtils.getHash(bytes, HashUtils.SHA_256));
+        assertThat(resultData.getStudyLogHash()).isEqualTo(
+                HashUtils.getHash(new String(bytes, StandardCharsets.UTF_8), HashUtils.SHA_256));
+        assertThat(resultData.getPreview())
+                .isEqualTo(new String(bytes, StandardCharsets.UTF_8));
+        assertThat(resultData.getLength())
+                .isEqualTo(new String(bytes, StandardCharsets.UTF_8).length());
+        assertThat(new String(Files.readAllBytes(resultData.getFile()), StandardCharsets.UTF_8))
+                .isEqualTo(new String(bytes, StandardCharsets.UTF_8));
+        resultData.deleteFile();
+        assertThat(Files.exists(resultData.getFile())).isFalse();
+    }
+
+    @Test
+    public void checkStudyMaxSize() throws Exception {
+        Source<ByteString, ?> source = Source.single(ByteString.fromString("12345678901"));
+        F.Either<Result, ResultDataBodyParser.ResultData> either =
+                parse(LIMITED_STUDY_ID, source);
+        assertThat(either.left.isPresent()).isTrue();
+        assertThat(either.left.get().status())
+                .isEqualTo(Http.Status.REQUEST_ENTITY_TOO_LARGE);
+
+        // Other studies have the default limit
+        ResultDataBodyParser.ResultData resultData = parse(1L, source).right.get();
+        assertThat(resultData.getSize()).isEqualTo(11);
+        resultData.deleteFile();
+    }
+
+    /**
+     * Streams a 500 MB body through the parser without ever holding more than
+     * one 1 MB chunk in memory. 'sbt test' runs this class in its own JVM with
+     * a heap of 256 MB (see build.sbt).
+     */
+    @Test
+    public void checkLargeBody() throws Exception {
+        final int chunkSize = 1024 * 1024;
+        final int chunkCount = 500;
+        byte[] chunk = new byte[chunkSize];
+        Arrays.fill(chunk, (byte) 'x');
+        MessageDigest expectedDigest = MessageDigest.getInstance(HashUtils.SHA_256);
+        for (int i = 0; i < chunkCount; i++) {
+            expectedDigest.update(chunk);
+        }
+        String expectedHash = HashUtils.bytesToHex(expectedDigest.digest());
+
+        long start = System.currentTimeMillis();
+        ResultDataBodyParser.ResultData resultData = parse(1L,
+                Source.repeat(ByteString.fromArray(chunk)).take(chunkCount)).right.get();
+        Logger.info(ResultDataBodyParserTest.class.getSimpleName() + ": parsed "
+                + chunkCount + " MB in " + (System.currentTimeMillis() - start) + " ms");
+
+        assertThat(resultData.getSize()).isEqualTo((long) chunkSize * chunkCount);
+        assertThat(Files.size(resultData.getFile())).isEqualTo((long) chunkSize * chunkCount);
+        assertThat(resultData.getDataHash()).isEqualTo(expectedHash);
+        // ASCII only: both hashes are the same
+        assertThat(resultData.getStudyLogHash()).isEqualTo(expectedHash);
+        resultData.deleteFile();
+    }
+
+    private F.Either<Result, ResultDataBodyParser.ResultData> parse(Long studyId,
+            Source<ByteString, ?> body) throws Exception {
+        Http.RequestHeader request = new Http.RequestBuilder().method("PUT")
+                .uri("/publix/" + studyId + "/1/resultData?srid=1")
+                .header(Http.HeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8")
+                .build();
+        return resultDataBodyParser.apply(request).run(body, materializer)
+                .toCompletableFuture().get(5, TimeUnit.MINUTES);
+    }
+
+}
@@ -0,0 +1,178 @@
+package controllers.publix;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import controllers.publix.workers.JatosPublix;
+import controllers.publix.workers.JatosPublix.JatosRun;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.api.mvc.EssentialAction;
+import play.api.mvc.Handler;
+import play.api.mvc.RequestHeader;
+import play.api.mvc.Result;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.mvc.Http.Cookie;
+import play.mvc.Http.HeaderNames;
+import play.mvc.Http.RequestBuilder;
+import play.test.Helpers;
+import scala.Tuple2;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import services.gui.AuthenticationService;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.mvc.Http.Status.OK;
+import static play.test.Helpers.GET;
+import static play.test.Helpers.PUT;
+import static play.test.Helpers.route;
+
+/**
+ * Tests for the submission of result data through the Publix endpoints
+ */
+public class ResultDataSubmissionTest {
+
+    private Injector injector;
+
+    private Application fakeApplication;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        fakeApplication = Helpers.fakeApplication();
+
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        Helpers.start(fakeApplication);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+
+        Helpers.stop(fakeApplication);
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * Streams a 500 MB body through the submitResultData endpoint into the
+     * database. 'sbt test' runs this class in its own JVM with a heap of
+     * 256 MB (see build.sbt) - it fails if the result data are read into
+     * memory anywhere on their way.
+     */
+    @Test
+    public void checkSubmitLargeResultData() throws Exception {
+        final int chunkSize = 1024 * 1024;
+        final int chunkCount = 500;
+        byte[] chunk = new byte[chunkSize];
+        Arrays.fill(chunk, (byte) 'x');
+
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        User admin = testHelper.getAdmin();
+        Cookie idCookie = startStudy(study, admin);
+        long studyResultId = retrieveLastStudyResultId(study);
+        idCookie = startComponent(study, studyResultId, admin, idCookie);
+
+        long start = System.currentTimeMillis();
+        Result result = submitResultData(study, studyResultId, admin, idCookie,
+                (long) chunkSize * chunkCount,
+                Source.repeat(ByteString.fromArray(chunk)).take(chunkCount));
+        Logger.info(ResultDataSubmissionTest.class.getSimpleName() + ": submitted "
+                + chunkCount + " MB in " + (System.currentTimeMillis() - start) + " ms");
+
+        assertThat(result.header().status()).isEqualTo(OK);
+        long storedLength = jpaApi.withTransaction(() -> ((Number) jpaApi.em()
+                .createNativeQuery("SELECT SUM(LENGTH(c.data)) FROM ComponentResultChunk c "
+                        + "JOIN ComponentResult cr ON c.componentResult_id = cr.id "
+                        + "WHERE cr.studyResult_id = :studyResultId")
+                .setParameter("studyResultId", studyResultId)
+                .getSingleResult()).longValue());
+        assertThat(storedLength).isEqualTo((long) chunkSize * chunkCount);
+    }
+
+    private Cookie startStudy(Study study, User admin) {
+        String url = "/publix/" + study.getId() + "/start?"
+                + JatosPublix.JATOS_WORKER_ID + "=" + admin.getWorker().getId();
+        RequestBuilder request = new RequestBuilder().method(GET).uri(url)
+                .session(AuthenticationService.SESSION_USER_EMAIL, admin.getEmail())
+                .session(JatosPublix.SESSION_JATOS_RUN, JatosRun.RUN_STUDY.name());
+        return route(request).cookie("JATOS_IDS_0");
+    }
+
+    private Cookie startComponent(Study study, long studyResultId, User admin,
+            Cookie idCookie) {
+        String url = "/publix/" + study.getId() + "/" + study.getFirstComponent().getId()
+                + "/start?srid=" + studyResultId;
+        RequestBuilder request = new RequestBuilder().method(GET).uri(url)
+                .session(AuthenticationService.SESSION_USER_EMAIL, admin.getEmail())
+                .cookie(idCookie);
+        return route(request, 10000).cookie("JATOS_IDS_0");
+    }
+
+    /**
+     * Runs the submitResultData request like the server does it: the body is
+     * streamed chunk by chunk into the endpoint's action
+     */
+    private Result submitResultData(Study study, long studyResultId, User admin,
+            Cookie idCookie, long contentLength, Source<ByteString, ?> body)
+            throws Exception {
+        String url = "/publix/" + study.getId() + "/" + study.getFirstComponent().getId()
+                + "/resultData?srid=" + studyResultId;
+        RequestHeader request = new RequestBuilder().method(PUT).uri(url)
+                .session(AuthenticationService.SESSION_USER_EMAIL, admin.getEmail())
+                .cookie(idCookie)
+                .header(HeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8")
+                .header(HeaderNames.CONTENT_LENGTH, String.valueOf(contentLength))
+                .build()._underlyingHeader();
+        play.api.Application application = fakeApplication.getWrappedApplication();
+        Tuple2<RequestHeader, Handler> handler = application.requestHandler()
+                .handlerForRequest(request);
+        EssentialAction action = (EssentialAction) handler._2();
+        return Await.result(action.apply(handler._1()).run(body.asScala(),
+                application.materializer()), Duration.create(10, TimeUnit.MINUTES));
+    }
+
+    private long retrieveLastStudyResultId(Study study) {
+        return jpaApi.withTransaction(() -> {
+            List<StudyResult> studyResultList = studyResultDao
+                    .findAllByStudy(studyDao.findById(study.getId()));
+            return studyResultList.get(studyResultList.size() - 1).getId();
+        });
+    }
+
+}
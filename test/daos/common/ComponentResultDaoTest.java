@@ -0,0 +1,163 @@
+package daos.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import general.TestHelper;
+import models.common.ComponentResult;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class ComponentResultDao: result data that are appended as chunks
+ */
+public class ComponentResultDaoTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * Each appended piece is stored as a chunk and ComponentResultDao.getData() reassembles them
+     * in the order they were appended
+     */
+    @Test
+    public void checkAppendData() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.replaceData(componentResult, "first");
+        });
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.appendData(componentResult, ", second");
+        });
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.appendData(componentResult, ", third");
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            assertThat(componentResult.getDataChunkList().size()).isEqualTo(2);
+            assertThat(componentResult.hasData()).isTrue();
+            assertThat(componentResultDao.getData(componentResult)).isEqualTo("first, second, third");
+            assertThat(componentResultDao.getDataPrefix(componentResult, 12)).isEqualTo("first, secon");
+        });
+    }
+
+    /**
+     * Appending to a ComponentResult without result data gives the appended
+     * data
+     */
+    @Test
+    public void checkAppendDataWithoutData() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            assertThat(componentResult.hasData()).isFalse();
+            componentResultDao.appendData(componentResult, "appended");
+            componentResultDao.appendData(componentResult, " twice");
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            assertThat(componentResultDao.getData(componentResult)).isEqualTo("appended twice");
+        });
+    }
+
+    /**
+     * Replacing the result data (e.g. by submitResultData) removes the
+     * appended chunks
+     */
+    @Test
+    public void checkReplaceDataRemovesChunks() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.replaceData(componentResult, "first");
+            componentResultDao.appendData(componentResult, ", appended");
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.replaceData(componentResult, "replaced");
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            assertThat(componentResult.getDataChunkList()).isEmpty();
+            assertThat(componentResultDao.getData(componentResult)).isEqualTo("replaced");
+            Number chunkCount = (Number) jpaApi.em()
+                    .createQuery("SELECT COUNT(c) FROM ComponentResultChunk c "
+                            + "WHERE c.componentResult.id = :id")
+                    .setParameter("id", componentResultId).getSingleResult();
+            assertThat(chunkCount.intValue()).isEqualTo(0);
+        });
+    }
+
+    private long createComponentResult(Study study) {
+        return jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            StudyResult studyResult = resultCreator.createStudyResult(study,
+                    study.getDefaultBatch(), admin.getWorker());
+            ComponentResult componentResult = resultCreator.createComponentResult(studyResult,
+                    study.getFirstComponent());
+            studyResultDao.update(studyResult);
+            return componentResult.getId();
+        });
+    }
+
+}
@@ -0,0 +1,101 @@
+package general;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.stream.ActorMaterializer;
+import akka.stream.scaladsl.SourceQueueWithComplete;
+import general.common.ChannelStats.ChannelCounters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import play.api.http.websocket.Message;
+import play.api.http.websocket.TextMessage;
+import scala.Tuple2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the overflow policies of the ChannelOutbox with a client that never reads: the
+ * WebSocket's stream has no subscriber and therefore no demand.
+ */
+public class ChannelOutboxTest {
+
+    private static final int MAX_DROPPABLE = 2;
+    private static final int MAX_UNDROPPABLE = 2;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int FRAME_COUNT = 40;
+
+    /**
+     * Frames that the WebSocket's stream buffers itself (see ChannelFlow)
+     */
+    private static final int STREAM_BUFFER_SIZE = 16;
+
+    private ActorSystem actorSystem;
+    private ActorMaterializer materializer;
+
+    @Before
+    public void startActorSystem() {
+        actorSystem = ActorSystem.create("ChannelOutboxTest");
+        materializer = ActorMaterializer.create(actorSystem);
+    }
+
+    @After
+    public void stopActorSystem() throws Exception {
+        actorSystem.terminate();
+    }
+
+    @Test
+    public void checkOldestBroadcastsAreDropped() throws Exception {
+        ChannelCounters counters = new ChannelCounters();
+        ActorRef outbox = createOutbox(counters);
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            outbox.tell(new ChannelOutbox.OutboundFrame(frame(i), true), ActorRef.noSender());
+        }
+
+        awaitCount(counters.queuedFrames, FRAME_COUNT);
+        // Frames are in the stream's buffer, one is offered and MAX_DROPPABLE wait
+        int notDropped = STREAM_BUFFER_SIZE + 1 + MAX_DROPPABLE;
+        assertThat(counters.droppedFrames.sum()).isGreaterThanOrEqualTo(FRAME_COUNT - notDropped);
+        assertThat(counters.closedChannels.sum()).isEqualTo(0);
+    }
+
+    @Test
+    public void checkUndroppableFramesCloseChannel() throws Exception {
+        ChannelCounters counters = new ChannelCounters();
+        ActorRef outbox = createOutbox(counters);
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            outbox.tell(frame(i), ActorRef.noSender());
+        }
+
+        awaitCount(counters.closedChannels, 1);
+        assertThat(counters.droppedFrames.sum()).isEqualTo(0);
+    }
+
+    private ActorRef createOutbox(ChannelCounters counters) {
+        // Nobody subscribes to the publisher: the client never reads
+        Tuple2<SourceQueueWithComplete<Message>, Publisher<Message>> stream =
+                ChannelFlow.outboundStream(materializer);
+        return actorSystem.actorOf(Props.create(ChannelOutbox.class, stream._1(), counters,
+                MAX_DROPPABLE, MAX_UNDROPPABLE));
+    }
+
+    private static Message frame(int i) {
+        return new TextMessage("{\"msg\":" + i + "}");
+    }
+
+    private static void awaitCount(LongAdder counter, long expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (counter.sum() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(counter.sum()).isEqualTo(expected);
+    }
+
+}
@@ -0,0 +1,250 @@
+package general;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.cluster.Cluster;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ClusterSharding;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import batch.BatchActionHandler;
+import batch.BatchActionMsgBuilder;
+import batch.BatchDispatcher;
+import batch.BatchDispatcherRegistry;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import group.GroupDispatcher;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.api.Configuration;
+import play.api.inject.DefaultApplicationLifecycle;
+import play.api.libs.concurrent.ActorSystemProvider;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.Json;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the clustered mode with two JATOS nodes in the same JVM (two ActorSystems on localhost
+ * that share the database): the members of a batch open their channels on different nodes and
+ * still get each other's batch session patches.
+ */
+public class DispatcherShardingTest {
+
+    private static final int NODE1_PORT = 25521;
+    private static final int NODE2_PORT = 25522;
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    private Injector injector;
+    private ActorSystem node1;
+    private ActorSystem node2;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private BatchDispatcher.Factory dispatcherFactory;
+
+    @Inject
+    private BatchActionHandler actionHandler;
+
+    @Inject
+    private BatchActionMsgBuilder actionMsgBuilder;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+
+        node1 = startNode(NODE1_PORT);
+        node2 = startNode(NODE2_PORT);
+        awaitClusterUp(node1, 2);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        Await.ready(node2.terminate(), Duration.create(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Await.ready(node1.terminate(), Duration.create(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void checkBatchMembersOnDifferentNodes() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long batchId = study.getDefaultBatch().getId();
+        BatchDispatcherRegistry registry1 = createRegistry(node1);
+        BatchDispatcherRegistry registry2 = createRegistry(node2);
+        assertThat(registry1.isClustered()).isTrue();
+        assertThat(registry2.isClustered()).isTrue();
+
+        // Open a channel on each node
+        BlockingQueue<Object> received1 = new LinkedBlockingQueue<>();
+        BlockingQueue<Object> received2 = new LinkedBlockingQueue<>();
+        ActorRef channel1 = node1.actorOf(Props.create(Channel.class, received1));
+        ActorRef channel2 = node2.actorOf(Props.create(Channel.class, received2));
+        ActorRef dispatcher1 = registry1.getOrCreate(batchId);
+        ActorRef dispatcher2 = registry2.getOrCreate(batchId);
+        dispatcher1.tell(new BatchDispatcher.RegisterChannel(1L), channel1);
+        JsObject opened = awaitAction(received1, "OPENED");
+        dispatcher2.tell(new BatchDispatcher.RegisterChannel(2L), channel2);
+        awaitAction(received2, "OPENED");
+
+        // A patch sent on node 1 reaches the channel on node 2
+        String version = Json.stringify(opened.value().apply("version"));
+        JsObject patchMsg = (JsObject) Json.parse("{\"action\":\"SESSION\",\"version\":" + version
+                + ",\"patches\":[{\"op\":\"add\",\"path\":\"/node\",\"value\":1}]}");
+        dispatcher1.tell(new BatchDispatcher.BatchMsg(patchMsg,
+                BatchDispatcher.TellWhom$.MODULE$.Unknown()), channel1);
+        awaitAction(received1, "SESSION_ACK");
+        JsObject patch = awaitAction(received2, "SESSION");
+        assertThat(Json.stringify(patch)).contains("/node");
+
+        // There is only one dispatcher within the cluster
+        int dispatcherCount = countLocalDispatchers(registry1, node1)
+                + countLocalDispatchers(registry2, node2);
+        assertThat(dispatcherCount).isEqualTo(1);
+    }
+
+    /**
+     * The cluster's BatchMsgs and envelopes use the DispatcherSerializer that is bound in the
+     * shipped config and come out of it unchanged
+     */
+    @Test
+    public void checkSerialization() {
+        Serialization serialization = SerializationExtension.get(node1);
+        JsObject json = (JsObject) Json.parse("{\"action\":\"SESSION\",\"version\":3,"
+                + "\"patches\":[{\"op\":\"add\",\"path\":\"/a\",\"value\":\"b\"}]}");
+        BatchDispatcher.BatchMsg batchMsg = new BatchDispatcher.BatchMsg(json,
+                BatchDispatcher.TellWhom$.MODULE$.SenderOnly());
+        DispatcherSharding.DispatcherEnvelope envelope =
+                new DispatcherSharding.DispatcherEnvelope(17L, batchMsg);
+        GroupDispatcher.GroupMsg groupMsg = new GroupDispatcher.GroupMsg(json,
+                GroupDispatcher.TellWhom$.MODULE$.AllButSender());
+
+        assertThat(serialization.findSerializerFor(envelope))
+                .isInstanceOf(DispatcherSerializer.class);
+        assertThat(serialization.findSerializerFor(batchMsg))
+                .isInstanceOf(DispatcherSerializer.class);
+        assertThat(serialization.findSerializerFor(groupMsg))
+                .isInstanceOf(DispatcherSerializer.class);
+        assertThat(roundTrip(serialization, envelope)).isEqualTo(envelope);
+        assertThat(roundTrip(serialization, groupMsg)).isEqualTo(groupMsg);
+        // Other messages inside an envelope keep their own serializer
+        DispatcherSharding.DispatcherEnvelope register =
+                new DispatcherSharding.DispatcherEnvelope(17L,
+                        new BatchDispatcher.RegisterChannel(1L));
+        assertThat(roundTrip(serialization, register)).isEqualTo(register);
+
+        // Without a journal Cluster Sharding has to keep its state in Distributed Data
+        assertThat(node1.settings().config()
+                .getString("akka.cluster.sharding.state-store-mode")).isEqualTo("ddata");
+    }
+
+    private static Object roundTrip(Serialization serialization, Object msg) {
+        DispatcherSerializer serializer =
+                (DispatcherSerializer) serialization.findSerializerFor(msg);
+        return serializer.fromBinary(serializer.toBinary(msg), serializer.manifest(msg));
+    }
+
+    /**
+     * Starts an ActorSystem like JATOS does (Play's ActorSystemProvider with the shipped
+     * config) - only with the settings for the clustered mode that one would put into
+     * production.conf
+     */
+    private ActorSystem startNode(int port) {
+        Config config = ConfigFactory.parseString(""
+                + "akka.actor.provider = \"akka.cluster.ClusterActorRefProvider\"\n"
+                + "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n"
+                + "akka.remote.netty.tcp.port = " + port + "\n"
+                + "akka.cluster.seed-nodes = [\"akka.tcp://application@127.0.0.1:"
+                + NODE1_PORT + "\"]\n")
+                .withFallback(ConfigFactory.load());
+        return ActorSystemProvider.start(getClass().getClassLoader(),
+                new Configuration(config))._1();
+    }
+
+    private void awaitClusterUp(ActorSystem node, int memberCount) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (System.nanoTime() < deadline) {
+            int up = 0;
+            for (Member member : Cluster.get(node).state().getMembers()) {
+                if (member.status() == MemberStatus.up()) up++;
+            }
+            if (up == memberCount) return;
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Cluster didn't come up");
+    }
+
+    private BatchDispatcherRegistry createRegistry(ActorSystem node) {
+        return new BatchDispatcherRegistry(node, new DefaultApplicationLifecycle(),
+                dispatcherFactory, actionHandler, actionMsgBuilder);
+    }
+
+    private static int countLocalDispatchers(BatchDispatcherRegistry registry, ActorSystem node)
+            throws Exception {
+        ActorRef region = ClusterSharding.get(node).shardRegion("BatchDispatcher");
+        return Await.result(DispatcherSharding.localDispatcherIds(region, registry.timeout(),
+                node.dispatcher()), Duration.create(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                .size();
+    }
+
+    /**
+     * Waits for a BatchMsg with the given action and returns its JSON. Other messages are
+     * skipped.
+     */
+    private static JsObject awaitAction(BlockingQueue<Object> received, String action)
+            throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (System.nanoTime() < deadline) {
+            Object msg = received.poll(100, TimeUnit.MILLISECONDS);
+            if (msg instanceof BatchDispatcher.BatchMsg) {
+                JsObject json = ((BatchDispatcher.BatchMsg) msg).json();
+                if (Json.stringify(json).contains("\"action\":\"" + action + "\"")) return json;
+            }
+        }
+        throw new AssertionError("Didn't get " + action);
+    }
+
+    /**
+     * Stands in for a BatchChannelActor: it just collects what the BatchDispatcher sends
+     */
+    public static class Channel extends UntypedActor {
+
+        private final BlockingQueue<Object> received;
+
+        public Channel(BlockingQueue<Object> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onReceive(Object msg) {
+            received.add(msg);
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+package general;
+
+import exceptions.publix.ForbiddenPublixException;
+import exceptions.publix.NotFoundPublixException;
+import org.junit.Test;
+import play.api.mvc.RequestHeader;
+import play.api.mvc.Result;
+import play.mvc.Http;
+import play.mvc.Http.RequestBuilder;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for the ErrorHandler: exceptions of asynchronous actions come wrapped in a
+ * CompletionException and still get the result of the wrapped exception
+ */
+public class ErrorHandlerTest {
+
+    private final ErrorHandler errorHandler = new ErrorHandler();
+
+    @Test
+    public void checkPublixException() throws Exception {
+        Result result = onServerError(new NotFoundPublixException("Study doesn't exist"));
+        assertThat(result.header().status()).isEqualTo(Http.Status.NOT_FOUND);
+    }
+
+    @Test
+    public void checkWrappedPublixException() throws Exception {
+        Result result = onServerError(
+                new CompletionException(new NotFoundPublixException("Study doesn't exist")));
+        assertThat(result.header().status()).isEqualTo(Http.Status.NOT_FOUND);
+
+        // Also if it's wrapped more than once
+        result = onServerError(new CompletionException(new CompletionException(
+                new ForbiddenPublixException("Not allowed"))));
+        assertThat(result.header().status()).isEqualTo(Http.Status.FORBIDDEN);
+    }
+
+    @Test
+    public void checkWrappedOtherException() throws Exception {
+        Result result = onServerError(
+                new CompletionException(new IllegalStateException("Something went wrong")));
+        assertThat(result.header().status()).isEqualTo(Http.Status.INTERNAL_SERVER_ERROR);
+
+        // A CompletionException without a cause is an internal error itself
+        result = onServerError(new CompletionException(null));
+        assertThat(result.header().status()).isEqualTo(Http.Status.INTERNAL_SERVER_ERROR);
+    }
+
+    private Result onServerError(Throwable throwable) throws Exception {
+        RequestHeader request = new RequestBuilder().uri("/publix/1/start")
+                .header("X-Requested-With", "XMLHttpRequest")
+                .build()._underlyingHeader();
+        return Await.result(errorHandler.onServerError(request, throwable),
+                Duration.create(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,152 @@
+package general.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+import java.sql.Timestamp;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class HeartbeatRecorder
+ */
+public class HeartbeatRecorderTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private HeartbeatRecorder heartbeatRecorder;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * A heartbeat is visible via getLastSeenDate right away and in the
+     * database after the flush
+     */
+    @Test
+    public void checkRecordAndFlush() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long studyResultId1 = createStudyResult(study);
+        long studyResultId2 = createStudyResult(study);
+        long before = System.currentTimeMillis();
+
+        heartbeatRecorder.record(studyResultId1);
+        heartbeatRecorder.record(studyResultId2);
+
+        jpaApi.withTransaction(() -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId1);
+            assertThat(studyResult.getLastSeenDate()).isNull();
+            Timestamp lastSeenDate = heartbeatRecorder.getLastSeenDate(studyResult);
+            assertThat(lastSeenDate.getTime()).isGreaterThanOrEqualTo(before);
+        });
+
+        heartbeatRecorder.flush();
+
+        jpaApi.withTransaction(() -> {
+            StudyResult studyResult1 = studyResultDao.findById(studyResultId1);
+            StudyResult studyResult2 = studyResultDao.findById(studyResultId2);
+            // The database's datetime has only seconds
+            assertThat(studyResult1.getLastSeenDate().getTime())
+                    .isGreaterThanOrEqualTo(before - 1000);
+            assertThat(studyResult2.getLastSeenDate().getTime())
+                    .isGreaterThanOrEqualTo(before - 1000);
+            assertThat(heartbeatRecorder.getLastSeenDate(studyResult1))
+                    .isEqualTo(studyResult1.getLastSeenDate());
+        });
+    }
+
+    /**
+     * Heartbeats of StudyResults that were removed in the meantime are dropped
+     */
+    @Test
+    public void checkFlushRemovedStudyResult() {
+        StudyResult removedStudyResult = new StudyResult();
+        removedStudyResult.setId(999999L);
+        heartbeatRecorder.record(removedStudyResult.getId());
+        assertThat(heartbeatRecorder.getLastSeenDate(removedStudyResult)).isNotNull();
+
+        heartbeatRecorder.flush();
+        assertThat(heartbeatRecorder.getLastSeenDate(removedStudyResult)).isNull();
+    }
+
+    /**
+     * A heartbeat that is older than the lastSeenDate in the database (e.g.
+     * flushed late by another node in clustered mode) doesn't set it back
+     */
+    @Test
+    public void checkUpdateLastSeenDatesKeepsLaterDate() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long studyResultId = createStudyResult(study);
+        long now = System.currentTimeMillis();
+
+        jpaApi.withTransaction(() -> studyResultDao.updateLastSeenDates(
+                Collections.singletonMap(studyResultId, now)));
+        jpaApi.withTransaction(() -> studyResultDao.updateLastSeenDates(
+                Collections.singletonMap(studyResultId, now - 60000)));
+
+        jpaApi.withTransaction(() -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            // The database's datetime has only seconds
+            assertThat(studyResult.getLastSeenDate().getTime())
+                    .isGreaterThanOrEqualTo(now - 1000);
+        });
+    }
+
+    private long createStudyResult(Study study) {
+        return jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            StudyResult studyResult = resultCreator.createStudyResult(study,
+                    study.getDefaultBatch(), admin.getWorker());
+            studyResultDao.update(studyResult);
+            return studyResult.getId();
+        });
+    }
+
+}
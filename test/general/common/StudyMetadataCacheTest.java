@@ -0,0 +1,152 @@
+package general.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.ComponentDao;
+import daos.common.StudyDao;
+import general.TestHelper;
+import general.common.StudyMetadataCache.StudyMetadata;
+import models.common.Component;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class StudyMetadataCache
+ */
+public class StudyMetadataCacheTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyMetadataCache studyMetadataCache;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private ComponentDao componentDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void checkGet() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        StudyMetadata metadata = jpaApi.withTransaction(
+                () -> studyMetadataCache.get(study.getId()));
+        assertThat(metadata.getStudyId()).isEqualTo(study.getId());
+        assertThat(metadata.getComponentIdList().size())
+                .isEqualTo(study.getComponentList().size());
+        assertThat(metadata.getComponentId(1))
+                .isEqualTo(study.getFirstComponent().getId());
+        assertThat(metadata.getFirstActiveComponentId())
+                .isEqualTo(study.getFirstComponent().getId());
+        assertThat(metadata.getDefaultBatchId())
+                .isEqualTo(study.getDefaultBatch().getId());
+
+        // Second time it comes from the cache
+        StudyMetadata cachedMetadata = jpaApi.withTransaction(
+                () -> studyMetadataCache.get(study.getId()));
+        assertThat(cachedMetadata).isSameAs(metadata);
+    }
+
+    @Test
+    public void checkGetNotExist() {
+        StudyMetadata metadata = jpaApi
+                .withTransaction(() -> studyMetadataCache.get(1234L));
+        assertThat(metadata).isNull();
+    }
+
+    /**
+     * Changes in the caller's transaction that aren't committed don't get
+     * into the cache
+     */
+    @Test
+    public void checkGetIgnoresUncommittedChanges() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Long firstComponentId = study.getFirstComponent().getId();
+
+        jpaApi.withTransaction(() -> {
+            Component component = componentDao.findById(firstComponentId);
+            component.setActive(false);
+            StudyMetadata metadata = studyMetadataCache.get(study.getId());
+            assertThat(metadata.isComponentActive(firstComponentId)).isTrue();
+            component.setActive(true);
+        });
+
+        StudyMetadata metadata = jpaApi.withTransaction(
+                () -> studyMetadataCache.get(study.getId()));
+        assertThat(metadata.isComponentActive(firstComponentId)).isTrue();
+    }
+
+    @Test
+    public void checkInvalidatedByComponentUpdate() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Long firstComponentId = study.getFirstComponent().getId();
+        jpaApi.withTransaction(() -> studyMetadataCache.get(study.getId()));
+
+        jpaApi.withTransaction(() -> {
+            Component component = componentDao.findById(firstComponentId);
+            componentDao.changeActive(component, false);
+        });
+
+        StudyMetadata metadata = jpaApi.withTransaction(
+                () -> studyMetadataCache.get(study.getId()));
+        assertThat(metadata.isComponentActive(firstComponentId)).isFalse();
+        assertThat(metadata.getFirstActiveComponentId())
+                .isEqualTo(study.getComponent(2).getId());
+    }
+
+    @Test
+    public void checkInvalidatedByStudyUpdate() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        Long firstComponentId = study.getFirstComponent().getId();
+        jpaApi.withTransaction(() -> studyMetadataCache.get(study.getId()));
+
+        // Move the first component to the end
+        jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            Component component = s.getComponentList().remove(0);
+            s.getComponentList().add(component);
+            studyDao.update(s);
+        });
+
+        StudyMetadata metadata = jpaApi.withTransaction(
+                () -> studyMetadataCache.get(study.getId()));
+        int lastPosition = metadata.getComponentIdList().size();
+        assertThat(metadata.getComponentId(lastPosition))
+                .isEqualTo(firstComponentId);
+    }
+
+}
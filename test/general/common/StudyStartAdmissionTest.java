@@ -0,0 +1,123 @@
+package general.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class StudyStartAdmission
+ */
+public class StudyStartAdmissionTest {
+
+    private Injector injector;
+
+    @Inject
+    private StudyStartAdmission studyStartAdmission;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()))
+                .configure("jatos.studyStart.maxConcurrent", 2)
+                .configure("jatos.studyStart.maxQueued", 1);
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @Test
+    public void checkAdmitQueueAndReject() {
+        CompletionStage<Void> first = studyStartAdmission.acquire(1L, 2L);
+        CompletionStage<Void> second = studyStartAdmission.acquire(1L, 2L);
+        CompletionStage<Void> third = studyStartAdmission.acquire(1L, 2L);
+        CompletionStage<Void> fourth = studyStartAdmission.acquire(1L, 2L);
+
+        assertThat(first.toCompletableFuture().isDone()).isTrue();
+        assertThat(second.toCompletableFuture().isDone()).isTrue();
+        // Waits in the queue
+        assertThat(third.toCompletableFuture().isDone()).isFalse();
+        // Queue is full
+        assertThat(fourth).isNull();
+
+        // Other batches are independent
+        assertThat(studyStartAdmission.acquire(1L, -1L).toCompletableFuture()
+                .isDone()).isTrue();
+
+        StudyStartAdmission.Metrics metrics = getMetrics(1L, 2L);
+        assertThat(metrics.running).isEqualTo(2);
+        assertThat(metrics.waiting).isEqualTo(1);
+        assertThat(metrics.admitted).isEqualTo(2);
+        assertThat(metrics.queued).isEqualTo(1);
+        assertThat(metrics.rejected).isEqualTo(1);
+
+        // A finished study start hands its slot over to the waiting one
+        studyStartAdmission.release(1L, 2L);
+        assertThat(third.toCompletableFuture().isDone()).isTrue();
+        metrics = getMetrics(1L, 2L);
+        assertThat(metrics.running).isEqualTo(2);
+        assertThat(metrics.waiting).isEqualTo(0);
+        assertThat(metrics.admitted).isEqualTo(3);
+
+        studyStartAdmission.release(1L, 2L);
+        studyStartAdmission.release(1L, 2L);
+        CompletableFuture<Void> next = studyStartAdmission.acquire(1L, 2L)
+                .toCompletableFuture();
+        assertThat(next.isDone()).isTrue();
+    }
+
+    /**
+     * A batch without running or waiting study starts is removed and starts
+     * again with new slots - but its counters are kept
+     */
+    @Test
+    public void checkIdleBatchIsRemoved() {
+        studyStartAdmission.acquire(1L, 2L);
+        studyStartAdmission.acquire(1L, 2L);
+        studyStartAdmission.acquire(1L, 2L);
+        assertThat(getMetrics(1L, 2L).admitted).isEqualTo(2);
+
+        studyStartAdmission.release(1L, 2L);
+        studyStartAdmission.release(1L, 2L);
+        assertThat(getMetrics(1L, 2L).running).isEqualTo(1);
+        studyStartAdmission.release(1L, 2L);
+        StudyStartAdmission.Metrics metrics = getMetrics(1L, 2L);
+        assertThat(metrics.running).isEqualTo(0);
+        assertThat(metrics.waiting).isEqualTo(0);
+        assertThat(metrics.admitted).isEqualTo(3);
+        assertThat(metrics.queued).isEqualTo(1);
+
+        assertThat(studyStartAdmission.acquire(1L, 2L).toCompletableFuture()
+                .isDone()).isTrue();
+        assertThat(studyStartAdmission.acquire(1L, 2L).toCompletableFuture()
+                .isDone()).isTrue();
+        metrics = getMetrics(1L, 2L);
+        assertThat(metrics.running).isEqualTo(2);
+        assertThat(metrics.admitted).isEqualTo(5);
+        assertThat(metrics.queued).isEqualTo(1);
+    }
+
+    private StudyStartAdmission.Metrics getMetrics(Long studyId, Long batchId) {
+        StudyStartAdmission.Metrics metrics = findMetrics(studyId, batchId);
+        assertThat(metrics).isNotNull();
+        return metrics;
+    }
+
+    private StudyStartAdmission.Metrics findMetrics(Long studyId, Long batchId) {
+        List<StudyStartAdmission.Metrics> metricsList = studyStartAdmission.getMetrics();
+        return metricsList.stream()
+                .filter(m -> m.studyId.equals(studyId) && m.batchId.equals(batchId))
+                .findFirst().orElse(null);
+    }
+
+}
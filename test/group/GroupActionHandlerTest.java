@@ -0,0 +1,284 @@
+package group;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.GroupResultDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.ChannelRegistry;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.GroupResult;
+import models.common.GroupResult.GroupState;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.workers.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.JsString;
+import play.api.libs.json.JsValue;
+import play.api.libs.json.Json;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import scala.Option;
+import scala.collection.immutable.List;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for GroupActionHandler: loading, persisting and refreshing of the in-memory GroupSession
+ * and version conflicts
+ */
+public class GroupActionHandlerTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private GroupResultDao groupResultDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private GroupActionHandler groupActionHandler;
+
+    private Study study;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+        study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    private static JsValue json(String json) {
+        return Json.parse(json.replace('\'', '"'));
+    }
+
+    @Test
+    public void checkLoadAndPersistSession() {
+        long groupResultId = createGroupResult("{'a':1}", 3L);
+
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+        assertThat(session.getData()).isEqualTo(json("{'a':1}"));
+        assertThat(session.getVersion()).isEqualTo(3L);
+        assertThat(session.getGroupState()).isEqualTo(GroupState.STARTED);
+        assertThat(session.isDirty()).isFalse();
+
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/b','value':2}]"), 3L);
+        // Nothing in the database yet
+        checkGroupSessionInDatabase(groupResultId, "{'a':1}", 3L);
+
+        groupActionHandler.persistSession(session, false);
+        assertThat(session.isDirty()).isFalse();
+        checkGroupSessionInDatabase(groupResultId, "{'a':1,'b':2}", 4L);
+
+        GroupSession loadedSession = groupActionHandler.loadSession(groupResultId).get();
+        assertThat(loadedSession.getData()).isEqualTo(json("{'a':1,'b':2}"));
+        assertThat(loadedSession.getVersion()).isEqualTo(4L);
+    }
+
+    @Test
+    public void checkLoadSessionGroupResultNotExist() {
+        Option<GroupSession> session = groupActionHandler.loadSession(-1L);
+        assertThat(session.isEmpty()).isTrue();
+    }
+
+    /**
+     * Without changes and without refresh the database isn't touched: a change in the database
+     * isn't overwritten and not loaded into the session either
+     */
+    @Test
+    public void checkPersistSessionNotDirty() {
+        long groupResultId = createGroupResult("{'a':1}", 0L);
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+
+        setGroupStateInDatabase(groupResultId, GroupState.FIXED);
+        groupActionHandler.persistSession(session, false);
+
+        assertThat(session.getGroupState()).isEqualTo(GroupState.STARTED);
+        checkGroupSessionInDatabase(groupResultId, "{'a':1}", 0L);
+    }
+
+    /**
+     * With refresh the GroupState and the active members are loaded from the database while
+     * the session data from memory are written into it
+     */
+    @Test
+    public void checkPersistSessionWithRefresh() {
+        long groupResultId = createGroupResult("{}", 0L);
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+        assertThat(session.getActiveMembers().isEmpty()).isTrue();
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/a','value':1}]"), 0L);
+
+        long studyResultId = addActiveMemberInDatabase(groupResultId);
+        setGroupStateInDatabase(groupResultId, GroupState.FIXED);
+        groupActionHandler.persistSession(session, true);
+
+        assertThat(session.getGroupState()).isEqualTo(GroupState.FIXED);
+        assertThat(session.getActiveMembers().size()).isEqualTo(1);
+        assertThat(session.getActiveMembers().contains(studyResultId)).isTrue();
+        assertThat(session.isDirty()).isFalse();
+        checkGroupSessionInDatabase(groupResultId, "{'a':1}", 1L);
+    }
+
+    /**
+     * The session data of a FINISHED group aren't written again, but the session is marked as
+     * persisted nevertheless
+     */
+    @Test
+    public void checkPersistSessionGroupFinished() {
+        long groupResultId = createGroupResult("{'a':1}", 0L);
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+        session.checkVersionAndPatch(json("[{'op':'add','path':'/b','value':2}]"), 0L);
+
+        setGroupStateInDatabase(groupResultId, GroupState.FINISHED);
+        groupActionHandler.persistSession(session, true);
+
+        assertThat(session.getGroupState()).isEqualTo(GroupState.FINISHED);
+        assertThat(session.isDirty()).isFalse();
+        checkGroupSessionInDatabase(groupResultId, "{'a':1}", 0L);
+    }
+
+    /**
+     * A patch with an outdated version fails and doesn't change the group session
+     */
+    @Test
+    public void checkPatchWithWrongVersionFails() {
+        long groupResultId = createGroupResult("{}", 2L);
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+        ChannelRegistry registry = new ChannelRegistry();
+
+        List<GroupDispatcher.GroupMsg> msgs = groupActionHandler.handleActionMsg(
+                patchMsg("[{'op':'add','path':'/a','value':1}]", 2L), groupResultId, 1L,
+                Option.apply(session), registry);
+        assertThat(msgs.size()).isEqualTo(2);
+        assertThat(action(msgs.apply(0))).isEqualTo("SESSION");
+        assertThat(action(msgs.apply(1))).isEqualTo("SESSION_ACK");
+
+        msgs = groupActionHandler.handleActionMsg(
+                patchMsg("[{'op':'add','path':'/a','value':2}]", 2L), groupResultId, 1L,
+                Option.apply(session), registry);
+        assertThat(msgs.size()).isEqualTo(1);
+        assertThat(action(msgs.apply(0))).isEqualTo("SESSION_FAIL");
+        assertThat(msgs.apply(0).tellWhom())
+                .isEqualTo(GroupDispatcher.TellWhom$.MODULE$.SenderOnly());
+        assertThat(session.getData()).isEqualTo(json("{'a':1}"));
+        assertThat(session.getVersion()).isEqualTo(3L);
+    }
+
+    /**
+     * A client whose membership version is greater than ours (e.g. since the GroupDispatcher
+     * was created anew) asks for the full membership and gets it
+     */
+    @Test
+    public void checkMembershipRequest() {
+        long groupResultId = createGroupResult("{}", 0L);
+        long studyResultId = addActiveMemberInDatabase(groupResultId);
+        GroupSession session = groupActionHandler.loadSession(groupResultId).get();
+        session.increaseMembershipVersion();
+        ChannelRegistry registry = new ChannelRegistry();
+
+        JsObject json = (JsObject) json("{'action':'MEMBERSHIP','membershipVersion':42}");
+        List<GroupDispatcher.GroupMsg> msgs = groupActionHandler.handleActionMsg(
+                new GroupDispatcher.GroupMsg(json, GroupDispatcher.TellWhom$.MODULE$.Unknown()),
+                groupResultId, studyResultId, Option.apply(session), registry);
+        assertThat(msgs.size()).isEqualTo(1);
+        GroupDispatcher.GroupMsg msg = msgs.apply(0);
+        assertThat(action(msg)).isEqualTo("MEMBERSHIP");
+        assertThat(msg.tellWhom()).isEqualTo(GroupDispatcher.TellWhom$.MODULE$.SenderOnly());
+        assertThat(msg.json().value().apply("members"))
+                .isEqualTo(json("['" + studyResultId + "']"));
+        assertThat(msg.json().value().apply("channels")).isEqualTo(json("[]"));
+        assertThat(msg.json().value().apply("membershipVersion")).isEqualTo(json("1"));
+    }
+
+    private long createGroupResult(String sessionData, long sessionVersion) {
+        return jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            GroupResult groupResult = groupResultDao.create(new GroupResult(batch));
+            groupResult.setGroupSessionData(json(sessionData).toString());
+            groupResult.setGroupSessionVersion(sessionVersion);
+            groupResultDao.update(groupResult);
+            return groupResult.getId();
+        });
+    }
+
+    private void setGroupStateInDatabase(long groupResultId, GroupState groupState) {
+        jpaApi.withTransaction(() -> {
+            GroupResult groupResult = groupResultDao.findById(groupResultId);
+            groupResult.setGroupState(groupState);
+            groupResultDao.update(groupResult);
+        });
+    }
+
+    private long addActiveMemberInDatabase(long groupResultId) {
+        return jpaApi.withTransaction(() -> {
+            GroupResult groupResult = groupResultDao.findById(groupResultId);
+            Worker worker = userDao.findByEmail(UserService.ADMIN_EMAIL).getWorker();
+            StudyResult studyResult = resultCreator.createStudyResult(groupResult.getBatch()
+                    .getStudy(), groupResult.getBatch(), worker);
+            groupResult.addActiveMember(studyResult);
+            studyResult.setActiveGroupResult(groupResult);
+            groupResultDao.update(groupResult);
+            studyResultDao.update(studyResult);
+            return studyResult.getId();
+        });
+    }
+
+    private void checkGroupSessionInDatabase(long groupResultId, String sessionData,
+            long sessionVersion) {
+        jpaApi.withTransaction(() -> {
+            GroupResult groupResult = groupResultDao.findById(groupResultId);
+            assertThat(Json.parse(groupResult.getGroupSessionData()))
+                    .isEqualTo(json(sessionData));
+            assertThat(groupResult.getGroupSessionVersion()).isEqualTo(sessionVersion);
+        });
+    }
+
+    private static GroupDispatcher.GroupMsg patchMsg(String patch, long version) {
+        JsObject json = (JsObject) json("{'action':'SESSION','sessionVersion':" + version
+                + ",'sessionPatches':" + patch + "}");
+        return new GroupDispatcher.GroupMsg(json, GroupDispatcher.TellWhom$.MODULE$.Unknown());
+    }
+
+    private static String action(GroupDispatcher.GroupMsg msg) {
+        return ((JsString) msg.json().value().apply("action")).value();
+    }
+
+}
@@ -0,0 +1,79 @@
+package group;
+
+import general.ChannelRegistry;
+import models.common.GroupResult.GroupState;
+import org.junit.Test;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.JsValue;
+import play.api.libs.json.Json;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static scala.collection.JavaConverters.iterableAsScalaIterableConverter;
+
+/**
+ * Tests for the membership messages of the GroupActionMsgBuilder: with the full lists of members
+ * and channels or as deltas
+ */
+public class GroupActionMsgBuilderTest {
+
+    private final GroupActionMsgBuilder msgBuilder = new GroupActionMsgBuilder();
+
+    private static JsValue json(String json) {
+        return Json.parse(json.replace('\'', '"'));
+    }
+
+    private static GroupSession createGroupSession() {
+        return new GroupSession(5L, json("{'a':1}"), 3L, GroupState.STARTED,
+                iterableAsScalaIterableConverter(Arrays.<Object>asList(1L, 2L)).asScala());
+    }
+
+    /**
+     * Every membership change increases the membership version and a delta contains only the
+     * changed member and that version
+     */
+    @Test
+    public void checkMembershipDelta() {
+        GroupSession session = createGroupSession();
+
+        session.addActiveMember(3L);
+        session.increaseMembershipVersion();
+        JsObject json = msgBuilder.buildMembershipDelta(session, 3L,
+                GroupDispatcher.GroupAction$.MODULE$.Joined(),
+                GroupDispatcher.TellWhom$.MODULE$.AllButSender()).json();
+        assertThat(json).isEqualTo(json("{'action':'JOINED','memberId':'3',"
+                + "'groupResultId':'5','groupState':'STARTED','membershipVersion':1,"
+                + "'sessionVersion':3}"));
+
+        session.removeActiveMember(1L);
+        session.increaseMembershipVersion();
+        json = msgBuilder.buildMembershipDelta(session, 1L,
+                GroupDispatcher.GroupAction$.MODULE$.Left(),
+                GroupDispatcher.TellWhom$.MODULE$.AllButSender()).json();
+        assertThat(json.value().apply("action")).isEqualTo(json("'LEFT'"));
+        assertThat(json.value().apply("memberId")).isEqualTo(json("'1'"));
+        assertThat(json.value().apply("membershipVersion")).isEqualTo(json("2"));
+        assertThat(json.keys().contains("members")).isFalse();
+        assertThat(json.keys().contains("channels")).isFalse();
+    }
+
+    /**
+     * A full membership message contains the lists of all members and channels together with
+     * the membership version
+     */
+    @Test
+    public void checkFullMembership() {
+        GroupSession session = createGroupSession();
+        session.increaseMembershipVersion();
+        ChannelRegistry registry = new ChannelRegistry();
+
+        JsObject json = msgBuilder.build(session, 2L, registry, false,
+                GroupDispatcher.GroupAction$.MODULE$.Membership(),
+                GroupDispatcher.TellWhom$.MODULE$.SenderOnly()).json();
+        assertThat(json).isEqualTo(json("{'action':'MEMBERSHIP','memberId':'2',"
+                + "'groupResultId':'5','groupState':'STARTED','members':['1','2'],"
+                + "'channels':[],'membershipVersion':1,'sessionVersion':3}"));
+    }
+
+}
@@ -0,0 +1,51 @@
+package group;
+
+import akka.util.ByteString;
+import general.CborCodec;
+import general.ChannelProtocol;
+import org.junit.Test;
+import play.api.http.websocket.BinaryMessage;
+import play.api.http.websocket.Message;
+import play.api.http.websocket.TextMessage;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.Json;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the frames a GroupChannelActor sends with the JSON and the CBOR wire protocol
+ */
+public class GroupChannelActorTest {
+
+    private static final String BROADCAST_JSON = "{\"round\":12,\"player\":3,"
+            + "\"position\":{\"x\":0.4521,\"y\":0.1187},\"moves\":[1,4,2,8,5,7],"
+            + "\"chat\":\"Let's take the left path this time\",\"ready\":true}";
+
+    @Test
+    public void checkCborFrameIsEncodedOnceAndDecodesToSameJson() {
+        GroupDispatcher.GroupMsg msg = createGroupMsg();
+        Message first = GroupChannelActor.frame(msg, ChannelProtocol.Cbor());
+        Message second = GroupChannelActor.frame(msg, ChannelProtocol.Cbor());
+
+        assertThat(first).isInstanceOf(BinaryMessage.class);
+        assertThat(second).isSameAs(first);
+        ByteString bytes = ((BinaryMessage) first).data();
+        assertThat(CborCodec.decode(bytes)).isEqualTo(msg.json());
+    }
+
+    @Test
+    public void checkJsonFrame() {
+        GroupDispatcher.GroupMsg msg = createGroupMsg();
+        Message text = GroupChannelActor.frame(msg, ChannelProtocol.Json());
+
+        assertThat(text).isInstanceOf(TextMessage.class);
+        assertThat(GroupChannelActor.frame(msg, ChannelProtocol.Json())).isSameAs(text);
+        assertThat(Json.parse(((TextMessage) text).data())).isEqualTo(msg.json());
+    }
+
+    private GroupDispatcher.GroupMsg createGroupMsg() {
+        JsObject json = (JsObject) Json.parse(BROADCAST_JSON);
+        return new GroupDispatcher.GroupMsg(json, GroupDispatcher.TellWhom$.MODULE$.All());
+    }
+
+}
@@ -0,0 +1,105 @@
+package group;
+
+import akka.util.ByteString;
+import general.ChannelProtocol;
+import org.junit.Test;
+import play.Logger;
+import play.api.http.websocket.BinaryMessage;
+import play.api.http.websocket.Message;
+import play.api.http.websocket.TextMessage;
+import play.api.libs.json.JsObject;
+import play.api.libs.json.Json;
+import scala.Enumeration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Benchmark for the group channel's wire protocols: compares the CPU time per broadcast in a
+ * group with 8 members that sends 60 messages per second. With JSON every recipient's frame is
+ * rendered and encoded separately, with CBOR the frame is encoded once and shared by all
+ * recipients. It only reports the CPU times - run it with 'sbt bench:test'.
+ */
+public class GroupChannelProtocolBenchmark {
+
+    private static final int MEMBER_COUNT = 8;
+    private static final int MSGS_PER_SECOND = 60;
+    private static final int DURATION_SECONDS = 5;
+    private static final int WARMUP_BROADCASTS = 5000;
+
+    private static final String BROADCAST_JSON = "{\"round\":12,\"player\":3,"
+            + "\"position\":{\"x\":0.4521,\"y\":0.1187},\"moves\":[1,4,2,8,5,7],"
+            + "\"chat\":\"Let's take the left path this time\",\"ready\":true,"
+            + "\"scores\":{\"1\":120,\"2\":95,\"3\":143,\"4\":88,\"5\":101,\"6\":77,"
+            + "\"7\":134,\"8\":110}}";
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void compareCpuTimePerBroadcast() {
+        assertThat(threadMXBean.isCurrentThreadCpuTimeSupported()).isTrue();
+        warmUp(ChannelProtocol.Json());
+        warmUp(ChannelProtocol.Cbor());
+
+        long jsonNanos = measureCpuTimePerBroadcast(ChannelProtocol.Json());
+        long cborNanos = measureCpuTimePerBroadcast(ChannelProtocol.Cbor());
+
+        Logger.info(GroupChannelProtocolBenchmark.class.getSimpleName() + ": "
+                + MEMBER_COUNT + " members, " + MSGS_PER_SECOND + " msgs/s - CPU per broadcast: "
+                + "JSON " + jsonNanos / 1000 + " µs, CBOR " + cborNanos / 1000 + " µs");
+    }
+
+    private void warmUp(Enumeration.Value protocol) {
+        for (int i = 0; i < WARMUP_BROADCASTS; i++) {
+            broadcast(createGroupMsg(), protocol);
+        }
+    }
+
+    /**
+     * Broadcasts with the given rate and returns the average CPU time (in nanoseconds) that this
+     * thread spent per broadcast
+     */
+    private long measureCpuTimePerBroadcast(Enumeration.Value protocol) {
+        int broadcasts = MSGS_PER_SECOND * DURATION_SECONDS;
+        long interval = TimeUnit.SECONDS.toNanos(1) / MSGS_PER_SECOND;
+        long cpuTime = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < broadcasts; i++) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += interval;
+            // Like the GroupDispatcher: every broadcast is a new GroupMsg
+            GroupDispatcher.GroupMsg msg = createGroupMsg();
+            long start = threadMXBean.getCurrentThreadCpuTime();
+            broadcast(msg, protocol);
+            cpuTime += threadMXBean.getCurrentThreadCpuTime() - start;
+        }
+        return cpuTime / broadcasts;
+    }
+
+    /**
+     * Does what the GroupChannelActors of all members and the WebSocket do with a broadcast
+     * message: create the frame and get the bytes that go over the wire
+     */
+    private int broadcast(GroupDispatcher.GroupMsg msg, Enumeration.Value protocol) {
+        int size = 0;
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            Message frame = GroupChannelActor.frame(msg, protocol);
+            if (frame instanceof TextMessage) {
+                size += ByteString.fromString(((TextMessage) frame).data()).size();
+            } else {
+                size += ((BinaryMessage) frame).data().size();
+            }
+        }
+        return size;
+    }
+
+    private GroupDispatcher.GroupMsg createGroupMsg() {
+        JsObject json = (JsObject) Json.parse(BROADCAST_JSON);
+        return new GroupDispatcher.GroupMsg(json, GroupDispatcher.TellWhom$.MODULE$.All());
+    }
+
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 
 import javax.inject.Inject;
 
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,6 +15,7 @@ import org.junit.Test;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import daos.common.ComponentResultDao;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
 import daos.common.UserDao;
@@ -64,6 +67,9 @@ public class ResultDataStringGeneratorTests {
     @Inject
     private StudyResultDao studyResultDao;
 
+    @Inject
+    private ComponentResultDao componentResultDao;
+
     @Inject
     private UserDao userDao;
 
@@ -268,6 +274,64 @@ public class ResultDataStringGeneratorTests {
         });
     }
 
+    /**
+     * The number of SQL statements that ResultDataStringGenerator.forStudy() needs doesn't depend
+     * on the number of StudyResults: their ComponentResults and the appended chunks are loaded
+     * in batches
+     */
+    @Test
+    public void checkForStudyQueryCount() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        createStudyResultsWithChunks(study.getId(), 2);
+        long statementCount = countStatementsForStudyExport(study.getId());
+
+        createStudyResultsWithChunks(study.getId(), 10);
+        assertThat(countStatementsForStudyExport(study.getId())).isEqualTo(statementCount);
+    }
+
+    /**
+     * Exports the study's result data in a new transaction and returns the number of SQL
+     * statements it needed
+     */
+    private long countStatementsForStudyExport(long studyId) {
+        return jpaApi.withTransaction(() -> {
+            Study study = studyDao.findById(studyId);
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            Statistics statistics = jpaApi.em().unwrap(Session.class).getSessionFactory()
+                    .getStatistics();
+            statistics.setStatisticsEnabled(true);
+            statistics.clear();
+            try {
+                resultDataStringGenerator.forStudy(admin, study);
+            } catch (ForbiddenException | BadRequestException e) {
+                throw new RuntimeException(e);
+            }
+            return statistics.getPrepareStatementCount();
+        });
+    }
+
+    private void createStudyResultsWithChunks(long studyId, int count) {
+        jpaApi.withTransaction(() -> {
+            Study study = studyDao.findById(studyId);
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            try {
+                for (int i = 0; i < count; i++) {
+                    StudyResult studyResult = resultCreator.createStudyResult(study,
+                            study.getDefaultBatch(), admin.getWorker());
+                    for (int j = 1; j <= 2; j++) {
+                        ComponentResult componentResult = jatosPublixUtils
+                                .startComponent(study.getComponent(j), studyResult);
+                        componentResult.setData("data " + j);
+                        componentResultDao.appendData(componentResult, ", appended");
+                    }
+                }
+            } catch (ForbiddenReloadException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     private String createTwoComponentResultsWithData(long studyId)
             throws ForbiddenReloadException {
         // Create StudyResult
@@ -0,0 +1,316 @@
+package services.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.StudyDao;
+import exceptions.gui.BadRequestException;
+import exceptions.publix.ForbiddenPublixException;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.Study;
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.MTWorker;
+import models.common.workers.PersonalMultipleWorker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.BatchService;
+import services.gui.WorkerService;
+import services.publix.workers.GeneralSingleStudyAuthorisation;
+import services.publix.workers.MTStudyAuthorisation;
+import services.publix.workers.PersonalMultipleStudyAuthorisation;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for StudyAuthorisation.checkMaxTotalWorkers() and the Batch's
+ * workerCount
+ */
+public class MaxTotalWorkersTest {
+
+    private static final int MAX_NEW_WORKERS = 5;
+    private static final int STARTS = 30;
+    private static final int THREADS = 6;
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private WorkerCreator workerCreator;
+
+    @Inject
+    private WorkerService workerService;
+
+    @Inject
+    private BatchService batchService;
+
+    @Inject
+    private GeneralSingleStudyAuthorisation generalSingleStudyAuthorisation;
+
+    @Inject
+    private PersonalMultipleStudyAuthorisation personalMultipleStudyAuthorisation;
+
+    @Inject
+    private MTStudyAuthorisation mtStudyAuthorisation;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * Workers that are in the batch already don't count twice
+     */
+    @Test
+    public void checkWorkerInBatch() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        int initialCount = limitDefaultBatch(study, 1);
+
+        PersonalMultipleWorker worker = jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            try {
+                return workerService.createAndPersistPersonalMultipleWorker(
+                        "comment", 1, batch).get(0);
+            } catch (BadRequestException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batchDao.countWorkers(batch)).isEqualTo(initialCount + 1);
+            assertThat(batchDao.hasWorker(batch, worker)).isTrue();
+            try {
+                personalMultipleStudyAuthorisation.checkMaxTotalWorkers(batch, worker);
+            } catch (ForbiddenPublixException e) {
+                throw new RuntimeException(e);
+            }
+
+            // Adding the same worker again changes nothing
+            batchDao.addWorker(batch, worker);
+            assertThat(batchDao.countWorkers(batch)).isEqualTo(initialCount + 1);
+
+            // But a new worker exceeds the limit
+            try {
+                GeneralSingleWorker newWorker = workerCreator
+                        .createAndPersistGeneralSingleWorker(batch);
+                generalSingleStudyAuthorisation.checkWorkerAllowedToStartStudy(
+                        newWorker, s, batch);
+                throw new AssertionError("ForbiddenPublixException expected");
+            } catch (ForbiddenPublixException e) {
+                assertThat(e.getMessage()).isEqualTo(PublixErrorMessages
+                        .batchMaxTotalWorkerReached(batch.getId()));
+            }
+        });
+    }
+
+    /**
+     * A MTWorker that was created for another batch is added to this batch
+     * when it starts the study and counts against its limit
+     */
+    @Test
+    public void checkReturningMTWorker() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        int initialCount = limitDefaultBatch(study, 0);
+
+        MTWorker worker = createMTWorkerInOtherBatch(study);
+
+        // Batch is full: the worker is rejected and not added to the batch
+        assertThat(startMTStudy(study, worker)).isFalse();
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batchDao.countWorkers(batch)).isEqualTo(initialCount);
+            assertThat(batchDao.hasWorker(batch, worker)).isFalse();
+        });
+
+        // With room for one more worker it's admitted and added
+        limitDefaultBatch(study, 1);
+        assertThat(startMTStudy(study, worker)).isTrue();
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batchDao.countWorkers(batch)).isEqualTo(initialCount + 1);
+            assertThat(batchDao.hasWorker(batch, worker)).isTrue();
+        });
+    }
+
+    /**
+     * Without a limit the worker is added to the batch nevertheless
+     */
+    @Test
+    public void checkNoLimit() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        int initialCount = limitDefaultBatch(study, 0);
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            batch.setMaxTotalWorkers(null);
+            batchDao.update(batch);
+        });
+
+        MTWorker worker = createMTWorkerInOtherBatch(study);
+
+        assertThat(startMTStudy(study, worker)).isTrue();
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batchDao.countWorkers(batch)).isEqualTo(initialCount + 1);
+            assertThat(batchDao.hasWorker(batch, worker)).isTrue();
+        });
+    }
+
+    /**
+     * Concurrent study starts of GeneralSingleWorkers (each in its own
+     * transaction like in PublixInterceptor) must never exceed the batch's
+     * maxTotalWorkers
+     */
+    @Test
+    public void checkConcurrentStarts() throws Exception {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        int initialCount = limitDefaultBatch(study, MAX_NEW_WORKERS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < STARTS; i++) {
+            futures.add(executor.submit(() -> {
+                startSignal.await();
+                return startStudy(study);
+            }));
+        }
+        startSignal.countDown();
+
+        int admitted = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get(1, TimeUnit.MINUTES)) {
+                admitted++;
+            }
+        }
+        executor.shutdown();
+
+        assertThat(admitted).isEqualTo(MAX_NEW_WORKERS);
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batchDao.countWorkers(batch))
+                    .isEqualTo(initialCount + MAX_NEW_WORKERS);
+            // The counter matches the actual workers
+            assertThat(batch.getWorkerList().size())
+                    .isEqualTo(initialCount + MAX_NEW_WORKERS);
+        });
+    }
+
+    /**
+     * Returns true if the worker was admitted. A rejected start is rolled back
+     * together with its worker.
+     */
+    private boolean startStudy(Study study) {
+        try {
+            jpaApi.withTransaction(() -> {
+                Study s = studyDao.findById(study.getId());
+                Batch batch = batchDao.findById(s.getDefaultBatch().getId());
+                GeneralSingleWorker worker = workerCreator
+                        .createAndPersistGeneralSingleWorker(batch);
+                try {
+                    generalSingleStudyAuthorisation
+                            .checkWorkerAllowedToStartStudy(worker, s, batch);
+                } catch (ForbiddenPublixException e) {
+                    throw new RejectedException();
+                }
+            });
+            return true;
+        } catch (RejectedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the MTWorker was admitted to the study's default batch
+     */
+    private boolean startMTStudy(Study study, MTWorker worker) {
+        try {
+            jpaApi.withTransaction(() -> {
+                Study s = studyDao.findById(study.getId());
+                Batch batch = batchDao.findById(s.getDefaultBatch().getId());
+                try {
+                    mtStudyAuthorisation.checkWorkerAllowedToStartStudy(worker, s, batch);
+                } catch (ForbiddenPublixException e) {
+                    throw new RejectedException();
+                }
+            });
+            return true;
+        } catch (RejectedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a MTWorker in a new batch of the study - like a worker that
+     * did another study run before
+     */
+    private MTWorker createMTWorkerInOtherBatch(Study study) {
+        return jpaApi.withTransaction(() -> {
+            Study s = studyDao.findById(study.getId());
+            Batch otherBatch = batchService.clone(s.getDefaultBatch());
+            batchService.createAndPersistBatch(otherBatch, s);
+            return workerCreator.createAndPersistMTWorker("returningWorker",
+                    false, otherBatch);
+        });
+    }
+
+    /**
+     * Allows GeneralSingleWorkers, PersonalMultipleWorkers and MTWorkers in
+     * the study's default batch and limits it to the given number of new
+     * workers. Returns the number of workers that are in the batch already.
+     */
+    private int limitDefaultBatch(Study study, int newWorkers) {
+        return jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            int count = batchDao.countWorkers(batch);
+            batch.addAllowedWorkerType(GeneralSingleWorker.WORKER_TYPE);
+            batch.addAllowedWorkerType(PersonalMultipleWorker.WORKER_TYPE);
+            batch.addAllowedWorkerType(MTWorker.WORKER_TYPE);
+            batch.setMaxTotalWorkers(count + newWorkers);
+            batchDao.update(batch);
+            return count;
+        });
+    }
+
+    private static class RejectedException extends RuntimeException {
+    }
+
+}
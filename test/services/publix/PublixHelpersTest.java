@@ -2,6 +2,7 @@ package services.publix;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import daos.common.StudyResultDao;
 import daos.common.UserDao;
 import exceptions.publix.ForbiddenReloadException;
 import general.TestHelper;
@@ -48,6 +49,9 @@ public class PublixHelpersTest {
     @Inject
     private UserDao userDao;
 
+    @Inject
+    private StudyResultDao studyResultDao;
+
     // The worker is not important here
     @Inject
     private PublixUtils<JatosWorker> publixUtils;
@@ -84,27 +88,27 @@ public class PublixHelpersTest {
             // Study results in state FINISHED, ABORTED, or FAIL must return
             // true
             studyResult.setStudyState(StudyState.FINISHED);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isTrue();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isTrue();
             studyResult.setStudyState(StudyState.ABORTED);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isTrue();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isTrue();
             studyResult.setStudyState(StudyState.FAIL);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isTrue();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isTrue();
 
             // Study results in state PRE, STARTED, or DATA_RETRIEVED must
             // return
             // false
             studyResult.setStudyState(StudyState.PRE);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isFalse();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isFalse();
             studyResult.setStudyState(StudyState.STARTED);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isFalse();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isFalse();
             studyResult.setStudyState(StudyState.DATA_RETRIEVED);
-            assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(),
-                    study)).isFalse();
+            assertThat(PublixHelpers.finishedStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isFalse();
         });
     }
 
@@ -117,15 +121,15 @@ public class PublixHelpersTest {
 
         jpaApi.withTransaction(() -> {
             User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
-            assertThat(PublixHelpers.didStudyAlready(admin.getWorker(), study))
-                    .isFalse();
+            assertThat(PublixHelpers.didStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isFalse();
 
             // Create a result for the admin's worker
             resultCreator.createStudyResult(study, study.getDefaultBatch(),
                     admin.getWorker());
 
-            assertThat(PublixHelpers.didStudyAlready(admin.getWorker(), study))
-                    .isTrue();
+            assertThat(PublixHelpers.didStudyAlready(studyResultDao,
+                    admin.getWorker(), study)).isTrue();
         });
     }
 
@@ -330,10 +330,10 @@ public abstract class PublixUtilsTest<T extends Worker> {
 
             assertThat(componentResult1.getComponentState())
                     .isEqualTo(ComponentState.ABORTED);
-            assertThat(componentResult1.getData()).isNullOrEmpty();
+            assertThat(componentResultDao.getData(componentResult1)).isNullOrEmpty();
             assertThat(componentResult2.getComponentState())
                     .isEqualTo(ComponentState.ABORTED);
-            assertThat(componentResult2.getData()).isNullOrEmpty();
+            assertThat(componentResultDao.getData(componentResult2)).isNullOrEmpty();
             assertThat(studyResult.getStudyState())
                     .isEqualTo(StudyResult.StudyState.ABORTED);
             assertThat(studyResult.getAbortMsg()).isEqualTo("abort message");
@@ -374,10 +374,10 @@ public abstract class PublixUtilsTest<T extends Worker> {
             // Check component results: all should be finished
             assertThat(componentResult1.getComponentState())
                     .isEqualTo(ComponentState.FINISHED);
-            assertThat(componentResult1.getData()).isEqualTo("test data 1");
+            assertThat(componentResultDao.getData(componentResult1)).isEqualTo("test data 1");
             assertThat(componentResult2.getComponentState())
                     .isEqualTo(ComponentState.FINISHED);
-            assertThat(componentResult2.getData()).isEqualTo("test data 2");
+            assertThat(componentResultDao.getData(componentResult2)).isEqualTo("test data 2");
 
             // Check study result
             assertThat(studyResult.getStudyState())
@@ -423,10 +423,10 @@ public abstract class PublixUtilsTest<T extends Worker> {
             // started (but not failed)
             assertThat(componentResult1.getComponentState())
                     .isEqualTo(ComponentState.FINISHED);
-            assertThat(componentResult1.getData()).isEqualTo("test data 1");
+            assertThat(componentResultDao.getData(componentResult1)).isEqualTo("test data 1");
             assertThat(componentResult2.getComponentState())
                     .isEqualTo(ComponentState.STARTED);
-            assertThat(componentResult2.getData()).isEqualTo("test data 2");
+            assertThat(componentResultDao.getData(componentResult2)).isEqualTo("test data 2");
 
             // Check study result
             assertThat(studyResult.getStudyState()).isEqualTo(StudyState.FAIL);
@@ -0,0 +1,148 @@
+package services.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.ComponentResultDao;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.Batch;
+import models.common.ComponentResult;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+
+import javax.inject.Inject;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for ResultCreator and WorkerCreator: the created entities are added to
+ * their parents' lists even if those lists weren't loaded
+ */
+public class ResultCreatorTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private WorkerCreator workerCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    /**
+     * StudyResults are added at the end of the worker's StudyResult list and
+     * ComponentResults at the end of the StudyResult's ComponentResult list
+     */
+    @Test
+    public void checkCreateStudyResultAndComponentResults() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        long[] ids = jpaApi.withTransaction(() -> {
+            Study managedStudy = studyDao.findById(study.getId());
+            Worker worker = userDao.findByEmail(UserService.ADMIN_EMAIL).getWorker();
+            StudyResult studyResult = resultCreator.createStudyResult(managedStudy,
+                    managedStudy.getDefaultBatch(), worker);
+            ComponentResult first = resultCreator.createComponentResult(studyResult,
+                    managedStudy.getComponent(1));
+            ComponentResult second = resultCreator.createComponentResult(studyResult,
+                    managedStudy.getComponent(2));
+            return new long[]{studyResult.getId(), first.getId(), second.getId()};
+        });
+        long secondStudyResultId = jpaApi.withTransaction(() -> {
+            Study managedStudy = studyDao.findById(study.getId());
+            Worker worker = userDao.findByEmail(UserService.ADMIN_EMAIL).getWorker();
+            return resultCreator.createStudyResult(managedStudy,
+                    managedStudy.getDefaultBatch(), worker).getId();
+        });
+
+        jpaApi.withTransaction(() -> {
+            Worker worker = userDao.findByEmail(UserService.ADMIN_EMAIL).getWorker();
+            List<StudyResult> studyResultList = worker.getStudyResultList();
+            int size = studyResultList.size();
+            assertThat(size).isGreaterThanOrEqualTo(2);
+            assertThat(studyResultList.get(size - 2).getId()).isEqualTo(ids[0]);
+            assertThat(studyResultList.get(size - 1).getId()).isEqualTo(secondStudyResultId);
+
+            StudyResult studyResult = studyResultDao.findById(ids[0]);
+            assertThat(studyResult.getWorker()).isEqualTo(worker);
+            List<ComponentResult> componentResultList = studyResult.getComponentResultList();
+            assertThat(componentResultList.size()).isEqualTo(2);
+            assertThat(componentResultList.get(0).getId()).isEqualTo(ids[1]);
+            assertThat(componentResultList.get(1).getId()).isEqualTo(ids[2]);
+            assertThat(componentResultDao.findById(ids[2]).getStudyResult())
+                    .isEqualTo(studyResult);
+        });
+    }
+
+    /**
+     * A new GeneralSingleWorker is added to the batch's worker list
+     */
+    @Test
+    public void checkCreateAndPersistGeneralSingleWorker() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        long workerId = jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            GeneralSingleWorker worker = workerCreator.createAndPersistGeneralSingleWorker(batch);
+            return worker.getId();
+        });
+
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            assertThat(batch.getWorkerList().stream()
+                    .anyMatch(worker -> worker.getId() == workerId)).isTrue();
+        });
+    }
+
+}
@@ -0,0 +1,159 @@
+package services.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import exceptions.publix.PublixException;
+import general.TestHelper;
+import models.common.*;
+import models.common.workers.JatosWorker;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+import services.publix.idcookie.IdCookieModel;
+import services.publix.workers.JatosPublixUtils;
+
+import javax.inject.Inject;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Benchmark for the entity lookups of a Publix endpoint: counts the SQL statements that are
+ * needed to get the worker, study, batch, component and study result of a submitResultData call.
+ * It compares the single lookups that were done by the endpoints before with
+ * PublixUtils.retrieveRunContext(). It only reports the numbers - it runs with 'sbt bench:test'
+ * and not with 'sbt test'. The functional tests of retrieveRunContext() are in
+ * JatosPublixUtilsTest.
+ */
+public class RunContextQueryBenchmark {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private JatosPublixUtils publixUtils;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void compareQueriesPerSubmitResultData() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        IdCookieModel idCookie = createStudyResult(study);
+        Long componentId = study.getFirstComponent().getId();
+
+        long before = countStatements(() -> retrieveOneByOne(idCookie, study.getId(),
+                componentId));
+        long after = countStatements(() -> retrieveRunContext(idCookie, study.getId(),
+                componentId));
+        Logger.info(RunContextQueryBenchmark.class.getSimpleName()
+                + ": SQL statements per submitResultData call - one by one " + before
+                + ", run context " + after);
+    }
+
+    /**
+     * Lookups like they were done by Publix.submitOrAppendResultData() before the run context
+     */
+    private void retrieveOneByOne(IdCookieModel idCookie, Long studyId, Long componentId)
+            throws PublixException {
+        Study study = publixUtils.retrieveStudy(studyId);
+        Batch batch = publixUtils.retrieveBatch(idCookie.getBatchId());
+        JatosWorker worker = publixUtils.retrieveTypedWorker(idCookie.getWorkerId());
+        Component component = publixUtils.retrieveComponent(study, componentId);
+        checkWorkerAllowedToDoStudy(worker, study, batch);
+        StudyResult studyResult = studyResultDao.findById(idCookie.getStudyResultId());
+        assertThat(worker.getStudyResultList().contains(studyResult)).isTrue();
+        assertThat(component).isNotNull();
+    }
+
+    private void retrieveRunContext(IdCookieModel idCookie, Long studyId, Long componentId)
+            throws PublixException {
+        RunContext<JatosWorker> runContext = publixUtils.retrieveRunContext(idCookie, studyId,
+                componentId);
+        checkWorkerAllowedToDoStudy(runContext.getWorker(), runContext.getStudy(),
+                runContext.getBatch());
+        assertThat(runContext.getComponent()).isNotNull();
+    }
+
+    /**
+     * Same checks as JatosStudyAuthorisation.checkWorkerAllowedToDoStudy() without the session
+     */
+    private void checkWorkerAllowedToDoStudy(JatosWorker worker, Study study, Batch batch) {
+        assertThat(batch.hasAllowedWorkerType(worker.getWorkerType())).isTrue();
+        assertThat(study.hasUser(worker.getUser())).isTrue();
+    }
+
+    /**
+     * Runs the given lookups in a new transaction (with an empty persistence context) and returns
+     * the number of SQL statements it needed
+     */
+    private long countStatements(Lookups lookups) {
+        return jpaApi.withTransaction(() -> {
+            Statistics statistics = jpaApi.em().unwrap(Session.class).getSessionFactory()
+                    .getStatistics();
+            statistics.setStatisticsEnabled(true);
+            statistics.clear();
+            try {
+                lookups.run();
+            } catch (PublixException e) {
+                throw new RuntimeException(e);
+            }
+            return statistics.getPrepareStatementCount();
+        });
+    }
+
+    private IdCookieModel createStudyResult(Study study) {
+        return jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            StudyResult studyResult = resultCreator.createStudyResult(study,
+                    study.getDefaultBatch(), admin.getWorker());
+            IdCookieModel idCookie = new IdCookieModel();
+            idCookie.setStudyResultId(studyResult.getId());
+            idCookie.setBatchId(study.getDefaultBatch().getId());
+            idCookie.setWorkerId(admin.getWorker().getId());
+            return idCookie;
+        });
+    }
+
+    private interface Lookups {
+        void run() throws PublixException;
+    }
+
+}
@@ -0,0 +1,127 @@
+package services.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import models.common.workers.Worker;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+
+import javax.inject.Inject;
+import java.util.function.Function;
+
+/**
+ * Benchmark for PublixHelpers.finishedStudyAlready() with a long-lived worker that has 10000
+ * StudyResults: it compares the iteration over the worker's StudyResult list (like it was done
+ * before) with the indexed COUNT query. None of the StudyResults is finished, so the iteration
+ * has to go through all of them. It only reports the numbers - run it with 'sbt bench:test'.
+ * The functional tests of finishedStudyAlready() are in PublixHelpersTest.
+ */
+public class StudyDoneLookupBenchmark {
+
+    private static final int STUDY_RESULT_COUNT = 10000;
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void compareFinishedStudyAlready() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        createStudyResults(study);
+
+        long[] iteration = measure(study, worker -> finishedStudyAlreadyByIteration(worker, study));
+        long[] countQuery = measure(study,
+                worker -> PublixHelpers.finishedStudyAlready(studyResultDao, worker, study));
+        Logger.info(StudyDoneLookupBenchmark.class.getSimpleName() + ": worker with "
+                + STUDY_RESULT_COUNT + " study results - iteration " + iteration[0]
+                + " SQL statements in " + iteration[1] + " ms, COUNT query " + countQuery[0]
+                + " SQL statements in " + countQuery[1] + " ms");
+    }
+
+    /**
+     * Like PublixHelpers.finishedStudyAlready() was implemented before
+     */
+    private boolean finishedStudyAlreadyByIteration(Worker worker, Study study) {
+        for (StudyResult studyResult : worker.getStudyResultList()) {
+            if (studyResult.getStudy().equals(study)
+                    && PublixHelpers.studyDone(studyResult)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the given lookup in a new transaction (with an empty persistence context) and returns
+     * the number of SQL statements it needed and its duration in ms
+     */
+    private long[] measure(Study study, Function<Worker, Boolean> lookup) {
+        return jpaApi.withTransaction(() -> {
+            Worker worker = userDao.findByEmail(UserService.ADMIN_EMAIL).getWorker();
+            Statistics statistics = jpaApi.em().unwrap(Session.class).getSessionFactory()
+                    .getStatistics();
+            statistics.setStatisticsEnabled(true);
+            statistics.clear();
+            long start = System.currentTimeMillis();
+            lookup.apply(worker);
+            long duration = System.currentTimeMillis() - start;
+            return new long[]{statistics.getPrepareStatementCount(), duration};
+        });
+    }
+
+    private void createStudyResults(Study study) {
+        jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            for (int i = 0; i < STUDY_RESULT_COUNT; i++) {
+                resultCreator.createStudyResult(study, study.getDefaultBatch(),
+                        admin.getWorker());
+            }
+        });
+    }
+
+}
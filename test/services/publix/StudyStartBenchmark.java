@@ -0,0 +1,169 @@
+package services.publix;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.ComponentDao;
+import daos.common.ComponentResultDao;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.worker.WorkerDao;
+import general.TestHelper;
+import models.common.*;
+import models.common.workers.GeneralSingleWorker;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+
+import javax.inject.Inject;
+
+/**
+ * Benchmark for the entities that are created when a GeneralSingle study run starts (worker,
+ * batch-worker mapping, study result and first component result) in a batch that has already
+ * 1000 workers: it measures the SQL statements per start and the starts per second of the way it
+ * was done before and of WorkerCreator/ResultCreator. It runs against the database of the test
+ * configuration (H2) - for MySQL configure db.default accordingly. It only reports the numbers -
+ * run it with 'sbt bench:test'. The functional tests are in ResultCreatorTest.
+ */
+public class StudyStartBenchmark {
+
+    private static final int EXISTING_WORKERS = 1000;
+    private static final int STARTS = 200;
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private WorkerCreator workerCreator;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private StudyDao studyDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Inject
+    private ComponentDao componentDao;
+
+    @Inject
+    private WorkerDao workerDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void compareStudyStarts() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        jpaApi.withTransaction(() -> {
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            for (int i = 0; i < EXISTING_WORKERS; i++) {
+                workerCreator.createAndPersistGeneralSingleWorker(batch);
+            }
+        });
+        // Warm-up
+        measure(study, 20, false);
+        measure(study, 20, true);
+
+        long[] before = measure(study, STARTS, false);
+        long[] after = measure(study, STARTS, true);
+        Logger.info(StudyStartBenchmark.class.getSimpleName() + ": " + STARTS
+                + " study starts - before " + before[0] + " SQL statements per start, "
+                + startsPerSecond(before[1]) + " starts/s; after " + after[0]
+                + " SQL statements per start, " + startsPerSecond(after[1]) + " starts/s");
+    }
+
+    private static long startsPerSecond(long nanos) {
+        return STARTS * 1000000000L / nanos;
+    }
+
+    /**
+     * Runs the given number of study starts, each in its own transaction, and returns the SQL
+     * statements per start and the duration in ns
+     */
+    private long[] measure(Study study, int starts, boolean withCreators) {
+        long statements = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < starts; i++) {
+            statements += jpaApi.withTransaction(() -> {
+                Statistics statistics = jpaApi.em().unwrap(Session.class).getSessionFactory()
+                        .getStatistics();
+                statistics.setStatisticsEnabled(true);
+                statistics.clear();
+                Study managedStudy = studyDao.findById(study.getId());
+                Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+                Component component = componentDao.findById(study.getFirstComponent().getId());
+                if (withCreators) {
+                    startWithCreators(managedStudy, batch, component);
+                } else {
+                    startLikeBefore(managedStudy, batch, component);
+                }
+                jpaApi.em().flush();
+                return statistics.getPrepareStatementCount();
+            });
+        }
+        return new long[]{statements / starts, System.nanoTime() - start};
+    }
+
+    private void startWithCreators(Study study, Batch batch, Component component) {
+        GeneralSingleWorker worker = workerCreator.createAndPersistGeneralSingleWorker(batch);
+        StudyResult studyResult = resultCreator.createStudyResult(study, batch, worker);
+        resultCreator.createComponentResult(studyResult, component);
+    }
+
+    /**
+     * Like WorkerCreator and ResultCreator did it before
+     */
+    private void startLikeBefore(Study study, Batch batch, Component component) {
+        GeneralSingleWorker worker = new GeneralSingleWorker();
+        batch.addWorker(worker);
+        workerDao.create(worker);
+        batchDao.update(batch);
+
+        StudyResult studyResult = new StudyResult(study, batch, worker);
+        worker.addStudyResult(studyResult);
+        studyResultDao.create(studyResult);
+        workerDao.update(worker);
+
+        ComponentResult componentResult = new ComponentResult(component);
+        componentResult.setStudyResult(studyResult);
+        studyResult.addComponentResult(componentResult);
+        componentResultDao.create(componentResult);
+        studyResultDao.update(studyResult);
+    }
+
+}
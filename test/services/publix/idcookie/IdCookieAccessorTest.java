@@ -4,6 +4,10 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import general.TestHelper;
 import general.common.RequestScope;
+import controllers.publix.workers.JatosPublix.JatosRun;
+import models.common.workers.JatosWorker;
+import models.common.workers.PersonalMultipleWorker;
+import org.fest.assertions.Fail;
 import org.junit.Before;
 import org.junit.Test;
 import play.ApplicationLoader;
@@ -12,6 +16,7 @@ import play.inject.guice.GuiceApplicationBuilder;
 import play.inject.guice.GuiceApplicationLoader;
 import play.mvc.Http.Cookie;
 import services.publix.idcookie.exception.IdCookieAlreadyExistsException;
+import services.publix.idcookie.exception.IdCookieMalformedException;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
@@ -222,4 +227,110 @@ public class IdCookieAccessorTest {
         // .isNull();
     }
 
+    @Test
+    public void checkBuildIdCookie() throws IdCookieMalformedException {
+        for (int i = 0; i < IdCookieCollection.MAX_ID_COOKIES; i++) {
+            IdCookieModel idCookie = idCookieTestHelper.buildDummyIdCookie(1000l + i);
+            idCookie.setIndex(i);
+            idCookie.setName(IdCookieModel.ID_COOKIE_NAME + "_" + i);
+            idCookie.setGroupResultId(i % 2 == 0 ? null : 2000l + i);
+            idCookie.setJatosRun(i % 3 == 0 ? null : JatosRun.RUN_COMPONENT_START);
+
+            IdCookieModel parsed = idCookieAccessor.buildIdCookie(
+                    idCookieTestHelper.buildCookie(idCookie));
+            assertThat(parsed).isEqualTo(idCookie);
+            assertThat(parsed.getGroupResultId()).isEqualTo(idCookie.getGroupResultId());
+            assertThat(parsed.getJatosRun()).isEqualTo(idCookie.getJatosRun());
+            assertThat(parsed.getIndex()).isEqualTo(i);
+        }
+    }
+
+    /**
+     * Parsed worker types are the WORKER_TYPE constants - also if they were
+     * URL-encoded
+     */
+    @Test
+    public void checkBuildIdCookieInternsWorkerType()
+            throws IdCookieMalformedException {
+        IdCookieModel idCookie = buildIdCookie(dummyCookieValue());
+        assertThat(idCookie.getWorkerType()).isSameAs(JatosWorker.WORKER_TYPE);
+
+        idCookie = buildIdCookie(dummyCookieValue().replace(
+                "&workerType=Jatos", "&workerType=%50ersonalMultiple"));
+        assertThat(idCookie.getWorkerType())
+                .isSameAs(PersonalMultipleWorker.WORKER_TYPE);
+
+        // Unknown worker types are kept as they are
+        idCookie = buildIdCookie(dummyCookieValue().replace(
+                "&workerType=Jatos", "&workerType=Foo"));
+        assertThat(idCookie.getWorkerType()).isEqualTo("Foo");
+    }
+
+    /**
+     * String values are URL-decoded
+     */
+    @Test
+    public void checkBuildIdCookieEncodedValues()
+            throws IdCookieMalformedException {
+        IdCookieModel idCookie = buildIdCookie(dummyCookieValue()
+                .replace("&studyAssets=test_study_assets&",
+                        "&studyAssets=test%20study%2Fassets&")
+                .replace("&jatosRun=RUN_STUDY&", "&jatosRun=RUN%5FSTUDY&"));
+        assertThat(idCookie.getStudyAssets()).isEqualTo("test study/assets");
+        assertThat(idCookie.getJatosRun()).isEqualTo(JatosRun.RUN_STUDY);
+    }
+
+    /**
+     * If a key occurs more than once the last one counts and unknown keys and
+     * empty pairs are ignored
+     */
+    @Test
+    public void checkBuildIdCookieDuplicateAndUnknownKeys()
+            throws IdCookieMalformedException {
+        IdCookieModel idCookie = buildIdCookie(
+                dummyCookieValue() + "&studyResultId=5&foo=bar&&studyId=7");
+        assertThat(idCookie.getStudyResultId()).isEqualTo(5l);
+        assertThat(idCookie.getStudyId()).isEqualTo(7l);
+        assertThat(idCookie.getWorkerType()).isEqualTo(JatosWorker.WORKER_TYPE);
+    }
+
+    @Test
+    public void checkBuildIdCookieMalformed() {
+        // More than one '=' in a pair
+        checkBuildIdCookieMalformed(dummyCookieValue()
+                .replace("&studyId=1&", "&studyId=1=2&"));
+        // Pair without key
+        checkBuildIdCookieMalformed(dummyCookieValue() + "&==");
+        // Malformed number
+        checkBuildIdCookieMalformed(dummyCookieValue()
+                .replace("&studyId=1&", "&studyId=abc&"));
+        // Malformed URL encoding
+        checkBuildIdCookieMalformed(dummyCookieValue()
+                .replace("&studyAssets=test_study_assets&", "&studyAssets=test%2&"));
+        // Missing key
+        checkBuildIdCookieMalformed(dummyCookieValue()
+                .replace("&studyId=1&", "&"));
+    }
+
+    private void checkBuildIdCookieMalformed(String cookieValue) {
+        try {
+            buildIdCookie(cookieValue);
+            Fail.fail();
+        } catch (IdCookieMalformedException e) {
+            // Expected
+        }
+    }
+
+    private IdCookieModel buildIdCookie(String cookieValue)
+            throws IdCookieMalformedException {
+        Cookie cookie = new Cookie("JATOS_IDS_0", cookieValue, Integer.MAX_VALUE,
+                "/", "", false, false);
+        return idCookieAccessor.buildIdCookie(cookie);
+    }
+
+    private String dummyCookieValue() {
+        return idCookieTestHelper.buildCookie(idCookieTestHelper.buildDummyIdCookie(1l))
+                .value();
+    }
+
 }
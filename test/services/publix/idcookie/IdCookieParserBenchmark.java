@@ -0,0 +1,140 @@
+package services.publix.idcookie;
+
+import controllers.publix.workers.JatosPublix.JatosRun;
+import models.common.workers.Worker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import play.mvc.Http.Cookie;
+import services.publix.idcookie.exception.IdCookieMalformedException;
+import utils.common.HttpUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for the parsing of the ID cookies of a request with the max
+ * number of ID cookies (10): one benchmark operation parses all cookies of a
+ * request. It compares the parsing with String.split and a HashMap per cookie
+ * (like IdCookieAccessor did it before) with the single-pass parser of
+ * IdCookieAccessor.buildIdCookie. Run it with
+ * 'sbt "jmh:run .*IdCookieParserBenchmark"' - add '-prof gc' to get the bytes
+ * allocated per request too (gc.alloc.rate.norm). The parser itself is tested
+ * in IdCookieAccessorTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IdCookieParserBenchmark {
+
+    private final IdCookieAccessor idCookieAccessor =
+            new IdCookieAccessor(new IdCookieSerialiser());
+
+    private final IdCookieTestHelper idCookieTestHelper =
+            new IdCookieTestHelper(new IdCookieSerialiser());
+
+    private List<Cookie> cookies;
+
+    @Setup
+    public void setup() {
+        cookies = buildCookies();
+    }
+
+    @Benchmark
+    public void parseLikeBefore(Blackhole blackhole)
+            throws IdCookieMalformedException {
+        for (Cookie cookie : cookies) {
+            blackhole.consume(buildIdCookieLikeBefore(cookie));
+        }
+    }
+
+    @Benchmark
+    public void parseSinglePass(Blackhole blackhole)
+            throws IdCookieMalformedException {
+        for (Cookie cookie : cookies) {
+            blackhole.consume(idCookieAccessor.buildIdCookie(cookie));
+        }
+    }
+
+    private List<Cookie> buildCookies() {
+        List<Cookie> cookies = new ArrayList<>();
+        for (int i = 0; i < IdCookieCollection.MAX_ID_COOKIES; i++) {
+            IdCookieModel idCookie = idCookieTestHelper
+                    .buildDummyIdCookie(1000L + i);
+            idCookie.setIndex(i);
+            idCookie.setName(IdCookieModel.ID_COOKIE_NAME + "_" + i);
+            idCookie.setGroupResultId(i % 2 == 0 ? null : 2000L + i);
+            cookies.add(idCookieTestHelper.buildCookie(idCookie));
+        }
+        return cookies;
+    }
+
+    /**
+     * Like IdCookieAccessor did it before
+     */
+    private static IdCookieModel buildIdCookieLikeBefore(Cookie cookie)
+            throws IdCookieMalformedException {
+        Map<String, String> cookieMap = new HashMap<>();
+        for (String pairStr : cookie.value().split("&")) {
+            String[] pairArray = pairStr.split("=");
+            if (pairArray.length == 0 || pairArray.length > 2) {
+                throw new IdCookieMalformedException("Malformed ID cookie");
+            }
+            cookieMap.put(pairArray[0],
+                    pairArray.length == 1 ? "" : pairArray[1]);
+        }
+        IdCookieModel idCookie = new IdCookieModel();
+        idCookie.setName(cookie.name());
+        idCookie.setIndex(Integer.valueOf(
+                cookie.name().substring(cookie.name().length() - 1)));
+        idCookie.setWorkerId(getValueAsLong(cookieMap, IdCookieModel.WORKER_ID));
+        idCookie.setWorkerType(Worker.internWorkerType(HttpUtils.urlDecode(
+                cookieMap.get(IdCookieModel.WORKER_TYPE))));
+        idCookie.setBatchId(getValueAsLong(cookieMap, IdCookieModel.BATCH_ID));
+        idCookie.setGroupResultId(getValueAsLong(cookieMap,
+                IdCookieModel.GROUP_RESULT_ID));
+        idCookie.setStudyId(getValueAsLong(cookieMap, IdCookieModel.STUDY_ID));
+        idCookie.setStudyResultId(getValueAsLong(cookieMap,
+                IdCookieModel.STUDY_RESULT_ID));
+        idCookie.setComponentId(getValueAsLong(cookieMap,
+                IdCookieModel.COMPONENT_ID));
+        idCookie.setComponentResultId(getValueAsLong(cookieMap,
+                IdCookieModel.COMPONENT_RESULT_ID));
+        String componentPosition = cookieMap
+                .get(IdCookieModel.COMPONENT_POSITION);
+        idCookie.setComponentPosition(componentPosition.equals("null")
+                ? null : Integer.valueOf(componentPosition));
+        idCookie.setStudyAssets(HttpUtils.urlDecode(
+                cookieMap.get(IdCookieModel.STUDY_ASSETS)));
+        try {
+            idCookie.setJatosRun(JatosRun.valueOf(HttpUtils.urlDecode(
+                    cookieMap.get(IdCookieModel.JATOS_RUN))));
+        } catch (IllegalArgumentException e) {
+            idCookie.setJatosRun(null);
+        }
+        idCookie.setCreationTime(getValueAsLong(cookieMap,
+                IdCookieModel.CREATION_TIME));
+        return idCookie;
+    }
+
+    private static Long getValueAsLong(Map<String, String> cookieMap,
+            String key) {
+        String valueStr = cookieMap.get(key);
+        return valueStr.equals("null") ? null : Long.valueOf(valueStr);
+    }
+
+}
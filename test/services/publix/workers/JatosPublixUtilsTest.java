@@ -5,6 +5,7 @@ import controllers.publix.workers.JatosPublix.JatosRun;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.PublixException;
+import models.common.Component;
 import models.common.Study;
 import models.common.StudyResult;
 import models.common.User;
@@ -14,7 +15,10 @@ import org.fest.assertions.Fail;
 import org.junit.Test;
 import play.mvc.Http;
 import services.gui.UserService;
+import services.publix.PublixErrorMessages;
 import services.publix.PublixUtilsTest;
+import services.publix.RunContext;
+import services.publix.idcookie.IdCookieModel;
 
 import javax.inject.Inject;
 import java.io.IOException;
@@ -74,6 +78,78 @@ public class JatosPublixUtilsTest extends PublixUtilsTest<JatosWorker> {
         });
     }
 
+    /**
+     * PublixUtils.retrieveRunContext() returns the same entities as the single
+     * retrieve methods
+     */
+    @Test
+    public void checkRetrieveRunContext() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long studyResultId = super.createStudyResult(study);
+
+        jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            IdCookieModel idCookie = buildIdCookie(admin, study, studyResultId);
+            Component component = study.getFirstComponent();
+            try {
+                RunContext<JatosWorker> runContext = jatosPublixUtils
+                        .retrieveRunContext(idCookie, study.getId(),
+                                component.getId());
+                assertThat(runContext.getWorker())
+                        .isEqualTo(admin.getWorker());
+                assertThat(runContext.getStudy().getId())
+                        .isEqualTo(study.getId());
+                assertThat(runContext.getBatch().getId())
+                        .isEqualTo(study.getDefaultBatch().getId());
+                assertThat(runContext.getComponent().getId())
+                        .isEqualTo(component.getId());
+                assertThat(runContext.getStudyResult().getId())
+                        .isEqualTo(studyResultId);
+
+                // Without a component
+                runContext = jatosPublixUtils.retrieveRunContext(idCookie,
+                        study.getId(), null);
+                assertThat(runContext.getComponent()).isNull();
+                assertThat(runContext.getStudyResult().getId())
+                        .isEqualTo(studyResultId);
+            } catch (PublixException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * PublixUtils.retrieveRunContext() checks the study result like
+     * PublixUtils.retrieveStudyResult() does
+     */
+    @Test
+    public void checkRetrieveRunContextStudyResultNotExist() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+
+        jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            IdCookieModel idCookie = buildIdCookie(admin, study, 999999L);
+            try {
+                jatosPublixUtils.retrieveRunContext(idCookie, study.getId(),
+                        study.getFirstComponent().getId());
+                Fail.fail();
+            } catch (PublixException e) {
+                assertThat(e).isInstanceOf(BadRequestPublixException.class);
+                assertThat(e.getMessage()).isEqualTo(
+                        PublixErrorMessages.STUDY_RESULT_DOESN_T_EXIST);
+            }
+        });
+    }
+
+    private IdCookieModel buildIdCookie(User admin, Study study,
+            Long studyResultId) {
+        IdCookieModel idCookie = new IdCookieModel();
+        idCookie.setWorkerId(admin.getWorker().getId());
+        idCookie.setBatchId(study.getDefaultBatch().getId());
+        idCookie.setStudyResultId(studyResultId);
+        return idCookie;
+    }
+
     @Test
     public void checkRetrieveJatosRunFromSession()
             throws ForbiddenPublixException, BadRequestPublixException {
@@ -0,0 +1,151 @@
+package utils.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.BatchDao;
+import daos.common.ComponentDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import play.libs.Json;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class JsonUtils
+ */
+public class JsonUtilsTest {
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private JsonUtils jsonUtils;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ComponentDao componentDao;
+
+    @Inject
+    private BatchDao batchDao;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()));
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+    }
+
+    @Test
+    public void checkInitData() throws IOException {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long studyResultId = createStudyResult(study, "{\"a\":\"b\\\"c\"}");
+
+        JsonNode initData = Json.parse(initData(studyResultId, study));
+        assertThat(initData.get("studySessionData").asText())
+                .isEqualTo("{\"a\":\"b\\\"c\"}");
+        assertThat(initData.get("studyProperties").get("id").asLong())
+                .isEqualTo(study.getId());
+        assertThat(initData.get("batchProperties").get("id").asLong())
+                .isEqualTo(study.getDefaultBatch().getId());
+        assertThat(initData.get("componentList").size())
+                .isEqualTo(study.getComponentList().size());
+        assertThat(initData.get("componentProperties").get("id").asLong())
+                .isEqualTo(study.getFirstComponent().getId());
+        assertThat(initData.get("urlQueryParameters").isObject()).isTrue();
+    }
+
+    /**
+     * Changes of the study's components and batch show up in the init data
+     * even though they are cached
+     */
+    @Test
+    public void checkInitDataAfterChange() throws IOException {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long studyResultId = createStudyResult(study, null);
+        initData(studyResultId, study);
+
+        jpaApi.withTransaction(() -> {
+            Component component = componentDao
+                    .findById(study.getFirstComponent().getId());
+            component.setTitle("Changed component title");
+            componentDao.update(component);
+            Batch batch = batchDao.findById(study.getDefaultBatch().getId());
+            batch.setTitle("Changed batch title");
+            batchDao.update(batch);
+        });
+
+        JsonNode initData = Json.parse(initData(studyResultId, study));
+        assertThat(initData.get("studySessionData").isNull()).isTrue();
+        assertThat(initData.get("componentProperties").get("title").asText())
+                .isEqualTo("Changed component title");
+        assertThat(initData.get("componentList").get(0).get("title").asText())
+                .isEqualTo("Changed component title");
+        assertThat(initData.get("batchProperties").get("title").asText())
+                .isEqualTo("Changed batch title");
+    }
+
+    private String initData(long studyResultId, Study study) {
+        return jpaApi.withTransaction(() -> {
+            StudyResult studyResult = studyResultDao.findById(studyResultId);
+            Component component = componentDao
+                    .findById(study.getFirstComponent().getId());
+            try {
+                return jsonUtils.initData(studyResult.getBatch(), studyResult,
+                        studyResult.getStudy(), component);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private long createStudyResult(Study study, String studySessionData) {
+        return jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            StudyResult studyResult = resultCreator.createStudyResult(study,
+                    study.getDefaultBatch(), admin.getWorker());
+            studyResult.setStudySessionData(studySessionData);
+            studyResult.setUrlQueryParameters("{}");
+            studyResultDao.update(studyResult);
+            return studyResult.getId();
+        });
+    }
+
+}
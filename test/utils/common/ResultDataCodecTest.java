@@ -0,0 +1,119 @@
+package utils.common;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class ResultDataCodec
+ */
+public class ResultDataCodecTest {
+
+    private static final String[] STIMULI = {"img/face_happy.png", "img/face_sad.png",
+            "img/face_neutral.png", "img/house.png"};
+    private static final String[] RESPONSES = {"ArrowLeft", "ArrowRight", "null"};
+
+    @Test
+    public void checkCompressAndDecode() {
+        String data = createResultData(new Random(1), 100000)
+                + " äöü, 日本語, 😀";
+        String compressed = ResultDataCodec.compress(data);
+
+        assertThat(ResultDataCodec.isCompressed(compressed)).isTrue();
+        assertThat(compressed.length()).isLessThan(data.length() / 2);
+        assertThat(ResultDataCodec.decode(compressed)).isEqualTo(data);
+        StringBuilder sb = new StringBuilder("before ");
+        ResultDataCodec.decodeTo(compressed, sb);
+        assertThat(sb.toString()).isEqualTo("before " + data);
+        assertThat(ResultDataCodec.decodePrefix(compressed, 10))
+                .isEqualTo(data.substring(0, 10));
+        assertThat(ResultDataCodec.decodePrefix(compressed, data.length() + 100))
+                .isEqualTo(data);
+    }
+
+    /**
+     * Typical result data (JSON arrays of trials) take less than a third of
+     * their size in the database
+     */
+    @Test
+    public void checkCompressionRatio() {
+        String data = createResultData(new Random(42), 1024 * 1024);
+        String compressed = ResultDataCodec.compress(data);
+
+        // Base64 is ASCII: one byte per character
+        assertThat(compressed.length())
+                .isLessThan(data.getBytes(StandardCharsets.UTF_8).length / 3);
+        StringBuilder sb = new StringBuilder();
+        ResultDataCodec.decodeTo(compressed, sb);
+        assertThat(sb.length()).isEqualTo(data.length());
+    }
+
+    /**
+     * Result data that were stored uncompressed are returned as they are
+     */
+    @Test
+    public void checkUncompressedData() {
+        String data = "[{\"trial\":1}]";
+        assertThat(ResultDataCodec.isCompressed(data)).isFalse();
+        assertThat(ResultDataCodec.decode(data)).isEqualTo(data);
+        StringBuilder sb = new StringBuilder();
+        ResultDataCodec.decodeTo(data, sb);
+        assertThat(sb.toString()).isEqualTo(data);
+        assertThat(ResultDataCodec.decodePrefix(data, 5)).isEqualTo("[{\"tr");
+        assertThat(ResultDataCodec.decodePrefix(data, 100)).isEqualTo(data);
+
+        assertThat(ResultDataCodec.decode(null)).isNull();
+        assertThat(ResultDataCodec.decodePrefix(null, 5)).isNull();
+    }
+
+    /**
+     * Result data that start with the prefix of compressed data themselves
+     * are stored escaped and aren't taken for compressed ones
+     */
+    @Test
+    public void checkDataStartingWithCompressedPrefix() {
+        String data = "\u0000gz:not compressed";
+        String stored = ResultDataCodec.encode(data);
+
+        assertThat(stored).isNotEqualTo(data);
+        assertThat(ResultDataCodec.isCompressed(stored)).isFalse();
+        assertThat(ResultDataCodec.decode(stored)).isEqualTo(data);
+        StringBuilder sb = new StringBuilder();
+        ResultDataCodec.decodeTo(stored, sb);
+        assertThat(sb.toString()).isEqualTo(data);
+        assertThat(ResultDataCodec.decodePrefix(stored, 5)).isEqualTo(data.substring(0, 5));
+
+        // Other data are stored as they are
+        assertThat(ResultDataCodec.encode("[{\"trial\":1}]")).isEqualTo("[{\"trial\":1}]");
+        assertThat(ResultDataCodec.encode(null)).isNull();
+    }
+
+    /**
+     * Creates result data of about the given length: a JSON array of trials
+     */
+    static String createResultData(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 256);
+        sb.append('[');
+        int trial = 0;
+        long time = 0;
+        while (sb.length() < length) {
+            if (trial > 0) sb.append(',');
+            int rt = 250 + random.nextInt(1500);
+            time += rt + 500;
+            sb.append("{\"trial_index\":").append(trial++)
+                    .append(",\"trial_type\":\"image-keyboard-response\",\"stimulus\":\"")
+                    .append(STIMULI[random.nextInt(STIMULI.length)])
+                    .append("\",\"response\":\"").append(RESPONSES[random.nextInt(RESPONSES.length)])
+                    .append("\",\"rt\":").append(rt)
+                    .append(",\"correct\":").append(random.nextBoolean())
+                    .append(",\"time_elapsed\":").append(time)
+                    .append(",\"internal_node_id\":\"0.0-").append(trial).append(".0\"}");
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
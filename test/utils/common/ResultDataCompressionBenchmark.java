@@ -0,0 +1,70 @@
+package utils.common;
+
+import org.junit.Test;
+import play.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Benchmark for the compression of result data in the database: generates a synthetic result
+ * set (component results with JSON arrays of trials like jsPsych or lab.js produce them) and
+ * measures the size they take in the database and the export throughput (decoding into a
+ * StringBuilder like ResultService does it), with and without compression.
+ *
+ * The result set has 64 MB by default - for the full 1 GB set run it with
+ * -Djatos.benchmark.resultDataSize=1024 (in MB). It only reports the numbers and runs with
+ * 'sbt bench:test'. The functional tests are in ResultDataCodecTest.
+ */
+public class ResultDataCompressionBenchmark {
+
+    private static final int COMPONENT_RESULT_SIZE = 1024 * 1024;
+
+    @Test
+    public void compareSizeAndExportThroughput() {
+        int sizeInMb = Integer.getInteger("jatos.benchmark.resultDataSize", 64);
+        Random random = new Random(42);
+
+        long plainBytes = 0;
+        long compressedBytes = 0;
+        long compressNanos = 0;
+        long plainExportNanos = 0;
+        long compressedExportNanos = 0;
+        StringBuilder export = new StringBuilder(COMPONENT_RESULT_SIZE * 2);
+        for (int i = 0; i < sizeInMb; i++) {
+            String data = ResultDataCodecTest.createResultData(random, COMPONENT_RESULT_SIZE);
+            plainBytes += data.getBytes(StandardCharsets.UTF_8).length;
+
+            long start = System.nanoTime();
+            String compressed = ResultDataCodec.compress(data);
+            compressNanos += System.nanoTime() - start;
+            // Base64 is ASCII: one byte per character
+            compressedBytes += compressed.length();
+
+            export.setLength(0);
+            start = System.nanoTime();
+            ResultDataCodec.decodeTo(data, export);
+            plainExportNanos += System.nanoTime() - start;
+
+            export.setLength(0);
+            start = System.nanoTime();
+            ResultDataCodec.decodeTo(compressed, export);
+            compressedExportNanos += System.nanoTime() - start;
+        }
+
+        Logger.info(ResultDataCompressionBenchmark.class.getSimpleName() + ": " + sizeInMb
+                + " MB result data - size in database: uncompressed " + plainBytes / 1024
+                + " KB, compressed " + compressedBytes / 1024 + " KB (ratio "
+                + String.format("%.1f", (double) plainBytes / compressedBytes) + ")");
+        Logger.info(ResultDataCompressionBenchmark.class.getSimpleName()
+                + ": compression " + throughput(plainBytes, compressNanos)
+                + " MB/s, export uncompressed " + throughput(plainBytes, plainExportNanos)
+                + " MB/s, export compressed " + throughput(plainBytes, compressedExportNanos)
+                + " MB/s");
+    }
+
+    private static long throughput(long bytes, long nanos) {
+        return nanos > 0 ? bytes * 1000000000L / nanos / (1024 * 1024) : 0;
+    }
+
+}
@@ -0,0 +1,207 @@
+package utils.common;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import daos.common.ComponentResultDao;
+import daos.common.StudyResultDao;
+import daos.common.UserDao;
+import general.TestHelper;
+import models.common.ComponentResult;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.User;
+import org.apache.commons.io.FileUtils;
+import org.fest.assertions.Fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.ApplicationLoader;
+import play.Environment;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.inject.guice.GuiceApplicationLoader;
+import services.gui.UserService;
+import services.publix.ResultCreator;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for class ResultDataStore and the ComponentResults that use it
+ */
+public class ResultDataStoreTest {
+
+    private static final String RESULT_DATA_PATH = "/tmp/test/result_data";
+
+    private Injector injector;
+
+    @Inject
+    private TestHelper testHelper;
+
+    @Inject
+    private JPAApi jpaApi;
+
+    @Inject
+    private ResultCreator resultCreator;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private StudyResultDao studyResultDao;
+
+    @Inject
+    private ComponentResultDao componentResultDao;
+
+    @Inject
+    private ResultDataStore resultDataStore;
+
+    @Before
+    public void startApp() throws Exception {
+        GuiceApplicationBuilder builder = new GuiceApplicationLoader()
+                .builder(new ApplicationLoader.Context(Environment.simple()))
+                .configure("jatos.resultData.path", RESULT_DATA_PATH);
+        injector = Guice.createInjector(builder.applicationModule());
+        injector.injectMembers(this);
+    }
+
+    @After
+    public void stopApp() throws Exception {
+        // Clean up
+        testHelper.removeAllStudies();
+        testHelper.removeStudyAssetsRootDir();
+        testHelper.removeAllStudyLogs();
+        FileUtils.deleteDirectory(new File(RESULT_DATA_PATH));
+    }
+
+    @Test
+    public void checkStoreAndRead() {
+        assertThat(resultDataStore.isEnabled()).isTrue();
+        byte[] data = "Some result data: äöü".getBytes(StandardCharsets.UTF_8);
+
+        String hash = resultDataStore.store(data);
+        assertThat(hash).isEqualTo(HashUtils.getHash(data, HashUtils.SHA_256));
+        assertThat(Files.exists(resultDataStore.getPath(hash))).isTrue();
+        assertThat(resultDataStore.read(hash)).isEqualTo("Some result data: äöü");
+        assertThat(resultDataStore.readPrefix(hash, 4)).isEqualTo("Some");
+        assertThat(resultDataStore.readPrefix(hash, 100))
+                .isEqualTo("Some result data: äöü");
+
+        // There is only one ResultDataStore that keeps track of the pending stores
+        assertThat(injector.getInstance(ResultDataStore.class)).isSameAs(resultDataStore);
+
+        // Same content is stored only once
+        assertThat(resultDataStore.store(data)).isEqualTo(hash);
+        resultDataStore.release(hash);
+        resultDataStore.release(hash);
+    }
+
+    @Test
+    public void checkComponentResultData() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.replaceData(componentResult, "first data");
+            componentResultDao.appendData(componentResult, ", appended data");
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            assertThat(componentResult.getDataHash()).isNotNull();
+            assertThat(componentResult.getDataSize()).isEqualTo(10L);
+            assertThat(componentResult.getDataPreview()).isEqualTo("first data");
+            assertThat(componentResultDao.getData(componentResult)).isEqualTo("first data, appended data");
+            assertThat(componentResultDao.getDataPrefix(componentResult, 5)).isEqualTo("first");
+            assertThat(componentResultDao.getDataPrefix(componentResult, 14)).isEqualTo("first data, ap");
+            assertThat(Files.exists(resultDataStore.getPath(componentResult.getDataHash())))
+                    .isTrue();
+        });
+    }
+
+    /**
+     * A file is removed together with the last ComponentResult that refers to it
+     */
+    @Test
+    public void checkRemoveUnusedFile() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+
+        Path path = jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResultDao.replaceData(componentResult, "data to remove");
+            return resultDataStore.getPath(componentResult.getDataHash());
+        });
+
+        jpaApi.withTransaction(() -> {
+            ComponentResult componentResult = componentResultDao.findById(componentResultId);
+            componentResult.getStudyResult().removeComponentResult(componentResult);
+            componentResultDao.removeAll(Collections.singletonList(componentResult));
+        });
+        assertThat(Files.exists(path)).isFalse();
+    }
+
+    /**
+     * A file that was stored in a transaction that is rolled back is removed
+     * again
+     */
+    @Test
+    public void checkRollbackRemovesFile() {
+        Study study = testHelper.createAndPersistExampleStudyForAdmin(injector);
+        long componentResultId = createComponentResult(study);
+        String data = "data of a rolled back transaction";
+        Path path = resultDataStore.getPath(HashUtils.getHash(
+                data.getBytes(StandardCharsets.UTF_8), HashUtils.SHA_256));
+
+        try {
+            jpaApi.withTransaction(() -> {
+                ComponentResult componentResult = componentResultDao
+                        .findById(componentResultId);
+                componentResultDao.replaceData(componentResult, data);
+                assertThat(Files.exists(path)).isTrue();
+                throw new IllegalStateException("rollback");
+            });
+            Fail.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(Files.exists(path)).isFalse();
+    }
+
+    /**
+     * A file isn't removed while a transaction that stored it isn't completed
+     * yet, even if no committed result refers to it
+     */
+    @Test
+    public void checkPendingFileIsNotRemoved() {
+        String hash = resultDataStore.store(
+                "pending data".getBytes(StandardCharsets.UTF_8));
+        assertThat(resultDataStore.removeIfUnused(hash, () -> true)).isFalse();
+        assertThat(Files.exists(resultDataStore.getPath(hash))).isTrue();
+
+        resultDataStore.release(hash);
+        assertThat(resultDataStore.removeIfUnused(hash, () -> false)).isFalse();
+        assertThat(resultDataStore.removeIfUnused(hash, () -> true)).isTrue();
+        assertThat(Files.exists(resultDataStore.getPath(hash))).isFalse();
+    }
+
+    private long createComponentResult(Study study) {
+        return jpaApi.withTransaction(() -> {
+            User admin = userDao.findByEmail(UserService.ADMIN_EMAIL);
+            StudyResult studyResult = resultCreator.createStudyResult(study,
+                    study.getDefaultBatch(), admin.getWorker());
+            ComponentResult componentResult = resultCreator.createComponentResult(studyResult,
+                    study.getFirstComponent());
+            studyResultDao.update(studyResult);
+            return componentResult.getId();
+        });
+    }
+
+}